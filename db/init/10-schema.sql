@@ -6,6 +6,12 @@
 USE secom;
 
 -- Drop existing tables if any (for clean reinstall)
+DROP TABLE IF EXISTS measurement_archive;
+DROP TABLE IF EXISTS lot_measurement_archive_staging;
+DROP TABLE IF EXISTS lot_quality_fact;
+DROP TABLE IF EXISTS measurement_ingest_batch;
+DROP TABLE IF EXISTS background_job;
+DROP TABLE IF EXISTS entity_change_log;
 DROP TABLE IF EXISTS feature_importance;
 DROP TABLE IF EXISTS lot_measurement;
 DROP TABLE IF EXISTS quality_result;
@@ -175,6 +181,7 @@ CREATE TABLE quality_result (
     reviewed_by INT DEFAULT NULL COMMENT 'FK to operator (who reviewed)',
     reviewed_at DATETIME COMMENT 'Review timestamp',
     disposition VARCHAR(20) DEFAULT 'pending' COMMENT 'Disposition: released, rework, scrap, pending, reviewed, etc.',
+    version INT NOT NULL DEFAULT 0 COMMENT 'Bumped by every update; disposition transitions compare it',
 
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
@@ -216,6 +223,108 @@ CREATE TABLE feature_importance (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
 COMMENT='Pre-computed feature importance for root cause analysis';
 
+-- ============================================================================
+-- REPLICATION SUPPORT TABLES
+-- ============================================================================
+
+-- Entity Change Log: One row per API write, used by API replicas to invalidate caches
+CREATE TABLE entity_change_log (
+    change_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    entity_type VARCHAR(50) NOT NULL COMMENT 'lot, quality_result, lot_measurement, feature_meta, equipment, ...',
+    entity_id BIGINT COMMENT 'Primary key of the changed row; NULL = every row of the type',
+    source_instance VARCHAR(64) NOT NULL COMMENT 'API instance that made the change',
+    changed_at DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+
+    INDEX idx_changed_at (changed_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
+COMMENT='Change feed for cross-replica cache invalidation (short retention)';
+
+-- Background Job: Long-running analytics and maintenance work submitted through /jobs
+CREATE TABLE background_job (
+    job_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    job_type VARCHAR(50) NOT NULL COMMENT 'e.g., feature-importance',
+    status VARCHAR(20) NOT NULL DEFAULT 'queued' COMMENT 'queued, running, succeeded, failed, cancelled',
+    priority INT NOT NULL DEFAULT 5 COMMENT '0 (lowest) to 9 (highest)',
+    parameters JSON COMMENT 'Job-type specific input',
+    progress DECIMAL(5,4) NOT NULL DEFAULT 0 COMMENT '0.0 to 1.0',
+    progress_message VARCHAR(255),
+    result JSON COMMENT 'Job output, set when succeeded',
+    error_message TEXT,
+    cancel_requested BOOLEAN NOT NULL DEFAULT FALSE,
+    attempts INT NOT NULL DEFAULT 0 COMMENT 'Times the job was started',
+    owner_instance VARCHAR(64) COMMENT 'API instance that queued or runs the job',
+    heartbeat_at DATETIME(3) COMMENT 'Refreshed by the owner while the job is queued or running',
+    created_at DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    started_at DATETIME(3),
+    finished_at DATETIME(3),
+
+    INDEX idx_status_heartbeat (status, heartbeat_at),
+    INDEX idx_owner_status (owner_instance, status),
+    INDEX idx_created_at (created_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
+COMMENT='Asynchronous jobs; state survives API restarts';
+
+-- Measurement Ingest Batch: Ledger of write-ahead log ranges flushed to lot_measurement
+CREATE TABLE measurement_ingest_batch (
+    batch_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    log_id VARCHAR(64) NOT NULL COMMENT 'Write-ahead log of the API instance that flushed the batch',
+    first_seq BIGINT NOT NULL COMMENT 'First log sequence number in the batch',
+    last_seq BIGINT NOT NULL COMMENT 'Last log sequence number in the batch',
+    record_count INT NOT NULL COMMENT 'Rows inserted (replayed rows already flushed are skipped)',
+    flushed_at DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+
+    INDEX idx_log_range (log_id, last_seq, first_seq)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
+COMMENT='Makes write-ahead log replay idempotent; rows below the log checkpoint are purged';
+
+-- Lot Quality Fact: One narrow row per lot with its quality outcome, maintained by the API on
+-- lot and quality_result writes. Every index carries all filter columns, with lot_id right after
+-- production_start, so /lots/search filters, pages and counts from the index alone.
+CREATE TABLE lot_quality_fact (
+    lot_id INT PRIMARY KEY,
+    lot_number VARCHAR(100) NOT NULL,
+    product_type_id INT NOT NULL,
+    equipment_id INT NOT NULL,
+    operator_id INT NOT NULL,
+    shift_id INT NOT NULL,
+    status ENUM('in_progress', 'completed', 'quality_hold', 'released', 'scrapped') COMMENT 'copied from lot.status, which may be NULL',
+    production_start DATETIME NOT NULL,
+    result_id INT COMMENT 'quality_result row the outcome was copied from',
+    classification TINYINT NOT NULL DEFAULT 0 COMMENT '-1 = pass, 1 = fail, 0 = not tested',
+    defect_type VARCHAR(100),
+    predicted_risk DECIMAL(5,4),
+
+    FOREIGN KEY (lot_id) REFERENCES lot(lot_id) ON DELETE CASCADE,
+
+    INDEX idx_fact_start (production_start, lot_id, equipment_id, product_type_id, shift_id, operator_id, status, classification, defect_type, predicted_risk),
+    INDEX idx_fact_equipment (equipment_id, production_start, lot_id, product_type_id, shift_id, operator_id, status, classification, defect_type, predicted_risk),
+    INDEX idx_fact_product (product_type_id, production_start, lot_id, equipment_id, shift_id, operator_id, status, classification, defect_type, predicted_risk),
+    INDEX idx_fact_status (status, production_start, lot_id, equipment_id, product_type_id, shift_id, operator_id, classification, defect_type, predicted_risk),
+    INDEX idx_fact_outcome (classification, defect_type, production_start, lot_id, equipment_id, product_type_id, shift_id, operator_id, status, predicted_risk),
+    INDEX idx_fact_risk (predicted_risk, production_start, lot_id, equipment_id, product_type_id, shift_id, operator_id, status, classification, defect_type),
+    INDEX idx_fact_result (result_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
+COMMENT='Denormalized lot + quality outcome for index-only lot search';
+
+-- Measurement Archive: lot_measurement partitions moved to compressed files by the API when
+-- secom.partitioning is enabled. Measurement reads consult it to include archived rows.
+CREATE TABLE measurement_archive (
+    archive_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    partition_name VARCHAR(64) NOT NULL UNIQUE COMMENT 'Dropped lot_measurement partition, e.g. p200807',
+    range_start DATETIME NOT NULL COMMENT 'Lowest measured_at the partition could hold (inclusive)',
+    range_end DATETIME NOT NULL COMMENT 'Partition upper bound (exclusive)',
+    row_count BIGINT NOT NULL,
+    out_of_spec_count BIGINT NOT NULL,
+    min_lot_id INT COMMENT 'NULL when the partition was empty',
+    max_lot_id INT,
+    file_name VARCHAR(255) NOT NULL COMMENT 'Gzipped TSV under secom.partitioning.archive-dir',
+    file_bytes BIGINT NOT NULL,
+    archived_at DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+
+    INDEX idx_archive_range (range_start, range_end)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
+COMMENT='Cold measurement tier; rows live in the files, not in lot_measurement';
+
 -- ============================================================================
 -- ANALYTICS VIEWS
 -- ============================================================================
@@ -0,0 +1,17 @@
+-- ============================================================================
+-- Populate lot_quality_fact from the loaded production data
+-- The API keeps it current afterwards (and backfills it at startup if lots are missing)
+-- ============================================================================
+
+USE secom;
+
+INSERT INTO lot_quality_fact
+    (lot_id, lot_number, product_type_id, equipment_id, operator_id, shift_id, status, production_start,
+     result_id, classification, defect_type, predicted_risk)
+SELECT
+    l.lot_id, l.lot_number, l.product_type_id, l.equipment_id, l.operator_id, l.shift_id, l.status, l.production_start,
+    qr.result_id, COALESCE(qr.classification, 0), qr.defect_type, qr.predicted_risk
+FROM lot l
+LEFT JOIN quality_result qr ON qr.lot_id = l.lot_id;
+
+SELECT COUNT(*) AS lot_quality_fact_rows FROM lot_quality_fact;
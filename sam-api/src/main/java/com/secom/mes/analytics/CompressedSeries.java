@@ -0,0 +1,427 @@
+package com.secom.mes.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time-ordered (epoch second, value) points of one feature, compressed Gorilla style in
+ * blocks of {@value #BLOCK_POINTS} points.
+ *
+ * Timestamps are stored as the delta of the previous delta and values as the XOR with the
+ * previous value, both with variable-length codes, so regularly spaced points whose values
+ * share most bits cost a few bits each instead of sixteen bytes. Every block keeps its time
+ * range and value extremes: range scans skip blocks outside the range without decoding them,
+ * and min-max downsampling takes a block's extremes from its header when the whole block
+ * falls into one bucket. Appended points are buffered uncompressed until a block is full.
+ */
+public class CompressedSeries {
+
+    public static final int BLOCK_POINTS = 128;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private final long[] tailTimes = new long[BLOCK_POINTS];
+    private final double[] tailValues = new double[BLOCK_POINTS];
+    private int tailSize;
+    /** Encoded copy of the tail for readers; null when the tail changed since. */
+    private Block tailBlock;
+    private int size;
+
+    /** Points read from a time range, in time order. */
+    public record Range(long[] times, double[] values, int size, int pointsInRange, int blocksDecoded, int blocksTotal) {
+    }
+
+    /** Builds a series from {@code count} points sorted by time. */
+    public static CompressedSeries of(long[] times, double[] values, int count) {
+        CompressedSeries series = new CompressedSeries();
+        int full = count / BLOCK_POINTS * BLOCK_POINTS;
+        for (int from = 0; from < full; from += BLOCK_POINTS) {
+            series.blocks.add(Block.encode(times, values, from, BLOCK_POINTS));
+        }
+        series.tailSize = count - full;
+        System.arraycopy(times, full, series.tailTimes, 0, series.tailSize);
+        System.arraycopy(values, full, series.tailValues, 0, series.tailSize);
+        series.size = count;
+        return series;
+    }
+
+    /** Appends a point; returns false and stores nothing if it is older than the last point. */
+    public synchronized boolean append(long time, double value) {
+        if (size > 0 && time < lastTime()) {
+            return false;
+        }
+        tailTimes[tailSize] = time;
+        tailValues[tailSize] = value;
+        tailSize++;
+        size++;
+        tailBlock = null;
+        if (tailSize == BLOCK_POINTS) {
+            blocks.add(Block.encode(tailTimes, tailValues, 0, BLOCK_POINTS));
+            tailSize = 0;
+        }
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Encoded size of the sealed blocks plus the raw tail. */
+    public synchronized long sizeInBytes() {
+        long bytes = (long) tailSize * 16;
+        for (Block block : blocks) {
+            bytes += block.bits.length * 8L + 64;
+        }
+        return bytes;
+    }
+
+    /** Time of the first point; only meaningful when the series is not empty. */
+    public synchronized long firstTime() {
+        return blocks.isEmpty() ? tailTimes[0] : blocks.get(0).firstTime;
+    }
+
+    /** Time of the last point; only meaningful when the series is not empty. */
+    public synchronized long lastTime() {
+        return tailSize > 0 ? tailTimes[tailSize - 1] : blocks.get(blocks.size() - 1).lastTime;
+    }
+
+    /** Every block including the encoded tail; blocks are immutable, so readers decode outside the lock. */
+    private synchronized Block[] snapshot() {
+        if (tailSize == 0) {
+            return blocks.toArray(new Block[0]);
+        }
+        if (tailBlock == null) {
+            tailBlock = Block.encode(tailTimes, tailValues, 0, tailSize);
+        }
+        Block[] all = blocks.toArray(new Block[blocks.size() + 1]);
+        all[blocks.size()] = tailBlock;
+        return all;
+    }
+
+    /** Points with {@code from <= time <= to}. */
+    public Range read(long from, long to) {
+        Block[] all = snapshot();
+        int first = firstBlockEndingAtOrAfter(all, from);
+        int capacity = 0;
+        for (int b = first; b < all.length && all[b].firstTime <= to; b++) {
+            capacity += all[b].count;
+        }
+        long[] times = new long[capacity];
+        double[] values = new double[capacity];
+        int size = 0;
+        int decoded = 0;
+        for (int b = first; b < all.length && all[b].firstTime <= to; b++) {
+            Block block = all[b];
+            block.decode(times, values, size);
+            decoded++;
+            int end = size + block.count;
+            for (int i = size; i < end; i++) {
+                if (times[i] >= from && times[i] <= to) {
+                    times[size] = times[i];
+                    values[size] = values[i];
+                    size++;
+                }
+            }
+        }
+        return new Range(times, values, size, size, decoded, all.length);
+    }
+
+    /**
+     * Splits [from, to] into equal time buckets and keeps the lowest and highest point of each,
+     * in time order, so spikes survive downsampling. Blocks lying inside one bucket are not
+     * decoded.
+     */
+    public Range minMax(long from, long to, int buckets) {
+        Block[] all = snapshot();
+        long width = Math.max(1, (to - from) / buckets + 1);
+        double[] min = new double[buckets];
+        double[] max = new double[buckets];
+        long[] minTime = new long[buckets];
+        long[] maxTime = new long[buckets];
+        boolean[] filled = new boolean[buckets];
+        long[] times = new long[BLOCK_POINTS];
+        double[] values = new double[BLOCK_POINTS];
+        int inRange = 0;
+        int decoded = 0;
+        for (int b = firstBlockEndingAtOrAfter(all, from); b < all.length && all[b].firstTime <= to; b++) {
+            Block block = all[b];
+            int firstBucket = (int) ((Math.max(block.firstTime, from) - from) / width);
+            if (block.firstTime >= from && block.lastTime <= to
+                    && firstBucket == (int) ((block.lastTime - from) / width)) {
+                inRange += block.count;
+                merge(firstBucket, block.minTime, block.min, min, minTime, max, maxTime, filled);
+                merge(firstBucket, block.maxTime, block.max, min, minTime, max, maxTime, filled);
+                continue;
+            }
+            block.decode(times, values, 0);
+            decoded++;
+            for (int i = 0; i < block.count; i++) {
+                if (times[i] >= from && times[i] <= to) {
+                    inRange++;
+                    merge((int) ((times[i] - from) / width), times[i], values[i], min, minTime, max, maxTime, filled);
+                }
+            }
+        }
+
+        long[] outTimes = new long[buckets * 2];
+        double[] outValues = new double[buckets * 2];
+        int size = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            if (!filled[bucket]) {
+                continue;
+            }
+            boolean minFirst = minTime[bucket] <= maxTime[bucket];
+            outTimes[size] = minFirst ? minTime[bucket] : maxTime[bucket];
+            outValues[size] = minFirst ? min[bucket] : max[bucket];
+            size++;
+            if (minTime[bucket] != maxTime[bucket] || min[bucket] != max[bucket]) {
+                outTimes[size] = minFirst ? maxTime[bucket] : minTime[bucket];
+                outValues[size] = minFirst ? max[bucket] : min[bucket];
+                size++;
+            }
+        }
+        return new Range(outTimes, outValues, size, inRange, decoded, all.length);
+    }
+
+    private static void merge(int bucket, long time, double value,
+                              double[] min, long[] minTime, double[] max, long[] maxTime, boolean[] filled) {
+        if (!filled[bucket]) {
+            filled[bucket] = true;
+            min[bucket] = max[bucket] = value;
+            minTime[bucket] = maxTime[bucket] = time;
+            return;
+        }
+        if (value < min[bucket]) {
+            min[bucket] = value;
+            minTime[bucket] = time;
+        }
+        if (value > max[bucket]) {
+            max[bucket] = value;
+            maxTime[bucket] = time;
+        }
+    }
+
+    private static int firstBlockEndingAtOrAfter(Block[] all, long time) {
+        int low = 0;
+        int high = all.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (all[mid].lastTime < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** One compressed run of points; the header fields are kept uncompressed for skipping. */
+    private static final class Block {
+
+        final long[] bits;
+        final int count;
+        final long firstTime;
+        final long lastTime;
+        final double min;
+        final long minTime;
+        final double max;
+        final long maxTime;
+
+        private Block(long[] bits, int count, long firstTime, long lastTime,
+                      double min, long minTime, double max, long maxTime) {
+            this.bits = bits;
+            this.count = count;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.min = min;
+            this.minTime = minTime;
+            this.max = max;
+            this.maxTime = maxTime;
+        }
+
+        static Block encode(long[] times, double[] values, int from, int count) {
+            BitWriter out = new BitWriter(count);
+            long previousTime = times[from];
+            long previousDelta = 0;
+            long previousBits = Double.doubleToRawLongBits(values[from]);
+            int previousLeading = -1;
+            int previousTrailing = 0;
+            double min = values[from];
+            double max = values[from];
+            long minTime = previousTime;
+            long maxTime = previousTime;
+            out.write(previousBits, 64);
+            for (int i = from + 1; i < from + count; i++) {
+                long delta = times[i] - previousTime;
+                writeDeltaOfDelta(out, delta - previousDelta);
+                previousDelta = delta;
+                previousTime = times[i];
+
+                double value = values[i];
+                if (value < min) {
+                    min = value;
+                    minTime = times[i];
+                }
+                if (value > max) {
+                    max = value;
+                    maxTime = times[i];
+                }
+                long bits = Double.doubleToRawLongBits(value);
+                long xor = bits ^ previousBits;
+                previousBits = bits;
+                if (xor == 0) {
+                    out.write(0, 1);
+                    continue;
+                }
+                int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                    // Changed bits fit in the previous window: '10' + the window
+                    out.write(0b10, 2);
+                    out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                } else {
+                    // '11' + 5 bits leading zeros + 6 bits length - 1 + the changed bits
+                    int significant = 64 - leading - trailing;
+                    out.write(0b11, 2);
+                    out.write(leading, 5);
+                    out.write(significant - 1, 6);
+                    out.write(xor >>> trailing, significant);
+                    previousLeading = leading;
+                    previousTrailing = trailing;
+                }
+            }
+            return new Block(out.toArray(), count, times[from], times[from + count - 1], min, minTime, max, maxTime);
+        }
+
+        /** Writes the block's points to {@code times} and {@code values} from {@code offset}. */
+        void decode(long[] times, double[] values, int offset) {
+            BitReader in = new BitReader(bits);
+            long time = firstTime;
+            long delta = 0;
+            long valueBits = in.read(64);
+            int leading = 0;
+            int trailing = 0;
+            times[offset] = time;
+            values[offset] = Double.longBitsToDouble(valueBits);
+            for (int i = 1; i < count; i++) {
+                delta += readDeltaOfDelta(in);
+                time += delta;
+                if (in.read(1) == 1) {
+                    if (in.read(1) == 1) {
+                        leading = (int) in.read(5);
+                        trailing = 64 - leading - ((int) in.read(6) + 1);
+                    }
+                    valueBits ^= in.read(64 - leading - trailing) << trailing;
+                }
+                times[offset + i] = time;
+                values[offset + i] = Double.longBitsToDouble(valueBits);
+            }
+        }
+
+        /** 0 | 10+7 | 110+9 | 1110+12 | 11110+32 | 11111+64 bits, two's complement. */
+        private static void writeDeltaOfDelta(BitWriter out, long dod) {
+            if (dod == 0) {
+                out.write(0, 1);
+            } else if (dod >= -64 && dod <= 63) {
+                out.write(0b10, 2);
+                out.write(dod, 7);
+            } else if (dod >= -256 && dod <= 255) {
+                out.write(0b110, 3);
+                out.write(dod, 9);
+            } else if (dod >= -2048 && dod <= 2047) {
+                out.write(0b1110, 4);
+                out.write(dod, 12);
+            } else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+                out.write(0b11110, 5);
+                out.write(dod, 32);
+            } else {
+                out.write(0b11111, 5);
+                out.write(dod, 64);
+            }
+        }
+
+        private static long readDeltaOfDelta(BitReader in) {
+            if (in.read(1) == 0) {
+                return 0;
+            }
+            if (in.read(1) == 0) {
+                return signed(in.read(7), 7);
+            }
+            if (in.read(1) == 0) {
+                return signed(in.read(9), 9);
+            }
+            if (in.read(1) == 0) {
+                return signed(in.read(12), 12);
+            }
+            if (in.read(1) == 0) {
+                return signed(in.read(32), 32);
+            }
+            return in.read(64);
+        }
+
+        private static long signed(long value, int bits) {
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+    }
+
+    /** Appends bit fields most significant bit first. */
+    private static final class BitWriter {
+
+        private long[] words;
+        private long position;
+
+        BitWriter(int points) {
+            words = new long[Math.max(2, points / 2)];
+        }
+
+        /** Writes the low {@code bits} bits of {@code value}, 1 to 64. */
+        void write(long value, int bits) {
+            if (bits < 64) {
+                value &= (1L << bits) - 1;
+            }
+            int word = (int) (position >>> 6);
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int free = 64 - (int) (position & 63);
+            if (bits <= free) {
+                words[word] |= value << (free - bits);
+            } else {
+                int overflow = bits - free;
+                words[word] |= value >>> overflow;
+                words[word + 1] |= value << (64 - overflow);
+            }
+            position += bits;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (int) ((position + 63) >>> 6));
+        }
+    }
+
+    private static final class BitReader {
+
+        private final long[] words;
+        private long position;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int bits) {
+            int word = (int) (position >>> 6);
+            int offset = (int) (position & 63);
+            int free = 64 - offset;
+            long result;
+            if (bits <= free) {
+                result = (words[word] << offset) >>> (64 - bits);
+            } else {
+                int overflow = bits - free;
+                long high = (words[word] << offset) >>> offset;
+                result = (high << overflow) | (words[word + 1] >>> (64 - overflow));
+            }
+            position += bits;
+            return result;
+        }
+    }
+}
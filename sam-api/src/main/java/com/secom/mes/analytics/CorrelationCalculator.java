@@ -0,0 +1,145 @@
+package com.secom.mes.analytics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Blocked, multi-threaded Pearson correlation over the columns of a {@link FeatureMatrix}
+ * with pairwise deletion: each pair only uses lots where both features were measured.
+ *
+ * Columns are centered and split into a value array (0 where missing) and a 0/1 mask,
+ * which turns every pairwise sum into a plain dot product. Feature pairs are processed
+ * in square tiles and lots in chunks so both operands of the inner loops stay in cache.
+ */
+public final class CorrelationCalculator {
+
+    private static final int FEATURE_BLOCK = 32;
+    private static final int LOT_CHUNK = 2048;
+    private static final int MIN_PAIR_COUNT = 3;
+
+    private CorrelationCalculator() {
+    }
+
+    public static CorrelationMatrix compute(FeatureMatrix matrix) {
+        return compute(matrix, null);
+    }
+
+    /**
+     * @param rowFilter optional per-row inclusion flags (length >= lot count); null includes all lots
+     */
+    public static CorrelationMatrix compute(FeatureMatrix matrix, boolean[] rowFilter) {
+        long started = System.currentTimeMillis();
+        long sourceVersion = matrix.version();
+        int lots = matrix.lotCount();
+        int p = matrix.featureCount();
+
+        double[][] values = new double[p][];
+        double[][] masks = new double[p][];
+        IntStream.range(0, p).parallel().forEach(f -> {
+            double[] source = matrix.column(f);
+            double sum = 0;
+            int count = 0;
+            for (int r = 0; r < lots; r++) {
+                double v = source[r];
+                if (!Double.isNaN(v) && (rowFilter == null || rowFilter[r])) {
+                    sum += v;
+                    count++;
+                }
+            }
+            double mean = count > 0 ? sum / count : 0;
+            double[] centered = new double[lots];
+            double[] mask = new double[lots];
+            for (int r = 0; r < lots; r++) {
+                double v = source[r];
+                if (!Double.isNaN(v) && (rowFilter == null || rowFilter[r])) {
+                    centered[r] = v - mean;
+                    mask[r] = 1.0;
+                }
+            }
+            values[f] = centered;
+            masks[f] = mask;
+        });
+
+        float[] coefficients = new float[p * p];
+        int[] pairCounts = new int[p * p];
+
+        List<int[]> tiles = new ArrayList<>();
+        for (int bi = 0; bi < p; bi += FEATURE_BLOCK) {
+            for (int bj = bi; bj < p; bj += FEATURE_BLOCK) {
+                tiles.add(new int[]{bi, bj});
+            }
+        }
+
+        tiles.parallelStream().forEach(tile -> computeTile(values, masks, lots, p, tile[0], tile[1], coefficients, pairCounts));
+
+        int[] featureIds = matrix.featureIds();
+        return new CorrelationMatrix(sourceVersion, featureIds, coefficients, pairCounts, System.currentTimeMillis() - started);
+    }
+
+    private static void computeTile(double[][] values, double[][] masks, int lots, int p,
+                                    int rowStart, int colStart, float[] coefficients, int[] pairCounts) {
+        int rowEnd = Math.min(rowStart + FEATURE_BLOCK, p);
+        int colEnd = Math.min(colStart + FEATURE_BLOCK, p);
+        int rows = rowEnd - rowStart;
+        int cols = colEnd - colStart;
+
+        // Per pair: n, sum x, sum y, sum xx, sum yy, sum xy
+        double[] acc = new double[rows * cols * 6];
+
+        for (int chunkStart = 0; chunkStart < lots; chunkStart += LOT_CHUNK) {
+            int chunkEnd = Math.min(chunkStart + LOT_CHUNK, lots);
+            for (int i = rowStart; i < rowEnd; i++) {
+                double[] x = values[i];
+                double[] mx = masks[i];
+                int jFirst = rowStart == colStart ? i : colStart;
+                for (int j = jFirst; j < colEnd; j++) {
+                    double[] y = values[j];
+                    double[] my = masks[j];
+                    double n = 0, sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+                    for (int r = chunkStart; r < chunkEnd; r++) {
+                        double xr = x[r];
+                        double yr = y[r];
+                        double mxr = mx[r];
+                        double myr = my[r];
+                        n += mxr * myr;
+                        sx += xr * myr;
+                        sy += yr * mxr;
+                        sxx += xr * xr * myr;
+                        syy += yr * yr * mxr;
+                        sxy += xr * yr;
+                    }
+                    int a = ((i - rowStart) * cols + (j - colStart)) * 6;
+                    acc[a] += n;
+                    acc[a + 1] += sx;
+                    acc[a + 2] += sy;
+                    acc[a + 3] += sxx;
+                    acc[a + 4] += syy;
+                    acc[a + 5] += sxy;
+                }
+            }
+        }
+
+        for (int i = rowStart; i < rowEnd; i++) {
+            int jFirst = rowStart == colStart ? i : colStart;
+            for (int j = jFirst; j < colEnd; j++) {
+                int a = ((i - rowStart) * cols + (j - colStart)) * 6;
+                double n = acc[a];
+                float r = Float.NaN;
+                if (n >= MIN_PAIR_COUNT) {
+                    double covariance = acc[a + 5] - acc[a + 1] * acc[a + 2] / n;
+                    double varianceX = acc[a + 3] - acc[a + 1] * acc[a + 1] / n;
+                    double varianceY = acc[a + 4] - acc[a + 2] * acc[a + 2] / n;
+                    double denominator = Math.sqrt(varianceX * varianceY);
+                    if (denominator > 0) {
+                        r = (float) Math.max(-1.0, Math.min(1.0, covariance / denominator));
+                    }
+                }
+                coefficients[i * p + j] = r;
+                coefficients[j * p + i] = r;
+                pairCounts[i * p + j] = (int) n;
+                pairCounts[j * p + i] = (int) n;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.secom.mes.analytics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Symmetric feature x feature Pearson correlation matrix. Undefined coefficients
+ * (constant feature, too few shared lots) are NaN.
+ */
+public class CorrelationMatrix {
+
+    /** "CORR" */
+    public static final int BINARY_MAGIC = 0x434F5252;
+    public static final int BINARY_FORMAT_VERSION = 1;
+
+    private final long sourceVersion;
+    private final int[] featureIds;
+    private final float[] coefficients;
+    private final int[] pairCounts;
+    private final long computeMillis;
+
+    public CorrelationMatrix(long sourceVersion, int[] featureIds, float[] coefficients, int[] pairCounts, long computeMillis) {
+        this.sourceVersion = sourceVersion;
+        this.featureIds = featureIds;
+        this.coefficients = coefficients;
+        this.pairCounts = pairCounts;
+        this.computeMillis = computeMillis;
+    }
+
+    public long sourceVersion() {
+        return sourceVersion;
+    }
+
+    public int size() {
+        return featureIds.length;
+    }
+
+    public int featureId(int index) {
+        return featureIds[index];
+    }
+
+    public float coefficient(int i, int j) {
+        return coefficients[i * featureIds.length + j];
+    }
+
+    public int pairCount(int i, int j) {
+        return pairCounts[i * featureIds.length + j];
+    }
+
+    public long computeMillis() {
+        return computeMillis;
+    }
+
+    public int indexOf(int featureId) {
+        for (int i = 0; i < featureIds.length; i++) {
+            if (featureIds[i] == featureId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compact big-endian encoding: magic, format version, source version (long), feature count n,
+     * n feature IDs, then the upper triangle including the diagonal as float32, row by row.
+     */
+    public byte[] toBinary() {
+        int n = featureIds.length;
+        int triangle = n * (n + 1) / 2;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 8 + 4 + 4 * n + 4 * triangle);
+        buffer.putInt(BINARY_MAGIC);
+        buffer.putInt(BINARY_FORMAT_VERSION);
+        buffer.putLong(sourceVersion);
+        buffer.putInt(n);
+        for (int featureId : featureIds) {
+            buffer.putInt(featureId);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                buffer.putFloat(coefficients[i * n + j]);
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,146 @@
+package com.secom.mes.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Quantile-binned copy of the feature matrix columns for histogram split finding.
+ *
+ * Each value becomes one unsigned byte per (feature, row): bin 0 holds missing values and bins
+ * 1..n hold roughly equal shares of the measured values of the rows the bins were built from.
+ * A split on bin b sends bins 1..b one way, so split search needs two counts per bin instead of
+ * sorting values at every node.
+ */
+public class FeatureBins {
+
+    public static final int MISSING = 0;
+    public static final int MAX_BINS = 255;
+
+    private final int[] featureIds;
+    private final byte[][] codes;
+    private final double[][] upperBounds;
+    private final int[] measured;
+
+    private FeatureBins(int[] featureIds, byte[][] codes, double[][] upperBounds, int[] measured) {
+        this.featureIds = featureIds;
+        this.codes = codes;
+        this.upperBounds = upperBounds;
+        this.measured = measured;
+    }
+
+    /**
+     * Bins every feature over {@code rows}; codes are indexed by matrix row and only set for those rows.
+     *
+     * @param maxBins bins for measured values per feature, 2 to {@value #MAX_BINS}
+     */
+    public static FeatureBins build(FeatureMatrix matrix, int[] rows, int maxBins, ForkJoinPool pool) {
+        if (maxBins < 2 || maxBins > MAX_BINS) {
+            throw new IllegalArgumentException("maxBins must be between 2 and " + MAX_BINS);
+        }
+        int features = matrix.featureCount();
+        int lots = matrix.lotCount();
+        byte[][] codes = new byte[features][];
+        double[][] upperBounds = new double[features][];
+        int[] measured = new int[features];
+        List<Callable<Void>> tasks = new ArrayList<>(features);
+        for (int f = 0; f < features; f++) {
+            int feature = f;
+            tasks.add(() -> {
+                double[] column = matrix.column(feature);
+                double[] values = new double[rows.length];
+                int n = 0;
+                for (int row : rows) {
+                    if (!Double.isNaN(column[row])) {
+                        values[n++] = column[row];
+                    }
+                }
+                Arrays.sort(values, 0, n);
+                double[] bounds = quantileBounds(values, n, maxBins);
+                byte[] featureCodes = new byte[lots];
+                for (int row : rows) {
+                    featureCodes[row] = (byte) bin(bounds, column[row]);
+                }
+                codes[feature] = featureCodes;
+                upperBounds[feature] = bounds;
+                measured[feature] = n;
+                return null;
+            });
+        }
+        pool.invokeAll(tasks).forEach(task -> {
+            try {
+                task.get();
+            } catch (Exception e) {
+                throw new IllegalStateException("Binning features failed: " + e.getMessage(), e);
+            }
+        });
+        return new FeatureBins(matrix.featureIds(), codes, upperBounds, measured);
+    }
+
+    /** Distinct upper bounds of the measured bins; the last bin is open-ended. */
+    private static double[] quantileBounds(double[] sorted, int n, int maxBins) {
+        double[] bounds = new double[maxBins];
+        int count = 0;
+        for (int b = 1; b < maxBins && n > 0; b++) {
+            double bound = sorted[(int) ((long) b * n / maxBins)];
+            if (count == 0 || bound > bounds[count - 1]) {
+                bounds[count++] = bound;
+            }
+        }
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /** 1 + the number of bounds strictly below the value; 0 for missing. */
+    private static int bin(double[] bounds, double value) {
+        if (Double.isNaN(value)) {
+            return MISSING;
+        }
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bounds[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low + 1;
+    }
+
+    public int featureCount() {
+        return featureIds.length;
+    }
+
+    public int featureId(int feature) {
+        return featureIds[feature];
+    }
+
+    /** Bins of a feature including the missing bin. */
+    public int binCount(int feature) {
+        return upperBounds[feature].length + 2;
+    }
+
+    /** Bin of a row's value; 0 if missing. */
+    public int code(int feature, int row) {
+        return codes[feature][row] & 0xFF;
+    }
+
+    /** Raw codes of a feature, indexed by matrix row; mask with 0xFF. */
+    public byte[] codes(int feature) {
+        return codes[feature];
+    }
+
+    /** Rows the bins were built from that have a value for the feature. */
+    public int measuredCount(int feature) {
+        return measured[feature];
+    }
+
+    /** Largest value falling in bin {@code bin} (1-based), or +infinity for the last bin. */
+    public double upperBound(int feature, int bin) {
+        double[] bounds = upperBounds[feature];
+        return bin - 1 < bounds.length ? bounds[bin - 1] : Double.POSITIVE_INFINITY;
+    }
+}
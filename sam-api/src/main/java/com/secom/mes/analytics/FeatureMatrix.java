@@ -0,0 +1,165 @@
+package com.secom.mes.analytics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dense lot x feature matrix held as one primitive column per feature.
+ * Missing measurements are stored as NaN. Rows are appended as lots arrive;
+ * every mutation bumps {@link #version()} so derived caches can detect staleness.
+ *
+ * Writers are serialized on the instance. Readers take {@link #lotCount()} first
+ * and then read column arrays, which are always at least that long.
+ */
+public class FeatureMatrix {
+
+    public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    private final int[] featureIds;
+    private final Map<Integer, Integer> featureColumns = new HashMap<>();
+    private final Map<Integer, Integer> lotRows = new HashMap<>();
+
+    private int[] lotIds;
+    private int[] equipmentIds;
+    private int[] classifications;
+    private String[] defectTypes;
+    private long[] measuredAt;
+    private double[][] columns;
+
+    private volatile int lotCount;
+    private volatile long version;
+
+    public FeatureMatrix(int[] featureIds, int initialLotCapacity) {
+        this.featureIds = featureIds.clone();
+        for (int c = 0; c < featureIds.length; c++) {
+            featureColumns.put(featureIds[c], c);
+        }
+        int capacity = Math.max(16, initialLotCapacity);
+        lotIds = new int[capacity];
+        equipmentIds = new int[capacity];
+        classifications = new int[capacity];
+        defectTypes = new String[capacity];
+        measuredAt = new long[capacity];
+        columns = new double[featureIds.length][];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = new double[capacity];
+            Arrays.fill(columns[c], Double.NaN);
+        }
+    }
+
+    /**
+     * Appends a lot row (all features missing) or returns the existing row for the lot.
+     * Classification uses the quality_result convention: -1 pass, 1 fail, 0 not yet tested.
+     */
+    public synchronized int addLot(int lotId, int equipmentId, int classification, String defectType, long measuredAtEpochSecond) {
+        Integer existing = lotRows.get(lotId);
+        if (existing != null) {
+            return existing;
+        }
+        int row = lotCount;
+        if (row == lotIds.length) {
+            grow(row * 2);
+        }
+        lotIds[row] = lotId;
+        equipmentIds[row] = equipmentId;
+        classifications[row] = classification;
+        defectTypes[row] = defectType;
+        measuredAt[row] = measuredAtEpochSecond;
+        lotRows.put(lotId, row);
+        lotCount = row + 1;
+        version++;
+        return row;
+    }
+
+    public synchronized void set(int row, int column, double value) {
+        columns[column][row] = value;
+        version++;
+    }
+
+    public synchronized void setOutcome(int row, int classification, String defectType) {
+        classifications[row] = classification;
+        defectTypes[row] = defectType;
+        version++;
+    }
+
+    public synchronized void setMeasuredAt(int row, long measuredAtEpochSecond) {
+        measuredAt[row] = measuredAtEpochSecond;
+        version++;
+    }
+
+    private void grow(int capacity) {
+        lotIds = Arrays.copyOf(lotIds, capacity);
+        equipmentIds = Arrays.copyOf(equipmentIds, capacity);
+        classifications = Arrays.copyOf(classifications, capacity);
+        defectTypes = Arrays.copyOf(defectTypes, capacity);
+        measuredAt = Arrays.copyOf(measuredAt, capacity);
+        for (int c = 0; c < columns.length; c++) {
+            int oldLength = columns[c].length;
+            double[] grown = Arrays.copyOf(columns[c], capacity);
+            Arrays.fill(grown, oldLength, capacity, Double.NaN);
+            columns[c] = grown;
+        }
+    }
+
+    public int lotCount() {
+        return lotCount;
+    }
+
+    public int featureCount() {
+        return featureIds.length;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /** Row index for a lot, or -1 if the lot is not in the matrix. */
+    public synchronized int rowOf(int lotId) {
+        Integer row = lotRows.get(lotId);
+        return row != null ? row : -1;
+    }
+
+    /** Column index for a feature, or -1 if the feature is not in the matrix. */
+    public int columnOf(int featureId) {
+        Integer column = featureColumns.get(featureId);
+        return column != null ? column : -1;
+    }
+
+    public int featureId(int column) {
+        return featureIds[column];
+    }
+
+    public int[] featureIds() {
+        return featureIds.clone();
+    }
+
+    /** Live column array; only the first {@link #lotCount()} entries are meaningful. */
+    public double[] column(int column) {
+        return columns[column];
+    }
+
+    public double value(int row, int column) {
+        return columns[column][row];
+    }
+
+    public int lotId(int row) {
+        return lotIds[row];
+    }
+
+    public int equipmentId(int row) {
+        return equipmentIds[row];
+    }
+
+    public int classification(int row) {
+        return classifications[row];
+    }
+
+    public String defectType(int row) {
+        return defectTypes[row];
+    }
+
+    public long measuredAt(int row) {
+        return measuredAt[row];
+    }
+}
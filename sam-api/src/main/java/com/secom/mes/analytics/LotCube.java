@@ -0,0 +1,413 @@
+package com.secom.mes.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable column store of lots and their quality outcome for ad-hoc group-bys.
+ *
+ * Every dimension is dictionary-encoded: one int code per lot, with codes assigned in label
+ * order so that range filters are code ranges and grouped rows come out sorted. Measures are
+ * primitive columns. A query scans the rows in parallel chunks, each aggregating into its own
+ * table keyed by the mixed-radix combination of the group-by codes, and merges the partials.
+ */
+public final class LotCube {
+
+    public enum Dimension {
+        EQUIPMENT, EQUIPMENT_TYPE, SHIFT, OPERATOR, PRODUCT_TYPE, PRODUCT_FAMILY,
+        DEFECT_TYPE, DISPOSITION, STATUS, OUTCOME, DAY, MONTH;
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Dimension of(String key) {
+            return valueOf(key.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public enum Measure {
+        /** Lots in the group. */
+        LOTS,
+        /** Lots with a quality result. */
+        TESTED,
+        FAILURES,
+        PASSES,
+        /** Failures per 100 tested lots. */
+        FAIL_RATE_PCT,
+        AVG_PREDICTED_RISK,
+        AVG_QUALITY_SCORE,
+        WAFERS;
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Measure of(String key) {
+            return valueOf(key.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** Label of lots without a value for a dimension, e.g. the defect type of a passing lot. */
+    public static final String NONE = "none";
+
+    public static final int MAX_GROUP_BY = 4;
+
+    private static final int LEAF_ROWS = 8192;
+    private static final int DENSE_GROUPS = 1 << 16;
+
+    // Accumulator slots per group
+    private static final int LOTS = 0;
+    private static final int TESTED = 1;
+    private static final int FAILED = 2;
+    private static final int RISK_SUM = 3;
+    private static final int RISK_COUNT = 4;
+    private static final int SCORE_SUM = 5;
+    private static final int SCORE_COUNT = 6;
+    private static final int WAFERS = 7;
+    private static final int SLOTS = 8;
+
+    private final int rows;
+    private final int[][] codes;
+    private final String[][] dictionaries;
+    private final byte[] outcome;
+    private final double[] predictedRisk;
+    private final double[] qualityScore;
+    private final int[] wafers;
+
+    private LotCube(int rows, int[][] codes, String[][] dictionaries, byte[] outcome,
+                    double[] predictedRisk, double[] qualityScore, int[] wafers) {
+        this.rows = rows;
+        this.codes = codes;
+        this.dictionaries = dictionaries;
+        this.outcome = outcome;
+        this.predictedRisk = predictedRisk;
+        this.qualityScore = qualityScore;
+        this.wafers = wafers;
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    /** Labels of a dimension in code order. */
+    public List<String> labels(Dimension dimension) {
+        return List.of(dictionaries[dimension.ordinal()]);
+    }
+
+    /**
+     * A filter clause: the dimension's label must be one of {@code values}, or, for a range,
+     * between {@code from} and {@code to} inclusive (either may be null) in label order.
+     */
+    public record Filter(Dimension dimension, List<String> values, String from, String to) {
+
+        public static Filter in(Dimension dimension, List<String> values) {
+            return new Filter(dimension, values, null, null);
+        }
+
+        public static Filter range(Dimension dimension, String from, String to) {
+            return new Filter(dimension, null, from, to);
+        }
+    }
+
+    /** One output group: labels in group-by order and values in measure order (null if undefined). */
+    public record Group(String[] labels, Number[] values) {
+    }
+
+    public record Result(List<Group> groups, int lotsMatched) {
+    }
+
+    public Result query(List<Dimension> groupBy, List<Measure> measures, List<Filter> filters, ForkJoinPool pool) {
+        if (groupBy.size() > MAX_GROUP_BY) {
+            throw new IllegalArgumentException("At most " + MAX_GROUP_BY + " group-by dimensions are supported");
+        }
+        int[][] groupColumns = new int[groupBy.size()][];
+        long[] radix = new long[groupBy.size()];
+        long groupSpace = 1;
+        for (int d = 0; d < groupBy.size(); d++) {
+            groupColumns[d] = codes[groupBy.get(d).ordinal()];
+            radix[d] = Math.max(1, dictionaries[groupBy.get(d).ordinal()].length);
+            groupSpace = Math.multiplyExact(groupSpace, radix[d]);
+        }
+        List<int[]> filterColumns = new ArrayList<>();
+        List<boolean[]> allowed = new ArrayList<>();
+        for (Filter filter : filters) {
+            filterColumns.add(codes[filter.dimension().ordinal()]);
+            allowed.add(allowedCodes(filter));
+        }
+        Scan scan = new Scan(groupColumns, radix, groupSpace <= DENSE_GROUPS ? (int) groupSpace : -1,
+                filterColumns.toArray(new int[0][]), allowed.toArray(new boolean[0][]));
+
+        Partial total = rows == 0 ? new Partial(scan.denseSize) : pool.invoke(scan.task(0, rows));
+        List<Group> groups = new ArrayList<>();
+        total.forEach((key, acc) -> {
+            String[] labels = new String[groupBy.size()];
+            long rest = key;
+            for (int d = groupBy.size() - 1; d >= 0; d--) {
+                labels[d] = dictionaries[groupBy.get(d).ordinal()][(int) (rest % radix[d])];
+                rest /= radix[d];
+            }
+            Number[] values = new Number[measures.size()];
+            for (int m = 0; m < measures.size(); m++) {
+                values[m] = value(measures.get(m), acc);
+            }
+            groups.add(new Group(labels, values));
+        });
+        return new Result(groups, total.matched);
+    }
+
+    private boolean[] allowedCodes(Filter filter) {
+        String[] dictionary = dictionaries[filter.dimension().ordinal()];
+        boolean[] allowed = new boolean[dictionary.length];
+        if (filter.values() != null) {
+            for (String value : filter.values()) {
+                int code = Arrays.binarySearch(dictionary, value);
+                if (code >= 0) {
+                    allowed[code] = true;
+                }
+            }
+        } else {
+            for (int code = 0; code < dictionary.length; code++) {
+                allowed[code] = (filter.from() == null || dictionary[code].compareTo(filter.from()) >= 0)
+                        && (filter.to() == null || dictionary[code].compareTo(filter.to()) <= 0);
+            }
+        }
+        return allowed;
+    }
+
+    /** Counts as Long, averages and rates as Double, null when there is nothing to average. */
+    private static Number value(Measure measure, double[] acc) {
+        return switch (measure) {
+            case LOTS -> (long) acc[LOTS];
+            case TESTED -> (long) acc[TESTED];
+            case FAILURES -> (long) acc[FAILED];
+            case PASSES -> (long) (acc[TESTED] - acc[FAILED]);
+            case FAIL_RATE_PCT -> acc[TESTED] > 0 ? round(acc[FAILED] * 100 / acc[TESTED], 2) : null;
+            case AVG_PREDICTED_RISK -> acc[RISK_COUNT] > 0 ? round(acc[RISK_SUM] / acc[RISK_COUNT], 4) : null;
+            case AVG_QUALITY_SCORE -> acc[SCORE_COUNT] > 0 ? round(acc[SCORE_SUM] / acc[SCORE_COUNT], 2) : null;
+            case WAFERS -> (long) acc[WAFERS];
+        };
+    }
+
+    private static Double round(double value, int decimals) {
+        double scale = Math.pow(10, decimals);
+        return Math.round(value * scale) / scale;
+    }
+
+    /** Query plan shared by the scan tasks. */
+    private final class Scan {
+        private final int[][] groupColumns;
+        private final long[] radix;
+        private final int denseSize;
+        private final int[][] filterColumns;
+        private final boolean[][] allowed;
+
+        private Scan(int[][] groupColumns, long[] radix, int denseSize, int[][] filterColumns, boolean[][] allowed) {
+            this.groupColumns = groupColumns;
+            this.radix = radix;
+            this.denseSize = denseSize;
+            this.filterColumns = filterColumns;
+            this.allowed = allowed;
+        }
+
+        private RecursiveTask<Partial> task(int from, int to) {
+            return new RecursiveTask<>() {
+                @Override
+                protected Partial compute() {
+                    if (to - from <= LEAF_ROWS) {
+                        return scan(from, to);
+                    }
+                    int mid = (from + to) >>> 1;
+                    RecursiveTask<Partial> left = task(from, mid);
+                    left.fork();
+                    Partial right = task(mid, to).invoke();
+                    return left.join().merge(right);
+                }
+            };
+        }
+
+        private Partial scan(int from, int to) {
+            Partial partial = new Partial(denseSize);
+            rows:
+            for (int row = from; row < to; row++) {
+                for (int f = 0; f < filterColumns.length; f++) {
+                    if (!allowed[f][filterColumns[f][row]]) {
+                        continue rows;
+                    }
+                }
+                long key = 0;
+                for (int d = 0; d < groupColumns.length; d++) {
+                    key = key * radix[d] + groupColumns[d][row];
+                }
+                double[] acc;
+                int at;
+                if (partial.dense != null) {
+                    acc = partial.dense;
+                    at = (int) key * SLOTS;
+                } else {
+                    acc = partial.sparse.computeIfAbsent(key, k -> new double[SLOTS]);
+                    at = 0;
+                }
+                acc[at + LOTS]++;
+                if (outcome[row] != 0) {
+                    acc[at + TESTED]++;
+                    if (outcome[row] > 0) {
+                        acc[at + FAILED]++;
+                    }
+                }
+                double risk = predictedRisk[row];
+                if (!Double.isNaN(risk)) {
+                    acc[at + RISK_SUM] += risk;
+                    acc[at + RISK_COUNT]++;
+                }
+                double score = qualityScore[row];
+                if (!Double.isNaN(score)) {
+                    acc[at + SCORE_SUM] += score;
+                    acc[at + SCORE_COUNT]++;
+                }
+                acc[at + WAFERS] += wafers[row];
+                partial.matched++;
+            }
+            return partial;
+        }
+    }
+
+    /** Aggregates of one chunk: a flat array over the whole group space when small, else a map. */
+    private static final class Partial {
+        private final double[] dense;
+        private final Map<Long, double[]> sparse;
+        private int matched;
+
+        private Partial(int denseSize) {
+            this.dense = denseSize >= 0 ? new double[denseSize * SLOTS] : null;
+            this.sparse = denseSize >= 0 ? null : new HashMap<>();
+        }
+
+        private Partial merge(Partial other) {
+            if (dense != null) {
+                for (int i = 0; i < dense.length; i++) {
+                    dense[i] += other.dense[i];
+                }
+            } else {
+                other.sparse.forEach((key, acc) -> {
+                    double[] mine = sparse.computeIfAbsent(key, k -> new double[SLOTS]);
+                    for (int i = 0; i < SLOTS; i++) {
+                        mine[i] += acc[i];
+                    }
+                });
+            }
+            matched += other.matched;
+            return this;
+        }
+
+        /** Visits non-empty groups in key order. */
+        private void forEach(BiConsumer<Long, double[]> visitor) {
+            if (dense != null) {
+                double[] acc = new double[SLOTS];
+                for (int group = 0; group * SLOTS < dense.length; group++) {
+                    if (dense[group * SLOTS + LOTS] > 0) {
+                        System.arraycopy(dense, group * SLOTS, acc, 0, SLOTS);
+                        visitor.accept((long) group, acc);
+                    }
+                }
+            } else {
+                new TreeMap<>(sparse).forEach(visitor);
+            }
+        }
+    }
+
+    public static Builder builder(int expectedRows) {
+        return new Builder(expectedRows);
+    }
+
+    /** Collects lots row by row; {@link #build()} sorts the dictionaries and recodes the columns. */
+    public static final class Builder {
+        private final int dimensions = Dimension.values().length;
+        private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+        private int[][] codes;
+        private byte[] outcome;
+        private double[] predictedRisk;
+        private double[] qualityScore;
+        private int[] wafers;
+        private int rows;
+
+        private Builder(int expectedRows) {
+            int capacity = Math.max(16, expectedRows);
+            codes = new int[dimensions][capacity];
+            outcome = new byte[capacity];
+            predictedRisk = new double[capacity];
+            qualityScore = new double[capacity];
+            wafers = new int[capacity];
+            for (int d = 0; d < dimensions; d++) {
+                dictionaries.add(new HashMap<>());
+            }
+        }
+
+        /**
+         * @param labels         label per {@link Dimension}, in declaration order; null becomes {@link #NONE}
+         * @param classification -1 pass, 1 fail, 0 not tested
+         */
+        public Builder add(String[] labels, int classification, double predictedRisk, double qualityScore, int wafers) {
+            if (rows == outcome.length) {
+                grow();
+            }
+            for (int d = 0; d < dimensions; d++) {
+                String label = labels[d] != null ? labels[d] : NONE;
+                Map<String, Integer> dictionary = dictionaries.get(d);
+                Integer code = dictionary.get(label);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.put(label, code);
+                }
+                codes[d][rows] = code;
+            }
+            this.outcome[rows] = (byte) Integer.signum(classification);
+            this.predictedRisk[rows] = predictedRisk;
+            this.qualityScore[rows] = qualityScore;
+            this.wafers[rows] = wafers;
+            rows++;
+            return this;
+        }
+
+        private void grow() {
+            int capacity = outcome.length * 2;
+            for (int d = 0; d < dimensions; d++) {
+                codes[d] = Arrays.copyOf(codes[d], capacity);
+            }
+            outcome = Arrays.copyOf(outcome, capacity);
+            predictedRisk = Arrays.copyOf(predictedRisk, capacity);
+            qualityScore = Arrays.copyOf(qualityScore, capacity);
+            wafers = Arrays.copyOf(wafers, capacity);
+        }
+
+        public LotCube build() {
+            int[][] sortedCodes = new int[dimensions][];
+            String[][] sortedDictionaries = new String[dimensions][];
+            for (int d = 0; d < dimensions; d++) {
+                Map<String, Integer> dictionary = dictionaries.get(d);
+                String[] labels = dictionary.keySet().toArray(new String[0]);
+                Arrays.sort(labels);
+                int[] recode = new int[labels.length];
+                for (int code = 0; code < labels.length; code++) {
+                    recode[dictionary.get(labels[code])] = code;
+                }
+                int[] column = new int[rows];
+                for (int row = 0; row < rows; row++) {
+                    column[row] = recode[codes[d][row]];
+                }
+                sortedCodes[d] = column;
+                sortedDictionaries[d] = labels;
+            }
+            return new LotCube(rows, sortedCodes, sortedDictionaries, Arrays.copyOf(outcome, rows),
+                    Arrays.copyOf(predictedRisk, rows), Arrays.copyOf(qualityScore, rows), Arrays.copyOf(wafers, rows));
+        }
+    }
+}
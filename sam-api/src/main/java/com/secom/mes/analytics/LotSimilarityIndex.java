@@ -0,0 +1,518 @@
+package com.secom.mes.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Approximate nearest-neighbour index over the lot rows of a {@link FeatureMatrix}
+ * (inverted file with a k-means coarse quantizer).
+ *
+ * <ul>
+ *   <li>Vectors: each usable feature (measured at least twice, non-zero variance) is z-scored
+ *       with the statistics of the build. Missing values are imputed with the mean (z = 0) and
+ *       recorded in a per-lot bit mask.</li>
+ *   <li>Coarse quantizer: lots are clustered with k-means into about sqrt(n) lists. Clustering
+ *       runs on a fixed random +-1 projection of the vectors to {@value #SKETCH_DIMS} dimensions,
+ *       which keeps building and assigning lots cheap at a million rows.</li>
+ *   <li>Query: the query's nearest {@code probes} lists are scanned with the full-dimension
+ *       imputed distance, and the best {@value #RERANK_FACTOR}k candidates are re-ranked by
+ *       the RMS z-distance over the features both lots actually have.</li>
+ * </ul>
+ *
+ * Rows are addressed by their matrix row index. Rows added to or changed in the matrix after
+ * the build are folded in with {@link #update}; normalization and centroids stay fixed until
+ * the next build.
+ */
+public final class LotSimilarityIndex {
+
+    private static final int SKETCH_DIMS = 64;
+    private static final int KMEANS_ITERATIONS = 10;
+    private static final int TRAINING_ROWS_PER_LIST = 32;
+    private static final int MAX_LISTS = 4096;
+    private static final int RERANK_FACTOR = 4;
+    private static final int ROW_BLOCK = 256;
+
+    /** Pairs sharing fewer features than this are not reported as neighbours. */
+    public static final int MIN_SHARED_FEATURES = 10;
+
+    private final int[] columns;
+    private final float[] means;
+    private final float[] inverseStd;
+    private final int dims;
+    private final int maskWords;
+    private final float[] projection;
+    private final int lists;
+    private final float[] centroids;
+    private final int probes;
+    private int trainedRows;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private float[] vectors;
+    private long[] masks;
+    private int[] listOfRow;
+    private int[] positionInList;
+    private int[][] listRows;
+    private int[] listSizes;
+    private int rows;
+
+    private LotSimilarityIndex(int[] columns, float[] means, float[] inverseStd, int probes, int lists,
+                               int capacity, long seed) {
+        this.columns = columns;
+        this.means = means;
+        this.inverseStd = inverseStd;
+        this.dims = columns.length;
+        this.maskWords = (dims + 63) / 64;
+        this.lists = lists;
+        this.centroids = new float[lists * SKETCH_DIMS];
+        this.probes = Math.max(1, Math.min(probes, lists));
+        this.projection = new float[dims * SKETCH_DIMS];
+        SplittableRandom random = new SplittableRandom(seed);
+        float scale = (float) (1.0 / Math.sqrt(SKETCH_DIMS));
+        for (int i = 0; i < projection.length; i++) {
+            projection[i] = random.nextBoolean() ? scale : -scale;
+        }
+        this.vectors = new float[capacity * dims];
+        this.masks = new long[capacity * maskWords];
+        this.listOfRow = new int[capacity];
+        this.positionInList = new int[capacity];
+        this.listRows = new int[lists][];
+        this.listSizes = new int[lists];
+        for (int l = 0; l < lists; l++) {
+            listRows[l] = new int[16];
+        }
+    }
+
+    /**
+     * Builds the index over all current rows of the matrix. Normalization, vector filling,
+     * k-means and list assignment all run in parallel.
+     *
+     * @param probes number of lists scanned per query
+     */
+    public static LotSimilarityIndex build(FeatureMatrix matrix, int probes, long seed) {
+        int lotCount = matrix.lotCount();
+        int featureCount = matrix.featureCount();
+
+        double[][] stats = new double[featureCount][];
+        IntStream.range(0, featureCount).parallel().forEach(c -> {
+            double[] column = matrix.column(c);
+            double sum = 0, sumSq = 0;
+            int n = 0;
+            for (int r = 0; r < lotCount; r++) {
+                double v = column[r];
+                if (!Double.isNaN(v)) {
+                    sum += v;
+                    sumSq += v * v;
+                    n++;
+                }
+            }
+            if (n >= 2) {
+                double mean = sum / n;
+                double variance = (sumSq - sum * mean) / (n - 1);
+                if (variance > 1e-12 * Math.max(1.0, mean * mean)) {
+                    stats[c] = new double[]{mean, Math.sqrt(variance)};
+                }
+            }
+        });
+
+        List<Integer> usable = new ArrayList<>();
+        for (int c = 0; c < featureCount; c++) {
+            if (stats[c] != null) {
+                usable.add(c);
+            }
+        }
+        int[] columns = usable.stream().mapToInt(Integer::intValue).toArray();
+        float[] means = new float[columns.length];
+        float[] inverseStd = new float[columns.length];
+        for (int d = 0; d < columns.length; d++) {
+            means[d] = (float) stats[columns[d]][0];
+            inverseStd[d] = (float) (1.0 / stats[columns[d]][1]);
+        }
+
+        int lists = (int) Math.max(1, Math.min(MAX_LISTS, Math.round(Math.sqrt(lotCount))));
+        LotSimilarityIndex index = new LotSimilarityIndex(columns, means, inverseStd, probes, lists,
+                Math.max(16, lotCount), seed);
+        index.rows = lotCount;
+
+        // Fill vectors in row blocks: reads stay sequential per column, writes stay in one block.
+        int blocks = (lotCount + ROW_BLOCK - 1) / ROW_BLOCK;
+        int[] observed = new int[lotCount];
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int start = b * ROW_BLOCK;
+            int end = Math.min(start + ROW_BLOCK, lotCount);
+            for (int d = 0; d < index.dims; d++) {
+                double[] column = matrix.column(columns[d]);
+                for (int r = start; r < end; r++) {
+                    double v = column[r];
+                    if (!Double.isNaN(v)) {
+                        index.vectors[r * index.dims + d] = (float) ((v - means[d]) * inverseStd[d]);
+                        index.masks[r * index.maskWords + (d >>> 6)] |= 1L << d;
+                        observed[r]++;
+                    }
+                }
+            }
+        });
+
+        int[] indexedRows = IntStream.range(0, lotCount).filter(r -> observed[r] > 0).toArray();
+        float[] sketches = new float[lotCount * SKETCH_DIMS];
+        IntStream.of(indexedRows).parallel().forEach(r -> index.sketch(r, sketches, r * SKETCH_DIMS));
+
+        index.trainCentroids(indexedRows, sketches, new SplittableRandom(seed ^ 0x5DEECE66DL));
+
+        int[] assignment = new int[lotCount];
+        Arrays.fill(assignment, -1);
+        IntStream.of(indexedRows).parallel().forEach(r -> assignment[r] = index.nearestList(sketches, r * SKETCH_DIMS));
+        Arrays.fill(index.listOfRow, -1);
+        for (int r : indexedRows) {
+            index.addToList(r, assignment[r]);
+        }
+        index.trainedRows = indexedRows.length;
+        return index;
+    }
+
+    private void trainCentroids(int[] indexedRows, float[] sketches, SplittableRandom random) {
+        if (indexedRows.length == 0) {
+            return;
+        }
+        int sampleSize = Math.min(indexedRows.length, lists * TRAINING_ROWS_PER_LIST);
+        int[] sample = indexedRows.clone();
+        for (int i = 0; i < sampleSize; i++) {
+            int j = i + random.nextInt(sample.length - i);
+            int swap = sample[i];
+            sample[i] = sample[j];
+            sample[j] = swap;
+        }
+        sample = Arrays.copyOf(sample, sampleSize);
+
+        for (int l = 0; l < lists; l++) {
+            System.arraycopy(sketches, sample[l % sampleSize] * SKETCH_DIMS, centroids, l * SKETCH_DIMS, SKETCH_DIMS);
+        }
+
+        int[] assignment = new int[sampleSize];
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            int[] current = sample;
+            IntStream.range(0, sampleSize).parallel()
+                    .forEach(i -> assignment[i] = nearestList(sketches, current[i] * SKETCH_DIMS));
+
+            double[] sums = new double[lists * SKETCH_DIMS];
+            int[] counts = new int[lists];
+            for (int i = 0; i < sampleSize; i++) {
+                int l = assignment[i];
+                counts[l]++;
+                int offset = sample[i] * SKETCH_DIMS;
+                for (int s = 0; s < SKETCH_DIMS; s++) {
+                    sums[l * SKETCH_DIMS + s] += sketches[offset + s];
+                }
+            }
+            for (int l = 0; l < lists; l++) {
+                if (counts[l] == 0) {
+                    // Re-seed empty lists from a random sample row
+                    System.arraycopy(sketches, sample[random.nextInt(sampleSize)] * SKETCH_DIMS,
+                            centroids, l * SKETCH_DIMS, SKETCH_DIMS);
+                    continue;
+                }
+                for (int s = 0; s < SKETCH_DIMS; s++) {
+                    centroids[l * SKETCH_DIMS + s] = (float) (sums[l * SKETCH_DIMS + s] / counts[l]);
+                }
+            }
+        }
+    }
+
+    /** Re-reads the given matrix rows (new or changed lots) and moves them to their nearest list. */
+    public void update(FeatureMatrix matrix, int[] changedRows) {
+        lock.writeLock().lock();
+        try {
+            int lotCount = matrix.lotCount();
+            if (lotCount > rows) {
+                ensureCapacity(lotCount);
+                for (int r = rows; r < lotCount; r++) {
+                    listOfRow[r] = -1;
+                }
+                int previous = rows;
+                rows = lotCount;
+                for (int r = previous; r < lotCount; r++) {
+                    reindexRow(matrix, r);
+                }
+            }
+            for (int r : changedRows) {
+                if (r >= 0 && r < rows) {
+                    reindexRow(matrix, r);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to k nearest lots to the given row, closest first; never the row itself.
+     */
+    public List<Neighbor> query(int row, int k) {
+        lock.readLock().lock();
+        try {
+            if (row < 0 || row >= rows || listOfRow[row] < 0) {
+                return List.of();
+            }
+            float[] querySketch = new float[SKETCH_DIMS];
+            sketch(row, querySketch, 0);
+            int[] probed = nearestLists(querySketch, probes);
+
+            int candidates = k * RERANK_FACTOR;
+            int[] heapRows = new int[candidates];
+            float[] heapDistances = new float[candidates];
+            int heapSize = 0;
+            int queryOffset = row * dims;
+            for (int list : probed) {
+                int[] members = listRows[list];
+                for (int i = 0, n = listSizes[list]; i < n; i++) {
+                    int candidate = members[i];
+                    if (candidate == row) {
+                        continue;
+                    }
+                    float bound = heapSize == candidates ? heapDistances[0] : Float.MAX_VALUE;
+                    float distance = imputedDistance(queryOffset, candidate * dims, bound);
+                    if (heapSize < candidates) {
+                        heapRows[heapSize] = candidate;
+                        heapDistances[heapSize] = distance;
+                        siftUp(heapRows, heapDistances, heapSize++);
+                    } else if (distance < heapDistances[0]) {
+                        heapRows[0] = candidate;
+                        heapDistances[0] = distance;
+                        siftDown(heapRows, heapDistances, heapSize);
+                    }
+                }
+            }
+
+            List<Neighbor> neighbors = new ArrayList<>(heapSize);
+            for (int i = 0; i < heapSize; i++) {
+                Neighbor neighbor = maskedDistance(row, heapRows[i]);
+                if (neighbor != null) {
+                    neighbors.add(neighbor);
+                }
+            }
+            neighbors.sort((a, b) -> Double.compare(a.distance(), b.distance()));
+            return neighbors.size() > k ? new ArrayList<>(neighbors.subList(0, k)) : neighbors;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Number of lots with measurements when the index was built. */
+    public int trainedRows() {
+        return trainedRows;
+    }
+
+    public int dimensions() {
+        return dims;
+    }
+
+    public int lists() {
+        return lists;
+    }
+
+    private void reindexRow(FeatureMatrix matrix, int row) {
+        int vectorOffset = row * dims;
+        int maskOffset = row * maskWords;
+        Arrays.fill(masks, maskOffset, maskOffset + maskWords, 0L);
+        boolean any = false;
+        for (int d = 0; d < dims; d++) {
+            double v = matrix.value(row, columns[d]);
+            if (Double.isNaN(v)) {
+                vectors[vectorOffset + d] = 0f;
+            } else {
+                vectors[vectorOffset + d] = (float) ((v - means[d]) * inverseStd[d]);
+                masks[maskOffset + (d >>> 6)] |= 1L << d;
+                any = true;
+            }
+        }
+        if (listOfRow[row] >= 0) {
+            removeFromList(row);
+        }
+        if (any) {
+            float[] sketch = new float[SKETCH_DIMS];
+            sketch(row, sketch, 0);
+            addToList(row, nearestList(sketch, 0));
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        int capacity = listOfRow.length;
+        if (required <= capacity) {
+            return;
+        }
+        int grown = Math.max(required, capacity * 2);
+        vectors = Arrays.copyOf(vectors, grown * dims);
+        masks = Arrays.copyOf(masks, grown * maskWords);
+        listOfRow = Arrays.copyOf(listOfRow, grown);
+        positionInList = Arrays.copyOf(positionInList, grown);
+    }
+
+    private void addToList(int row, int list) {
+        int size = listSizes[list];
+        if (size == listRows[list].length) {
+            listRows[list] = Arrays.copyOf(listRows[list], size * 2);
+        }
+        listRows[list][size] = row;
+        listSizes[list] = size + 1;
+        listOfRow[row] = list;
+        positionInList[row] = size;
+    }
+
+    /** Swap-remove: the last member of the list takes the removed row's slot. */
+    private void removeFromList(int row) {
+        int list = listOfRow[row];
+        int position = positionInList[row];
+        int last = listRows[list][listSizes[list] - 1];
+        listRows[list][position] = last;
+        positionInList[last] = position;
+        listSizes[list]--;
+        listOfRow[row] = -1;
+    }
+
+    private void sketch(int row, float[] target, int targetOffset) {
+        int vectorOffset = row * dims;
+        for (int d = 0; d < dims; d++) {
+            float v = vectors[vectorOffset + d];
+            if (v == 0f) {
+                continue;
+            }
+            int p = d * SKETCH_DIMS;
+            for (int s = 0; s < SKETCH_DIMS; s++) {
+                target[targetOffset + s] += v * projection[p + s];
+            }
+        }
+    }
+
+    private int nearestList(float[] sketches, int offset) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int l = 0; l < lists; l++) {
+            float distance = 0;
+            int c = l * SKETCH_DIMS;
+            for (int s = 0; s < SKETCH_DIMS; s++) {
+                float diff = sketches[offset + s] - centroids[c + s];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = l;
+            }
+        }
+        return best;
+    }
+
+    private int[] nearestLists(float[] sketch, int count) {
+        Integer[] order = new Integer[lists];
+        float[] distances = new float[lists];
+        for (int l = 0; l < lists; l++) {
+            order[l] = l;
+            float distance = 0;
+            int c = l * SKETCH_DIMS;
+            for (int s = 0; s < SKETCH_DIMS; s++) {
+                float diff = sketch[s] - centroids[c + s];
+                distance += diff * diff;
+            }
+            distances[l] = distance;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(distances[a], distances[b]));
+        int[] nearest = new int[count];
+        for (int i = 0; i < count; i++) {
+            nearest[i] = order[i];
+        }
+        return nearest;
+    }
+
+    /** Squared distance over all dimensions with missing values at the mean; stops early past the bound. */
+    private float imputedDistance(int queryOffset, int candidateOffset, float bound) {
+        float distance = 0;
+        for (int d = 0; d < dims; d++) {
+            float diff = vectors[queryOffset + d] - vectors[candidateOffset + d];
+            distance += diff * diff;
+            if ((d & 63) == 63 && distance > bound) {
+                return distance;
+            }
+        }
+        return distance;
+    }
+
+    /** RMS z-distance over the features both rows have measured. */
+    private Neighbor maskedDistance(int row, int candidate) {
+        int queryMask = row * maskWords;
+        int candidateMask = candidate * maskWords;
+        int queryOffset = row * dims;
+        int candidateOffset = candidate * dims;
+        double sum = 0;
+        int shared = 0;
+        for (int w = 0; w < maskWords; w++) {
+            long both = masks[queryMask + w] & masks[candidateMask + w];
+            shared += Long.bitCount(both);
+            while (both != 0) {
+                int d = (w << 6) + Long.numberOfTrailingZeros(both);
+                double diff = vectors[queryOffset + d] - vectors[candidateOffset + d];
+                sum += diff * diff;
+                both &= both - 1;
+            }
+        }
+        if (shared < MIN_SHARED_FEATURES) {
+            return null;
+        }
+        return new Neighbor(candidate, Math.sqrt(sum / shared), shared);
+    }
+
+    private static void siftUp(int[] rows, float[] distances, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (distances[parent] >= distances[i]) {
+                return;
+            }
+            swap(rows, distances, parent, i);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] rows, float[] distances, int size) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int largest = left + 1 < size && distances[left + 1] > distances[left] ? left + 1 : left;
+            if (distances[i] >= distances[largest]) {
+                return;
+            }
+            swap(rows, distances, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(int[] rows, float[] distances, int a, int b) {
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+        float distance = distances[a];
+        distances[a] = distances[b];
+        distances[b] = distance;
+    }
+
+    /**
+     * @param row            matrix row of the neighbouring lot
+     * @param distance       RMS difference in standard deviations over the shared features
+     * @param sharedFeatures features measured on both lots
+     */
+    public record Neighbor(int row, double distance, int sharedFeatures) {
+    }
+}
@@ -0,0 +1,66 @@
+package com.secom.mes.analytics;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling (Steinarsson, 2013): keeps the first and last
+ * point and, from each of the buckets in between, the point forming the largest triangle with
+ * the previously kept point and the average of the next bucket. The result follows the
+ * visual shape of the series far better than taking every n-th point.
+ */
+public final class Lttb {
+
+    private Lttb() {
+    }
+
+    /**
+     * Indices of the points to keep, ascending.
+     *
+     * @param threshold points wanted, at least 3; all indices are returned if {@code size} is not larger
+     */
+    public static int[] sample(long[] times, double[] values, int size, int threshold) {
+        if (threshold < 3 || size <= threshold) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] kept = new int[threshold];
+        int count = 0;
+        kept[count++] = 0;
+        double every = (double) (size - 2) / (threshold - 2);
+        long origin = times[0];
+        int previous = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int nextStart = (int) ((bucket + 1) * every) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * every) + 1, size);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += times[i] - origin;
+                averageY += values[i];
+            }
+            int nextLength = nextEnd - nextStart;
+            averageX /= nextLength;
+            averageY /= nextLength;
+
+            int start = (int) (bucket * every) + 1;
+            int end = (int) ((bucket + 1) * every) + 1;
+            double previousX = times[previous] - origin;
+            double previousY = values[previous];
+            double largestArea = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((previousX - averageX) * (values[i] - previousY)
+                        - (previousX - (times[i] - origin)) * (averageY - previousY));
+                if (area > largestArea) {
+                    largestArea = area;
+                    chosen = i;
+                }
+            }
+            kept[count++] = chosen;
+            previous = chosen;
+        }
+        kept[count] = size - 1;
+        return kept;
+    }
+}
@@ -0,0 +1,361 @@
+package com.secom.mes.analytics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Memory-mapped binary copy of the lot x feature measurement values.
+ *
+ * Lots are stored in append order in fixed-size blocks; inside a block each feature is one
+ * contiguous column of doubles, so a block can be copied into {@link FeatureMatrix} columns
+ * with bulk reads and new lots only ever touch the last block or add one.
+ * <pre>
+ *   header   magic | version | features | block lots | lots | high water | measurements | updated | crc
+ *   features feature IDs in column order
+ *   block    lot IDs | column 0 | column 1 | ... | crc
+ * </pre>
+ * The header records the highest lot_measurement ID the file is complete up to, and how many
+ * rows at or below it it holds; callers compare both with the database before trusting it.
+ * Writes go to the mapping and become valid at {@link #commit}, which checksums the touched
+ * blocks, forces them and only then rewrites the header. Missing values are NaN.
+ *
+ * Not thread-safe; the owner serializes access.
+ */
+public class MeasurementSnapshot implements AutoCloseable {
+
+    private static final long MAGIC = 0x53_45_43_4F_4D_53_4E_50L; // "SECOMSNP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int HEADER_CRC_OFFSET = 60;
+
+    private final Path file;
+    private final Path tempFile;
+    private final FileChannel channel;
+    private final int[] featureIds;
+    private final int blockLots;
+    private final long dataOffset;
+    private final long blockBytes;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> blocks = new ArrayList<>();
+    private final Map<Integer, Integer> featureColumns = new HashMap<>();
+    private final Map<Integer, Integer> lotSlots = new HashMap<>();
+    private final BitSet dirtyBlocks = new BitSet();
+
+    private int lotCount;
+    private long highWater;
+    private long measurementCount;
+    /** Set while a newly created file still lives under its temporary name. */
+    private boolean uncommitted;
+
+    private MeasurementSnapshot(Path file, Path tempFile, FileChannel channel, int[] featureIds, int blockLots)
+            throws IOException {
+        this.file = file;
+        this.tempFile = tempFile;
+        this.channel = channel;
+        this.featureIds = featureIds;
+        this.blockLots = blockLots;
+        this.dataOffset = align8(HEADER_BYTES + 4L * featureIds.length);
+        this.blockBytes = align8(4L * blockLots + 8L * featureIds.length * blockLots) + 8;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        for (int c = 0; c < featureIds.length; c++) {
+            featureColumns.put(featureIds[c], c);
+        }
+    }
+
+    /**
+     * Creates an empty snapshot for the given features under a temporary name; it replaces
+     * {@code file} on the first {@link #commit}.
+     */
+    public static MeasurementSnapshot create(Path file, int[] featureIds, int blockLots) throws IOException {
+        if (blockLots < 1) {
+            throw new IllegalArgumentException("blockLots must be positive");
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MeasurementSnapshot snapshot = new MeasurementSnapshot(file, tempFile, channel, featureIds.clone(), blockLots);
+            snapshot.uncommitted = true;
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Creates a snapshot holding every lot of {@code matrix}, in row order. Call {@link #commit} to keep it. */
+    public static MeasurementSnapshot create(Path file, FeatureMatrix matrix, int blockLots) throws IOException {
+        MeasurementSnapshot snapshot = create(file, matrix.featureIds(), blockLots);
+        try {
+            int lots = matrix.lotCount();
+            for (int row = 0; row < lots; row++) {
+                snapshot.addLot(matrix.lotId(row));
+            }
+            for (int block = 0; block < snapshot.blocks.size(); block++) {
+                int first = block * blockLots;
+                int count = Math.min(blockLots, lots - first);
+                for (int c = 0; c < snapshot.featureIds.length; c++) {
+                    snapshot.column(block, c).put(matrix.column(c), first, count);
+                }
+            }
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            snapshot.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps an existing snapshot and verifies its header and every block checksum.
+     *
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static MeasurementSnapshot open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer fixed = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(fixed, 0) < HEADER_BYTES || fixed.getLong(0) != MAGIC) {
+                throw new IOException("Not a measurement snapshot: " + file);
+            }
+            if (fixed.getInt(8) != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format version " + fixed.getInt(8));
+            }
+            int featureCount = fixed.getInt(12);
+            int blockLots = fixed.getInt(16);
+            if (featureCount < 0 || blockLots < 1
+                    || channel.size() < align8(HEADER_BYTES + 4L * featureCount)) {
+                throw new IOException("Snapshot header is corrupt");
+            }
+            ByteBuffer ids = ByteBuffer.allocate(4 * featureCount).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(ids, HEADER_BYTES);
+            int[] featureIds = new int[featureCount];
+            ids.flip().asIntBuffer().get(featureIds);
+
+            MeasurementSnapshot snapshot = new MeasurementSnapshot(file, null, channel, featureIds, blockLots);
+            snapshot.load();
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException io ? io : new IOException("Snapshot is corrupt: " + e.getMessage(), e);
+        }
+    }
+
+    private void load() throws IOException {
+        if (header.getInt(HEADER_CRC_OFFSET) != headerChecksum()) {
+            throw new IOException("Snapshot header checksum mismatch");
+        }
+        lotCount = header.getInt(20);
+        highWater = header.getLong(24);
+        measurementCount = header.getLong(32);
+        int blockCount = (lotCount + blockLots - 1) / blockLots;
+        if (channel.size() < dataOffset + blockCount * blockBytes) {
+            throw new IOException("Snapshot is truncated");
+        }
+        for (int block = 0; block < blockCount; block++) {
+            MappedByteBuffer mapped = mapBlock(block);
+            blocks.add(mapped);
+            if (mapped.getInt((int) blockBytes - 8) != blockChecksum(mapped)) {
+                throw new IOException("Snapshot block " + block + " checksum mismatch");
+            }
+        }
+        for (int slot = 0; slot < lotCount; slot++) {
+            lotSlots.put(lotId(slot), slot);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int[] featureIds() {
+        return featureIds.clone();
+    }
+
+    public int lotCount() {
+        return lotCount;
+    }
+
+    /** Highest lot_measurement ID the snapshot is complete up to, as of the last commit. */
+    public long highWater() {
+        return highWater;
+    }
+
+    /** Number of lot_measurement rows at or below {@link #highWater()} included, as of the last commit. */
+    public long measurementCount() {
+        return measurementCount;
+    }
+
+    public int lotId(int slot) {
+        return blocks.get(slot / blockLots).getInt(4 * (slot % blockLots));
+    }
+
+    public double value(int slot, int column) {
+        int block = slot / blockLots;
+        return blocks.get(block).getDouble(columnOffset(column) + 8 * (slot % blockLots));
+    }
+
+    /**
+     * Sets one value, appending the lot if it is not in the snapshot yet.
+     *
+     * @return false if the feature is not one of the snapshot's columns
+     */
+    public boolean set(int lotId, int featureId, double value) throws IOException {
+        Integer column = featureColumns.get(featureId);
+        if (column == null) {
+            return false;
+        }
+        Integer slot = lotSlots.get(lotId);
+        int s = slot != null ? slot : addLot(lotId);
+        int block = s / blockLots;
+        blocks.get(block).putDouble(columnOffset(column) + 8 * (s % blockLots), value);
+        dirtyBlocks.set(block);
+        return true;
+    }
+
+    private int addLot(int lotId) throws IOException {
+        int slot = lotCount;
+        int block = slot / blockLots;
+        if (block == blocks.size()) {
+            MappedByteBuffer mapped = mapBlock(block);
+            // Mapping past the end grows the file with zeros; values must start out missing
+            for (int c = 0; c < featureIds.length; c++) {
+                int offset = columnOffset(c);
+                for (int i = 0; i < blockLots; i++) {
+                    mapped.putDouble(offset + 8 * i, Double.NaN);
+                }
+            }
+            blocks.add(mapped);
+        }
+        blocks.get(block).putInt(4 * (slot % blockLots), lotId);
+        dirtyBlocks.set(block);
+        lotSlots.put(lotId, slot);
+        lotCount = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Copies the stored values of every lot present in {@code target} into its columns.
+     * Feature columns must match; lots missing from {@code target} are skipped.
+     *
+     * @return the number of lots copied
+     */
+    public int restoreInto(FeatureMatrix target) {
+        if (!Arrays.equals(featureIds, target.featureIds())) {
+            throw new IllegalArgumentException("Snapshot features do not match the matrix");
+        }
+        int restored = 0;
+        int[] rows = new int[blockLots];
+        double[] values = new double[blockLots];
+        for (int block = 0; block < blocks.size(); block++) {
+            int first = block * blockLots;
+            int count = Math.min(blockLots, lotCount - first);
+            for (int i = 0; i < count; i++) {
+                rows[i] = target.rowOf(lotId(first + i));
+                if (rows[i] >= 0) {
+                    restored++;
+                }
+            }
+            for (int c = 0; c < featureIds.length; c++) {
+                column(block, c).get(values, 0, count);
+                double[] column = target.column(c);
+                for (int i = 0; i < count; i++) {
+                    if (rows[i] >= 0) {
+                        column[rows[i]] = values[i];
+                    }
+                }
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Makes all changes since the last commit durable and records what they cover.
+     * Changed blocks are checksummed and forced before the header, so a crash in between
+     * leaves a file that either fails verification or still describes its old contents.
+     */
+    public void commit(long highWater, long measurementCount) throws IOException {
+        for (int block = dirtyBlocks.nextSetBit(0); block >= 0; block = dirtyBlocks.nextSetBit(block + 1)) {
+            MappedByteBuffer mapped = blocks.get(block);
+            mapped.putInt((int) blockBytes - 8, blockChecksum(mapped));
+            mapped.force();
+        }
+        dirtyBlocks.clear();
+        this.highWater = highWater;
+        this.measurementCount = measurementCount;
+        header.putLong(0, MAGIC);
+        header.putInt(8, FORMAT_VERSION);
+        header.putInt(12, featureIds.length);
+        header.putInt(16, blockLots);
+        header.putInt(20, lotCount);
+        header.putLong(24, highWater);
+        header.putLong(32, measurementCount);
+        header.putLong(40, System.currentTimeMillis());
+        for (int c = 0; c < featureIds.length; c++) {
+            header.putInt(HEADER_BYTES + 4 * c, featureIds[c]);
+        }
+        header.putInt(HEADER_CRC_OFFSET, headerChecksum());
+        header.force();
+        if (uncommitted) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            uncommitted = false;
+        }
+    }
+
+    /** Closes the file; a created snapshot that was never committed is deleted. */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if (uncommitted) {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private MappedByteBuffer mapBlock(int block) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + block * blockBytes, blockBytes);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        return mapped;
+    }
+
+    private DoubleBuffer column(int block, int column) {
+        return blocks.get(block).slice(columnOffset(column), 8 * blockLots)
+                .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    private int columnOffset(int column) {
+        return (int) align8(4L * blockLots) + 8 * blockLots * column;
+    }
+
+    private int headerChecksum() {
+        CRC32C crc = new CRC32C();
+        crc.update(header.slice(0, HEADER_CRC_OFFSET));
+        crc.update(header.slice(HEADER_BYTES, 4 * featureIds.length));
+        return (int) crc.getValue();
+    }
+
+    private int blockChecksum(MappedByteBuffer block) {
+        CRC32C crc = new CRC32C();
+        crc.update(block.slice(0, (int) blockBytes - 8));
+        return (int) crc.getValue();
+    }
+
+    private static long align8(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
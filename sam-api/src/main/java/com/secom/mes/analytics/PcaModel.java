@@ -0,0 +1,294 @@
+package com.secom.mes.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Principal-component model of in-control lots for multivariate statistical process control,
+ * fitted on rows of a {@link FeatureMatrix}.
+ *
+ * <ul>
+ *   <li>Features: those measured in at least the minimum share of training lots with non-zero
+ *       variance, z-scored with the training statistics. A missing value is imputed with the
+ *       training mean (z = 0).</li>
+ *   <li>Components: eigenvectors of the training correlation matrix, as many as are needed to
+ *       explain the requested share of variance, capped.</li>
+ *   <li>Hotelling T^2 = sum of t_a^2 / lambda_a over the component scores t = P'z: how unusual
+ *       the lot is within the model plane. SPE (Q) = |z - Pt|^2 over the features the lot has:
+ *       how far it lies off the plane, i.e. a broken correlation between sensors.</li>
+ *   <li>Control limits: the given quantile of each statistic over the training lots.</li>
+ * </ul>
+ *
+ * Contributions split both statistics over the features: z_j * sum_a(t_a / lambda_a * P_ja)
+ * for T^2 (they sum to T^2, and may be negative) and e_j^2 for SPE.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public final class PcaModel {
+
+    private static final int ROW_BLOCK = 256;
+
+    /** Fit settings. */
+    public record Options(double varianceExplained, int maxComponents, double confidence,
+                          double minFeatureCoverage) {
+    }
+
+    public record Score(double t2, double spe) {
+    }
+
+    /** One feature's share of a lot's statistics; {@code z} is NaN when the lot lacks the feature. */
+    public record Contribution(int featureId, double z, double t2, double spe) {
+    }
+
+    private final int[] columns;
+    private final int[] featureIds;
+    private final double[] means;
+    private final double[] inverseStd;
+    /** Loadings, component-major: loadings[a * dims + j]. */
+    private final double[] loadings;
+    private final double[] eigenvalues;
+    private final int dims;
+    private final int components;
+    private final double explainedVariance;
+    private final int trainingLots;
+    private final double t2Limit;
+    private final double speLimit;
+
+    private PcaModel(int[] columns, int[] featureIds, double[] means, double[] inverseStd, double[] loadings,
+                     double[] eigenvalues, double explainedVariance, int trainingLots,
+                     double t2Limit, double speLimit) {
+        this.columns = columns;
+        this.featureIds = featureIds;
+        this.means = means;
+        this.inverseStd = inverseStd;
+        this.loadings = loadings;
+        this.eigenvalues = eigenvalues;
+        this.dims = columns.length;
+        this.components = eigenvalues.length;
+        this.explainedVariance = explainedVariance;
+        this.trainingLots = trainingLots;
+        this.t2Limit = t2Limit;
+        this.speLimit = speLimit;
+    }
+
+    /**
+     * Fits the model on the given matrix rows. Feature statistics, the correlation matrix and
+     * the training scores are computed in parallel.
+     *
+     * @throws IllegalArgumentException if fewer than two rows or usable features remain
+     */
+    public static PcaModel fit(FeatureMatrix matrix, int[] trainingRows, Options options) {
+        int n = trainingRows.length;
+        if (n < 2) {
+            throw new IllegalArgumentException("At least two training lots are needed, got " + n);
+        }
+        int featureCount = matrix.featureCount();
+
+        double[][] stats = new double[featureCount][];
+        IntStream.range(0, featureCount).parallel().forEach(c -> {
+            double[] column = matrix.column(c);
+            double sum = 0, sumSq = 0;
+            int count = 0;
+            for (int row : trainingRows) {
+                double v = column[row];
+                if (!Double.isNaN(v)) {
+                    sum += v;
+                    sumSq += v * v;
+                    count++;
+                }
+            }
+            if (count >= 2 && count >= options.minFeatureCoverage() * n) {
+                double mean = sum / count;
+                double variance = (sumSq - sum * mean) / (count - 1);
+                if (variance > 1e-12 * Math.max(1.0, mean * mean)) {
+                    stats[c] = new double[]{mean, Math.sqrt(variance)};
+                }
+            }
+        });
+        int[] columns = IntStream.range(0, featureCount).filter(c -> stats[c] != null).toArray();
+        int dims = columns.length;
+        if (dims < 2) {
+            throw new IllegalArgumentException("At least two usable features are needed, got " + dims);
+        }
+        int[] featureIds = new int[dims];
+        double[] means = new double[dims];
+        double[] inverseStd = new double[dims];
+        for (int j = 0; j < dims; j++) {
+            featureIds[j] = matrix.featureId(columns[j]);
+            means[j] = stats[columns[j]][0];
+            inverseStd[j] = 1.0 / stats[columns[j]][1];
+        }
+
+        // Standardized training data, one array per feature, missing values at the mean
+        double[][] z = new double[dims][];
+        IntStream.range(0, dims).parallel().forEach(j -> {
+            double[] column = matrix.column(columns[j]);
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                double v = column[trainingRows[i]];
+                values[i] = Double.isNaN(v) ? 0 : (v - means[j]) * inverseStd[j];
+            }
+            z[j] = values;
+        });
+
+        double[][] covariance = new double[dims][dims];
+        IntStream.range(0, dims).parallel().forEach(j -> {
+            double[] a = z[j];
+            for (int k = 0; k <= j; k++) {
+                double[] b = z[k];
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    sum += a[i] * b[i];
+                }
+                covariance[j][k] = sum / (n - 1);
+            }
+        });
+        for (int j = 0; j < dims; j++) {
+            for (int k = 0; k < j; k++) {
+                covariance[k][j] = covariance[j][k];
+            }
+        }
+
+        SymmetricEigen.Result eigen = SymmetricEigen.decompose(covariance);
+        double totalVariance = 0;
+        for (double value : eigen.values()) {
+            totalVariance += Math.max(0, value);
+        }
+        int maxComponents = Math.min(Math.min(options.maxComponents(), dims), n - 1);
+        int components = 0;
+        double explained = 0;
+        while (components < maxComponents && eigen.values()[components] > 1e-9 * totalVariance
+                && explained < options.varianceExplained() * totalVariance) {
+            explained += eigen.values()[components];
+            components++;
+        }
+        components = Math.max(1, components);
+        double[] eigenvalues = Arrays.copyOf(eigen.values(), components);
+        double[] loadings = new double[components * dims];
+        for (int a = 0; a < components; a++) {
+            for (int j = 0; j < dims; j++) {
+                loadings[a * dims + j] = eigen.vectors()[j][a];
+            }
+        }
+
+        PcaModel unlimited = new PcaModel(columns, featureIds, means, inverseStd, loadings, eigenvalues,
+                explained / totalVariance, n, Double.NaN, Double.NaN);
+        double[] t2 = new double[n];
+        double[] spe = new double[n];
+        IntStream.range(0, (n + ROW_BLOCK - 1) / ROW_BLOCK).parallel().forEach(block -> {
+            for (int i = block * ROW_BLOCK; i < Math.min(n, (block + 1) * ROW_BLOCK); i++) {
+                Score score = unlimited.score(matrix, trainingRows[i]);
+                t2[i] = score.t2();
+                spe[i] = score.spe();
+            }
+        });
+        return new PcaModel(columns, featureIds, means, inverseStd, loadings, eigenvalues,
+                explained / totalVariance, n, quantile(t2, options.confidence()), quantile(spe, options.confidence()));
+    }
+
+    public Score score(FeatureMatrix matrix, int row) {
+        double[] z = new double[dims];
+        boolean[] present = new boolean[dims];
+        double[] t = project(matrix, row, z, present);
+        double t2 = 0;
+        for (int a = 0; a < components; a++) {
+            t2 += t[a] * t[a] / eigenvalues[a];
+        }
+        double spe = 0;
+        for (int j = 0; j < dims; j++) {
+            if (present[j]) {
+                double e = residual(z, t, j);
+                spe += e * e;
+            }
+        }
+        return new Score(t2, spe);
+    }
+
+    /**
+     * The features contributing most to the lot's T^2 or SPE, ranked by their larger share of
+     * either control limit.
+     */
+    public List<Contribution> contributions(FeatureMatrix matrix, int row, int limit) {
+        double[] z = new double[dims];
+        boolean[] present = new boolean[dims];
+        double[] t = project(matrix, row, z, present);
+        double[] weights = new double[components];
+        for (int a = 0; a < components; a++) {
+            weights[a] = t[a] / eigenvalues[a];
+        }
+        List<Contribution> contributions = new ArrayList<>(dims);
+        for (int j = 0; j < dims; j++) {
+            double weighted = 0;
+            for (int a = 0; a < components; a++) {
+                weighted += weights[a] * loadings[a * dims + j];
+            }
+            double e = present[j] ? residual(z, t, j) : 0;
+            contributions.add(new Contribution(featureIds[j], present[j] ? z[j] : Double.NaN,
+                    z[j] * weighted, e * e));
+        }
+        contributions.sort(Comparator.comparingDouble((Contribution c) ->
+                Math.max(c.t2() / t2Limit, c.spe() / speLimit)).reversed());
+        return contributions.subList(0, Math.min(limit, contributions.size()));
+    }
+
+    public int dimensions() {
+        return dims;
+    }
+
+    public int components() {
+        return components;
+    }
+
+    public double explainedVariance() {
+        return explainedVariance;
+    }
+
+    public int trainingLots() {
+        return trainingLots;
+    }
+
+    public double t2Limit() {
+        return t2Limit;
+    }
+
+    public double speLimit() {
+        return speLimit;
+    }
+
+    /** Fills the lot's z-scores and presence flags; returns its component scores. */
+    private double[] project(FeatureMatrix matrix, int row, double[] z, boolean[] present) {
+        for (int j = 0; j < dims; j++) {
+            double v = matrix.value(row, columns[j]);
+            present[j] = !Double.isNaN(v);
+            z[j] = present[j] ? (v - means[j]) * inverseStd[j] : 0;
+        }
+        double[] t = new double[components];
+        for (int a = 0; a < components; a++) {
+            double sum = 0;
+            int offset = a * dims;
+            for (int j = 0; j < dims; j++) {
+                sum += loadings[offset + j] * z[j];
+            }
+            t[a] = sum;
+        }
+        return t;
+    }
+
+    private double residual(double[] z, double[] t, int j) {
+        double reconstructed = 0;
+        for (int a = 0; a < components; a++) {
+            reconstructed += loadings[a * dims + j] * t[a];
+        }
+        return z[j] - reconstructed;
+    }
+
+    private static double quantile(double[] values, double q) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
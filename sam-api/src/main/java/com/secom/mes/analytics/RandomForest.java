@@ -0,0 +1,456 @@
+package com.secom.mes.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Random forest of binary classification trees over {@link FeatureBins}, trained to measure
+ * feature importance rather than to serve predictions.
+ *
+ * Each tree is grown on a bootstrap sample as a fork/join task; large nodes fork their left
+ * subtree, so one pool keeps every core busy whether there are few large trees or many small
+ * ones. Splits are chosen from per-bin class counts over a random subset of features, using
+ * class-balanced Gini impurity so rare defect types are not drowned out by passing lots.
+ * Missing values follow whichever side of a split scores better.
+ *
+ * Two importances are produced per feature:
+ * <ul>
+ *   <li>impurity: total weighted Gini decrease of the feature's splits, as a share of all splits</li>
+ *   <li>permutation: mean increase in each tree's balanced out-of-bag error when each row's value
+ *       of the feature is replaced by that of a random out-of-bag row (zero for trees not using it)</li>
+ * </ul>
+ */
+public class RandomForest {
+
+    /** Nodes with more rows than this grow their left subtree as a separate task. */
+    private static final int FORK_THRESHOLD = 2_048;
+
+    public record Options(int trees, int maxDepth, int minLeafSize, int featuresPerSplit, long seed) {
+
+        public Options {
+            if (trees < 1 || maxDepth < 1 || minLeafSize < 1) {
+                throw new IllegalArgumentException("trees, maxDepth and minLeafSize must be positive");
+            }
+        }
+    }
+
+    private final int featureCount;
+    private final double[] impurityImportance;
+    private final double[] permutationImportance;
+    private final double oobError;
+    private final int trees;
+
+    private RandomForest(int featureCount, double[] impurityImportance, double[] permutationImportance,
+                         double oobError, int trees) {
+        this.featureCount = featureCount;
+        this.impurityImportance = impurityImportance;
+        this.permutationImportance = permutationImportance;
+        this.oobError = oobError;
+        this.trees = trees;
+    }
+
+    /**
+     * Trains a forest.
+     *
+     * @param rows       matrix rows to train on; must have codes in {@code bins}
+     * @param positive   label per matrix row
+     * @param afterTree  called from the growing thread after each tree; may throw to abort training
+     */
+    public static RandomForest train(FeatureBins bins, int[] rows, boolean[] positive, Options options,
+                                     ForkJoinPool pool, Runnable afterTree) {
+        int positives = 0;
+        for (int row : rows) {
+            if (positive[row]) {
+                positives++;
+            }
+        }
+        if (positives == 0 || positives == rows.length) {
+            throw new IllegalArgumentException("Training rows must include both classes");
+        }
+        Forest forest = new Forest(bins, rows, positive, options, positives, afterTree);
+        List<ForkJoinTask<Tree>> tasks = new ArrayList<>(options.trees());
+        SplittableRandom random = new SplittableRandom(options.seed());
+        for (int t = 0; t < options.trees(); t++) {
+            tasks.add(pool.submit(new TreeTask(forest, random.split())));
+        }
+        int features = bins.featureCount();
+        double[] impurity = new double[features];
+        double[] permutation = new double[features];
+        try {
+            for (ForkJoinTask<Tree> task : tasks) {
+                Tree tree = task.join();
+                for (int f = 0; f < features; f++) {
+                    impurity[f] += tree.impurityDecrease[f];
+                    permutation[f] += tree.permutationIncrease[f];
+                }
+            }
+        } catch (RuntimeException e) {
+            tasks.forEach(task -> task.cancel(true));
+            throw e;
+        }
+        double total = 0;
+        for (double value : impurity) {
+            total += value;
+        }
+        for (int f = 0; f < features; f++) {
+            impurity[f] = total > 0 ? impurity[f] / total : 0;
+            permutation[f] /= options.trees();
+        }
+        return new RandomForest(features, impurity, permutation, forest.oobError(), options.trees());
+    }
+
+    public int featureCount() {
+        return featureCount;
+    }
+
+    public int trees() {
+        return trees;
+    }
+
+    /** Share of the forest's total impurity decrease due to the feature; sums to 1 over features. */
+    public double impurityImportance(int feature) {
+        return impurityImportance[feature];
+    }
+
+    /** Mean increase in balanced out-of-bag error when the feature is shuffled; may be negative. */
+    public double permutationImportance(int feature) {
+        return permutationImportance[feature];
+    }
+
+    /** Balanced error of the forest's majority vote over rows that were out of bag for some tree. */
+    public double oobError() {
+        return oobError;
+    }
+
+    /** Training data and settings shared by every tree, plus the out-of-bag vote tally. */
+    private static final class Forest {
+        final FeatureBins bins;
+        final int[] rows;
+        final boolean[] positive;
+        final Options options;
+        final int featuresPerSplit;
+        final double positiveWeight;
+        final double negativeWeight;
+        final Runnable afterTree;
+        /** Per training row index: summed positive share and number of out-of-bag trees. */
+        final double[] oobVotes;
+        final int[] oobTrees;
+
+        Forest(FeatureBins bins, int[] rows, boolean[] positive, Options options, int positives, Runnable afterTree) {
+            this.bins = bins;
+            this.rows = rows;
+            this.positive = positive;
+            this.options = options;
+            int features = bins.featureCount();
+            this.featuresPerSplit = options.featuresPerSplit() > 0
+                    ? Math.min(options.featuresPerSplit(), features)
+                    : Math.max(1, (int) Math.round(Math.sqrt(features)));
+            this.positiveWeight = rows.length / (2.0 * positives);
+            this.negativeWeight = rows.length / (2.0 * (rows.length - positives));
+            this.afterTree = afterTree;
+            this.oobVotes = new double[rows.length];
+            this.oobTrees = new int[rows.length];
+        }
+
+        double weight(int row) {
+            return positive[row] ? positiveWeight : negativeWeight;
+        }
+
+        synchronized void addOobVotes(int[] indexes, double[] shares) {
+            for (int i = 0; i < indexes.length; i++) {
+                oobVotes[indexes[i]] += shares[i];
+                oobTrees[indexes[i]]++;
+            }
+        }
+
+        synchronized double oobError() {
+            double wrong = 0;
+            double total = 0;
+            for (int i = 0; i < rows.length; i++) {
+                if (oobTrees[i] == 0) {
+                    continue;
+                }
+                int row = rows[i];
+                boolean predicted = oobVotes[i] / oobTrees[i] > 0.5;
+                total += weight(row);
+                if (predicted != positive[row]) {
+                    wrong += weight(row);
+                }
+            }
+            return total > 0 ? wrong / total : Double.NaN;
+        }
+    }
+
+    private static final class Node {
+        int feature = -1;
+        int threshold;
+        boolean missingLeft;
+        double gain;
+        double positiveShare;
+        Node left;
+        Node right;
+
+        boolean goesLeft(FeatureBins bins, int row) {
+            int code = bins.code(feature, row);
+            return code == FeatureBins.MISSING ? missingLeft : code <= threshold;
+        }
+    }
+
+    private record Tree(double[] impurityDecrease, double[] permutationIncrease) {
+    }
+
+    /** Grows one tree on a bootstrap sample and scores it on its out-of-bag rows. */
+    private static final class TreeTask extends RecursiveTask<Tree> {
+        private final Forest forest;
+        private final SplittableRandom random;
+
+        TreeTask(Forest forest, SplittableRandom random) {
+            this.forest = forest;
+            this.random = random;
+        }
+
+        @Override
+        protected Tree compute() {
+            int n = forest.rows.length;
+            int[] sample = new int[n];
+            BitSet inBag = new BitSet(n);
+            for (int i = 0; i < n; i++) {
+                int index = random.nextInt(n);
+                sample[i] = forest.rows[index];
+                inBag.set(index);
+            }
+            Node root = new Node();
+            new GrowTask(forest, root, sample, 0, n, 0, random.split()).invoke();
+
+            double[] impurity = new double[forest.bins.featureCount()];
+            BitSet used = new BitSet(impurity.length);
+            collect(root, impurity, used);
+
+            int[] oob = new int[n - inBag.cardinality()];
+            for (int i = inBag.nextClearBit(0), k = 0; i < n; i = inBag.nextClearBit(i + 1)) {
+                oob[k++] = i;
+            }
+            double[] permutation = new double[impurity.length];
+            if (oob.length > 0) {
+                permutation(root, oob, used, permutation);
+            }
+            forest.afterTree.run();
+            return new Tree(impurity, permutation);
+        }
+
+        private static void collect(Node node, double[] impurity, BitSet used) {
+            if (node.feature < 0) {
+                return;
+            }
+            impurity[node.feature] += node.gain;
+            used.set(node.feature);
+            collect(node.left, impurity, used);
+            collect(node.right, impurity, used);
+        }
+
+        /** Leaf reached by a row, reading feature {@code permuted} from {@code substitute} instead. */
+        private Node leaf(Node node, int row, int permuted, int substitute) {
+            while (node.feature >= 0) {
+                node = node.goesLeft(forest.bins, node.feature == permuted ? substitute : row) ? node.left : node.right;
+            }
+            return node;
+        }
+
+        /**
+         * Scores the tree on its out-of-bag rows, then measures how much the balanced error grows
+         * when each used feature is read from a random other out-of-bag row. Only rows whose path
+         * tests the feature can land in a different leaf, so only those are routed again.
+         */
+        private void permutation(Node root, int[] oob, BitSet used, double[] increase) {
+            int[] oobRows = new int[oob.length];
+            double[] shares = new double[oob.length];
+            boolean[] wrong = new boolean[oob.length];
+            int[][] affected = new int[increase.length][];
+            int[] affectedCount = new int[increase.length];
+            double totalWeight = 0;
+            for (int k = 0; k < oob.length; k++) {
+                int row = forest.rows[oob[k]];
+                oobRows[k] = row;
+                Node node = root;
+                while (node.feature >= 0) {
+                    int f = node.feature;
+                    int count = affectedCount[f];
+                    if (count == 0 || affected[f][count - 1] != k) {
+                        if (affected[f] == null) {
+                            affected[f] = new int[16];
+                        } else if (count == affected[f].length) {
+                            affected[f] = Arrays.copyOf(affected[f], count * 2);
+                        }
+                        affected[f][affectedCount[f]++] = k;
+                    }
+                    node = node.goesLeft(forest.bins, row) ? node.left : node.right;
+                }
+                shares[k] = node.positiveShare;
+                wrong[k] = (shares[k] > 0.5) != forest.positive[row];
+                totalWeight += forest.weight(row);
+            }
+            forest.addOobVotes(oob, shares);
+
+            for (int f = used.nextSetBit(0); f >= 0; f = used.nextSetBit(f + 1)) {
+                double change = 0;
+                for (int i = 0; i < affectedCount[f]; i++) {
+                    int k = affected[f][i];
+                    int row = oobRows[k];
+                    int substitute = oobRows[random.nextInt(oobRows.length)];
+                    boolean nowWrong = (leaf(root, row, f, substitute).positiveShare > 0.5) != forest.positive[row];
+                    if (nowWrong != wrong[k]) {
+                        change += nowWrong ? forest.weight(row) : -forest.weight(row);
+                    }
+                }
+                increase[f] = change / totalWeight;
+            }
+        }
+    }
+
+    /** Splits {@code sample[from, to)} into {@code node}'s children, partitioning the range in place. */
+    private static final class GrowTask extends RecursiveAction {
+        private final Forest forest;
+        private final Node node;
+        private final int[] sample;
+        private final int from;
+        private final int to;
+        private final int depth;
+        private final SplittableRandom random;
+
+        GrowTask(Forest forest, Node node, int[] sample, int from, int to, int depth, SplittableRandom random) {
+            this.forest = forest;
+            this.node = node;
+            this.sample = sample;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+            this.random = random;
+        }
+
+        @Override
+        protected void compute() {
+            double positiveWeight = 0;
+            double totalWeight = 0;
+            for (int i = from; i < to; i++) {
+                double weight = forest.weight(sample[i]);
+                totalWeight += weight;
+                if (forest.positive[sample[i]]) {
+                    positiveWeight += weight;
+                }
+            }
+            node.positiveShare = positiveWeight / totalWeight;
+            int size = to - from;
+            int minLeaf = forest.options.minLeafSize();
+            if (depth >= forest.options.maxDepth() || size < 2 * minLeaf
+                    || positiveWeight == 0 || positiveWeight == totalWeight) {
+                return;
+            }
+
+            double parentImpurity = gini(positiveWeight, totalWeight);
+            double bestGain = 1e-12;
+            int bestFeature = -1;
+            int bestThreshold = 0;
+            boolean bestMissingLeft = false;
+            int featureCount = forest.bins.featureCount();
+            int[] candidates = new int[featureCount];
+            for (int f = 0; f < featureCount; f++) {
+                candidates[f] = f;
+            }
+            int[] positiveCounts = new int[FeatureBins.MAX_BINS + 1];
+            int[] totalCounts = new int[FeatureBins.MAX_BINS + 1];
+            for (int c = 0; c < forest.featuresPerSplit; c++) {
+                int pick = c + random.nextInt(featureCount - c);
+                int feature = candidates[pick];
+                candidates[pick] = candidates[c];
+                candidates[c] = feature;
+
+                int binCount = forest.bins.binCount(feature);
+                Arrays.fill(positiveCounts, 0, binCount, 0);
+                Arrays.fill(totalCounts, 0, binCount, 0);
+                byte[] codes = forest.bins.codes(feature);
+                for (int i = from; i < to; i++) {
+                    int row = sample[i];
+                    int code = codes[row] & 0xFF;
+                    totalCounts[code]++;
+                    if (forest.positive[row]) {
+                        positiveCounts[code]++;
+                    }
+                }
+                int missingPositive = positiveCounts[FeatureBins.MISSING];
+                int missingNegative = totalCounts[FeatureBins.MISSING] - missingPositive;
+                int leftPositive = 0;
+                int leftNegative = 0;
+                for (int threshold = 1; threshold < binCount - 1; threshold++) {
+                    leftPositive += positiveCounts[threshold];
+                    leftNegative += totalCounts[threshold] - positiveCounts[threshold];
+                    for (int side = 0; side < 2; side++) {
+                        boolean missingLeft = side == 0;
+                        int lp = leftPositive + (missingLeft ? missingPositive : 0);
+                        int ln = leftNegative + (missingLeft ? missingNegative : 0);
+                        int leftSize = lp + ln;
+                        if (leftSize < minLeaf || size - leftSize < minLeaf) {
+                            continue;
+                        }
+                        double leftPositiveWeight = lp * forest.positiveWeight;
+                        double leftWeight = leftPositiveWeight + ln * forest.negativeWeight;
+                        double rightPositiveWeight = positiveWeight - leftPositiveWeight;
+                        double rightWeight = totalWeight - leftWeight;
+                        double gain = parentImpurity
+                                - (leftWeight * gini(leftPositiveWeight, leftWeight)
+                                + rightWeight * gini(rightPositiveWeight, rightWeight)) / totalWeight;
+                        if (gain > bestGain) {
+                            bestGain = gain;
+                            bestFeature = feature;
+                            bestThreshold = threshold;
+                            bestMissingLeft = missingLeft;
+                        }
+                    }
+                }
+            }
+            if (bestFeature < 0) {
+                return;
+            }
+
+            node.feature = bestFeature;
+            node.threshold = bestThreshold;
+            node.missingLeft = bestMissingLeft;
+            // Weighted by the node's share of the training weight, as in mean decrease in impurity
+            node.gain = bestGain * totalWeight / forest.rows.length;
+            int middle = from;
+            for (int i = from; i < to; i++) {
+                if (node.goesLeft(forest.bins, sample[i])) {
+                    int swap = sample[middle];
+                    sample[middle++] = sample[i];
+                    sample[i] = swap;
+                }
+            }
+            node.left = new Node();
+            node.right = new Node();
+            GrowTask left = new GrowTask(forest, node.left, sample, from, middle, depth + 1, random.split());
+            GrowTask right = new GrowTask(forest, node.right, sample, middle, to, depth + 1, random.split());
+            if (size > FORK_THRESHOLD) {
+                left.fork();
+                right.compute();
+                left.join();
+            } else {
+                left.compute();
+                right.compute();
+            }
+        }
+
+        private static double gini(double positiveWeight, double totalWeight) {
+            if (totalWeight <= 0) {
+                return 0;
+            }
+            double p = positiveWeight / totalWeight;
+            return 2 * p * (1 - p);
+        }
+    }
+}
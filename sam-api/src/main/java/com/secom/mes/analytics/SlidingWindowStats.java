@@ -0,0 +1,123 @@
+package com.secom.mes.analytics;
+
+/**
+ * Two adjacent sliding windows over a stream of readings, stored in one primitive ring buffer.
+ * The newest {@code windowSize} values form the recent window and the {@code windowSize}
+ * values before them form the reference window. Sums and sums of squares for both windows
+ * are maintained incrementally, so memory is bounded by the window size and updates are O(1).
+ *
+ * Not thread-safe; callers synchronize.
+ */
+public class SlidingWindowStats {
+
+    private final int windowSize;
+    private final double[] ring;
+    private int head;
+    private int size;
+    private long updatesSinceRecompute;
+
+    private double recentSum;
+    private double recentSumSq;
+    private double referenceSum;
+    private double referenceSumSq;
+
+    public SlidingWindowStats(int windowSize) {
+        this.windowSize = windowSize;
+        this.ring = new double[windowSize * 2];
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (size == ring.length) {
+            double evicted = ring[head];
+            referenceSum -= evicted;
+            referenceSumSq -= evicted * evicted;
+        }
+        if (size >= windowSize) {
+            double aged = ring[(head + size - windowSize) % ring.length];
+            recentSum -= aged;
+            recentSumSq -= aged * aged;
+            referenceSum += aged;
+            referenceSumSq += aged * aged;
+        }
+        if (size == ring.length) {
+            ring[head] = value;
+            head = (head + 1) % ring.length;
+        } else {
+            ring[(head + size) % ring.length] = value;
+            size++;
+        }
+        recentSum += value;
+        recentSumSq += value * value;
+
+        // Running sums accumulate rounding error; rebuild them once per full turn of the ring.
+        if (++updatesSinceRecompute >= ring.length) {
+            recompute();
+        }
+    }
+
+    private void recompute() {
+        recentSum = recentSumSq = referenceSum = referenceSumSq = 0;
+        int recent = recentCount();
+        for (int i = 0; i < size; i++) {
+            double v = ring[(head + i) % ring.length];
+            if (i >= size - recent) {
+                recentSum += v;
+                recentSumSq += v * v;
+            } else {
+                referenceSum += v;
+                referenceSumSq += v * v;
+            }
+        }
+        updatesSinceRecompute = 0;
+    }
+
+    public int windowSize() {
+        return windowSize;
+    }
+
+    public int recentCount() {
+        return Math.min(size, windowSize);
+    }
+
+    public int referenceCount() {
+        return Math.max(0, size - windowSize);
+    }
+
+    public double recentSum() {
+        return recentSum;
+    }
+
+    public double recentSumSq() {
+        return recentSumSq;
+    }
+
+    public double recentMean() {
+        return mean(recentSum, recentCount());
+    }
+
+    public double recentVariance() {
+        return variance(recentSum, recentSumSq, recentCount());
+    }
+
+    public double referenceMean() {
+        return mean(referenceSum, referenceCount());
+    }
+
+    public double referenceVariance() {
+        return variance(referenceSum, referenceSumSq, referenceCount());
+    }
+
+    private static double mean(double sum, int n) {
+        return n > 0 ? sum / n : Double.NaN;
+    }
+
+    private static double variance(double sum, double sumSq, int n) {
+        if (n < 2) {
+            return Double.NaN;
+        }
+        return Math.max(0.0, (sumSq - sum * sum / n) / (n - 1));
+    }
+}
@@ -0,0 +1,173 @@
+package com.secom.mes.archive;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzipped tab-separated lot_measurement rows of one archived partition.
+ *
+ * One header line starting with '#', then one line per row with the lot_measurement columns
+ * in table order; an empty field is NULL and timestamps are ISO local date-times. Files are
+ * written under a temporary name and moved into place once complete, so a file that exists
+ * is whole.
+ */
+public final class MeasurementArchiveFile {
+
+    static final String HEADER =
+            "#measurement_id\tlot_id\tfeature_id\tmeasurement_value\tis_out_of_spec\tmeasured_at\tcreated_at";
+
+    private MeasurementArchiveFile() {
+    }
+
+    /** One archived lot_measurement row. */
+    public record Row(long measurementId, int lotId, int featureId, Double measurementValue,
+                      boolean outOfSpec, LocalDateTime measuredAt, LocalDateTime createdAt) {
+    }
+
+    /** Writes rows to a new archive file; {@link #commit()} makes it visible. */
+    public static final class Writer implements Closeable {
+
+        private final Path file;
+        private final Path temporary;
+        private final FileOutputStream output;
+        private final BufferedWriter writer;
+        private final StringBuilder line = new StringBuilder(96);
+        private long rows;
+        private long outOfSpecRows;
+        private int minLotId = Integer.MAX_VALUE;
+        private int maxLotId = Integer.MIN_VALUE;
+        private boolean committed;
+
+        public Writer(Path file) throws IOException {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            this.file = file;
+            this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            this.output = new FileOutputStream(temporary.toFile());
+            this.writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(output, 1 << 16), StandardCharsets.UTF_8), 1 << 16);
+            writer.write(HEADER);
+            writer.write('\n');
+        }
+
+        public void write(Row row) throws IOException {
+            line.setLength(0);
+            line.append(row.measurementId()).append('\t')
+                    .append(row.lotId()).append('\t')
+                    .append(row.featureId()).append('\t');
+            if (row.measurementValue() != null) {
+                line.append(row.measurementValue().doubleValue());
+            }
+            line.append('\t').append(row.outOfSpec() ? '1' : '0').append('\t');
+            if (row.measuredAt() != null) {
+                line.append(row.measuredAt());
+            }
+            line.append('\t');
+            if (row.createdAt() != null) {
+                line.append(row.createdAt());
+            }
+            line.append('\n');
+            writer.append(line);
+            rows++;
+            outOfSpecRows += row.outOfSpec() ? 1 : 0;
+            minLotId = Math.min(minLotId, row.lotId());
+            maxLotId = Math.max(maxLotId, row.lotId());
+        }
+
+        /** Flushes, syncs and moves the file into place. */
+        public void commit() throws IOException {
+            writer.flush();
+            writer.close();
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        public long rows() {
+            return rows;
+        }
+
+        public long outOfSpecRows() {
+            return outOfSpecRows;
+        }
+
+        /** Null when no rows were written. */
+        public Integer minLotId() {
+            return rows > 0 ? minLotId : null;
+        }
+
+        public Integer maxLotId() {
+            return rows > 0 ? maxLotId : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    output.close();
+                }
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Streams the rows of an archive file that pass {@code filter} to {@code consumer}.
+     *
+     * @return rows read, matching or not
+     */
+    public static long read(Path file, Predicate<Row> filter, Consumer<Row> consumer) throws IOException {
+        long rows = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file), 1 << 16), StandardCharsets.UTF_8), 1 << 16)) {
+            String header = reader.readLine();
+            if (!HEADER.equals(header)) {
+                throw new IOException(file + " is not a measurement archive");
+            }
+            String text;
+            while ((text = reader.readLine()) != null) {
+                Row row = parse(text);
+                rows++;
+                if (filter.test(row)) {
+                    consumer.accept(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static Row parse(String text) throws IOException {
+        String[] fields = new String[7];
+        int start = 0;
+        for (int i = 0; i < 6; i++) {
+            int tab = text.indexOf('\t', start);
+            if (tab < 0) {
+                throw new IOException("Malformed archive line: " + text);
+            }
+            fields[i] = text.substring(start, tab);
+            start = tab + 1;
+        }
+        fields[6] = text.substring(start);
+        return new Row(
+                Long.parseLong(fields[0]),
+                Integer.parseInt(fields[1]),
+                Integer.parseInt(fields[2]),
+                fields[3].isEmpty() ? null : Double.valueOf(fields[3]),
+                "1".equals(fields[4]),
+                fields[5].isEmpty() ? null : LocalDateTime.parse(fields[5]),
+                fields[6].isEmpty() ? null : LocalDateTime.parse(fields[6]));
+    }
+}
@@ -0,0 +1,109 @@
+package com.secom.mes.bulkhead;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded concurrency for one endpoint class: a fixed number of slots and a bounded FIFO
+ * queue in front of them. A request that finds the queue full, or does not get a slot within
+ * the wait limit, is refused instead of piling up threads and connections behind the others.
+ */
+public class Bulkhead {
+
+    /** Why a request was refused. */
+    public enum Rejection { QUEUE_FULL, WAIT_TIMEOUT }
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final Semaphore slots;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejectedQueueFull = new AtomicLong();
+    private final AtomicLong rejectedWaitTimeout = new AtomicLong();
+    private final AtomicLong statementTimeouts = new AtomicLong();
+
+    public Bulkhead(String name, int maxConcurrent, int maxQueue, Duration maxWait) {
+        if (maxConcurrent < 1 || maxQueue < 0) {
+            throw new IllegalArgumentException("Bulkhead " + name + " needs maxConcurrent >= 1 and maxQueue >= 0");
+        }
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.slots = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Takes a slot, waiting in the queue if all are busy.
+     *
+     * @return null once a slot is held (give it back with {@link #release()}), otherwise why the
+     *         request was refused
+     */
+    public Rejection acquire() throws InterruptedException {
+        // The timed form respects the queue order; the untimed tryAcquire() would barge ahead of it
+        if (slots.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+            admitted.incrementAndGet();
+            return null;
+        }
+        if (queued.incrementAndGet() > maxQueue) {
+            queued.decrementAndGet();
+            rejectedQueueFull.incrementAndGet();
+            return Rejection.QUEUE_FULL;
+        }
+        try {
+            if (!slots.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                rejectedWaitTimeout.incrementAndGet();
+                return Rejection.WAIT_TIMEOUT;
+            }
+        } finally {
+            queued.decrementAndGet();
+        }
+        admitted.incrementAndGet();
+        return null;
+    }
+
+    public void release() {
+        slots.release();
+    }
+
+    public void recordStatementTimeout() {
+        statementTimeouts.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxQueue() {
+        return maxQueue;
+    }
+
+    public int active() {
+        return maxConcurrent - slots.availablePermits();
+    }
+
+    public int queued() {
+        return queued.get();
+    }
+
+    public long admitted() {
+        return admitted.get();
+    }
+
+    public long rejected(Rejection reason) {
+        return reason == Rejection.QUEUE_FULL ? rejectedQueueFull.get() : rejectedWaitTimeout.get();
+    }
+
+    public long statementTimeouts() {
+        return statementTimeouts.get();
+    }
+}
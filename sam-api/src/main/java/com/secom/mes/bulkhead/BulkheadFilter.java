@@ -0,0 +1,158 @@
+package com.secom.mes.bulkhead;
+
+import com.secom.mes.config.BulkheadProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admits each request through the bulkhead of its endpoint class (secom.bulkhead.classes).
+ *
+ * Heavy classes such as analytics views and bulk measurement dumps get a few slots and a short
+ * queue, so a burst of them is refused with 429 and Retry-After instead of taking every request
+ * thread and DB connection from lot and quality CRUD. Classes with a statement timeout also have
+ * their SELECTs cut off by the database; such a request ends with 503 and Retry-After.
+ *
+ * Per-class meters: secom.bulkhead.active, .queued, .limit (gauges) and .admitted, .rejected
+ * (tagged with reason), .statement.timeouts (counters), all tagged with the class name.
+ */
+@Component
+public class BulkheadFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkheadFilter.class);
+
+    private static final String ACTUATOR_PREFIX = "/actuator";
+
+    private final boolean enabled;
+    private final List<Route> routes = new ArrayList<>();
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    private record Route(List<String> paths, Bulkhead bulkhead, Duration retryAfter, Duration statementTimeout) {
+    }
+
+    public BulkheadFilter(BulkheadProperties properties, MeterRegistry meterRegistry) {
+        this.enabled = properties.isEnabled();
+        for (Map.Entry<String, BulkheadProperties.EndpointClass> entry : properties.getClasses().entrySet()) {
+            BulkheadProperties.EndpointClass settings = entry.getValue();
+            Bulkhead bulkhead = new Bulkhead(entry.getKey(), settings.getMaxConcurrent(),
+                    settings.getMaxQueue(), settings.getMaxWait());
+            routes.add(new Route(List.copyOf(settings.getPaths()), bulkhead,
+                    settings.getRetryAfter(), settings.getStatementTimeout()));
+            registerMeters(meterRegistry, bulkhead);
+        }
+    }
+
+    private static void registerMeters(MeterRegistry registry, Bulkhead bulkhead) {
+        String name = bulkhead.getName();
+        Gauge.builder("secom.bulkhead.active", bulkhead, Bulkhead::active)
+                .tag("class", name).description("Requests holding a slot").register(registry);
+        Gauge.builder("secom.bulkhead.queued", bulkhead, Bulkhead::queued)
+                .tag("class", name).description("Requests waiting for a slot").register(registry);
+        Gauge.builder("secom.bulkhead.limit", bulkhead, Bulkhead::getMaxConcurrent)
+                .tag("class", name).description("Slots of the class").register(registry);
+        FunctionCounter.builder("secom.bulkhead.admitted", bulkhead, Bulkhead::admitted)
+                .tag("class", name).register(registry);
+        for (Bulkhead.Rejection reason : Bulkhead.Rejection.values()) {
+            FunctionCounter.builder("secom.bulkhead.rejected", bulkhead, b -> b.rejected(reason))
+                    .tag("class", name).tag("reason", reason.name().toLowerCase())
+                    .description("Requests refused with 429").register(registry);
+        }
+        FunctionCounter.builder("secom.bulkhead.statement.timeouts", bulkhead, Bulkhead::statementTimeouts)
+                .tag("class", name).description("Requests ended by a statement timeout").register(registry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || urlPathHelper.getPathWithinApplication(request).startsWith(ACTUATOR_PREFIX);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Route route = route(urlPathHelper.getPathWithinApplication(request));
+        if (route == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        Bulkhead bulkhead = route.bulkhead();
+        Bulkhead.Rejection rejection;
+        try {
+            rejection = bulkhead.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            refuse(response, HttpStatus.SERVICE_UNAVAILABLE, route, "Interrupted while queued");
+            return;
+        }
+        if (rejection != null) {
+            log.debug("Refusing {} {} ({} bulkhead: {})", request.getMethod(), request.getRequestURI(),
+                    bulkhead.getName(), rejection);
+            refuse(response, HttpStatus.TOO_MANY_REQUESTS, route,
+                    "Too many concurrent " + bulkhead.getName() + " requests, retry later");
+            return;
+        }
+        try {
+            if (route.statementTimeout() != null) {
+                StatementTimeoutInspector.set(route.statementTimeout());
+            }
+            chain.doFilter(request, response);
+        } catch (ServletException | RuntimeException e) {
+            if (!isStatementTimeout(e) || response.isCommitted()) {
+                throw e;
+            }
+            bulkhead.recordStatementTimeout();
+            log.warn("{} {} exceeded the {} statement timeout of {}", request.getMethod(), request.getRequestURI(),
+                    bulkhead.getName(), route.statementTimeout());
+            refuse(response, HttpStatus.SERVICE_UNAVAILABLE, route, "Query exceeded the statement timeout");
+        } finally {
+            StatementTimeoutInspector.clear();
+            bulkhead.release();
+        }
+    }
+
+    private Route route(String path) {
+        for (Route route : routes) {
+            for (String pattern : route.paths()) {
+                if (pathMatcher.match(pattern, path)) {
+                    return route;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void refuse(HttpServletResponse response, HttpStatus status, Route route, String message)
+            throws IOException {
+        long seconds = Math.max(1, (route.retryAfter().toMillis() + 999) / 1000);
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(seconds));
+        response.sendError(status.value(), message);
+    }
+
+    private static boolean isStatementTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sql && sql.getErrorCode() == StatementTimeoutInspector.TIMEOUT_ERROR_CODE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
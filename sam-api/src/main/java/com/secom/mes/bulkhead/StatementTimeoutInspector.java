@@ -0,0 +1,156 @@
+package com.secom.mes.bulkhead;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Caps how long the SELECTs issued on the current thread may run, through JPA and JdbcTemplate
+ * alike.
+ *
+ * Every DataSource is wrapped (the application's as it is created, shard pools by the shard
+ * registry) so that each statement passes through here on its way to the driver. The limit
+ * travels with the statement as MariaDB's {@code SET STATEMENT max_statement_time=N FOR}, so it
+ * costs no extra round trip and cannot leak to the next user of the pooled connection.
+ * The server aborts an overrunning query with error {@value #TIMEOUT_ERROR_CODE}.
+ */
+@Component
+public class StatementTimeoutInspector implements BeanPostProcessor {
+
+    /** MariaDB ER_STATEMENT_TIMEOUT. */
+    public static final int TIMEOUT_ERROR_CODE = 1969;
+
+    private static final ThreadLocal<String> TIMEOUT_PREFIX = new ThreadLocal<>();
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        return bean instanceof DataSource dataSource ? wrap(dataSource) : bean;
+    }
+
+    /** A DataSource whose connections apply the current thread's timeout to their SELECTs. */
+    public static DataSource wrap(DataSource dataSource) {
+        return dataSource instanceof TimeoutDataSource ? dataSource : new TimeoutDataSource(dataSource);
+    }
+
+    /** Applies {@code timeout} to SELECTs run by this thread until {@link #clear()}. */
+    public static void set(Duration timeout) {
+        TIMEOUT_PREFIX.set(String.format(Locale.ROOT, "SET STATEMENT max_statement_time=%.3f FOR ",
+                timeout.toMillis() / 1000.0));
+    }
+
+    public static void clear() {
+        TIMEOUT_PREFIX.remove();
+    }
+
+    /** Runs {@code task} under the calling thread's timeout, for queries handed to another thread. */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        String prefix = TIMEOUT_PREFIX.get();
+        if (prefix == null) {
+            return task;
+        }
+        return () -> {
+            TIMEOUT_PREFIX.set(prefix);
+            try {
+                return task.call();
+            } finally {
+                TIMEOUT_PREFIX.remove();
+            }
+        };
+    }
+
+    static String inspect(String sql) {
+        String prefix = TIMEOUT_PREFIX.get();
+        return prefix != null && isSelect(sql) ? prefix + sql : sql;
+    }
+
+    /** max_statement_time only applies to SELECT; other statements are left alone. */
+    private static boolean isSelect(String sql) {
+        int i = 0;
+        int length = sql.length();
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                if (end < 0) {
+                    return false;
+                }
+                i = end + 2;
+            } else {
+                break;
+            }
+        }
+        return sql.regionMatches(true, i, "select", 0, 6) || sql.regionMatches(true, i, "with", 0, 4);
+    }
+
+    private static final class TimeoutDataSource extends DelegatingDataSource {
+
+        TimeoutDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return proxy(Connection.class, super.getConnection(), "prepareStatement");
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return proxy(Connection.class, super.getConnection(username, password), "prepareStatement");
+        }
+    }
+
+    /**
+     * Rewrites the SQL passed to {@code sqlMethod}; statements created by a proxied connection are
+     * proxied in turn for their executeQuery and execute.
+     */
+    private static <T> T proxy(Class<T> type, T target, String... sqlMethods) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (args != null && args.length > 0 && args[0] instanceof String sql && contains(sqlMethods, method)) {
+                args[0] = inspect(sql);
+            }
+            Object result = invoke(method, target, args);
+            if (result instanceof Statement statement && "createStatement".equals(method.getName())) {
+                return proxy(Statement.class, statement, "executeQuery", "execute");
+            }
+            return result;
+        }));
+    }
+
+    private static boolean contains(String[] names, Method method) {
+        for (String name : names) {
+            if (name.equals(method.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.secom.mes.conditional;
+
+import com.secom.mes.config.ConditionalGetProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Conditional GET for reference data and analytics. Responses carry a strong ETag and
+ * Last-Modified taken from the {@link ResourceVersions} version of their resource; a request
+ * whose If-None-Match (or, without it, If-Modified-Since) still matches is answered 304 here,
+ * before the bulkhead, the controller or the database is reached.
+ *
+ * Endpoints that also read measurements, such as drift, series and spec-limit simulation, are
+ * not versioned: measurements change without a version bump. Like the caches, the versions only
+ * see writes made through the API.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 10)
+public class ConditionalGetFilter extends OncePerRequestFilter {
+
+    /** Versioned paths and the resource whose version they follow; {@code {endpoint}} is the analytics endpoint. */
+    private static final List<Map.Entry<String, String>> ROUTES = List.of(
+            Map.entry("/equipment", ResourceVersions.EQUIPMENT),
+            Map.entry("/equipment/{id:\\d+}", ResourceVersions.EQUIPMENT),
+            Map.entry("/equipment/code/*", ResourceVersions.EQUIPMENT),
+            Map.entry("/equipment/type/*", ResourceVersions.EQUIPMENT),
+            Map.entry("/shifts", ResourceVersions.SHIFTS),
+            Map.entry("/shifts/**", ResourceVersions.SHIFTS),
+            Map.entry("/features", ResourceVersions.FEATURES),
+            Map.entry("/features/{id:\\d+}", ResourceVersions.FEATURES),
+            Map.entry("/features/code/*", ResourceVersions.FEATURES),
+            Map.entry("/features/category/*", ResourceVersions.FEATURES),
+            Map.entry("/features/critical", ResourceVersions.FEATURES),
+            Map.entry("/features/search", ResourceVersions.FEATURES),
+            Map.entry("/analytics/{endpoint}", ResourceVersions.ANALYTICS)
+    );
+
+    /** Analytics endpoints with a version; the cube is rebuilt on its own schedule and is left out. */
+    private static final List<String> ANALYTICS_ENDPOINTS = List.of("summary", "equipment-health",
+            "shift-performance", "quality-summary", "high-risk-lots", "defect-distribution",
+            "risk-distribution", "feature-importance");
+
+    private final boolean enabled;
+    private final String cacheControl;
+    private final ResourceVersions resourceVersions;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> notModifiedCounters = new ConcurrentHashMap<>();
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    public ConditionalGetFilter(ConditionalGetProperties properties, ResourceVersions resourceVersions,
+                                MeterRegistry meterRegistry) {
+        this.enabled = properties.isEnabled();
+        this.cacheControl = properties.getCacheControl();
+        this.resourceVersions = resourceVersions;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !("GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String resource = resource(urlPathHelper.getPathWithinApplication(request));
+        if (resource == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        // Read before the handler runs: a change committed meanwhile leaves the body newer than its tag, never older
+        ResourceVersions.Version version = resourceVersions.current(resource);
+        if (version == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (cacheControl != null && !cacheControl.isBlank()) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+        if (new ServletWebRequest(request, response)
+                .checkNotModified(resourceVersions.etag(resource, version), version.lastModified())) {
+            notModifiedCounters.computeIfAbsent(resource, key -> Counter.builder("secom.conditional-get.not-modified")
+                    .tag("resource", key).description("Requests answered 304 from the resource version")
+                    .register(meterRegistry)).increment();
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    private String resource(String path) {
+        for (Map.Entry<String, String> route : ROUTES) {
+            if (!pathMatcher.match(route.getKey(), path)) {
+                continue;
+            }
+            if (!ResourceVersions.ANALYTICS.equals(route.getValue())) {
+                return route.getValue();
+            }
+            String endpoint = pathMatcher.extractUriTemplateVariables(route.getKey(), path).get("endpoint");
+            return ANALYTICS_ENDPOINTS.contains(endpoint) ? ResourceVersions.ANALYTICS + endpoint : null;
+        }
+        return null;
+    }
+}
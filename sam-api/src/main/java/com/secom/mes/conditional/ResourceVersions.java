@@ -0,0 +1,147 @@
+package com.secom.mes.conditional;
+
+import com.secom.mes.service.AnalyticsCache;
+import com.secom.mes.service.EntityChangeLog;
+import com.secom.mes.service.EntityChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versions of the resources served with ETags. Every write handler records its change in
+ * {@link EntityChangeLog}; the resulting {@link EntityChangedEvent} (after commit here, via the
+ * change log poll on other replicas) moves the version of each resource built from that table
+ * on to the change_id of that change. Versions start from the newest logged change of each
+ * table, so replicas that have applied the same changes hand out the same ETags.
+ */
+@Component
+public class ResourceVersions {
+
+    private static final Logger log = LoggerFactory.getLogger(ResourceVersions.class);
+
+    public static final String EQUIPMENT = "equipment";
+    public static final String SHIFTS = "shifts";
+    public static final String FEATURES = "features";
+    /** Prefix of the per-endpoint analytics resources, e.g. analytics/summary. */
+    public static final String ANALYTICS = "analytics/";
+
+    /** Reference data resources and the table they are read from. */
+    private static final Map<String, List<String>> DEPENDENT_RESOURCES = Map.of(
+            EntityChangeLog.EQUIPMENT, List.of(EQUIPMENT),
+            EntityChangeLog.SHIFT, List.of(SHIFTS),
+            EntityChangeLog.FEATURE_META, List.of(FEATURES)
+    );
+
+    /**
+     * A resource's version: the highest change_id applied to it, the number of changes applied
+     * since that carried a lower change_id, and when it last moved, in epoch milliseconds on a
+     * whole second.
+     */
+    public record Version(long changeId, int late, long lastModified) {
+    }
+
+    private static final Version INITIAL = new Version(0, 0, 0);
+
+    private final JdbcTemplate jdbcTemplate;
+    /** Marks ETags only this process can hand out, see {@link #etag}. */
+    private final String processTag = Long.toString(System.currentTimeMillis(), 36);
+    private final ConcurrentHashMap<String, Version> versions = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    public ResourceVersions(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /** The resource's current version, or null while the change log cannot be read. */
+    public Version current(String resource) {
+        return ensureLoaded() ? versions.getOrDefault(resource, INITIAL) : null;
+    }
+
+    /**
+     * Strong ETag of the resource at {@code version}, e.g. "shifts-1042". A change that commits
+     * after a higher-numbered one (see {@link com.secom.mes.service.EntityChangePoller}) leaves the
+     * change_id where it is, so from then on the tag also names this process, e.g.
+     * "shifts-1042-mvf1xaq1-1": other replicas may have applied a different set of changes.
+     */
+    public String etag(String resource, Version version) {
+        String tag = resource + "-" + version.changeId();
+        if (version.late() > 0) {
+            tag += "-" + processTag + "-" + version.late();
+        }
+        return "\"" + tag + "\"";
+    }
+
+    /** Runs after the caches listening for the same event, see {@link AnalyticsCache#onEntityChanged}. */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onEntityChanged(EntityChangedEvent event) {
+        ensureLoaded();
+        long changedAt = System.currentTimeMillis() / 1000 * 1000;
+        resourcesOf(event.getEntityType()).forEach(resource -> apply(resource, event.getChangeId(), changedAt));
+    }
+
+    /**
+     * Moves the version on. Last-Modified only has whole seconds, so each change also moves it at
+     * least a second past the previous one; otherwise a second change within the same second
+     * would still pass an If-Modified-Since check.
+     */
+    private void apply(String resource, long changeId, long changedAt) {
+        versions.compute(resource, (key, previous) -> {
+            Version base = previous != null ? previous : INITIAL;
+            if (changeId == base.changeId()) {
+                // Already counted when the versions were read from the log
+                return base;
+            }
+            long lastModified = Math.max(changedAt, base.lastModified() + 1000);
+            return changeId > base.changeId()
+                    ? new Version(changeId, 0, lastModified)
+                    : new Version(base.changeId(), base.late() + 1, lastModified);
+        });
+    }
+
+    /**
+     * Starts every resource at the newest logged change of its tables. The change log poller
+     * keeps the newest row of each table when it purges, so this never moves backwards.
+     */
+    private boolean ensureLoaded() {
+        if (loaded) {
+            return true;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return true;
+            }
+            try {
+                jdbcTemplate.query("""
+                        SELECT entity_type, MAX(change_id), MAX(changed_at)
+                        FROM entity_change_log
+                        GROUP BY entity_type
+                        """, rs -> {
+                    Version newest = new Version(rs.getLong(2), 0, rs.getTimestamp(3).getTime() / 1000 * 1000);
+                    resourcesOf(rs.getString(1)).forEach(resource -> versions.merge(resource, newest,
+                            (current, logged) -> logged.changeId() > current.changeId() ? logged : current));
+                });
+                loaded = true;
+            } catch (DataAccessException e) {
+                log.warn("Reading resource versions from entity_change_log failed: {}", e.getMessage());
+            }
+            return loaded;
+        }
+    }
+
+    private static List<String> resourcesOf(String entityType) {
+        List<String> resources = new ArrayList<>(DEPENDENT_RESOURCES.getOrDefault(entityType, List.of()));
+        AnalyticsCache.dependentEndpoints(entityType).forEach(endpoint -> resources.add(ANALYTICS + endpoint));
+        return resources;
+    }
+}
@@ -0,0 +1,33 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "secom.analytics-cache")
+public class AnalyticsCacheProperties {
+
+    /** Set to false to send every analytics request straight to the database. */
+    private boolean enabled = true;
+
+    /** How long a cached result is served without refreshing. */
+    private Duration ttl = Duration.ofSeconds(60);
+
+    /** How long after the TTL a stale result may still be served while it is refreshed in the background. */
+    private Duration staleWhileRevalidate = Duration.ofMinutes(5);
+
+    /** Per-endpoint TTL overrides, keyed by endpoint name (e.g. feature-importance). */
+    private Map<String, Duration> endpointTtl = new HashMap<>();
+
+    private int maxEntries = 1000;
+
+    private int refreshThreads = 2;
+
+    public Duration ttlFor(String endpoint) {
+        return endpointTtl.getOrDefault(endpoint, ttl);
+    }
+}
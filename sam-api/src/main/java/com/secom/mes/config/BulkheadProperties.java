@@ -0,0 +1,46 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "secom.bulkhead")
+public class BulkheadProperties {
+
+    /** Set to false to admit every request without limits. */
+    private boolean enabled = true;
+
+    /**
+     * Endpoint classes by name. A request belongs to the first class, in declaration order,
+     * with a matching path pattern; requests matching none are not limited.
+     */
+    private Map<String, EndpointClass> classes = new LinkedHashMap<>();
+
+    @Data
+    public static class EndpointClass {
+
+        /** Ant-style path patterns below the context path, e.g. /analytics/**. */
+        private List<String> paths = new ArrayList<>();
+
+        /** Requests of the class running at once; keep the sum of the limited classes below the DB pool size. */
+        private int maxConcurrent = 10;
+
+        /** Requests waiting for a slot; further requests are refused with 429 straight away. */
+        private int maxQueue = 20;
+
+        /** How long a queued request waits for a slot before it is refused with 429. */
+        private Duration maxWait = Duration.ofSeconds(2);
+
+        /** Sent as Retry-After on 429 (and 503 after a statement timeout). */
+        private Duration retryAfter = Duration.ofSeconds(5);
+
+        /** Longest a single SELECT of the class may run; unset means no limit. */
+        private Duration statementTimeout;
+    }
+}
@@ -0,0 +1,32 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "secom.change-log")
+public class ChangeLogProperties {
+
+    /** Set to false on single-instance deployments to stop polling entity_change_log. */
+    private boolean pollingEnabled = true;
+
+    /** How often each replica reads new rows from entity_change_log. */
+    private Duration pollInterval = Duration.ofSeconds(2);
+
+    /**
+     * How far back each poll looks, to pick up changes whose transaction committed after a
+     * later change was already seen. Should exceed the longest write transaction.
+     */
+    private Duration commitGrace = Duration.ofSeconds(30);
+
+    /** Rows older than this are deleted from entity_change_log. */
+    private Duration retention = Duration.ofHours(1);
+
+    /** Writes touching more rows of one type than this are logged as a single type-wide change. */
+    private int maxIdsPerChange = 500;
+
+    /** Identifies this replica in source_instance; a random ID is generated when blank. */
+    private String instanceId;
+}
@@ -0,0 +1,15 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "secom.conditional-get")
+public class ConditionalGetProperties {
+
+    /** Set to false to stop sending ETag/Last-Modified and answering 304 for reference data and analytics. */
+    private boolean enabled = true;
+
+    /** Cache-Control sent with versioned responses; no-cache lets clients store them but revalidate every poll. */
+    private String cacheControl = "no-cache";
+}
@@ -0,0 +1,21 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "secom.dataset-export")
+public class DatasetExportProperties {
+
+    /**
+     * Directory the training-dataset-export job writes its files to. Downloads are served
+     * from it, so with several API instances it must be shared storage.
+     */
+    private String exportDir = "data/dataset-exports";
+
+    /** Lots per record batch when the request does not choose; each batch holds lots x features values. */
+    private int rowGroupLots = 1024;
+
+    /** Upper bound for a requested batch size, which bounds the export's memory. */
+    private int maxRowGroupLots = 4096;
+}
@@ -0,0 +1,44 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "secom.ingest")
+public class IngestProperties {
+
+    /** Set to false to disable POST /measurements/ingest (503) and skip opening the log. */
+    private boolean enabled = true;
+
+    /** Directory of the write-ahead log; must be on persistent, instance-local storage. */
+    private String walDirectory = "data/ingest-wal";
+
+    /** Log segment size; segments are deleted once all their records are in the database. */
+    private long segmentBytes = 64L * 1024 * 1024;
+
+    /** Measurements held in memory until flushed; requests beyond it are refused with 503. */
+    private int bufferCapacity = 200_000;
+
+    /** Largest request accepted, in measurements. */
+    private int maxRecordsPerRequest = 50_000;
+
+    /** Flusher threads, each holding at most one DB connection. */
+    private int flushers = 2;
+
+    /** Measurements per database transaction. */
+    private int batchSize = 5_000;
+
+    /** A flusher waits at most this long for a full batch before writing a partial one. */
+    private Duration linger = Duration.ofMillis(200);
+
+    /** Pause after a failed flush before the same batch is retried. */
+    private Duration retryBackoff = Duration.ofSeconds(2);
+
+    /** On shutdown, flushers get this long to drain the buffer; the rest is replayed from the log. */
+    private Duration drainTimeout = Duration.ofSeconds(10);
+
+    /** Value of the Retry-After header when the buffer is full. */
+    private Duration retryAfter = Duration.ofSeconds(1);
+}
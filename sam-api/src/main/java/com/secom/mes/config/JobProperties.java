@@ -0,0 +1,32 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "secom.jobs")
+public class JobProperties {
+
+    /** Jobs run concurrently on this instance; each holds at most one DB connection at a time. */
+    private int workers = 2;
+
+    /** Jobs waiting on this instance beyond this are refused with 503. */
+    private int queueCapacity = 100;
+
+    /** How often this instance refreshes its jobs' heartbeat and picks up cancel requests. */
+    private Duration heartbeatInterval = Duration.ofSeconds(5);
+
+    /** Unfinished jobs whose heartbeat is older than this are taken over by another instance. */
+    private Duration staleAfter = Duration.ofMinutes(1);
+
+    /** A job interrupted by a crash this many times is failed instead of restarted. */
+    private int maxAttempts = 3;
+
+    /** Progress is written to the database at most this often per job. */
+    private Duration progressInterval = Duration.ofSeconds(1);
+
+    /** Finished jobs and their results are deleted after this long. */
+    private Duration retention = Duration.ofDays(7);
+}
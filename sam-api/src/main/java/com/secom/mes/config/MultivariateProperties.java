@@ -0,0 +1,32 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "secom.multivariate")
+public class MultivariateProperties {
+
+    /** Share of the training lots' variance the principal components must explain. */
+    private double varianceExplained = 0.9;
+
+    /** Upper bound on the number of principal components. */
+    private int maxComponents = 60;
+
+    /** Quantile of the training lots' T^2 and SPE used as control limits. */
+    private double confidence = 0.99;
+
+    /** Features measured in a smaller share of the training lots are left out of the model. */
+    private double minFeatureCoverage = 0.5;
+
+    /** The model is not fitted with fewer passing lots than this. */
+    private int minTrainingLots = 30;
+
+    /**
+     * How often the model is refitted in the background on the lots that have passed by then.
+     * Between refits new lots are scored against the current model as they are ingested.
+     */
+    private Duration refitInterval = Duration.ofHours(1);
+}
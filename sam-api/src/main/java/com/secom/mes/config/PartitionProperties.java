@@ -0,0 +1,36 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "secom.partitioning")
+public class PartitionProperties {
+
+    /**
+     * Set to true to let the API manage monthly partitions of lot_measurement. The first run
+     * converts an unpartitioned table, which rebuilds it once and replaces its foreign keys
+     * with triggers (partitioned InnoDB tables cannot have foreign keys).
+     */
+    private boolean enabled = false;
+
+    /** Months after the current one that always have a partition ready. */
+    private int monthsAhead = 3;
+
+    /**
+     * Partitions whose months all ended at least this many months ago are exported to the
+     * archive directory and dropped. 0 keeps every partition in the database.
+     */
+    private int archiveAfterMonths = 0;
+
+    /**
+     * Directory for archived partitions. Archive reads need the files, so with several API
+     * instances it must be shared storage.
+     */
+    private String archiveDir = "data/measurement-archive";
+
+    /** How often partitions are rolled forward and cold ones archived. */
+    private Duration maintenanceInterval = Duration.ofHours(1);
+}
@@ -0,0 +1,56 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "secom.sharding")
+public class ShardingProperties {
+
+    /**
+     * Set to true to spread lot, lot_measurement and quality_result over the configured shards.
+     * The spring.datasource database is the home shard: it keeps the reference tables, which are
+     * copied to every other shard, and the lots of all product families not assigned elsewhere.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Size of the lot_id and result_id range of each shard; shard n (home is 0) hands out IDs
+     * from n times this value, so a lot's shard follows from its ID. measurement_id ranges are
+     * 1000 times larger.
+     */
+    private long idBlock = 100_000_000L;
+
+    /** Shard queries running at once for fan-out reads, across all requests. */
+    private int fanOutThreads = 8;
+
+    /** Longest a fan-out read waits for the slowest shard before failing with 503. */
+    private Duration fanOutTimeout = Duration.ofSeconds(30);
+
+    /** Shards besides home, in ID-range order; do not reorder once they hold data. */
+    private List<Shard> shards = new ArrayList<>();
+
+    @Data
+    public static class Shard {
+
+        /** Shown in logs and errors. */
+        private String name;
+
+        /** JDBC URL of the shard's database, created from db/init/10-schema.sql. */
+        private String url;
+
+        private String username;
+
+        private String password;
+
+        /** product_type.product_family values whose lots live on this shard. */
+        private List<String> productFamilies = new ArrayList<>();
+
+        /** Connection pool size. */
+        private int maxPoolSize = 5;
+    }
+}
@@ -0,0 +1,26 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "secom.snapshot")
+public class SnapshotProperties {
+
+    /** Set to false to always build the feature matrix from lot_measurement. */
+    private boolean enabled = true;
+
+    /** Snapshot file; must be on persistent, instance-local storage. */
+    private String path = "data/measurement-snapshot.bin";
+
+    /** Lots per file block. New lots fill the last block, then a new one is appended. */
+    private int blockLots = 256;
+
+    /**
+     * How often new measurements are appended to the snapshot. Rows are appended one interval
+     * after they were first seen, so it should exceed the longest write transaction.
+     */
+    private Duration syncInterval = Duration.ofMinutes(1);
+}
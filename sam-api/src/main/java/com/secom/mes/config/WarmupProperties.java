@@ -0,0 +1,28 @@
+package com.secom.mes.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "secom.warmup")
+public class WarmupProperties {
+
+    /** Set to false to report ready as soon as the context is up. */
+    private boolean enabled = true;
+
+    /** Load the feature matrix and search index before reporting ready. */
+    private boolean preloadReferenceData = true;
+
+    /** Requests sent to each endpoint during warm-up. */
+    private int iterations = 10;
+
+    /** Warm-up is abandoned after this long and the instance reports ready regardless. */
+    private Duration timeout = Duration.ofSeconds(60);
+
+    /** GET paths below the context path, requested over loopback HTTP. */
+    private List<String> endpoints = new ArrayList<>();
+}
@@ -1,38 +1,86 @@
 package com.secom.mes.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.secom.mes.analytics.LotCube;
 import com.secom.mes.dto.*;
 import com.secom.mes.repository.FeatureImportanceRepository;
+import com.secom.mes.service.AnalyticsCache;
+import com.secom.mes.service.FeatureImportanceJob;
+import com.secom.mes.service.JobService;
+import com.secom.mes.service.LotCubeService;
+import com.secom.mes.service.RandomForestImportanceJob;
+import com.secom.mes.service.ShardedAnalyticsService;
+import com.secom.mes.shard.ShardQueryException;
+import com.secom.mes.shard.ShardRegistry;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/analytics")
 @Tag(name = "Analytics", description = "Analytics and reporting endpoints using database views")
 public class AnalyticsController {
 
+    private static final int MAX_LIMIT = 1000;
+
     @PersistenceContext
     private EntityManager entityManager;
 
     private final FeatureImportanceRepository featureImportanceRepository;
+    private final AnalyticsCache analyticsCache;
+    private final JobService jobService;
+    private final LotCubeService lotCubeService;
+    private final ObjectMapper objectMapper;
+    private final ShardRegistry shardRegistry;
+    private final ShardedAnalyticsService shardedAnalyticsService;
 
-    public AnalyticsController(FeatureImportanceRepository featureImportanceRepository) {
+    public AnalyticsController(FeatureImportanceRepository featureImportanceRepository,
+                               AnalyticsCache analyticsCache,
+                               JobService jobService,
+                               LotCubeService lotCubeService,
+                               ObjectMapper objectMapper,
+                               ShardRegistry shardRegistry,
+                               ShardedAnalyticsService shardedAnalyticsService) {
         this.featureImportanceRepository = featureImportanceRepository;
+        this.analyticsCache = analyticsCache;
+        this.jobService = jobService;
+        this.lotCubeService = lotCubeService;
+        this.objectMapper = objectMapper;
+        this.shardRegistry = shardRegistry;
+        this.shardedAnalyticsService = shardedAnalyticsService;
     }
 
     @GetMapping("/summary")
     @Operation(summary = "Get production summary",
                description = "Returns overall production KPIs from production_summary view")
     public ProductionSummaryDto getProductionSummary() {
+        return analyticsCache.get("summary", "", this::loadProductionSummary);
+    }
+
+    private ProductionSummaryDto loadProductionSummary() {
+        if (shardRegistry.isEnabled()) {
+            return fanOut(shardedAnalyticsService::getProductionSummary);
+        }
         String sql = "SELECT * FROM production_summary";
         Query query = entityManager.createNativeQuery(sql);
         Object[] result = (Object[]) query.getSingleResult();
@@ -43,8 +91,8 @@ public class AnalyticsController {
                 ((Number) result[2]).longValue(),  // active_operator_count
                 ((Number) result[3]).longValue(),  // pass_count
                 ((Number) result[4]).longValue(),  // fail_count
-                result[5] != null ? new BigDecimal(result[5].toString()) : BigDecimal.ZERO,  // fail_rate_pct
-                result[6] != null ? new BigDecimal(result[6].toString()) : BigDecimal.ZERO,  // avg_quality_score
+                decimal(result[5]),  // fail_rate_pct
+                decimal(result[6]),  // avg_quality_score
                 result[7] != null ? ((java.sql.Timestamp) result[7]).toLocalDateTime() : null,  // first_production_date
                 result[8] != null ? ((java.sql.Timestamp) result[8]).toLocalDateTime() : null   // last_production_date
         );
@@ -54,6 +102,13 @@ public class AnalyticsController {
     @Operation(summary = "Get equipment health statistics",
                description = "Returns health metrics for all equipment from equipment_health_stats view")
     public List<EquipmentHealthDto> getEquipmentHealth() {
+        return analyticsCache.get("equipment-health", "", this::loadEquipmentHealth);
+    }
+
+    private List<EquipmentHealthDto> loadEquipmentHealth() {
+        if (shardRegistry.isEnabled()) {
+            return fanOut(shardedAnalyticsService::getEquipmentHealth);
+        }
         String sql = "SELECT * FROM equipment_health_stats";
         Query query = entityManager.createNativeQuery(sql);
         List<Object[]> results = query.getResultList();
@@ -68,11 +123,11 @@ public class AnalyticsController {
                     (String) row[4],                 // equipment_status
                     ((Number) row[5]).longValue(),   // total_lots_processed
                     ((Number) row[6]).longValue(),   // failed_lots
-                    row[7] != null ? new BigDecimal(row[7].toString()) : BigDecimal.ZERO,  // equipment_fail_rate_pct
-                    row[8] != null ? new BigDecimal(row[8].toString()) : BigDecimal.ZERO,  // avg_quality_score
+                    decimal(row[7]),  // equipment_fail_rate_pct
+                    decimal(row[8]),  // avg_quality_score
                     ((Number) row[9]).longValue(),   // days_operated
-                    row[10] != null ? new BigDecimal(row[10].toString()) : BigDecimal.ZERO, // lots_between_failures
-                    row[11] != null ? new BigDecimal(row[11].toString()) : BigDecimal.ZERO  // health_score
+                    decimal(row[10]), // lots_between_failures
+                    decimal(row[11])  // health_score
             ));
         }
         return dtos;
@@ -82,6 +137,13 @@ public class AnalyticsController {
     @Operation(summary = "Get shift performance comparison",
                description = "Returns performance metrics by shift from shift_performance_comparison view")
     public List<ShiftPerformanceDto> getShiftPerformance() {
+        return analyticsCache.get("shift-performance", "", this::loadShiftPerformance);
+    }
+
+    private List<ShiftPerformanceDto> loadShiftPerformance() {
+        if (shardRegistry.isEnabled()) {
+            return fanOut(shardedAnalyticsService::getShiftPerformance);
+        }
         String sql = "SELECT * FROM shift_performance_comparison";
         Query query = entityManager.createNativeQuery(sql);
         List<Object[]> results = query.getResultList();
@@ -95,8 +157,8 @@ public class AnalyticsController {
                     ((Number) row[3]).longValue(),   // total_lots
                     ((Number) row[4]).longValue(),   // pass_count
                     ((Number) row[5]).longValue(),   // fail_count
-                    row[6] != null ? new BigDecimal(row[6].toString()) : BigDecimal.ZERO,  // fail_rate_pct
-                    row[7] != null ? new BigDecimal(row[7].toString()) : BigDecimal.ZERO,  // avg_quality_score
+                    decimal(row[6]),  // fail_rate_pct
+                    decimal(row[7]),  // avg_quality_score
                     ((Number) row[8]).longValue(),   // operator_count
                     ((Number) row[9]).longValue()    // equipment_used
             ));
@@ -108,6 +170,13 @@ public class AnalyticsController {
     @Operation(summary = "Get quality analytics summary",
                description = "Returns defect type breakdown from quality_analytics_summary view")
     public List<QualityAnalyticsDto> getQualitySummary() {
+        return analyticsCache.get("quality-summary", "", this::loadQualitySummary);
+    }
+
+    private List<QualityAnalyticsDto> loadQualitySummary() {
+        if (shardRegistry.isEnabled()) {
+            return fanOut(shardedAnalyticsService::getQualitySummary);
+        }
         String sql = "SELECT * FROM quality_analytics_summary";
         Query query = entityManager.createNativeQuery(sql);
         List<Object[]> results = query.getResultList();
@@ -117,8 +186,8 @@ public class AnalyticsController {
             dtos.add(new QualityAnalyticsDto(
                     (String) row[0],                 // defect_type
                     ((Number) row[1]).longValue(),   // occurrence_count
-                    row[2] != null ? new BigDecimal(row[2].toString()) : BigDecimal.ZERO,  // pct_of_failures
-                    row[3] != null ? new BigDecimal(row[3].toString()) : BigDecimal.ZERO,  // avg_quality_score
+                    decimal(row[2]),  // pct_of_failures
+                    decimal(row[3]),  // avg_quality_score
                     (String) row[4],                 // affected_product_families
                     (String) row[5]                  // affected_equipment_types
             ));
@@ -132,9 +201,23 @@ public class AnalyticsController {
     public List<Object> getFeatureImportance(
             @Parameter(description = "Defect type (overall, electrical_fail, dimensional_oor, etc.)")
             @RequestParam(defaultValue = "overall") String defectType,
-            @Parameter(description = "Limit results (default 10)")
-            @RequestParam(defaultValue = "10") Integer limit) {
+            @Parameter(description = "Limit results, 1 to 1000 (default 10)")
+            @RequestParam(defaultValue = "10") Integer limit,
+            @Parameter(description = "Calculation method (stddev_normalized, point_biserial, random_forest_impurity, "
+                    + "random_forest_permutation, ...); default the seeded stddev_normalized, or "
+                    + "stddev_per_defect for a defect type")
+            @RequestParam(required = false) String method) {
+        String normalizedDefectType = normalizeDefectType(defectType);
+        int normalizedLimit = normalizeLimit(limit);
+        // Scores of different methods are on different scales, so one ranking never mixes them
+        String normalizedMethod = method != null && !method.isBlank() ? method.trim().toLowerCase(Locale.ROOT)
+                : "overall".equals(normalizedDefectType) ? "stddev_normalized" : "stddev_per_defect";
+        return analyticsCache.get("feature-importance",
+                normalizedDefectType + "|" + normalizedLimit + "|" + normalizedMethod,
+                () -> loadFeatureImportance(normalizedDefectType, normalizedLimit, normalizedMethod));
+    }
 
+    private List<Object> loadFeatureImportance(String defectType, int limit, String method) {
         String sql = """
             SELECT
                 fm.feature_code,
@@ -146,26 +229,64 @@ public class AnalyticsController {
             FROM feature_importance fi
             JOIN feature_meta fm ON fi.feature_id = fm.feature_id
             WHERE fi.defect_type = :defectType
+              AND fi.calculation_method = :method
             ORDER BY fi.importance_score DESC
             LIMIT :limit
             """;
 
         Query query = entityManager.createNativeQuery(sql);
         query.setParameter("defectType", defectType);
+        query.setParameter("method", method);
         query.setParameter("limit", limit);
 
         return query.getResultList();
     }
 
+    @PostMapping("/feature-importance/recompute")
+    @Operation(summary = "Recompute feature importance",
+               description = "Submits a job that rescores features from the measurement data, either by "
+                       + "point-biserial correlation or with a random forest (impurity and permutation importance); "
+                       + "returns 202 with the job, whose status is at /jobs/{jobId}")
+    public ResponseEntity<JobDto> recomputeFeatureImportance(
+            @Parameter(description = "Defect types to recompute (overall, electrical_fail, ...); default all")
+            @RequestParam(required = false) List<String> defectType,
+            @Parameter(description = "point_biserial (default) or random_forest")
+            @RequestParam(defaultValue = "point_biserial") String method,
+            @Parameter(description = "Job priority, 0 (lowest) to 9 (highest)")
+            @RequestParam(required = false) Integer priority) {
+        String jobType = switch (method.trim().toLowerCase(Locale.ROOT)) {
+            case "point_biserial" -> FeatureImportanceJob.TYPE;
+            case "random_forest" -> RandomForestImportanceJob.TYPE;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "method must be point_biserial or random_forest");
+        };
+        ObjectNode parameters = objectMapper.createObjectNode();
+        if (defectType != null && !defectType.isEmpty()) {
+            ArrayNode defectTypes = parameters.putArray("defectTypes");
+            defectType.forEach(type -> defectTypes.add(normalizeDefectType(type)));
+        }
+        JobDto job = JobController.submit(jobService, jobType, priority, parameters);
+        return JobController.accepted(job);
+    }
+
     @GetMapping("/high-risk-lots")
     @Operation(summary = "Get high-risk lots above threshold",
                description = "Returns lots with predicted risk above specified threshold with detailed information")
     public List<HighRiskLotDto> getHighRiskLots(
             @Parameter(description = "Risk threshold (0.0 to 1.0)")
             @RequestParam(defaultValue = "0.7") BigDecimal threshold,
-            @Parameter(description = "Limit results (default 50)")
+            @Parameter(description = "Limit results, 1 to 1000 (default 50)")
             @RequestParam(defaultValue = "50") Integer limit) {
+        BigDecimal normalizedThreshold = normalizeThreshold(threshold);
+        int normalizedLimit = normalizeLimit(limit);
+        return analyticsCache.get("high-risk-lots", normalizedThreshold.toPlainString() + "|" + normalizedLimit,
+                () -> loadHighRiskLots(normalizedThreshold, normalizedLimit));
+    }
 
+    private List<HighRiskLotDto> loadHighRiskLots(BigDecimal threshold, int limit) {
+        if (shardRegistry.isEnabled()) {
+            return fanOut(() -> shardedAnalyticsService.getHighRiskLots(threshold, limit));
+        }
         String sql = """
             SELECT
                 l.lot_number,
@@ -195,8 +316,8 @@ public class AnalyticsController {
                     (String) row[0],                 // lot_number
                     (String) row[1],                 // product_name
                     (String) row[2],                 // equipment_code
-                    row[3] != null ? new BigDecimal(row[3].toString()) : BigDecimal.ZERO,  // predicted_risk
-                    row[4] != null ? new BigDecimal(row[4].toString()) : BigDecimal.ZERO,  // risk_score
+                    decimal(row[3]),  // predicted_risk
+                    decimal(row[4]),  // risk_score
                     row[5] != null ? ((java.sql.Timestamp) row[5]).toLocalDateTime() : null, // test_datetime
                     ((Number) row[6]).intValue()     // classification
             ));
@@ -208,6 +329,13 @@ public class AnalyticsController {
     @Operation(summary = "Get defect type distribution",
                description = "Returns distribution of defect types across failed lots")
     public List<Object> getDefectDistribution() {
+        return analyticsCache.get("defect-distribution", "", this::loadDefectDistribution);
+    }
+
+    private List<Object> loadDefectDistribution() {
+        if (shardRegistry.isEnabled()) {
+            return fanOut(shardedAnalyticsService::getDefectDistribution);
+        }
         String sql = """
             SELECT
                 defect_type,
@@ -227,6 +355,13 @@ public class AnalyticsController {
     @Operation(summary = "Get risk score distribution",
                description = "Returns histogram of predicted risk scores")
     public List<Object> getRiskDistribution() {
+        return analyticsCache.get("risk-distribution", "", this::loadRiskDistribution);
+    }
+
+    private List<Object> loadRiskDistribution() {
+        if (shardRegistry.isEnabled()) {
+            return fanOut(shardedAnalyticsService::getRiskDistribution);
+        }
         String sql = """
             SELECT
                 FLOOR(predicted_risk * 10) / 10 as risk_bucket,
@@ -241,4 +376,139 @@ public class AnalyticsController {
         Query query = entityManager.createNativeQuery(sql);
         return query.getResultList();
     }
+
+    @GetMapping("/cube")
+    @Operation(summary = "Ad-hoc lot and yield breakdown",
+               description = "Groups lots by any combination of up to 4 dimensions (equipment, equipment_type, shift, " +
+                             "operator, product_type, product_family, defect_type, disposition, status, outcome, day, " +
+                             "month) and computes the requested measures (lots, tested, failures, passes, " +
+                             "fail_rate_pct, avg_predicted_risk, avg_quality_score, wafers) from an in-memory column " +
+                             "store. Filters: dimension:value1|value2, or dimension:from..to for ranges " +
+                             "(e.g. day:2008-08-01..2008-08-31, month:2008-09..).")
+    public CubeResultDto getCube(
+            @Parameter(description = "Dimensions to group by, e.g. operator,product_family,day; none for a grand total")
+            @RequestParam(required = false) List<String> groupBy,
+            @Parameter(description = "Measures to compute (default lots,tested,failures,fail_rate_pct)")
+            @RequestParam(defaultValue = "lots,tested,failures,fail_rate_pct") List<String> measures,
+            @Parameter(description = "Filter clauses, e.g. shift:DAY|NIGHT,day:2008-08-01..2008-08-31")
+            @RequestParam(required = false) List<String> filter) {
+        List<LotCube.Dimension> dimensions = new ArrayList<>();
+        List<LotCube.Measure> measureList = new ArrayList<>();
+        List<LotCube.Filter> filters = new ArrayList<>();
+        try {
+            if (groupBy != null) {
+                groupBy.stream().filter(key -> !key.isBlank()).map(LotCube.Dimension::of).forEach(dimensions::add);
+            }
+            measures.stream().filter(key -> !key.isBlank()).map(LotCube.Measure::of).forEach(measureList::add);
+            if (filter != null) {
+                filter.stream().filter(clause -> !clause.isBlank()).map(AnalyticsController::parseCubeFilter)
+                        .forEach(filters::add);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Unknown dimension, measure or malformed filter; dimensions: "
+                            + Arrays.stream(LotCube.Dimension.values()).map(LotCube.Dimension::key).toList()
+                            + ", measures: " + Arrays.stream(LotCube.Measure.values()).map(LotCube.Measure::key).toList());
+        }
+        if (dimensions.size() > LotCube.MAX_GROUP_BY || dimensions.stream().distinct().count() < dimensions.size()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "groupBy takes up to " + LotCube.MAX_GROUP_BY + " distinct dimensions");
+        }
+        if (measureList.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one measure is required");
+        }
+
+        LotCubeService.Snapshot snapshot = lotCubeService.getSnapshot();
+        long started = System.nanoTime();
+        LotCube.Result result = snapshot.cube().query(dimensions, measureList, filters,
+                ForkJoinPool.commonPool());
+        double queryMillis = Math.round((System.nanoTime() - started) / 10_000.0) / 100.0;
+
+        List<Map<String, Object>> rows = new ArrayList<>(result.groups().size());
+        for (LotCube.Group group : result.groups()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (int d = 0; d < dimensions.size(); d++) {
+                row.put(dimensions.get(d).key(), group.labels()[d]);
+            }
+            for (int m = 0; m < measureList.size(); m++) {
+                row.put(measureList.get(m).key(), group.values()[m]);
+            }
+            rows.add(row);
+        }
+        return new CubeResultDto(
+                dimensions.stream().map(LotCube.Dimension::key).toList(),
+                measureList.stream().map(LotCube.Measure::key).toList(),
+                snapshot.cube().rowCount(), result.lotsMatched(), snapshot.builtAt(), queryMillis, rows);
+    }
+
+    @GetMapping("/cube/dimensions")
+    @Operation(summary = "List cube dimension values",
+               description = "Returns the values of every /analytics/cube dimension, usable in filters")
+    public Map<String, List<String>> getCubeDimensions() {
+        LotCube cube = lotCubeService.getSnapshot().cube();
+        Map<String, List<String>> dimensions = new LinkedHashMap<>();
+        for (LotCube.Dimension dimension : LotCube.Dimension.values()) {
+            dimensions.put(dimension.key(), cube.labels(dimension));
+        }
+        return dimensions;
+    }
+
+    /** dimension:value1|value2, or dimension:from..to for a range where either end may be left out. */
+    private static LotCube.Filter parseCubeFilter(String clause) {
+        int colon = clause.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Malformed filter: " + clause);
+        }
+        LotCube.Dimension dimension = LotCube.Dimension.of(clause.substring(0, colon));
+        String values = clause.substring(colon + 1).trim();
+        int range = values.indexOf("..");
+        if (range >= 0) {
+            String from = values.substring(0, range).trim();
+            String to = values.substring(range + 2).trim();
+            return LotCube.Filter.range(dimension, from.isEmpty() ? null : from, to.isEmpty() ? null : to);
+        }
+        return LotCube.Filter.in(dimension, Arrays.stream(values.split("\\|")).map(String::trim).toList());
+    }
+
+    /** Runs a scatter-gather read, answering 503 if a shard does not respond. */
+    private static <T> T fanOut(Supplier<T> query) {
+        try {
+            return query.get();
+        } catch (ShardQueryException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    /** DECIMAL columns already arrive as BigDecimal; only other numeric types are converted. */
+    private static BigDecimal decimal(Object value) {
+        if (value == null) {
+            return BigDecimal.ZERO;
+        }
+        if (value instanceof BigDecimal decimal) {
+            return decimal;
+        }
+        if (value instanceof Long || value instanceof Integer) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        return new BigDecimal(value.toString());
+    }
+
+    private static String normalizeDefectType(String defectType) {
+        return defectType == null || defectType.isBlank() ? "overall" : defectType.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static int normalizeLimit(Integer limit) {
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be at least 1");
+        }
+        if (limit > MAX_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be at most " + MAX_LIMIT);
+        }
+        return limit;
+    }
+
+    private static BigDecimal normalizeThreshold(BigDecimal threshold) {
+        BigDecimal clamped = threshold.max(BigDecimal.ZERO).min(BigDecimal.ONE);
+        return clamped.signum() == 0 ? BigDecimal.ZERO : clamped.stripTrailingZeros();
+    }
 }
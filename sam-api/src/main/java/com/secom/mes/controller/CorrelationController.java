@@ -0,0 +1,88 @@
+package com.secom.mes.controller;
+
+import com.secom.mes.analytics.CorrelationMatrix;
+import com.secom.mes.dto.FeatureCorrelationDto;
+import com.secom.mes.entity.FeatureMeta;
+import com.secom.mes.repository.FeatureMetaRepository;
+import com.secom.mes.service.CorrelationService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/analytics/correlations")
+@Tag(name = "Analytics", description = "Analytics and reporting endpoints using database views")
+public class CorrelationController {
+
+    private final CorrelationService correlationService;
+    private final FeatureMetaRepository featureMetaRepository;
+
+    public CorrelationController(CorrelationService correlationService, FeatureMetaRepository featureMetaRepository) {
+        this.correlationService = correlationService;
+        this.featureMetaRepository = featureMetaRepository;
+    }
+
+    @GetMapping("/{featureId}")
+    @Operation(summary = "Get top correlated features",
+               description = "Returns the features most strongly correlated (by absolute Pearson coefficient) with the given feature across all lots")
+    public ResponseEntity<List<FeatureCorrelationDto>> getTopCorrelations(
+            @PathVariable Integer featureId,
+            @Parameter(description = "Limit results (default 10)")
+            @RequestParam(defaultValue = "10") Integer limit) {
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be at least 1");
+        }
+        CorrelationMatrix matrix = correlationService.getCorrelationMatrix();
+        int index = matrix.indexOf(featureId);
+        if (index < 0) {
+            return ResponseEntity.notFound().build();
+        }
+
+        List<Integer> partners = new ArrayList<>();
+        for (int j = 0; j < matrix.size(); j++) {
+            if (j != index && !Float.isNaN(matrix.coefficient(index, j))) {
+                partners.add(j);
+            }
+        }
+        partners.sort(Comparator.comparingDouble((Integer j) -> -Math.abs(matrix.coefficient(index, j))));
+        List<Integer> top = partners.subList(0, Math.min(limit, partners.size()));
+
+        Map<Integer, FeatureMeta> features = featureMetaRepository
+                .findAllById(top.stream().map(matrix::featureId).toList()).stream()
+                .collect(Collectors.toMap(FeatureMeta::getFeatureId, Function.identity()));
+
+        List<FeatureCorrelationDto> dtos = new ArrayList<>();
+        for (Integer j : top) {
+            FeatureMeta feature = features.get(matrix.featureId(j));
+            dtos.add(new FeatureCorrelationDto(
+                    matrix.featureId(j),
+                    feature != null ? feature.getFeatureCode() : null,
+                    feature != null ? feature.getFeatureName() : null,
+                    (double) matrix.coefficient(index, j),
+                    matrix.pairCount(index, j)
+            ));
+        }
+        return ResponseEntity.ok(dtos);
+    }
+
+    @GetMapping(value = "/matrix", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @Operation(summary = "Get full correlation matrix (binary)",
+               description = """
+                       Returns the full feature x feature correlation matrix as big-endian binary:
+                       int32 magic 0x434F5252 ('CORR'), int32 format version, int64 source data version,
+                       int32 n, n x int32 feature IDs, then the upper triangle including the diagonal
+                       as n*(n+1)/2 float32 values row by row. NaN marks undefined coefficients.
+                       """)
+    public byte[] getCorrelationMatrix() {
+        return correlationService.getCorrelationMatrix().toBinary();
+    }
+}
@@ -0,0 +1,135 @@
+package com.secom.mes.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.secom.mes.dto.JobDto;
+import com.secom.mes.service.JobService;
+import com.secom.mes.service.TrainingDatasetExportJob;
+import com.secom.mes.service.TrainingDatasetService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+@RestController
+@RequestMapping("/datasets")
+@Tag(name = "Datasets", description = "Machine-learning dataset exports")
+public class DatasetController {
+
+    private static final MediaType ARROW_STREAM = MediaType.parseMediaType(TrainingDatasetService.CONTENT_TYPE);
+
+    private final TrainingDatasetService datasetService;
+    private final TrainingDatasetExportJob exportJob;
+    private final JobService jobService;
+    private final ObjectMapper objectMapper;
+
+    public DatasetController(TrainingDatasetService datasetService, TrainingDatasetExportJob exportJob,
+                             JobService jobService, ObjectMapper objectMapper) {
+        this.datasetService = datasetService;
+        this.exportJob = exportJob;
+        this.jobService = jobService;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping("/training")
+    @Operation(summary = "Stream the training dataset",
+               description = "Streams one row per lot (lot columns, classification and defect_type labels, one "
+                       + "float64 column per feature) as an Arrow IPC stream, one record batch per row group; "
+                       + "read it with pyarrow.ipc.open_stream or polars.read_ipc_stream")
+    public void getTrainingDataset(
+            @Parameter(description = "Production start from (ISO format: 2008-07-01T00:00:00)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @Parameter(description = "Production start to (ISO format: 2008-09-30T23:59:59)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @Parameter(description = "Product type ID filter")
+            @RequestParam(required = false) Integer productTypeId,
+            @Parameter(description = "Equipment ID filter")
+            @RequestParam(required = false) Integer equipmentId,
+            @Parameter(description = "Lots per record batch (default 1024)")
+            @RequestParam(required = false) Integer rowGroupLots,
+            HttpServletResponse response) throws IOException {
+        TrainingDatasetService.Criteria criteria;
+        try {
+            criteria = datasetService.criteria(from, to, productTypeId, equipmentId, rowGroupLots);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        response.setContentType(TrainingDatasetService.CONTENT_TYPE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename("training-dataset.arrows").build().toString());
+        // Written on the request thread, so the export holds its bulkhead slot until the last batch
+        try (OutputStream output = new BufferedOutputStream(response.getOutputStream(), 1 << 16)) {
+            datasetService.write(criteria, output, null);
+        }
+    }
+
+    @PostMapping("/training/exports")
+    @Operation(summary = "Export the training dataset to a file",
+               description = "Submits a job that writes the training dataset as an Arrow IPC stream file; "
+                       + "returns 202 with the job, whose status is at /jobs/{jobId}. Once it has succeeded the "
+                       + "file is at /datasets/training/exports/{jobId}")
+    public ResponseEntity<JobDto> exportTrainingDataset(
+            @Parameter(description = "Production start from (ISO format: 2008-07-01T00:00:00)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @Parameter(description = "Production start to (ISO format: 2008-09-30T23:59:59)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @Parameter(description = "Product type ID filter")
+            @RequestParam(required = false) Integer productTypeId,
+            @Parameter(description = "Equipment ID filter")
+            @RequestParam(required = false) Integer equipmentId,
+            @Parameter(description = "Lots per record batch (default 1024)")
+            @RequestParam(required = false) Integer rowGroupLots,
+            @Parameter(description = "Job priority, 0 (lowest) to 9 (highest)")
+            @RequestParam(required = false) Integer priority) {
+        ObjectNode parameters = objectMapper.createObjectNode();
+        if (from != null) {
+            parameters.put("from", from.toString());
+        }
+        if (to != null) {
+            parameters.put("to", to.toString());
+        }
+        if (productTypeId != null) {
+            parameters.put("productTypeId", productTypeId);
+        }
+        if (equipmentId != null) {
+            parameters.put("equipmentId", equipmentId);
+        }
+        if (rowGroupLots != null) {
+            parameters.put("rowGroupLots", rowGroupLots);
+        }
+        JobDto job = JobController.submit(jobService, TrainingDatasetExportJob.TYPE, priority, parameters);
+        return JobController.accepted(job);
+    }
+
+    @GetMapping("/training/exports/{jobId}")
+    @Operation(summary = "Download an exported training dataset",
+               description = "Returns the file written by a training-dataset-export job; 404 until the job has succeeded")
+    public ResponseEntity<Resource> downloadTrainingDataset(@PathVariable Long jobId) {
+        Path file = exportJob.exportFile(jobId);
+        if (!Files.isRegularFile(file)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(ARROW_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(file.getFileName().toString()).build().toString())
+                .body(new FileSystemResource(file));
+    }
+}
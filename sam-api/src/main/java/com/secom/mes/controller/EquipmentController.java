@@ -1,11 +1,18 @@
 package com.secom.mes.controller;
 
+import com.secom.mes.dto.FeatureDriftDto;
 import com.secom.mes.entity.Equipment;
 import com.secom.mes.repository.EquipmentRepository;
+import com.secom.mes.service.DriftDetectionService;
+import com.secom.mes.service.EntityChangeLog;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
 
@@ -15,9 +22,15 @@ import java.util.List;
 public class EquipmentController {
 
     private final EquipmentRepository equipmentRepository;
+    private final DriftDetectionService driftDetectionService;
+    private final EntityChangeLog entityChangeLog;
 
-    public EquipmentController(EquipmentRepository equipmentRepository) {
+    public EquipmentController(EquipmentRepository equipmentRepository,
+                               DriftDetectionService driftDetectionService,
+                               EntityChangeLog entityChangeLog) {
         this.equipmentRepository = equipmentRepository;
+        this.driftDetectionService = driftDetectionService;
+        this.entityChangeLog = entityChangeLog;
     }
 
     @GetMapping
@@ -34,6 +47,24 @@ public class EquipmentController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @GetMapping("/{equipmentId}/drift")
+    @Operation(summary = "Get sensor drift for equipment",
+               description = "Ranks features by drift of their recent sliding window against the equipment's own history " +
+                             "(mean shift, variance change) and against peer equipment of the same type")
+    public ResponseEntity<List<FeatureDriftDto>> getEquipmentDrift(
+            @PathVariable Integer equipmentId,
+            @Parameter(description = "Drift score at which a feature is flagged as drifting (default 4.0)")
+            @RequestParam(defaultValue = "4.0") Double threshold,
+            @Parameter(description = "Limit results (default 20)")
+            @RequestParam(defaultValue = "20") Integer limit) {
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be at least 1");
+        }
+        return equipmentRepository.findById(equipmentId)
+                .map(equipment -> ResponseEntity.ok(driftDetectionService.detectDrift(equipment, threshold, limit)))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     @GetMapping("/code/{code}")
     @Operation(summary = "Get equipment by code", description = "Returns equipment by unique equipment code")
     public ResponseEntity<Equipment> getEquipmentByCode(@PathVariable String code) {
@@ -50,12 +81,16 @@ public class EquipmentController {
 
     @PostMapping
     @Operation(summary = "Create new equipment", description = "Creates a new equipment record")
+    @Transactional
     public Equipment createEquipment(@RequestBody Equipment equipment) {
-        return equipmentRepository.save(equipment);
+        Equipment saved = equipmentRepository.save(equipment);
+        entityChangeLog.record(EntityChangeLog.EQUIPMENT, saved.getEquipmentId());
+        return saved;
     }
 
     @PutMapping("/{equipmentId}")
     @Operation(summary = "Update equipment", description = "Updates an existing equipment record")
+    @Transactional
     public ResponseEntity<Equipment> updateEquipment(
             @PathVariable Integer equipmentId,
             @RequestBody Equipment equipmentDetails) {
@@ -66,17 +101,21 @@ public class EquipmentController {
                     equipment.setLocation(equipmentDetails.getLocation());
                     equipment.setManufacturer(equipmentDetails.getManufacturer());
                     equipment.setStatus(equipmentDetails.getStatus());
-                    return ResponseEntity.ok(equipmentRepository.save(equipment));
+                    Equipment saved = equipmentRepository.save(equipment);
+                    entityChangeLog.record(EntityChangeLog.EQUIPMENT, equipmentId);
+                    return ResponseEntity.ok(saved);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @DeleteMapping("/{equipmentId}")
     @Operation(summary = "Delete equipment", description = "Deletes an equipment record")
+    @Transactional
     public ResponseEntity<Void> deleteEquipment(@PathVariable Integer equipmentId) {
         return equipmentRepository.findById(equipmentId)
                 .map(equipment -> {
                     equipmentRepository.delete(equipment);
+                    entityChangeLog.record(EntityChangeLog.EQUIPMENT, equipmentId);
                     return ResponseEntity.ok().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
@@ -1,15 +1,28 @@
 package com.secom.mes.controller;
 
+import com.secom.mes.dto.FeatureSeriesDto;
+import com.secom.mes.dto.SpecLimitSimulationDto;
 import com.secom.mes.entity.FeatureMeta;
 import com.secom.mes.repository.FeatureMetaRepository;
+import com.secom.mes.service.EntityChangeLog;
+import com.secom.mes.service.FeatureSearchIndex;
+import com.secom.mes.service.FeatureSeriesService;
+import com.secom.mes.service.SpecLimitService;
+import com.secom.mes.service.SparseFieldsetService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -18,17 +31,43 @@ import java.util.List;
 public class FeatureMetaController {
 
     private final FeatureMetaRepository featureMetaRepository;
+    private final FeatureSearchIndex featureSearchIndex;
+    private final EntityChangeLog entityChangeLog;
+    private final SpecLimitService specLimitService;
+    private final FeatureSeriesService featureSeriesService;
+    private final SparseFieldsetService sparseFieldsetService;
 
-    public FeatureMetaController(FeatureMetaRepository featureMetaRepository) {
+    public FeatureMetaController(FeatureMetaRepository featureMetaRepository,
+                                 FeatureSearchIndex featureSearchIndex,
+                                 EntityChangeLog entityChangeLog,
+                                 SpecLimitService specLimitService,
+                                 FeatureSeriesService featureSeriesService,
+                                 SparseFieldsetService sparseFieldsetService) {
         this.featureMetaRepository = featureMetaRepository;
+        this.featureSearchIndex = featureSearchIndex;
+        this.entityChangeLog = entityChangeLog;
+        this.specLimitService = specLimitService;
+        this.featureSeriesService = featureSeriesService;
+        this.sparseFieldsetService = sparseFieldsetService;
     }
 
     @GetMapping
-    @Operation(summary = "Get all features", description = "Returns paginated list of all feature metadata (590 features)")
-    public Page<FeatureMeta> getAllFeatures(
+    @Operation(summary = "Get all features",
+               description = "Returns paginated list of all feature metadata (590 features). With fields, only the named " +
+                             "columns are read and returned.")
+    public Page<?> getAllFeatures(
+            @Parameter(description = "Comma-separated fields to return instead of full features, e.g. featureId,featureCode,normalRangeMin,normalRangeMax")
+            @RequestParam(required = false) String fields,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size) {
         Pageable pageable = PageRequest.of(page, size);
+        if (SparseFieldsetService.isRequested(fields)) {
+            try {
+                return sparseFieldsetService.findFeatures(fields, pageable);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+        }
         return featureMetaRepository.findAll(pageable);
     }
 
@@ -61,24 +100,89 @@ public class FeatureMetaController {
     }
 
     @GetMapping("/search")
-    @Operation(summary = "Search features", description = "Search features by name or category")
-    public List<FeatureMeta> searchFeatures(@RequestParam String q) {
-        return featureMetaRepository.searchByNameOrCategory(q);
+    @Operation(summary = "Search features",
+               description = "Typeahead search over code, name, category, process stage, measurement type, unit and description. " +
+                             "Results are ranked; prefixes and small typos match.")
+    public List<FeatureMeta> searchFeatures(
+            @RequestParam String q,
+            @Parameter(description = "Critical flag filter")
+            @RequestParam(required = false) Boolean critical,
+            @Parameter(description = "Limit results (default 20)")
+            @RequestParam(defaultValue = "20") Integer limit) {
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be at least 1");
+        }
+        return featureSearchIndex.search(q, critical, limit);
+    }
+
+    @GetMapping("/{featureId}/series")
+    @Operation(summary = "Get feature time series",
+               description = "Returns the feature's measurements ordered by measured_at from the compressed in-memory series, " +
+                             "downsampled for charts: lttb keeps the visual shape, minmax keeps the extremes of each time bucket.")
+    public ResponseEntity<FeatureSeriesDto> getFeatureSeries(
+            @PathVariable Integer featureId,
+            @Parameter(description = "Start of the range, inclusive (ISO date-time)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @Parameter(description = "End of the range, inclusive (ISO date-time)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @Parameter(description = "Downsampling: lttb (default), minmax or none")
+            @RequestParam(defaultValue = FeatureSeriesService.LTTB) String downsample,
+            @Parameter(description = "Target number of points (default 500, max 5000)")
+            @RequestParam(defaultValue = "500") int points) {
+        return featureMetaRepository.findById(featureId)
+                .map(feature -> {
+                    try {
+                        return ResponseEntity.ok(featureSeriesService.getSeries(feature, from, to, downsample, points));
+                    } catch (IllegalArgumentException e) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+                    }
+                })
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/{featureId}/spec-limits/simulate")
+    @Operation(summary = "Simulate spec limits",
+               description = "Evaluates proposed normal range limits against every lot in memory without saving them: " +
+                             "out-of-spec counts before and after, and how well the limits separate failed from passed lots " +
+                             "(confusion matrix against quality_result classification).")
+    public ResponseEntity<SpecLimitSimulationDto> simulateSpecLimits(
+            @PathVariable Integer featureId,
+            @Parameter(description = "Proposed lower limit (default: current)")
+            @RequestParam(required = false) Double min,
+            @Parameter(description = "Proposed upper limit (default: current)")
+            @RequestParam(required = false) Double max) {
+        return featureMetaRepository.findById(featureId)
+                .map(feature -> {
+                    try {
+                        return ResponseEntity.ok(specLimitService.simulate(feature, min, max));
+                    } catch (IllegalArgumentException e) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+                    }
+                })
+                .orElse(ResponseEntity.notFound().build());
     }
 
     @PostMapping
     @Operation(summary = "Create new feature", description = "Creates a new feature metadata record")
+    @Transactional
     public FeatureMeta createFeature(@RequestBody FeatureMeta featureMeta) {
-        return featureMetaRepository.save(featureMeta);
+        FeatureMeta saved = featureMetaRepository.save(featureMeta);
+        entityChangeLog.record(EntityChangeLog.FEATURE_META, saved.getFeatureId());
+        return saved;
     }
 
     @PutMapping("/{featureId}")
-    @Operation(summary = "Update feature", description = "Updates an existing feature metadata record")
+    @Operation(summary = "Update feature",
+               description = "Updates an existing feature metadata record. Changing the normal range queues a background " +
+                             "recompute of the feature's stored out-of-spec flags.")
+    @Transactional
     public ResponseEntity<FeatureMeta> updateFeature(
             @PathVariable Integer featureId,
             @RequestBody FeatureMeta featureDetails) {
         return featureMetaRepository.findById(featureId)
                 .map(feature -> {
+                    boolean limitsChanged = SpecLimitService.limitsChanged(feature,
+                            featureDetails.getNormalRangeMin(), featureDetails.getNormalRangeMax());
                     feature.setFeatureName(featureDetails.getFeatureName());
                     feature.setFeatureCategory(featureDetails.getFeatureCategory());
                     feature.setProcessStage(featureDetails.getProcessStage());
@@ -88,17 +192,24 @@ public class FeatureMetaController {
                     feature.setNormalRangeMax(featureDetails.getNormalRangeMax());
                     feature.setDescription(featureDetails.getDescription());
                     feature.setIsCritical(featureDetails.getIsCritical());
-                    return ResponseEntity.ok(featureMetaRepository.save(feature));
+                    FeatureMeta saved = featureMetaRepository.save(feature);
+                    entityChangeLog.record(EntityChangeLog.FEATURE_META, featureId);
+                    if (limitsChanged) {
+                        specLimitService.recomputeAfterCommit(featureId);
+                    }
+                    return ResponseEntity.ok(saved);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @DeleteMapping("/{featureId}")
     @Operation(summary = "Delete feature", description = "Deletes a feature metadata record")
+    @Transactional
     public ResponseEntity<Void> deleteFeature(@PathVariable Integer featureId) {
         return featureMetaRepository.findById(featureId)
                 .map(feature -> {
                     featureMetaRepository.delete(feature);
+                    entityChangeLog.record(EntityChangeLog.FEATURE_META, featureId);
                     return ResponseEntity.ok().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
@@ -0,0 +1,122 @@
+package com.secom.mes.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.secom.mes.dto.JobDto;
+import com.secom.mes.dto.JobSubmitRequest;
+import com.secom.mes.entity.BackgroundJob;
+import com.secom.mes.service.JobService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+@RestController
+@RequestMapping("/jobs")
+@Tag(name = "Jobs", description = "Asynchronous analytics and maintenance jobs")
+public class JobController {
+
+    private final JobService jobService;
+
+    public JobController(JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    @PostMapping
+    @Operation(summary = "Submit a job",
+               description = "Queues a job and returns immediately with 202 Accepted; poll the Location for progress")
+    public ResponseEntity<JobDto> submitJob(@RequestBody JobSubmitRequest request) {
+        JobDto job = submit(jobService, request.getJobType(), request.getPriority(), request.getParameters());
+        return accepted(job);
+    }
+
+    @GetMapping
+    @Operation(summary = "List jobs", description = "Returns jobs, newest first, optionally filtered by status and type")
+    public Page<JobDto> getJobs(
+            @Parameter(description = "Status filter (queued, running, succeeded, failed, cancelled)")
+            @RequestParam(required = false) String status,
+            @Parameter(description = "Job type filter")
+            @RequestParam(required = false) String jobType,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "jobId"));
+        return jobService.findJobs(status, jobType, pageable);
+    }
+
+    @GetMapping("/types")
+    @Operation(summary = "List job types", description = "Returns the job types this instance can run")
+    public Set<String> getJobTypes() {
+        return jobService.getJobTypes();
+    }
+
+    @GetMapping("/{jobId}")
+    @Operation(summary = "Get job status", description = "Returns status and progress of a job")
+    public ResponseEntity<JobDto> getJob(@PathVariable Long jobId) {
+        return jobService.getJob(jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/{jobId}/result")
+    @Operation(summary = "Get job result",
+               description = "Returns the result of a succeeded job; 409 while the job has not succeeded")
+    public ResponseEntity<JsonNode> getJobResult(@PathVariable Long jobId) {
+        Optional<JobDto> job = jobService.getJob(jobId);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!BackgroundJob.SUCCEEDED.equals(job.get().getStatus())) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Job " + jobId + " is " + job.get().getStatus());
+        }
+        return jobService.getResult(jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping("/{jobId}/cancel")
+    @Operation(summary = "Cancel a job",
+               description = "Cancels a queued job, or asks a running job to stop at its next checkpoint")
+    public ResponseEntity<JobDto> cancelJob(@PathVariable Long jobId) {
+        Optional<JobDto> job = jobService.cancel(jobId);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        String status = job.get().getStatus();
+        if (BackgroundJob.SUCCEEDED.equals(status) || BackgroundJob.FAILED.equals(status)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Job " + jobId + " has already " + status);
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.get());
+    }
+
+    /** Submits a job, mapping validation and capacity errors to 400 and 503. */
+    static JobDto submit(JobService jobService, String jobType, Integer priority, JsonNode parameters) {
+        try {
+            return jobService.submit(jobType, priority, parameters);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    /** 202 Accepted with the job's status URL in Location. */
+    static ResponseEntity<JobDto> accepted(JobDto job) {
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/jobs/{jobId}")
+                        .buildAndExpand(job.getJobId())
+                        .toUri())
+                .body(job);
+    }
+}
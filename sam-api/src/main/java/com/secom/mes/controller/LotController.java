@@ -1,7 +1,20 @@
 package com.secom.mes.controller;
 
+import com.secom.mes.dto.LotBatchResultDto;
+import com.secom.mes.dto.LotSearchResultDto;
+import com.secom.mes.dto.LotStatusTransitionRequest;
+import com.secom.mes.dto.MultivariateAnomalyDto;
+import com.secom.mes.dto.MultivariateAnomalyResultDto;
+import com.secom.mes.dto.SimilarLotDto;
 import com.secom.mes.entity.Lot;
 import com.secom.mes.repository.LotRepository;
+import com.secom.mes.repository.ShardedProductionRepository;
+import com.secom.mes.service.EntityChangeLog;
+import com.secom.mes.service.LotBatchService;
+import com.secom.mes.service.LotQualityFactService;
+import com.secom.mes.service.LotSimilarityService;
+import com.secom.mes.service.MultivariateAnomalyService;
+import com.secom.mes.service.SparseFieldsetService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -9,10 +22,16 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
 
 @RestController
 @RequestMapping("/lots")
@@ -20,15 +39,37 @@ import java.time.LocalDateTime;
 public class LotController {
 
     private final LotRepository lotRepository;
+    private final LotBatchService lotBatchService;
+    private final LotSimilarityService lotSimilarityService;
+    private final LotQualityFactService lotQualityFactService;
+    private final EntityChangeLog entityChangeLog;
+    private final ShardedProductionRepository shardedRepository;
+    private final SparseFieldsetService sparseFieldsetService;
+    private final MultivariateAnomalyService multivariateAnomalyService;
 
-    public LotController(LotRepository lotRepository) {
+    public LotController(LotRepository lotRepository,
+                         LotBatchService lotBatchService,
+                         LotSimilarityService lotSimilarityService,
+                         LotQualityFactService lotQualityFactService,
+                         EntityChangeLog entityChangeLog,
+                         ShardedProductionRepository shardedRepository,
+                         SparseFieldsetService sparseFieldsetService,
+                         MultivariateAnomalyService multivariateAnomalyService) {
         this.lotRepository = lotRepository;
+        this.lotBatchService = lotBatchService;
+        this.lotSimilarityService = lotSimilarityService;
+        this.lotQualityFactService = lotQualityFactService;
+        this.entityChangeLog = entityChangeLog;
+        this.shardedRepository = shardedRepository;
+        this.sparseFieldsetService = sparseFieldsetService;
+        this.multivariateAnomalyService = multivariateAnomalyService;
     }
 
     @GetMapping
     @Operation(summary = "Get all lots with filters",
-               description = "Returns paginated list of lots with optional filters for equipment, operator, status, and date range")
-    public Page<Lot> getAllLots(
+               description = "Returns paginated list of lots with optional filters for equipment, operator, status, and date range. " +
+                             "With fields, only the named columns are read and returned.")
+    public Page<?> getAllLots(
             @Parameter(description = "Equipment ID filter")
             @RequestParam(required = false) Integer equipmentId,
             @Parameter(description = "Operator ID filter")
@@ -39,56 +80,240 @@ public class LotController {
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
             @Parameter(description = "End date filter (ISO format: 2008-09-30T23:59:59)")
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @Parameter(description = "Comma-separated fields to return instead of full lots, e.g. lotId,lotNumber,status,productType.productCode")
+            @RequestParam(required = false) String fields,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size) {
 
+        shardedRepository.requireUnsharded("GET /lots");
         Pageable pageable = PageRequest.of(page, size);
+        if (SparseFieldsetService.isRequested(fields)) {
+            try {
+                return sparseFieldsetService.findLots(fields, equipmentId, operatorId, status, startDate, endDate, pageable);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+        }
         return lotRepository.findByFilters(equipmentId, operatorId, status, startDate, endDate, pageable);
     }
 
+    @GetMapping("/search")
+    @Operation(summary = "Search lots by production and quality attributes",
+               description = "Returns lots with their quality outcome, newest production start first, filtered by any " +
+                             "combination of equipment, operator, product type, shift, status, classification, " +
+                             "defect type, predicted risk range and production date range")
+    public Page<LotSearchResultDto> searchLots(
+            @Parameter(description = "Equipment ID filter")
+            @RequestParam(required = false) Integer equipmentId,
+            @Parameter(description = "Operator ID filter")
+            @RequestParam(required = false) Integer operatorId,
+            @Parameter(description = "Product type ID filter")
+            @RequestParam(required = false) Integer productTypeId,
+            @Parameter(description = "Shift ID filter")
+            @RequestParam(required = false) Integer shiftId,
+            @Parameter(description = "Status filter (in_progress, completed, quality_hold, released, scrapped)")
+            @RequestParam(required = false) String status,
+            @Parameter(description = "Classification filter (-1 = pass, 1 = fail, 0 = not tested)")
+            @RequestParam(required = false) Integer classification,
+            @Parameter(description = "Defect type filter")
+            @RequestParam(required = false) String defectType,
+            @Parameter(description = "Minimum predicted risk (0-1)")
+            @RequestParam(required = false) BigDecimal minRisk,
+            @Parameter(description = "Maximum predicted risk (0-1)")
+            @RequestParam(required = false) BigDecimal maxRisk,
+            @Parameter(description = "Start date filter (ISO format: 2008-07-01T00:00:00)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+            @Parameter(description = "End date filter (ISO format: 2008-09-30T23:59:59)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        shardedRepository.requireUnsharded("GET /lots/search");
+        if (status != null && !LotBatchService.isKnownStatus(status)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown status: " + status);
+        }
+        if (classification != null && classification != -1 && classification != 0 && classification != 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "classification must be -1, 0 or 1");
+        }
+        LotQualityFactService.SearchCriteria criteria = new LotQualityFactService.SearchCriteria(
+                equipmentId, operatorId, productTypeId, shiftId, status, classification, defectType,
+                minRisk, maxRisk, startDate, endDate);
+        return lotQualityFactService.search(criteria, PageRequest.of(page, size));
+    }
+
     @GetMapping("/{lotId}")
     @Operation(summary = "Get lot by ID", description = "Returns a single lot by lot ID")
     public ResponseEntity<Lot> getLotById(@PathVariable Integer lotId) {
+        if (shardedRepository.isRemoteLot(lotId)) {
+            return shardedRepository.findLot(lotId)
+                    .map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        }
         return lotRepository.findById(lotId)
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @GetMapping("/number/{lotNumber}")
-    @Operation(summary = "Get lot by lot number", description = "Returns lot by unique lot number")
+    @Operation(summary = "Get lot by lot number", description = "Returns lot by unique lot number, looked up on every shard")
     public ResponseEntity<Lot> getLotByNumber(@PathVariable String lotNumber) {
         return lotRepository.findByLotNumber(lotNumber)
+                .or(() -> shardedRepository.findLotByNumber(lotNumber))
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @GetMapping("/{lotId}/similar")
+    @Operation(summary = "Find similar lots",
+               description = "Returns the lots whose normalized measurement vectors are closest to this lot " +
+                             "(approximate nearest neighbours), with their classification and defect type. " +
+                             "Distance is the RMS difference in standard deviations over the features both lots have.")
+    public ResponseEntity<List<SimilarLotDto>> getSimilarLots(
+            @PathVariable Integer lotId,
+            @Parameter(description = "Number of neighbours to return (max 200)")
+            @RequestParam(defaultValue = "20") int k) {
+        if (k < 1 || k > 200) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k must be between 1 and 200");
+        }
+        List<SimilarLotDto> similar = lotSimilarityService.findSimilar(lotId, k);
+        if (similar == null) {
+            return lotRepository.existsById(lotId)
+                    ? ResponseEntity.ok(List.of())
+                    : ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(similar);
+    }
+
+    @GetMapping("/multivariate-anomalies")
+    @Operation(summary = "Rank lots by multivariate anomaly",
+               description = "Ranks lots by Hotelling T² and squared prediction error (SPE) against a principal-component " +
+                             "model of passing lots, which catches many sensors drifting together within their own limits. " +
+                             "Each lot lists the features contributing most; the model is refitted in the background.")
+    public MultivariateAnomalyResultDto getMultivariateAnomalies(
+            @Parameter(description = "combined (default, larger of T² and SPE relative to its control limit), t2 or spe")
+            @RequestParam(defaultValue = "combined") String sort,
+            @Parameter(description = "Only lots above a control limit")
+            @RequestParam(defaultValue = "false") boolean outOfControlOnly,
+            @Parameter(description = "Contributing features listed per lot (max 20)")
+            @RequestParam(defaultValue = "5") int contributors,
+            @Parameter(description = "Limit results (max 500)")
+            @RequestParam(defaultValue = "50") int limit) {
+        MultivariateAnomalyService.Ranking ranking;
+        try {
+            ranking = MultivariateAnomalyService.Ranking.valueOf(sort.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort must be combined, t2 or spe");
+        }
+        if (limit < 1 || limit > 500) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and 500");
+        }
+        if (contributors < 0 || contributors > 20) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "contributors must be between 0 and 20");
+        }
+        try {
+            return multivariateAnomalyService.findAnomalies(ranking, limit, outOfControlOnly, contributors);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    @GetMapping("/{lotId}/multivariate-score")
+    @Operation(summary = "Get a lot's multivariate anomaly score",
+               description = "Returns the lot's Hotelling T² and SPE with their control limit ratios and the features " +
+                             "contributing most to them (contribution plot data)")
+    public ResponseEntity<MultivariateAnomalyDto> getMultivariateScore(
+            @PathVariable Integer lotId,
+            @Parameter(description = "Contributing features to list (max 100)")
+            @RequestParam(defaultValue = "20") int contributors) {
+        if (contributors < 0 || contributors > 100) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "contributors must be between 0 and 100");
+        }
+        MultivariateAnomalyDto score;
+        try {
+            score = multivariateAnomalyService.getLotScore(lotId, contributors);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+        return score != null ? ResponseEntity.ok(score) : ResponseEntity.notFound().build();
+    }
+
     @PostMapping
-    @Operation(summary = "Create new lot", description = "Creates a new production lot record")
+    @Operation(summary = "Create new lot",
+               description = "Creates a new production lot record, on the shard of its product family when sharding is enabled")
+    @Transactional
     public Lot createLot(@RequestBody Lot lot) {
-        return lotRepository.save(lot);
+        Lot saved = lot.getProductType() != null && shardedRepository.isRemoteProductType(lot.getProductType().getProductTypeId())
+                ? shardedRepository.insertLot(lot)
+                : lotRepository.save(lot);
+        entityChangeLog.record(EntityChangeLog.LOT, saved.getLotId());
+        return saved;
+    }
+
+    @PostMapping("/batch")
+    @Operation(summary = "Create lots in batch",
+               description = "Creates many lots with multi-row inserts in one transaction and reports a per-lot outcome")
+    public LotBatchResultDto createLots(@RequestBody List<Lot> lots) {
+        return lotBatchService.createLots(lots);
+    }
+
+    @PostMapping("/status-transitions")
+    @Operation(summary = "Bulk lot status transition",
+               description = "Moves all lots matching equipment, date range and/or lot IDs from fromStatus to toStatus " +
+                             "with a single set-based update (e.g. quality_hold -> released)")
+    public LotBatchResultDto transitionLotStatus(@RequestBody LotStatusTransitionRequest request) {
+        if (!LotBatchService.isAllowedTransition(request.getFromStatus(), request.getToStatus())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Transition " + request.getFromStatus() + " -> " + request.getToStatus() + " is not allowed");
+        }
+        if (request.getEquipmentId() == null && request.getStartDate() == null && request.getEndDate() == null
+                && (request.getLotIds() == null || request.getLotIds().isEmpty())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At least one of equipmentId, startDate, endDate or lotIds is required");
+        }
+        return lotBatchService.transitionStatus(request);
     }
 
     @PutMapping("/{lotId}")
     @Operation(summary = "Update lot", description = "Updates an existing lot record")
+    @Transactional
     public ResponseEntity<Lot> updateLot(
             @PathVariable Integer lotId,
             @RequestBody Lot lotDetails) {
+        if (shardedRepository.isRemoteLot(lotId)) {
+            return shardedRepository.updateLot(lotId, lotDetails.getStatus(), lotDetails.getProductionEnd(),
+                            lotDetails.getWaferCount())
+                    .map(saved -> {
+                        entityChangeLog.record(EntityChangeLog.LOT, lotId);
+                        return ResponseEntity.ok(saved);
+                    })
+                    .orElse(ResponseEntity.notFound().build());
+        }
         return lotRepository.findById(lotId)
                 .map(lot -> {
                     lot.setStatus(lotDetails.getStatus());
                     lot.setProductionEnd(lotDetails.getProductionEnd());
                     lot.setWaferCount(lotDetails.getWaferCount());
-                    return ResponseEntity.ok(lotRepository.save(lot));
+                    Lot saved = lotRepository.save(lot);
+                    entityChangeLog.record(EntityChangeLog.LOT, lotId);
+                    return ResponseEntity.ok(saved);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @DeleteMapping("/{lotId}")
     @Operation(summary = "Delete lot", description = "Deletes a lot record")
+    @Transactional
     public ResponseEntity<Void> deleteLot(@PathVariable Integer lotId) {
+        if (shardedRepository.isRemoteLot(lotId)) {
+            if (!shardedRepository.deleteLot(lotId)) {
+                return ResponseEntity.notFound().build();
+            }
+            entityChangeLog.record(EntityChangeLog.LOT, lotId);
+            return ResponseEntity.ok().build();
+        }
         return lotRepository.findById(lotId)
                 .map(lot -> {
                     lotRepository.delete(lot);
+                    entityChangeLog.record(EntityChangeLog.LOT, lotId);
                     return ResponseEntity.ok().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
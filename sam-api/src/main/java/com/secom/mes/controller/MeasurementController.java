@@ -1,16 +1,41 @@
 package com.secom.mes.controller;
 
+import com.secom.mes.config.IngestProperties;
+import com.secom.mes.dto.IngestAckDto;
+import com.secom.mes.dto.IngestStatusDto;
+import com.secom.mes.dto.MeasurementPartitionDto;
+import com.secom.mes.dto.MeasurementRecordDto;
 import com.secom.mes.entity.LotMeasurement;
 import com.secom.mes.repository.LotMeasurementRepository;
+import com.secom.mes.repository.ShardedProductionRepository;
+import com.secom.mes.service.EntityChangeLog;
+import com.secom.mes.service.MeasurementArchiveService;
+import com.secom.mes.service.MeasurementIngestService;
+import com.secom.mes.service.MeasurementPartitionService;
+import com.secom.mes.service.MeasurementsIngestedEvent;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/measurements")
@@ -18,30 +43,77 @@ import java.util.List;
 public class MeasurementController {
 
     private final LotMeasurementRepository measurementRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final EntityChangeLog entityChangeLog;
+    private final MeasurementIngestService ingestService;
+    private final IngestProperties ingestProperties;
+    private final MeasurementPartitionService partitionService;
+    private final MeasurementArchiveService archiveService;
+    private final ShardedProductionRepository shardedRepository;
 
-    public MeasurementController(LotMeasurementRepository measurementRepository) {
+    // Stand-ins for open bounds, so a bounded query is used and partitions can be pruned
+    private static final LocalDateTime EARLIEST = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime LATEST = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
+    public MeasurementController(LotMeasurementRepository measurementRepository,
+                                 ApplicationEventPublisher eventPublisher,
+                                 EntityChangeLog entityChangeLog,
+                                 MeasurementIngestService ingestService,
+                                 IngestProperties ingestProperties,
+                                 MeasurementPartitionService partitionService,
+                                 MeasurementArchiveService archiveService,
+                                 ShardedProductionRepository shardedRepository) {
         this.measurementRepository = measurementRepository;
+        this.eventPublisher = eventPublisher;
+        this.entityChangeLog = entityChangeLog;
+        this.ingestService = ingestService;
+        this.ingestProperties = ingestProperties;
+        this.partitionService = partitionService;
+        this.archiveService = archiveService;
+        this.shardedRepository = shardedRepository;
     }
 
     @GetMapping("/lot/{lotId}")
     @Operation(summary = "Get measurements for a lot",
                description = "Returns all sensor measurements for a specific lot (typically 590 measurements)")
     public List<LotMeasurement> getMeasurementsByLot(@PathVariable Integer lotId) {
-        return measurementRepository.findByLot_LotId(lotId);
+        if (shardedRepository.isRemoteLot(lotId)) {
+            return shardedRepository.findMeasurementsByLot(lotId, false);
+        }
+        return merge(measurementRepository.findByLot_LotId(lotId), archiveService.findByLot(lotId, false));
     }
 
     @GetMapping("/lot/{lotId}/anomalies")
     @Operation(summary = "Get out-of-spec measurements for a lot",
                description = "Returns only measurements that are outside normal specification ranges")
     public List<LotMeasurement> getAnomaliesByLot(@PathVariable Integer lotId) {
-        return measurementRepository.findByLot_LotIdAndIsOutOfSpec(lotId, true);
+        if (shardedRepository.isRemoteLot(lotId)) {
+            return shardedRepository.findMeasurementsByLot(lotId, true);
+        }
+        return merge(measurementRepository.findByLot_LotIdAndIsOutOfSpec(lotId, true),
+                archiveService.findByLot(lotId, true));
     }
 
     @GetMapping("/feature/{featureId}")
     @Operation(summary = "Get measurements for a feature",
-               description = "Returns all measurements for a specific sensor/feature across all lots")
-    public List<LotMeasurement> getMeasurementsByFeature(@PathVariable Integer featureId) {
-        return measurementRepository.findByFeature_FeatureId(featureId);
+               description = "Returns all measurements for a specific sensor/feature across all lots, optionally "
+                       + "limited to a measured_at range; with partitioning enabled only the partitions and archive "
+                       + "files of that range are read")
+    public List<LotMeasurement> getMeasurementsByFeature(
+            @PathVariable Integer featureId,
+            @Parameter(description = "Earliest measured_at (inclusive)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @Parameter(description = "Latest measured_at (inclusive)")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        shardedRepository.requireUnsharded("GET /measurements/feature/{featureId}");
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        }
+        List<LotMeasurement> hot = from == null && to == null
+                ? measurementRepository.findByFeature_FeatureId(featureId)
+                : measurementRepository.findByFeature_FeatureIdAndMeasuredAtBetween(featureId,
+                        from != null ? from : EARLIEST, to != null ? to : LATEST);
+        return merge(hot, archiveService.findByFeature(featureId, from, to));
     }
 
     @GetMapping("/anomalies")
@@ -50,24 +122,113 @@ public class MeasurementController {
     public Page<LotMeasurement> getAllAnomalies(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size) {
+        shardedRepository.requireUnsharded("GET /measurements/anomalies");
         Pageable pageable = PageRequest.of(page, size);
-        return measurementRepository.findByIsOutOfSpec(true, pageable);
+        Page<LotMeasurement> hot = measurementRepository.findByIsOutOfSpec(true, pageable);
+        long archived = archiveService.countOutOfSpec();
+        if (archived == 0) {
+            return hot;
+        }
+        // Database rows first, then archived ones
+        List<LotMeasurement> content = new ArrayList<>(hot.getContent());
+        if (content.size() < size) {
+            long archiveOffset = Math.max(0, pageable.getOffset() - hot.getTotalElements());
+            content.addAll(archiveService.findOutOfSpec(archiveOffset, size - content.size()));
+        }
+        return new PageImpl<>(content, pageable, hot.getTotalElements() + archived);
+    }
+
+    @GetMapping("/partitions")
+    @Operation(summary = "List measurement partitions",
+               description = "Returns the monthly lot_measurement partitions still in the database and the archived "
+                       + "ones, oldest first; empty database tier while partitioning is disabled")
+    public List<MeasurementPartitionDto> getPartitions() {
+        List<MeasurementPartitionDto> partitions = new ArrayList<>();
+        for (MeasurementArchiveService.ArchivedPartition archived : archiveService.getArchivedPartitions()) {
+            partitions.add(new MeasurementPartitionDto(archived.partitionName(), "archive", archived.rangeStart(),
+                    archived.rangeEnd(), archived.rowCount(), archived.fileName(), archived.fileBytes(),
+                    archived.archivedAt()));
+        }
+        LocalDate lowerBound = null;
+        for (MeasurementPartitionService.Partition partition : partitionService.getPartitions()) {
+            partitions.add(new MeasurementPartitionDto(partition.name(), "database",
+                    lowerBound != null ? lowerBound.atStartOfDay() : null,
+                    partition.upperBound() != null ? partition.upperBound().atStartOfDay() : null,
+                    partition.estimatedRows(), null, null, null));
+            lowerBound = partition.upperBound();
+        }
+        return partitions;
     }
 
     @PostMapping
     @Operation(summary = "Create new measurement", description = "Creates a new lot measurement record")
+    @Transactional
     public LotMeasurement createMeasurement(@RequestBody LotMeasurement measurement) {
-        return measurementRepository.save(measurement);
+        LotMeasurement saved = measurement.getLot() != null && shardedRepository.isRemoteLot(measurement.getLot().getLotId())
+                ? shardedRepository.insertMeasurement(measurement)
+                : measurementRepository.save(measurement);
+        entityChangeLog.record(EntityChangeLog.LOT_MEASUREMENT, saved.getMeasurementId());
+        eventPublisher.publishEvent(new MeasurementsIngestedEvent(List.of(new MeasurementRecordDto(
+                saved.getLot().getLotId(),
+                saved.getFeature().getFeatureId(),
+                saved.getMeasurementValue(),
+                saved.getMeasuredAt()))));
+        return saved;
+    }
+
+    @PostMapping("/ingest")
+    @Operation(summary = "Ingest measurements in bulk",
+               description = "Write-behind path for equipment feeds: measurements are acknowledged with 202 once "
+                       + "they are in the local write-ahead log and written to the database in the background. "
+                       + "Returns 503 with Retry-After while the buffer is full.")
+    public ResponseEntity<IngestAckDto> ingestMeasurements(@RequestBody List<MeasurementRecordDto> measurements)
+            throws IOException {
+        try {
+            return ResponseEntity.accepted().body(ingestService.ingest(measurements));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, ingestProperties.getRetryAfter().toSeconds())))
+                    .build();
+        }
+    }
+
+    @GetMapping("/ingest/status")
+    @Operation(summary = "Get ingestion buffer status",
+               description = "Returns buffer fill, log sequence numbers and flush counters of this instance")
+    public IngestStatusDto getIngestStatus() {
+        return ingestService.getStatus();
     }
 
     @DeleteMapping("/{measurementId}")
     @Operation(summary = "Delete measurement", description = "Deletes a measurement record")
+    @Transactional
     public ResponseEntity<Void> deleteMeasurement(@PathVariable Long measurementId) {
+        if (shardedRepository.isRemoteMeasurement(measurementId)) {
+            if (!shardedRepository.deleteMeasurement(measurementId)) {
+                return ResponseEntity.notFound().build();
+            }
+            entityChangeLog.record(EntityChangeLog.LOT_MEASUREMENT, measurementId);
+            return ResponseEntity.ok().build();
+        }
         return measurementRepository.findById(measurementId)
                 .map(measurement -> {
                     measurementRepository.delete(measurement);
+                    entityChangeLog.record(EntityChangeLog.LOT_MEASUREMENT, measurementId);
                     return ResponseEntity.ok().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
+
+    private static List<LotMeasurement> merge(List<LotMeasurement> hot, List<LotMeasurement> archived) {
+        if (archived.isEmpty()) {
+            return hot;
+        }
+        List<LotMeasurement> merged = new ArrayList<>(hot.size() + archived.size());
+        merged.addAll(archived);
+        merged.addAll(hot);
+        merged.sort(Comparator.comparing(LotMeasurement::getMeasurementId));
+        return merged;
+    }
 }
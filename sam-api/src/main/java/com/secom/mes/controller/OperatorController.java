@@ -4,11 +4,15 @@ import com.secom.mes.entity.Lot;
 import com.secom.mes.entity.Operator;
 import com.secom.mes.repository.LotRepository;
 import com.secom.mes.repository.OperatorRepository;
+import com.secom.mes.repository.ShardedProductionRepository;
+import com.secom.mes.service.EntityChangeLog;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
 import java.util.List;
 
 @RestController
@@ -18,10 +22,17 @@ public class OperatorController {
 
     private final OperatorRepository operatorRepository;
     private final LotRepository lotRepository;
+    private final EntityChangeLog entityChangeLog;
+    private final ShardedProductionRepository shardedRepository;
 
-    public OperatorController(OperatorRepository operatorRepository, LotRepository lotRepository) {
+    public OperatorController(OperatorRepository operatorRepository,
+                              LotRepository lotRepository,
+                              EntityChangeLog entityChangeLog,
+                              ShardedProductionRepository shardedRepository) {
         this.operatorRepository = operatorRepository;
         this.lotRepository = lotRepository;
+        this.entityChangeLog = entityChangeLog;
+        this.shardedRepository = shardedRepository;
     }
 
     @GetMapping
@@ -53,21 +64,29 @@ public class OperatorController {
     }
 
     @GetMapping("/{operatorId}/lots")
-    @Operation(summary = "Get operator's lots", description = "Returns all lots processed by a specific operator")
+    @Operation(summary = "Get operator's lots", description = "Returns all lots processed by a specific operator, on every shard")
     public ResponseEntity<List<Lot>> getOperatorLots(@PathVariable Integer operatorId) {
         return operatorRepository.findById(operatorId)
-                .map(operator -> ResponseEntity.ok(lotRepository.findByOperator_OperatorId(operatorId)))
+                .map(operator -> {
+                    List<Lot> lots = new ArrayList<>(lotRepository.findByOperator_OperatorId(operatorId));
+                    lots.addAll(shardedRepository.findRemoteLots("operator_id = ?", operatorId));
+                    return ResponseEntity.ok(lots);
+                })
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @PostMapping
     @Operation(summary = "Create new operator", description = "Creates a new operator record")
+    @Transactional
     public Operator createOperator(@RequestBody Operator operator) {
-        return operatorRepository.save(operator);
+        Operator saved = operatorRepository.save(operator);
+        entityChangeLog.record(EntityChangeLog.OPERATOR, saved.getOperatorId());
+        return saved;
     }
 
     @PutMapping("/{operatorId}")
     @Operation(summary = "Update operator", description = "Updates an existing operator record")
+    @Transactional
     public ResponseEntity<Operator> updateOperator(
             @PathVariable Integer operatorId,
             @RequestBody Operator operatorDetails) {
@@ -77,17 +96,21 @@ public class OperatorController {
                     operator.setDepartment(operatorDetails.getDepartment());
                     operator.setEmail(operatorDetails.getEmail());
                     operator.setStatus(operatorDetails.getStatus());
-                    return ResponseEntity.ok(operatorRepository.save(operator));
+                    Operator saved = operatorRepository.save(operator);
+                    entityChangeLog.record(EntityChangeLog.OPERATOR, operatorId);
+                    return ResponseEntity.ok(saved);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @DeleteMapping("/{operatorId}")
     @Operation(summary = "Delete operator", description = "Deletes an operator record")
+    @Transactional
     public ResponseEntity<Void> deleteOperator(@PathVariable Integer operatorId) {
         return operatorRepository.findById(operatorId)
                 .map(operator -> {
                     operatorRepository.delete(operator);
+                    entityChangeLog.record(EntityChangeLog.OPERATOR, operatorId);
                     return ResponseEntity.ok().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
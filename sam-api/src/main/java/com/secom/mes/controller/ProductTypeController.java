@@ -2,9 +2,11 @@ package com.secom.mes.controller;
 
 import com.secom.mes.entity.ProductType;
 import com.secom.mes.repository.ProductTypeRepository;
+import com.secom.mes.service.EntityChangeLog;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -15,9 +17,11 @@ import java.util.List;
 public class ProductTypeController {
 
     private final ProductTypeRepository productTypeRepository;
+    private final EntityChangeLog entityChangeLog;
 
-    public ProductTypeController(ProductTypeRepository productTypeRepository) {
+    public ProductTypeController(ProductTypeRepository productTypeRepository, EntityChangeLog entityChangeLog) {
         this.productTypeRepository = productTypeRepository;
+        this.entityChangeLog = entityChangeLog;
     }
 
     @GetMapping
@@ -50,12 +54,16 @@ public class ProductTypeController {
 
     @PostMapping
     @Operation(summary = "Create new product type", description = "Creates a new product type record")
+    @Transactional
     public ProductType createProductType(@RequestBody ProductType productType) {
-        return productTypeRepository.save(productType);
+        ProductType saved = productTypeRepository.save(productType);
+        entityChangeLog.record(EntityChangeLog.PRODUCT_TYPE, saved.getProductTypeId());
+        return saved;
     }
 
     @PutMapping("/{productTypeId}")
     @Operation(summary = "Update product type", description = "Updates an existing product type record")
+    @Transactional
     public ResponseEntity<ProductType> updateProductType(
             @PathVariable Integer productTypeId,
             @RequestBody ProductType productTypeDetails) {
@@ -65,17 +73,21 @@ public class ProductTypeController {
                     productType.setProductFamily(productTypeDetails.getProductFamily());
                     productType.setTargetYield(productTypeDetails.getTargetYield());
                     productType.setSpecificationVersion(productTypeDetails.getSpecificationVersion());
-                    return ResponseEntity.ok(productTypeRepository.save(productType));
+                    ProductType saved = productTypeRepository.save(productType);
+                    entityChangeLog.record(EntityChangeLog.PRODUCT_TYPE, productTypeId);
+                    return ResponseEntity.ok(saved);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @DeleteMapping("/{productTypeId}")
     @Operation(summary = "Delete product type", description = "Deletes a product type record")
+    @Transactional
     public ResponseEntity<Void> deleteProductType(@PathVariable Integer productTypeId) {
         return productTypeRepository.findById(productTypeId)
                 .map(productType -> {
                     productTypeRepository.delete(productType);
+                    entityChangeLog.record(EntityChangeLog.PRODUCT_TYPE, productTypeId);
                     return ResponseEntity.ok().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
@@ -1,18 +1,31 @@
 package com.secom.mes.controller;
 
+import com.secom.mes.dto.QualityBatchReviewRequest;
+import com.secom.mes.dto.QualityReviewOutcomeDto;
+import com.secom.mes.dto.QualityReviewResultDto;
+import com.secom.mes.dto.QualityTransitionRequest;
 import com.secom.mes.entity.QualityResult;
 import com.secom.mes.repository.QualityResultRepository;
+import com.secom.mes.repository.ShardedProductionRepository;
+import com.secom.mes.service.EntityChangeLog;
+import com.secom.mes.service.QualityReviewService;
+import com.secom.mes.service.SparseFieldsetService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/quality")
@@ -20,24 +33,42 @@ import java.util.List;
 public class QualityController {
 
     private final QualityResultRepository qualityResultRepository;
+    private final EntityChangeLog entityChangeLog;
+    private final QualityReviewService qualityReviewService;
+    private final ShardedProductionRepository shardedRepository;
+    private final SparseFieldsetService sparseFieldsetService;
 
-    public QualityController(QualityResultRepository qualityResultRepository) {
+    public QualityController(QualityResultRepository qualityResultRepository, EntityChangeLog entityChangeLog,
+                             QualityReviewService qualityReviewService, ShardedProductionRepository shardedRepository,
+                             SparseFieldsetService sparseFieldsetService) {
         this.qualityResultRepository = qualityResultRepository;
+        this.entityChangeLog = entityChangeLog;
+        this.qualityReviewService = qualityReviewService;
+        this.shardedRepository = shardedRepository;
+        this.sparseFieldsetService = sparseFieldsetService;
     }
 
     @GetMapping("/results")
-    @Operation(summary = "Get all quality results", description = "Returns paginated list of all quality inspection results")
-    public Page<QualityResult> getAllResults(
+    @Operation(summary = "Get all quality results",
+               description = "Returns paginated list of all quality inspection results. With fields, only the named " +
+                             "columns are read and returned.")
+    public Page<?> getAllResults(
+            @Parameter(description = "Comma-separated fields to return instead of full results, e.g. resultId,lot.lotNumber,classification,predictedRisk,disposition")
+            @RequestParam(required = false) String fields,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size) {
+        shardedRepository.requireUnsharded("GET /quality/results");
         Pageable pageable = PageRequest.of(page, size);
+        if (SparseFieldsetService.isRequested(fields)) {
+            return findSparse(fields, null, pageable);
+        }
         return qualityResultRepository.findAll(pageable);
     }
 
     @GetMapping("/results/{qualityResultId}")
     @Operation(summary = "Get quality result by ID", description = "Returns a single quality result by quality result ID")
     public ResponseEntity<QualityResult> getResultById(@PathVariable Integer qualityResultId) {
-        return qualityResultRepository.findById(qualityResultId)
+        return findResult(qualityResultId)
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
@@ -45,6 +76,11 @@ public class QualityController {
     @GetMapping("/results/lot/{lotId}")
     @Operation(summary = "Get quality result for a lot", description = "Returns quality result for a specific lot")
     public ResponseEntity<QualityResult> getResultByLotId(@PathVariable Integer lotId) {
+        if (shardedRepository.isRemoteLot(lotId)) {
+            return shardedRepository.findQualityResultByLot(lotId)
+                    .map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        }
         return qualityResultRepository.findByLot_LotId(lotId)
                 .map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
@@ -52,19 +88,31 @@ public class QualityController {
 
     @GetMapping("/results/failed")
     @Operation(summary = "Get failed lots", description = "Returns all lots that failed quality inspection (classification = 1)")
-    public Page<QualityResult> getFailedResults(
+    public Page<?> getFailedResults(
+            @Parameter(description = "Comma-separated fields to return instead of full results, e.g. resultId,lot.lotNumber,classification,predictedRisk,disposition")
+            @RequestParam(required = false) String fields,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size) {
+        shardedRepository.requireUnsharded("GET /quality/results/failed");
         Pageable pageable = PageRequest.of(page, size);
+        if (SparseFieldsetService.isRequested(fields)) {
+            return findSparse(fields, 1, pageable);
+        }
         return qualityResultRepository.findByClassification(1, pageable);
     }
 
     @GetMapping("/results/passed")
     @Operation(summary = "Get passed lots", description = "Returns all lots that passed quality inspection (classification = -1)")
-    public Page<QualityResult> getPassedResults(
+    public Page<?> getPassedResults(
+            @Parameter(description = "Comma-separated fields to return instead of full results, e.g. resultId,lot.lotNumber,classification,predictedRisk,disposition")
+            @RequestParam(required = false) String fields,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size) {
+        shardedRepository.requireUnsharded("GET /quality/results/passed");
         Pageable pageable = PageRequest.of(page, size);
+        if (SparseFieldsetService.isRequested(fields)) {
+            return findSparse(fields, -1, pageable);
+        }
         return qualityResultRepository.findByClassification(-1, pageable);
     }
 
@@ -74,48 +122,161 @@ public class QualityController {
     public List<QualityResult> getHighRiskResults(
             @Parameter(description = "Risk threshold (0.0 to 1.0)")
             @RequestParam(defaultValue = "0.7") BigDecimal threshold) {
-        return qualityResultRepository.findByPredictedRiskGreaterThanEqual(threshold);
+        List<QualityResult> results = new ArrayList<>(qualityResultRepository.findByPredictedRiskGreaterThanEqual(threshold));
+        results.addAll(shardedRepository.findRemoteQualityResults("predicted_risk >= ?", threshold));
+        return results;
     }
 
     @GetMapping("/results/defect/{type}")
     @Operation(summary = "Get results by defect type",
                description = "Returns quality results filtered by defect type (electrical_fail, dimensional_oor, etc.)")
     public List<QualityResult> getResultsByDefectType(@PathVariable String type) {
-        return qualityResultRepository.findByDefectType(type);
+        List<QualityResult> results = new ArrayList<>(qualityResultRepository.findByDefectType(type));
+        results.addAll(shardedRepository.findRemoteQualityResults("defect_type = ?", type));
+        return results;
     }
 
     @PostMapping("/results")
     @Operation(summary = "Create new quality result", description = "Creates a new quality inspection result")
+    @Transactional
     public QualityResult createResult(@RequestBody QualityResult result) {
-        return qualityResultRepository.save(result);
+        QualityResult saved = result.getLot() != null && shardedRepository.isRemoteLot(result.getLot().getLotId())
+                ? shardedRepository.insertQualityResult(result)
+                : qualityResultRepository.save(result);
+        entityChangeLog.record(EntityChangeLog.QUALITY_RESULT, saved.getResultId());
+        return saved;
     }
 
     @PutMapping("/results/{qualityResultId}")
-    @Operation(summary = "Update quality result", description = "Updates an existing quality result")
+    @Operation(summary = "Update quality result",
+               description = "Updates an existing quality result; returns 409 if the body carries a version other "
+                       + "than the current one and 400 if it changes the disposition, which only moves through "
+                       + "/results/{qualityResultId}/transitions")
+    @Transactional
     public ResponseEntity<QualityResult> updateResult(
             @PathVariable Integer qualityResultId,
             @RequestBody QualityResult resultDetails) {
+        if (shardedRepository.isRemoteLot(qualityResultId)) {
+            return shardedRepository.findQualityResult(qualityResultId)
+                    .map(result -> {
+                        checkVersion(result, resultDetails);
+                        checkDisposition(result, resultDetails);
+                        if (!shardedRepository.updateQualityResult(qualityResultId, result.getVersion(), resultDetails)) {
+                            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                                    "Quality result " + qualityResultId + " was changed concurrently");
+                        }
+                        entityChangeLog.record(EntityChangeLog.QUALITY_RESULT, qualityResultId);
+                        return ResponseEntity.ok(shardedRepository.findQualityResult(qualityResultId).orElseThrow());
+                    })
+                    .orElse(ResponseEntity.notFound().build());
+        }
         return qualityResultRepository.findById(qualityResultId)
                 .map(result -> {
+                    checkVersion(result, resultDetails);
+                    checkDisposition(result, resultDetails);
                     result.setQualityScore(resultDetails.getQualityScore());
                     result.setDefectType(resultDetails.getDefectType());
                     result.setDefectCode(resultDetails.getDefectCode());
                     result.setDefectLocation(resultDetails.getDefectLocation());
                     result.setNotes(resultDetails.getNotes());
-                    result.setDisposition(resultDetails.getDisposition());
-                    return ResponseEntity.ok(qualityResultRepository.save(result));
+                    QualityResult saved = qualityResultRepository.save(result);
+                    entityChangeLog.record(EntityChangeLog.QUALITY_RESULT, qualityResultId);
+                    return ResponseEntity.ok(saved);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @PostMapping("/results/{qualityResultId}/transitions")
+    @Operation(summary = "Transition quality result disposition",
+               description = "Moves the result along pending -> reviewed -> released, rework or scrap (rework -> reviewed) "
+                       + "with one conditional update, recording the reviewer. Returns 409 if the result is not in a "
+                       + "disposition leading to toDisposition or its version differs from expectedVersion.")
+    public ResponseEntity<QualityResult> transitionResult(
+            @PathVariable Integer qualityResultId,
+            @RequestBody QualityTransitionRequest request) {
+        QualityReviewOutcomeDto outcome;
+        try {
+            outcome = qualityReviewService.transition(qualityResultId, request.getToDisposition(),
+                    request.getReviewerId(), request.getExpectedVersion(), request.getNotes());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        return switch (outcome.getOutcome()) {
+            case "updated" -> findResult(qualityResultId)
+                    .map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+            case "conflict" -> throw new ResponseStatusException(HttpStatus.CONFLICT, outcome.getMessage());
+            default -> ResponseEntity.notFound().build();
+        };
+    }
+
+    @PostMapping("/results/review")
+    @Operation(summary = "Review quality results in batch",
+               description = "Moves up to 1000 results to toDisposition with one set-based update and reports a "
+                       + "per-result outcome: updated, conflict (wrong disposition or version), not_found or rejected")
+    public QualityReviewResultDto reviewResults(@RequestBody QualityBatchReviewRequest request) {
+        if (request.getItems() == null || request.getItems().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "items must not be empty");
+        }
+        if (request.getItems().size() > QualityReviewService.MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At most " + QualityReviewService.MAX_BATCH_SIZE + " items per call");
+        }
+        try {
+            return qualityReviewService.review(request.getToDisposition(), request.getReviewerId(),
+                    request.getNotes(), request.getItems());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
     @DeleteMapping("/results/{qualityResultId}")
     @Operation(summary = "Delete quality result", description = "Deletes a quality result record")
+    @Transactional
     public ResponseEntity<Void> deleteResult(@PathVariable Integer qualityResultId) {
+        if (shardedRepository.isRemoteLot(qualityResultId)) {
+            if (!shardedRepository.deleteQualityResult(qualityResultId)) {
+                return ResponseEntity.notFound().build();
+            }
+            entityChangeLog.record(EntityChangeLog.QUALITY_RESULT, qualityResultId);
+            return ResponseEntity.ok().build();
+        }
         return qualityResultRepository.findById(qualityResultId)
                 .map(result -> {
                     qualityResultRepository.delete(result);
+                    entityChangeLog.record(EntityChangeLog.QUALITY_RESULT, qualityResultId);
                     return ResponseEntity.ok().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
+
+    /** The result from the shard its ID belongs to. */
+    private Optional<QualityResult> findResult(Integer qualityResultId) {
+        return shardedRepository.isRemoteLot(qualityResultId)
+                ? shardedRepository.findQualityResult(qualityResultId)
+                : qualityResultRepository.findById(qualityResultId);
+    }
+
+    private static void checkVersion(QualityResult current, QualityResult details) {
+        if (details.getVersion() != null && !details.getVersion().equals(current.getVersion())) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Version is " + current.getVersion() + ", expected " + details.getVersion());
+        }
+    }
+
+    /** Dispositions only change through {@link QualityReviewService#transition}, which enforces the workflow. */
+    private static void checkDisposition(QualityResult current, QualityResult details) {
+        if (details.getDisposition() != null && !details.getDisposition().equals(current.getDisposition())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "disposition cannot be changed by an update; "
+                    + "POST /quality/results/" + current.getResultId() + "/transitions instead");
+        }
+    }
+
+    private Page<?> findSparse(String fields, Integer classification, Pageable pageable) {
+        try {
+            return sparseFieldsetService.findQualityResults(fields, classification, pageable);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
 }
@@ -2,9 +2,11 @@ package com.secom.mes.controller;
 
 import com.secom.mes.entity.Shift;
 import com.secom.mes.repository.ShiftRepository;
+import com.secom.mes.service.EntityChangeLog;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -15,9 +17,11 @@ import java.util.List;
 public class ShiftController {
 
     private final ShiftRepository shiftRepository;
+    private final EntityChangeLog entityChangeLog;
 
-    public ShiftController(ShiftRepository shiftRepository) {
+    public ShiftController(ShiftRepository shiftRepository, EntityChangeLog entityChangeLog) {
         this.shiftRepository = shiftRepository;
+        this.entityChangeLog = entityChangeLog;
     }
 
     @GetMapping
@@ -44,12 +48,16 @@ public class ShiftController {
 
     @PostMapping
     @Operation(summary = "Create new shift", description = "Creates a new shift record")
+    @Transactional
     public Shift createShift(@RequestBody Shift shift) {
-        return shiftRepository.save(shift);
+        Shift saved = shiftRepository.save(shift);
+        entityChangeLog.record(EntityChangeLog.SHIFT, saved.getShiftId());
+        return saved;
     }
 
     @PutMapping("/{shiftId}")
     @Operation(summary = "Update shift", description = "Updates an existing shift record")
+    @Transactional
     public ResponseEntity<Shift> updateShift(
             @PathVariable Integer shiftId,
             @RequestBody Shift shiftDetails) {
@@ -59,17 +67,21 @@ public class ShiftController {
                     shift.setStartTime(shiftDetails.getStartTime());
                     shift.setEndTime(shiftDetails.getEndTime());
                     shift.setDescription(shiftDetails.getDescription());
-                    return ResponseEntity.ok(shiftRepository.save(shift));
+                    Shift saved = shiftRepository.save(shift);
+                    entityChangeLog.record(EntityChangeLog.SHIFT, shiftId);
+                    return ResponseEntity.ok(saved);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
     @DeleteMapping("/{shiftId}")
     @Operation(summary = "Delete shift", description = "Deletes a shift record")
+    @Transactional
     public ResponseEntity<Void> deleteShift(@PathVariable Integer shiftId) {
         return shiftRepository.findById(shiftId)
                 .map(shift -> {
                     shiftRepository.delete(shift);
+                    entityChangeLog.record(EntityChangeLog.SHIFT, shiftId);
                     return ResponseEntity.ok().<Void>build();
                 })
                 .orElse(ResponseEntity.notFound().build());
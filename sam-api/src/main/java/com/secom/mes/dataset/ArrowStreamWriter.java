@@ -0,0 +1,352 @@
+package com.secom.mes.dataset;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import org.apache.arrow.flatbuf.Buffer;
+import org.apache.arrow.flatbuf.Endianness;
+import org.apache.arrow.flatbuf.Field;
+import org.apache.arrow.flatbuf.FieldNode;
+import org.apache.arrow.flatbuf.FloatingPoint;
+import org.apache.arrow.flatbuf.Int;
+import org.apache.arrow.flatbuf.Message;
+import org.apache.arrow.flatbuf.MessageHeader;
+import org.apache.arrow.flatbuf.MetadataVersion;
+import org.apache.arrow.flatbuf.Precision;
+import org.apache.arrow.flatbuf.RecordBatch;
+import org.apache.arrow.flatbuf.Schema;
+import org.apache.arrow.flatbuf.TimeUnit;
+import org.apache.arrow.flatbuf.Timestamp;
+import org.apache.arrow.flatbuf.Type;
+import org.apache.arrow.flatbuf.Utf8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a flat table in the Arrow IPC streaming format: one schema message, then one record
+ * batch per {@link #write} call, then the end-of-stream marker. Readers such as pyarrow
+ * ({@code pa.ipc.open_stream}) and Polars load it without conversion.
+ *
+ * Only the column types the exports need are supported, all nullable. A {@link Batch} holds its
+ * rows in plain arrays sized once for the batch capacity and is reused, so memory does not grow
+ * with the number of batches written.
+ */
+public final class ArrowStreamWriter {
+
+    /** Column types; timestamps are time-zone naive, in milliseconds. */
+    public enum ColumnType { INT32, FLOAT64, UTF8, TIMESTAMP_MILLIS }
+
+    public record Column(String name, ColumnType type) {
+    }
+
+    private static final int CONTINUATION = 0xFFFFFFFF;
+
+    private final OutputStream output;
+    private final List<Column> columns;
+    private long bytesWritten;
+
+    /** Writes the schema message. */
+    public ArrowStreamWriter(OutputStream output, List<Column> columns) throws IOException {
+        this.output = output;
+        this.columns = List.copyOf(columns);
+        writeMessage(schema(), MessageHeader.Schema, 0, null, 0);
+    }
+
+    public Batch newBatch(int capacity) {
+        return new Batch(columns, capacity);
+    }
+
+    /** Writes the first {@link Batch#rowCount()} rows of {@code batch} as one record batch. */
+    public void write(Batch batch) throws IOException {
+        int rows = batch.rowCount;
+        int bufferCount = 0;
+        for (Column column : columns) {
+            bufferCount += column.type() == ColumnType.UTF8 ? 3 : 2;
+        }
+        long[] offsets = new long[bufferCount];
+        long[] lengths = new long[bufferCount];
+        long bodyLength = 0;
+        int b = 0;
+        for (int c = 0; c < columns.size(); c++) {
+            int validityLength = (rows + 7) / 8;
+            offsets[b] = bodyLength;
+            lengths[b++] = validityLength;
+            bodyLength += padded(validityLength);
+            int dataLength = switch (columns.get(c).type()) {
+                case INT32 -> rows * 4;
+                case FLOAT64, TIMESTAMP_MILLIS -> rows * 8;
+                case UTF8 -> (rows + 1) * 4;
+            };
+            offsets[b] = bodyLength;
+            lengths[b++] = dataLength;
+            bodyLength += padded(dataLength);
+            if (columns.get(c).type() == ColumnType.UTF8) {
+                offsets[b] = bodyLength;
+                lengths[b++] = batch.stringLengths[c];
+                bodyLength += padded(batch.stringLengths[c]);
+            }
+        }
+
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024 + columns.size() * 64);
+        RecordBatch.startBuffersVector(builder, bufferCount);
+        for (int i = bufferCount - 1; i >= 0; i--) {
+            Buffer.createBuffer(builder, offsets[i], lengths[i]);
+        }
+        int buffers = builder.endVector();
+        RecordBatch.startNodesVector(builder, columns.size());
+        for (int c = columns.size() - 1; c >= 0; c--) {
+            FieldNode.createFieldNode(builder, rows, batch.nullCount(c));
+        }
+        int nodes = builder.endVector();
+        RecordBatch.startRecordBatch(builder);
+        RecordBatch.addLength(builder, rows);
+        RecordBatch.addNodes(builder, nodes);
+        RecordBatch.addBuffers(builder, buffers);
+        int recordBatch = RecordBatch.endRecordBatch(builder);
+
+        writeMessage(builder, MessageHeader.RecordBatch, recordBatch, batch, bodyLength);
+    }
+
+    /** Writes the end-of-stream marker; the output stream is left open. */
+    public void finish() throws IOException {
+        ByteBuffer marker = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        marker.putInt(CONTINUATION).putInt(0);
+        output.write(marker.array());
+        bytesWritten += 8;
+        output.flush();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private FlatBufferBuilder schema() {
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024 + columns.size() * 64);
+        int[] fields = new int[columns.size()];
+        for (int c = 0; c < columns.size(); c++) {
+            int name = builder.createString(columns.get(c).name());
+            byte typeType;
+            int type;
+            switch (columns.get(c).type()) {
+                case INT32 -> {
+                    typeType = Type.Int;
+                    type = Int.createInt(builder, 32, true);
+                }
+                case FLOAT64 -> {
+                    typeType = Type.FloatingPoint;
+                    type = FloatingPoint.createFloatingPoint(builder, Precision.DOUBLE);
+                }
+                case UTF8 -> {
+                    typeType = Type.Utf8;
+                    Utf8.startUtf8(builder);
+                    type = Utf8.endUtf8(builder);
+                }
+                default -> {
+                    typeType = Type.Timestamp;
+                    type = Timestamp.createTimestamp(builder, TimeUnit.MILLISECOND, 0);
+                }
+            }
+            int children = Field.createChildrenVector(builder, new int[0]);
+            fields[c] = Field.createField(builder, name, true, typeType, type, 0, children, 0);
+        }
+        int fieldVector = Schema.createFieldsVector(builder, fields);
+        int schema = Schema.createSchema(builder, Endianness.Little, fieldVector, 0, 0);
+        builder.finish(Message.createMessage(builder, MetadataVersion.V5, MessageHeader.Schema, schema, 0, 0));
+        return builder;
+    }
+
+    private void writeMessage(FlatBufferBuilder builder, byte headerType, int header, Batch body, long bodyLength)
+            throws IOException {
+        if (headerType != MessageHeader.Schema) {
+            builder.finish(Message.createMessage(builder, MetadataVersion.V5, headerType, header, bodyLength, 0));
+        }
+        byte[] metadata = builder.sizedByteArray();
+        // Continuation marker and length prefix, then the metadata padded so the body starts 8-aligned
+        int metadataLength = padded(8 + metadata.length) - 8;
+        ByteBuffer prefix = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        prefix.putInt(CONTINUATION).putInt(metadataLength);
+        output.write(prefix.array());
+        output.write(metadata);
+        output.write(new byte[metadataLength - metadata.length]);
+        bytesWritten += 8 + metadataLength;
+        if (body != null) {
+            bytesWritten += body.writeBody(output);
+        }
+    }
+
+    private static int padded(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * Rows of one record batch. Cells start out null; set values row by row, then call
+     * {@link #setRowCount} and {@link ArrowStreamWriter#write}, and {@link #clear()} to reuse.
+     */
+    public static final class Batch {
+
+        private final List<Column> columns;
+        private final int capacity;
+        private final byte[][] validity;
+        private final int[][] ints;
+        private final long[][] longs;
+        private final int[][] stringOffsets;
+        private final byte[][] stringData;
+        private final int[] stringLengths;
+        private final int[] lastStringRow;
+        private int rowCount;
+
+        private Batch(List<Column> columns, int capacity) {
+            this.columns = columns;
+            this.capacity = capacity;
+            int count = columns.size();
+            validity = new byte[count][(capacity + 7) / 8];
+            ints = new int[count][];
+            longs = new long[count][];
+            stringOffsets = new int[count][];
+            stringData = new byte[count][];
+            stringLengths = new int[count];
+            lastStringRow = new int[count];
+            Arrays.fill(lastStringRow, -1);
+            for (int c = 0; c < count; c++) {
+                switch (columns.get(c).type()) {
+                    case INT32 -> ints[c] = new int[capacity];
+                    case FLOAT64, TIMESTAMP_MILLIS -> longs[c] = new long[capacity];
+                    case UTF8 -> {
+                        stringOffsets[c] = new int[capacity + 1];
+                        stringData[c] = new byte[capacity * 16];
+                    }
+                }
+            }
+        }
+
+        public int capacity() {
+            return capacity;
+        }
+
+        public int rowCount() {
+            return rowCount;
+        }
+
+        public void setRowCount(int rowCount) {
+            if (rowCount > capacity) {
+                throw new IllegalArgumentException("Batch holds at most " + capacity + " rows");
+            }
+            this.rowCount = rowCount;
+        }
+
+        /** Resets every cell to null. */
+        public void clear() {
+            for (int c = 0; c < columns.size(); c++) {
+                Arrays.fill(validity[c], (byte) 0);
+                stringLengths[c] = 0;
+            }
+            Arrays.fill(lastStringRow, -1);
+            rowCount = 0;
+        }
+
+        public void setInt(int column, int row, Integer value) {
+            if (value != null) {
+                ints[column][row] = value;
+                markValid(column, row);
+            }
+        }
+
+        /** NaN is written as null, the convention for missing measurements. */
+        public void setDouble(int column, int row, double value) {
+            if (!Double.isNaN(value)) {
+                longs[column][row] = Double.doubleToRawLongBits(value);
+                markValid(column, row);
+            }
+        }
+
+        public void setTimestamp(int column, int row, LocalDateTime value) {
+            if (value != null) {
+                longs[column][row] = value.toInstant(ZoneOffset.UTC).toEpochMilli();
+                markValid(column, row);
+            }
+        }
+
+        /** UTF-8 cells must be set in ascending row order; skipped rows stay null. */
+        public void setString(int column, int row, String value) {
+            if (row <= lastStringRow[column]) {
+                throw new IllegalArgumentException("UTF-8 cells must be set in row order");
+            }
+            int[] offsets = stringOffsets[column];
+            for (int r = lastStringRow[column] + 1; r < row; r++) {
+                offsets[r + 1] = stringLengths[column];
+            }
+            if (value != null) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                int end = stringLengths[column] + bytes.length;
+                if (end > stringData[column].length) {
+                    stringData[column] = Arrays.copyOf(stringData[column], Math.max(end, stringData[column].length * 2));
+                }
+                System.arraycopy(bytes, 0, stringData[column], stringLengths[column], bytes.length);
+                stringLengths[column] = end;
+                markValid(column, row);
+            }
+            offsets[row + 1] = stringLengths[column];
+            lastStringRow[column] = row;
+        }
+
+        private void markValid(int column, int row) {
+            validity[column][row >> 3] |= (byte) (1 << (row & 7));
+        }
+
+        private long nullCount(int column) {
+            long valid = 0;
+            for (int row = 0; row < rowCount; row++) {
+                if ((validity[column][row >> 3] & (1 << (row & 7))) != 0) {
+                    valid++;
+                }
+            }
+            return rowCount - valid;
+        }
+
+        /** Writes the buffers in schema order, each padded to 8 bytes; returns the bytes written. */
+        private long writeBody(OutputStream output) throws IOException {
+            long written = 0;
+            for (int c = 0; c < columns.size(); c++) {
+                written += writePadded(output, validity[c], (rowCount + 7) / 8);
+                switch (columns.get(c).type()) {
+                    case INT32 -> {
+                        ByteBuffer data = ByteBuffer.allocate(rowCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+                        data.asIntBuffer().put(ints[c], 0, rowCount);
+                        written += writePadded(output, data.array(), rowCount * 4);
+                    }
+                    case FLOAT64, TIMESTAMP_MILLIS -> {
+                        ByteBuffer data = ByteBuffer.allocate(rowCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+                        data.asLongBuffer().put(longs[c], 0, rowCount);
+                        written += writePadded(output, data.array(), rowCount * 8);
+                    }
+                    case UTF8 -> {
+                        stringOffsets[c][0] = 0;
+                        for (int r = lastStringRow[c] + 1; r < rowCount; r++) {
+                            stringOffsets[c][r + 1] = stringLengths[c];
+                        }
+                        ByteBuffer data = ByteBuffer.allocate((rowCount + 1) * 4).order(ByteOrder.LITTLE_ENDIAN);
+                        data.asIntBuffer().put(stringOffsets[c], 0, rowCount + 1);
+                        written += writePadded(output, data.array(), (rowCount + 1) * 4);
+                        written += writePadded(output, stringData[c], stringLengths[c]);
+                    }
+                }
+            }
+            return written;
+        }
+
+        private static int writePadded(OutputStream output, byte[] bytes, int length) throws IOException {
+            output.write(bytes, 0, length);
+            int padding = padded(length) - length;
+            if (padding > 0) {
+                output.write(new byte[padding]);
+            }
+            return length + padding;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CubeResultDto {
+    private List<String> groupBy;
+    private List<String> measures;
+    private Integer lotsTotal;
+    private Integer lotsMatched;
+    /** When the cube's data was read from the database. */
+    private LocalDateTime asOf;
+    private Double queryMillis;
+    /** One entry per group: the group-by labels followed by the measures, keyed by name. */
+    private List<Map<String, Object>> rows;
+}
@@ -0,0 +1,17 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FeatureContributionDto {
+    private Integer featureId;
+    private String featureCode;
+    /** Measured value in training standard deviations from the training mean; null if not measured. */
+    private Double deviation;
+    private Double t2Contribution;
+    private Double speContribution;
+}
@@ -0,0 +1,16 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FeatureCorrelationDto {
+    private Integer featureId;
+    private String featureCode;
+    private String featureName;
+    private Double correlation;
+    private Integer pairCount;
+}
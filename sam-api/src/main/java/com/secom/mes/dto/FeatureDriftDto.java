@@ -0,0 +1,26 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FeatureDriftDto {
+    private Integer featureId;
+    private String featureCode;
+    private String featureName;
+    private Integer recentSamples;
+    private Integer referenceSamples;
+    private Double recentMean;
+    private Double referenceMean;
+    private Double recentStdDev;
+    private Double referenceStdDev;
+    private Double peerMean;
+    private Double meanShiftScore;      // Welch t: recent vs own reference window
+    private Double varianceChangeScore; // standardized log variance ratio
+    private Double peerShiftScore;      // Welch t: recent vs peers' recent windows
+    private Double driftScore;
+    private Boolean drifting;
+}
@@ -0,0 +1,25 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FeatureSeriesDto {
+    private Integer featureId;
+    private String featureCode;
+    private String unit;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private String downsample;       // none, lttb or minmax
+    private Integer pointsInRange;
+    private Integer pointsReturned;
+    private Integer blocksDecoded;   // blocks outside the range or summarized by their min/max are not decoded
+    private Integer blocksTotal;
+    private List<SeriesPointDto> points;
+}
@@ -0,0 +1,14 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestAckDto {
+    private Integer accepted;
+    private Long firstSequence;
+    private Long lastSequence;
+}
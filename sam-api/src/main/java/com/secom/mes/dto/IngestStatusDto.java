@@ -0,0 +1,23 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestStatusDto {
+    private Boolean accepting;
+    private Integer buffered;
+    private Integer inFlight;
+    private Integer bufferCapacity;
+    private Long lastSequence;
+    private Long durableSequence;
+    private Long checkpointSequence;
+    private Long acceptedTotal;
+    private Long flushedTotal;
+    private Long rejectedTotal;
+    private Long refusedRequests;
+    private String lastFlushError;
+}
@@ -0,0 +1,29 @@
+package com.secom.mes.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobDto {
+    private Long jobId;
+    private String jobType;
+    private String status;
+    private Integer priority;
+    private JsonNode parameters;
+    private BigDecimal progress;
+    private String progressMessage;
+    private String errorMessage;
+    private Boolean cancelRequested;
+    private Integer attempts;
+    private String ownerInstance;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,15 @@
+package com.secom.mes.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobSubmitRequest {
+    private String jobType;
+    private Integer priority;
+    private JsonNode parameters;
+}
@@ -0,0 +1,15 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LotBatchOutcomeDto {
+    private Integer lotId;
+    private String lotNumber;
+    private String outcome; // 'created', 'updated', 'skipped', 'rejected', 'not_found'
+    private String message;
+}
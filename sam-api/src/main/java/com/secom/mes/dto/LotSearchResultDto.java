@@ -0,0 +1,27 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LotSearchResultDto {
+    private Integer lotId;
+    private String lotNumber;
+    private Integer productTypeId;
+    private Integer equipmentId;
+    private Integer operatorId;
+    private Integer shiftId;
+    private String status;
+    private LocalDateTime productionStart;
+    private Integer resultId;
+    /** -1 = pass, 1 = fail, 0 = not tested yet. */
+    private Integer classification;
+    private String defectType;
+    private BigDecimal predictedRisk;
+}
@@ -0,0 +1,20 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LotStatusTransitionRequest {
+    private Integer equipmentId;
+    private LocalDateTime startDate;
+    private LocalDateTime endDate;
+    private List<Integer> lotIds;
+    private String fromStatus;
+    private String toStatus;
+}
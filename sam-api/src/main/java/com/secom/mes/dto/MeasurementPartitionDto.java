@@ -0,0 +1,21 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MeasurementPartitionDto {
+    private String name;
+    private String tier;                // "database" or "archive"
+    private LocalDateTime rangeStart;   // Null for the first database partition
+    private LocalDateTime rangeEnd;     // Exclusive; null for pmax
+    private Long rows;                  // Estimated for database partitions
+    private String fileName;
+    private Long fileBytes;
+    private LocalDateTime archivedAt;
+}
@@ -0,0 +1,17 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MeasurementRecordDto {
+    private Integer lotId;
+    private Integer featureId;
+    private Double measurementValue;
+    private LocalDateTime measuredAt;
+}
@@ -0,0 +1,25 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MultivariateAnomalyDto {
+    private Integer lotId;
+    private String lotNumber;
+    private Integer equipmentId;
+    private Integer classification;
+    private String defectType;
+    private Double t2;
+    private Double spe;
+    /** T^2 and SPE as multiples of their control limits; the larger one ranks the lot. */
+    private Double t2Ratio;
+    private Double speRatio;
+    private Boolean outOfControl;
+    private List<FeatureContributionDto> topContributors;
+}
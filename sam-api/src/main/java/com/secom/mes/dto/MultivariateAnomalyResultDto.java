@@ -0,0 +1,24 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MultivariateAnomalyResultDto {
+    private LocalDateTime modelFittedAt;
+    private Integer trainingLots;
+    private Integer features;
+    private Integer components;
+    private Double explainedVariance;
+    private Double t2Limit;
+    private Double speLimit;
+    private Integer scoredLots;
+    private Integer outOfControlLots;
+    private List<MultivariateAnomalyDto> lots;
+}
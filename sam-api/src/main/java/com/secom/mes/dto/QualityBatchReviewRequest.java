@@ -0,0 +1,17 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QualityBatchReviewRequest {
+    private String toDisposition;
+    private Integer reviewerId;
+    private String notes;
+    private List<QualityReviewItemDto> items;
+}
@@ -0,0 +1,13 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QualityReviewItemDto {
+    private Integer resultId;
+    private Integer expectedVersion; // optional
+}
@@ -0,0 +1,16 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QualityReviewOutcomeDto {
+    private Integer resultId;
+    private String outcome;     // 'updated', 'conflict', 'not_found', 'rejected'
+    private String disposition; // after the call
+    private Integer version;    // after the call
+    private String message;
+}
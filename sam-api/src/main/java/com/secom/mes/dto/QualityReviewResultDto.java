@@ -0,0 +1,17 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QualityReviewResultDto {
+    private Integer requested;
+    private Integer succeeded;
+    private Integer failed;
+    private List<QualityReviewOutcomeDto> outcomes;
+}
@@ -0,0 +1,15 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QualityTransitionRequest {
+    private String toDisposition;
+    private Integer reviewerId;
+    private Integer expectedVersion; // optional; the transition fails if the result has changed since
+    private String notes;            // optional; replaces the result's notes
+}
@@ -0,0 +1,18 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SimilarLotDto {
+    private Integer lotId;
+    private String lotNumber;
+    private Integer equipmentId;
+    private Double distance;
+    private Integer sharedFeatures;
+    private Integer classification;
+    private String defectType;
+}
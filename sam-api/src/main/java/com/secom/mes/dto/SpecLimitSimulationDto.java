@@ -0,0 +1,33 @@
+package com.secom.mes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SpecLimitSimulationDto {
+    private Integer featureId;
+    private String featureCode;
+    private Double currentMin;
+    private Double currentMax;
+    private Double proposedMin;
+    private Double proposedMax;
+    private Integer lotsMeasured;
+    private Integer lotsTested;          // measured lots with a pass/fail result
+    private Integer currentOutOfSpec;
+    private Integer proposedOutOfSpec;
+    private Integer newlyFlagged;        // in spec now, out of spec with the proposed limits
+    private Integer noLongerFlagged;     // out of spec now, in spec with the proposed limits
+    // Proposed limits as a fail predictor over tested lots: positive = out of spec, actual = fail
+    private Integer truePositives;
+    private Integer falsePositives;
+    private Integer falseNegatives;
+    private Integer trueNegatives;
+    private Double precision;            // share of flagged tested lots that failed
+    private Double recall;               // share of failed lots that are flagged
+    private Double falsePositiveRate;    // share of passed lots that are flagged
+    private Double currentPrecision;
+    private Double currentRecall;
+}
@@ -0,0 +1,92 @@
+package com.secom.mes.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "background_job")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BackgroundJob {
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String SUCCEEDED = "succeeded";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "job_id")
+    private Long jobId;
+
+    @Column(name = "job_type", nullable = false, length = 50)
+    private String jobType;
+
+    @Column(name = "status", nullable = false, length = 20)
+    private String status; // 'queued', 'running', 'succeeded', 'failed', 'cancelled'
+
+    @Column(name = "priority", nullable = false)
+    private Integer priority; // 0 (lowest) to 9 (highest)
+
+    @Column(name = "parameters", columnDefinition = "JSON")
+    private String parameters;
+
+    @Column(name = "progress", nullable = false, precision = 5, scale = 4)
+    private BigDecimal progress;
+
+    @Column(name = "progress_message", length = 255)
+    private String progressMessage;
+
+    @Column(name = "result", columnDefinition = "JSON")
+    private String result;
+
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    private String errorMessage;
+
+    @Column(name = "cancel_requested", nullable = false)
+    private Boolean cancelRequested;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+
+    @Column(name = "owner_instance", length = 64)
+    private String ownerInstance;
+
+    @Column(name = "heartbeat_at")
+    private LocalDateTime heartbeatAt;
+
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
+        if (status == null) {
+            status = QUEUED;
+        }
+        if (progress == null) {
+            progress = BigDecimal.ZERO;
+        }
+        if (cancelRequested == null) {
+            cancelRequested = false;
+        }
+        if (attempts == null) {
+            attempts = 0;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -56,10 +57,12 @@ public class FeatureMeta {
 
     @OneToMany(mappedBy = "feature")
     @JsonIgnore
+    @ToString.Exclude
     private List<LotMeasurement> measurements;
 
     @OneToMany(mappedBy = "feature")
     @JsonIgnore
+    @ToString.Exclude
     private List<FeatureImportance> importanceRecords;
 
     @PrePersist
@@ -75,7 +75,11 @@ public class QualityResult {
     private LocalDateTime reviewedAt;
 
     @Column(name = "disposition", length = 20)
-    private String disposition; // 'released', 'rework', 'scrap', 'pending'
+    private String disposition; // 'pending', 'reviewed', 'released', 'rework', 'scrap'
+
+    @Version
+    @Column(name = "version", nullable = false)
+    private Integer version;
 
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
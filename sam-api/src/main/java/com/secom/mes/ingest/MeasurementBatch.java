@@ -0,0 +1,90 @@
+package com.secom.mes.ingest;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * A run of measurements in parallel primitive arrays, as written to the
+ * {@link MeasurementWal} and drained from the {@link MeasurementRingBuffer}.
+ *
+ * A missing value is stored as NaN and a missing timestamp as {@link #NO_TIME};
+ * timestamps are local date-times encoded as epoch seconds at UTC.
+ */
+public class MeasurementBatch {
+
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private long[] sequences;
+    private int[] lotIds;
+    private int[] featureIds;
+    private double[] values;
+    private long[] measuredAt;
+    private int size;
+
+    public MeasurementBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        sequences = new long[capacity];
+        lotIds = new int[capacity];
+        featureIds = new int[capacity];
+        values = new double[capacity];
+        measuredAt = new long[capacity];
+    }
+
+    public void add(long sequence, int lotId, int featureId, double value, long measuredAtEpochSecond) {
+        if (size == lotIds.length) {
+            int capacity = size * 2;
+            sequences = Arrays.copyOf(sequences, capacity);
+            lotIds = Arrays.copyOf(lotIds, capacity);
+            featureIds = Arrays.copyOf(featureIds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            measuredAt = Arrays.copyOf(measuredAt, capacity);
+        }
+        sequences[size] = sequence;
+        lotIds[size] = lotId;
+        featureIds[size] = featureId;
+        values[size] = value;
+        measuredAt[size] = measuredAtEpochSecond;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long sequence(int i) {
+        return sequences[i];
+    }
+
+    void setSequence(int i, long sequence) {
+        sequences[i] = sequence;
+    }
+
+    public int lotId(int i) {
+        return lotIds[i];
+    }
+
+    public int featureId(int i) {
+        return featureIds[i];
+    }
+
+    public double value(int i) {
+        return values[i];
+    }
+
+    public long measuredAt(int i) {
+        return measuredAt[i];
+    }
+
+    public static long encodeTime(LocalDateTime time) {
+        return time != null ? time.toEpochSecond(ZoneOffset.UTC) : NO_TIME;
+    }
+
+    public static LocalDateTime decodeTime(long epochSecond) {
+        return epochSecond != NO_TIME ? LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC) : null;
+    }
+}
@@ -0,0 +1,145 @@
+package com.secom.mes.ingest;
+
+import java.util.TreeMap;
+
+/**
+ * Fixed-capacity ring of measurements between the ingest endpoint and the database flushers.
+ *
+ * Positions only grow; a position's slot is {@code position % capacity}. Three cursors
+ * partition the ring:
+ * <pre>
+ *   tail ........ claimed ........ durable ........ head
+ *   in flight to   waiting, may be  written, log not
+ *   the database   claimed          yet fsynced
+ * </pre>
+ * A slot is reused only once the batch holding it has been committed, so the ring also bounds
+ * how far the database may fall behind: when it is full, {@link #offer} refuses and the caller
+ * must push back on the sender.
+ */
+public class MeasurementRingBuffer {
+
+    private final int capacity;
+    private final long[] sequences;
+    private final int[] lotIds;
+    private final int[] featureIds;
+    private final double[] values;
+    private final long[] measuredAt;
+
+    private long head;
+    private long durable;
+    private long claimed;
+    private long tail;
+    /** Start -> end position of each batch handed to a flusher and not yet committed. */
+    private final TreeMap<Long, Long> inFlight = new TreeMap<>();
+    private boolean closed;
+
+    public MeasurementRingBuffer(int capacity) {
+        this.capacity = capacity;
+        sequences = new long[capacity];
+        lotIds = new int[capacity];
+        featureIds = new int[capacity];
+        values = new double[capacity];
+        measuredAt = new long[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Records held: waiting, in flight or not yet durable. */
+    public synchronized int size() {
+        return (int) (head - tail);
+    }
+
+    public synchronized int inFlight() {
+        return (int) (claimed - tail);
+    }
+
+    public synchronized boolean hasRoom(int count) {
+        return head - tail + count <= capacity;
+    }
+
+    /**
+     * Appends a batch whose sequence numbers are already assigned.
+     *
+     * @return the position after the batch, to pass to {@link #markDurable}; -1 if there is no room
+     */
+    public synchronized long offer(MeasurementBatch batch) {
+        int count = batch.size();
+        if (head - tail + count > capacity) {
+            return -1;
+        }
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((head + i) % capacity);
+            sequences[slot] = batch.sequence(i);
+            lotIds[slot] = batch.lotId(i);
+            featureIds[slot] = batch.featureId(i);
+            values[slot] = batch.value(i);
+            measuredAt[slot] = batch.measuredAt(i);
+        }
+        head += count;
+        return head;
+    }
+
+    /** Everything before {@code position} is in the fsynced log and may be flushed. */
+    public synchronized void markDurable(long position) {
+        if (position > durable) {
+            durable = position;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until at least {@code batchSize} durable records are waiting, or some are and
+     * {@code lingerMs} has passed, then copies up to {@code batchSize} of them into
+     * {@code into} and marks them in flight.
+     *
+     * @return the batch's start position for {@link #complete}, or -1 if nothing arrived or the ring was closed
+     */
+    public synchronized long claim(int batchSize, long lingerMs, MeasurementBatch into) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + lingerMs;
+        while (!closed && durable - claimed < batchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        int count = (int) Math.min(batchSize, durable - claimed);
+        if (count == 0) {
+            return -1;
+        }
+        into.clear();
+        for (long position = claimed; position < claimed + count; position++) {
+            int slot = (int) (position % capacity);
+            into.add(sequences[slot], lotIds[slot], featureIds[slot], values[slot], measuredAt[slot]);
+        }
+        long start = claimed;
+        claimed += count;
+        inFlight.put(start, claimed);
+        return start;
+    }
+
+    /** The batch claimed at {@code start} is committed; frees its slots once earlier batches are too. */
+    public synchronized void complete(long start) {
+        inFlight.remove(start);
+        tail = inFlight.isEmpty() ? claimed : inFlight.firstKey();
+    }
+
+    /**
+     * Highest sequence number below which every record that passed through the ring has been
+     * committed, or {@code fallback} if the ring has held nothing since it was created.
+     */
+    public synchronized long committedSequence(long fallback) {
+        if (tail < head) {
+            return sequences[(int) (tail % capacity)] - 1;
+        }
+        return head > 0 ? sequences[(int) ((head - 1) % capacity)] : fallback;
+    }
+
+    /** Wakes waiting flushers; claims return what is left without waiting. */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
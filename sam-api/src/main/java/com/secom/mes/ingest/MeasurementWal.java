@@ -0,0 +1,334 @@
+package com.secom.mes.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only log of accepted measurements, so they survive a crash before they
+ * reach the database.
+ *
+ * The log is a directory of segment files named after the first sequence number they hold.
+ * Each append writes one frame:
+ * <pre>
+ *   int count | long firstSequence | count x (int lotId, int featureId, double value, long measuredAt) | int crc32
+ * </pre>
+ * Sequence numbers are assigned here, contiguous within a frame and increasing across frames.
+ * {@link #awaitDurable} fsyncs; concurrent callers share one fsync (group commit).
+ *
+ * The checkpoint file holds the highest sequence number known to be in the database.
+ * Segments entirely at or below it are deleted, and {@link #open} returns the records above
+ * it for replay. A torn frame at the end of the last segment (crash mid-write, never
+ * acknowledged) is cut off.
+ */
+public class MeasurementWal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MeasurementWal.class);
+
+    static final int RECORD_BYTES = 4 + 4 + 8 + 8;
+    private static final int FRAME_HEADER_BYTES = 4 + 8;
+    private static final int FRAME_TRAILER_BYTES = 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String LOG_ID_FILE = "log-id";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final String logId;
+
+    /** First sequence number -> segment file, oldest first. Guarded by this. */
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private FileChannel segment;
+    private long segmentPosition;
+    private long nextSequence;
+    private ByteBuffer frameBuffer = ByteBuffer.allocate(64 * 1024);
+    private final CRC32 crc = new CRC32();
+
+    /** Closed segments not yet fsynced; forced and closed by the next awaitDurable. Guarded by this. */
+    private final List<FileChannel> retired = new ArrayList<>();
+
+    private final Object forceLock = new Object();
+    private final Object checkpointLock = new Object();
+    private volatile long durableSequence;
+    private volatile long checkpoint;
+
+    private MeasurementWal(Path directory, long segmentBytes, String logId) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.logId = logId;
+    }
+
+    /**
+     * Opens (creating if needed) the log in a directory and reads back every record above
+     * the checkpoint into {@code pending}, oldest first.
+     */
+    public static MeasurementWal open(Path directory, long segmentBytes, MeasurementBatch pending) throws IOException {
+        Files.createDirectories(directory);
+        Path idFile = directory.resolve(LOG_ID_FILE);
+        if (!Files.exists(idFile)) {
+            writeAtomically(directory, LOG_ID_FILE, UUID.randomUUID().toString());
+        }
+        MeasurementWal wal = new MeasurementWal(directory, segmentBytes,
+                Files.readString(idFile, StandardCharsets.UTF_8).trim());
+        wal.recover(pending);
+        return wal;
+    }
+
+    /** Identifies this log in the database's batch ledger; stable across restarts. */
+    public String getLogId() {
+        return logId;
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /** Highest sequence number assigned so far. */
+    public synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Writes a batch as one frame, assigning its sequence numbers (stored into the batch).
+     * The data is not durable until {@link #awaitDurable} returns.
+     *
+     * @return the last sequence number assigned
+     */
+    public synchronized long append(MeasurementBatch batch) throws IOException {
+        int count = batch.size();
+        int frameBytes = FRAME_HEADER_BYTES + count * RECORD_BYTES + FRAME_TRAILER_BYTES;
+        if (segmentPosition > 0 && segmentPosition + frameBytes > segmentBytes) {
+            rollSegment();
+        }
+        if (frameBuffer.capacity() < frameBytes) {
+            frameBuffer = ByteBuffer.allocate(Math.max(frameBytes, frameBuffer.capacity() * 2));
+        }
+        long first = nextSequence;
+        ByteBuffer frame = frameBuffer.clear();
+        frame.putInt(count).putLong(first);
+        for (int i = 0; i < count; i++) {
+            batch.setSequence(i, first + i);
+            frame.putInt(batch.lotId(i))
+                    .putInt(batch.featureId(i))
+                    .putDouble(batch.value(i))
+                    .putLong(batch.measuredAt(i));
+        }
+        crc.reset();
+        crc.update(frame.array(), 0, frame.position());
+        frame.putInt((int) crc.getValue());
+        frame.flip();
+        while (frame.hasRemaining()) {
+            segment.write(frame);
+        }
+        segmentPosition += frameBytes;
+        nextSequence += count;
+        return nextSequence - 1;
+    }
+
+    /** Returns once every record up to the given sequence number is on stable storage. */
+    public void awaitDurable(long sequence) throws IOException {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            List<FileChannel> toForce;
+            FileChannel current;
+            long upTo;
+            synchronized (this) {
+                toForce = new ArrayList<>(retired);
+                retired.clear();
+                current = segment;
+                upTo = nextSequence - 1;
+            }
+            for (FileChannel channel : toForce) {
+                channel.force(false);
+                channel.close();
+            }
+            current.force(false);
+            durableSequence = upTo;
+        }
+    }
+
+    /**
+     * Records that everything up to {@code committedSequence} is in the database and deletes
+     * the segments that only hold such records.
+     */
+    public void checkpoint(long committedSequence) throws IOException {
+        synchronized (checkpointLock) {
+            if (committedSequence <= checkpoint) {
+                return;
+            }
+            writeAtomically(directory, CHECKPOINT_FILE, Long.toString(committedSequence));
+            checkpoint = committedSequence;
+        }
+        deleteObsoleteSegments(committedSequence);
+    }
+
+    private void deleteObsoleteSegments(long committedSequence) throws IOException {
+        List<Path> obsolete = new ArrayList<>();
+        synchronized (this) {
+            // A segment is obsolete when the next one starts at or below checkpoint + 1
+            Map.Entry<Long, Path> entry = segments.firstEntry();
+            while (entry != null) {
+                Map.Entry<Long, Path> next = segments.higherEntry(entry.getKey());
+                if (next == null || next.getKey() - 1 > committedSequence) {
+                    break;
+                }
+                obsolete.add(entry.getValue());
+                segments.remove(entry.getKey());
+                entry = next;
+            }
+        }
+        for (Path path : obsolete) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : retired) {
+            channel.force(false);
+            channel.close();
+        }
+        retired.clear();
+        if (segment != null) {
+            segment.force(false);
+            segment.close();
+            segment = null;
+        }
+    }
+
+    private synchronized void recover(MeasurementBatch pending) throws IOException {
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        checkpoint = Files.exists(checkpointFile)
+                ? Long.parseLong(Files.readString(checkpointFile, StandardCharsets.UTF_8).trim())
+                : 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).forEach(path -> {
+                String name = path.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), path);
+            });
+        }
+
+        long lastSequence = checkpoint;
+        for (Map.Entry<Long, Path> entry : List.copyOf(segments.entrySet())) {
+            boolean last = entry.getKey().equals(segments.lastKey());
+            lastSequence = Math.max(lastSequence, readSegment(entry.getValue(), last, pending));
+        }
+        nextSequence = lastSequence + 1;
+        durableSequence = lastSequence;
+        openSegment();
+        deleteObsoleteSegments(checkpoint);
+    }
+
+    /** Reads the frames of one segment into pending; returns the highest sequence seen. */
+    private long readSegment(Path path, boolean lastSegment, MeasurementBatch pending) throws IOException {
+        long highest = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+            while (position < size) {
+                header.clear();
+                if (channel.read(header, position) < FRAME_HEADER_BYTES) {
+                    break;
+                }
+                header.flip();
+                int count = header.getInt();
+                long first = header.getLong();
+                long frameBytes = FRAME_HEADER_BYTES + (long) count * RECORD_BYTES + FRAME_TRAILER_BYTES;
+                if (count <= 0 || position + frameBytes > size) {
+                    break;
+                }
+                ByteBuffer frame = ByteBuffer.allocate((int) frameBytes);
+                channel.read(frame, position);
+                frame.flip();
+                crc.reset();
+                crc.update(frame.array(), 0, (int) frameBytes - FRAME_TRAILER_BYTES);
+                if ((int) crc.getValue() != frame.getInt((int) frameBytes - FRAME_TRAILER_BYTES)) {
+                    break;
+                }
+                frame.position(FRAME_HEADER_BYTES);
+                for (int i = 0; i < count; i++) {
+                    int lotId = frame.getInt();
+                    int featureId = frame.getInt();
+                    double value = frame.getDouble();
+                    long measuredAt = frame.getLong();
+                    if (first + i > checkpoint) {
+                        pending.add(first + i, lotId, featureId, value, measuredAt);
+                    }
+                }
+                highest = first + count - 1;
+                position += frameBytes;
+            }
+            if (position < size) {
+                if (lastSegment) {
+                    log.warn("Truncating torn tail of {} at byte {} of {}", path.getFileName(), position, size);
+                    channel.truncate(position);
+                    channel.force(true);
+                } else {
+                    log.error("Corrupt frame in {} at byte {} of {}; the rest of the segment is skipped",
+                            path.getFileName(), position, size);
+                }
+            }
+        }
+        return highest;
+    }
+
+    private void rollSegment() throws IOException {
+        retired.add(segment);
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+        segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentPosition = segment.size();
+        segments.put(nextSequence, path);
+        forceDirectory(directory);
+    }
+
+    private static void writeAtomically(Path directory, String fileName, String content) throws IOException {
+        Path temp = directory.resolve(fileName + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(directory);
+    }
+
+    /** Makes file creations and renames in the directory durable, where the platform allows it. */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform/file system; file contents are still forced.
+        }
+    }
+}
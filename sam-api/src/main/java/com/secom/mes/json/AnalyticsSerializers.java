@@ -0,0 +1,186 @@
+package com.secom.mes.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.secom.mes.dto.EquipmentHealthDto;
+import com.secom.mes.dto.HighRiskLotDto;
+import com.secom.mes.dto.ProductionSummaryDto;
+import com.secom.mes.dto.QualityAnalyticsDto;
+import com.secom.mes.dto.ShiftPerformanceDto;
+
+import java.io.IOException;
+
+import static com.secom.mes.json.JsonWriters.field;
+import static com.secom.mes.json.JsonWriters.name;
+
+/** Serializers for the /analytics view DTOs; same properties and order as the bean serializer. */
+final class AnalyticsSerializers {
+
+    private AnalyticsSerializers() {
+    }
+
+    static final class ProductionSummarySerializer extends StdSerializer<ProductionSummaryDto> {
+
+        private static final SerializableString TOTAL_LOTS = name("totalLots");
+        private static final SerializableString ACTIVE_EQUIPMENT_COUNT = name("activeEquipmentCount");
+        private static final SerializableString ACTIVE_OPERATOR_COUNT = name("activeOperatorCount");
+        private static final SerializableString PASS_COUNT = name("passCount");
+        private static final SerializableString FAIL_COUNT = name("failCount");
+        private static final SerializableString FAIL_RATE_PCT = name("failRatePct");
+        private static final SerializableString AVG_QUALITY_SCORE = name("avgQualityScore");
+        private static final SerializableString FIRST_PRODUCTION_DATE = name("firstProductionDate");
+        private static final SerializableString LAST_PRODUCTION_DATE = name("lastProductionDate");
+
+        ProductionSummarySerializer() {
+            super(ProductionSummaryDto.class);
+        }
+
+        @Override
+        public void serialize(ProductionSummaryDto value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject();
+            field(gen, TOTAL_LOTS, value.getTotalLots());
+            field(gen, ACTIVE_EQUIPMENT_COUNT, value.getActiveEquipmentCount());
+            field(gen, ACTIVE_OPERATOR_COUNT, value.getActiveOperatorCount());
+            field(gen, PASS_COUNT, value.getPassCount());
+            field(gen, FAIL_COUNT, value.getFailCount());
+            field(gen, FAIL_RATE_PCT, value.getFailRatePct());
+            field(gen, AVG_QUALITY_SCORE, value.getAvgQualityScore());
+            field(gen, FIRST_PRODUCTION_DATE, value.getFirstProductionDate());
+            field(gen, LAST_PRODUCTION_DATE, value.getLastProductionDate());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class EquipmentHealthSerializer extends StdSerializer<EquipmentHealthDto> {
+
+        private static final SerializableString EQUIPMENT_ID = name("equipmentId");
+        private static final SerializableString EQUIPMENT_CODE = name("equipmentCode");
+        private static final SerializableString EQUIPMENT_NAME = name("equipmentName");
+        private static final SerializableString EQUIPMENT_TYPE = name("equipmentType");
+        private static final SerializableString EQUIPMENT_STATUS = name("equipmentStatus");
+        private static final SerializableString TOTAL_LOTS_PROCESSED = name("totalLotsProcessed");
+        private static final SerializableString FAILED_LOTS = name("failedLots");
+        private static final SerializableString EQUIPMENT_FAIL_RATE_PCT = name("equipmentFailRatePct");
+        private static final SerializableString AVG_QUALITY_SCORE = name("avgQualityScore");
+        private static final SerializableString DAYS_OPERATED = name("daysOperated");
+        private static final SerializableString LOTS_BETWEEN_FAILURES = name("lotsBetweenFailures");
+        private static final SerializableString HEALTH_SCORE = name("healthScore");
+
+        EquipmentHealthSerializer() {
+            super(EquipmentHealthDto.class);
+        }
+
+        @Override
+        public void serialize(EquipmentHealthDto value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject();
+            field(gen, EQUIPMENT_ID, value.getEquipmentId());
+            field(gen, EQUIPMENT_CODE, value.getEquipmentCode());
+            field(gen, EQUIPMENT_NAME, value.getEquipmentName());
+            field(gen, EQUIPMENT_TYPE, value.getEquipmentType());
+            field(gen, EQUIPMENT_STATUS, value.getEquipmentStatus());
+            field(gen, TOTAL_LOTS_PROCESSED, value.getTotalLotsProcessed());
+            field(gen, FAILED_LOTS, value.getFailedLots());
+            field(gen, EQUIPMENT_FAIL_RATE_PCT, value.getEquipmentFailRatePct());
+            field(gen, AVG_QUALITY_SCORE, value.getAvgQualityScore());
+            field(gen, DAYS_OPERATED, value.getDaysOperated());
+            field(gen, LOTS_BETWEEN_FAILURES, value.getLotsBetweenFailures());
+            field(gen, HEALTH_SCORE, value.getHealthScore());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class ShiftPerformanceSerializer extends StdSerializer<ShiftPerformanceDto> {
+
+        private static final SerializableString SHIFT_ID = name("shiftId");
+        private static final SerializableString SHIFT_CODE = name("shiftCode");
+        private static final SerializableString SHIFT_NAME = name("shiftName");
+        private static final SerializableString TOTAL_LOTS = name("totalLots");
+        private static final SerializableString PASS_COUNT = name("passCount");
+        private static final SerializableString FAIL_COUNT = name("failCount");
+        private static final SerializableString FAIL_RATE_PCT = name("failRatePct");
+        private static final SerializableString AVG_QUALITY_SCORE = name("avgQualityScore");
+        private static final SerializableString OPERATOR_COUNT = name("operatorCount");
+        private static final SerializableString EQUIPMENT_USED = name("equipmentUsed");
+
+        ShiftPerformanceSerializer() {
+            super(ShiftPerformanceDto.class);
+        }
+
+        @Override
+        public void serialize(ShiftPerformanceDto value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject();
+            field(gen, SHIFT_ID, value.getShiftId());
+            field(gen, SHIFT_CODE, value.getShiftCode());
+            field(gen, SHIFT_NAME, value.getShiftName());
+            field(gen, TOTAL_LOTS, value.getTotalLots());
+            field(gen, PASS_COUNT, value.getPassCount());
+            field(gen, FAIL_COUNT, value.getFailCount());
+            field(gen, FAIL_RATE_PCT, value.getFailRatePct());
+            field(gen, AVG_QUALITY_SCORE, value.getAvgQualityScore());
+            field(gen, OPERATOR_COUNT, value.getOperatorCount());
+            field(gen, EQUIPMENT_USED, value.getEquipmentUsed());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class QualityAnalyticsSerializer extends StdSerializer<QualityAnalyticsDto> {
+
+        private static final SerializableString DEFECT_TYPE = name("defectType");
+        private static final SerializableString OCCURRENCE_COUNT = name("occurrenceCount");
+        private static final SerializableString PCT_OF_FAILURES = name("pctOfFailures");
+        private static final SerializableString AVG_QUALITY_SCORE = name("avgQualityScore");
+        private static final SerializableString AFFECTED_PRODUCT_FAMILIES = name("affectedProductFamilies");
+        private static final SerializableString AFFECTED_EQUIPMENT_TYPES = name("affectedEquipmentTypes");
+
+        QualityAnalyticsSerializer() {
+            super(QualityAnalyticsDto.class);
+        }
+
+        @Override
+        public void serialize(QualityAnalyticsDto value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject();
+            field(gen, DEFECT_TYPE, value.getDefectType());
+            field(gen, OCCURRENCE_COUNT, value.getOccurrenceCount());
+            field(gen, PCT_OF_FAILURES, value.getPctOfFailures());
+            field(gen, AVG_QUALITY_SCORE, value.getAvgQualityScore());
+            field(gen, AFFECTED_PRODUCT_FAMILIES, value.getAffectedProductFamilies());
+            field(gen, AFFECTED_EQUIPMENT_TYPES, value.getAffectedEquipmentTypes());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class HighRiskLotSerializer extends StdSerializer<HighRiskLotDto> {
+
+        private static final SerializableString LOT_NUMBER = name("lotNumber");
+        private static final SerializableString PRODUCT_NAME = name("productName");
+        private static final SerializableString EQUIPMENT_CODE = name("equipmentCode");
+        private static final SerializableString PREDICTED_RISK = name("predictedRisk");
+        private static final SerializableString RISK_SCORE = name("riskScore");
+        private static final SerializableString TEST_DATETIME = name("testDatetime");
+        private static final SerializableString ACTUAL_CLASSIFICATION = name("actualClassification");
+
+        HighRiskLotSerializer() {
+            super(HighRiskLotDto.class);
+        }
+
+        @Override
+        public void serialize(HighRiskLotDto value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject();
+            field(gen, LOT_NUMBER, value.getLotNumber());
+            field(gen, PRODUCT_NAME, value.getProductName());
+            field(gen, EQUIPMENT_CODE, value.getEquipmentCode());
+            field(gen, PREDICTED_RISK, value.getPredictedRisk());
+            field(gen, RISK_SCORE, value.getRiskScore());
+            field(gen, TEST_DATETIME, value.getTestDatetime());
+            field(gen, ACTUAL_CLASSIFICATION, value.getActualClassification());
+            gen.writeEndObject();
+        }
+    }
+}
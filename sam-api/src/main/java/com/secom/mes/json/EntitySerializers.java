@@ -0,0 +1,358 @@
+package com.secom.mes.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.secom.mes.entity.Equipment;
+import com.secom.mes.entity.FeatureMeta;
+import com.secom.mes.entity.Lot;
+import com.secom.mes.entity.LotMeasurement;
+import com.secom.mes.entity.Operator;
+import com.secom.mes.entity.ProductType;
+import com.secom.mes.entity.QualityResult;
+import com.secom.mes.entity.Shift;
+
+import java.io.IOException;
+
+import static com.secom.mes.json.JsonWriters.field;
+import static com.secom.mes.json.JsonWriters.name;
+
+/**
+ * Serializers for the measurement and quality result entity graph.
+ *
+ * They write the properties Jackson's bean serializer used to find, in the same order, by calling
+ * the getters directly. Hibernate proxies are therefore read like the entity itself (loading it
+ * if needed) instead of being introspected, and their internal hibernateLazyInitializer property
+ * no longer leaks into responses. A new entity column needs a line here to appear in JSON.
+ */
+final class EntitySerializers {
+
+    private EntitySerializers() {
+    }
+
+    static final class LotMeasurementSerializer extends StdSerializer<LotMeasurement> {
+
+        static final LotMeasurementSerializer INSTANCE = new LotMeasurementSerializer();
+
+        private static final SerializableString MEASUREMENT_ID = name("measurementId");
+        private static final SerializableString LOT = name("lot");
+        private static final SerializableString FEATURE = name("feature");
+        private static final SerializableString MEASUREMENT_VALUE = name("measurementValue");
+        private static final SerializableString IS_OUT_OF_SPEC = name("isOutOfSpec");
+        private static final SerializableString MEASURED_AT = name("measuredAt");
+        private static final SerializableString CREATED_AT = name("createdAt");
+
+        private LotMeasurementSerializer() {
+            super(LotMeasurement.class);
+        }
+
+        @Override
+        public void serialize(LotMeasurement value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            field(gen, MEASUREMENT_ID, value.getMeasurementId());
+            gen.writeFieldName(LOT);
+            LotSerializer.INSTANCE.write(value.getLot(), gen, provider);
+            gen.writeFieldName(FEATURE);
+            FeatureMetaSerializer.INSTANCE.write(value.getFeature(), gen, provider);
+            field(gen, MEASUREMENT_VALUE, value.getMeasurementValue());
+            field(gen, IS_OUT_OF_SPEC, value.getIsOutOfSpec());
+            field(gen, MEASURED_AT, value.getMeasuredAt());
+            field(gen, CREATED_AT, value.getCreatedAt());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class QualityResultSerializer extends StdSerializer<QualityResult> {
+
+        static final QualityResultSerializer INSTANCE = new QualityResultSerializer();
+
+        private static final SerializableString RESULT_ID = name("resultId");
+        private static final SerializableString LOT = name("lot");
+        private static final SerializableString CLASSIFICATION = name("classification");
+        private static final SerializableString TEST_TIMESTAMP_RAW = name("testTimestampRaw");
+        private static final SerializableString TEST_DATETIME = name("testDatetime");
+        private static final SerializableString PREDICTED_RISK = name("predictedRisk");
+        private static final SerializableString RISK_SCORE = name("riskScore");
+        private static final SerializableString RISK_FACTORS = name("riskFactors");
+        private static final SerializableString MODEL_VERSION = name("modelVersion");
+        private static final SerializableString QUALITY_SCORE = name("qualityScore");
+        private static final SerializableString DEFECT_TYPE = name("defectType");
+        private static final SerializableString DEFECT_CODE = name("defectCode");
+        private static final SerializableString DEFECT_LOCATION = name("defectLocation");
+        private static final SerializableString INSPECTOR = name("inspector");
+        private static final SerializableString NOTES = name("notes");
+        private static final SerializableString REVIEWER = name("reviewer");
+        private static final SerializableString REVIEWED_AT = name("reviewedAt");
+        private static final SerializableString DISPOSITION = name("disposition");
+        private static final SerializableString VERSION = name("version");
+        private static final SerializableString CREATED_AT = name("createdAt");
+        private static final SerializableString UPDATED_AT = name("updatedAt");
+
+        private QualityResultSerializer() {
+            super(QualityResult.class);
+        }
+
+        @Override
+        public void serialize(QualityResult value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            field(gen, RESULT_ID, value.getResultId());
+            gen.writeFieldName(LOT);
+            LotSerializer.INSTANCE.write(value.getLot(), gen, provider);
+            field(gen, CLASSIFICATION, value.getClassification());
+            field(gen, TEST_TIMESTAMP_RAW, value.getTestTimestampRaw());
+            field(gen, TEST_DATETIME, value.getTestDatetime());
+            field(gen, PREDICTED_RISK, value.getPredictedRisk());
+            field(gen, RISK_SCORE, value.getRiskScore());
+            field(gen, RISK_FACTORS, value.getRiskFactors());
+            field(gen, MODEL_VERSION, value.getModelVersion());
+            field(gen, QUALITY_SCORE, value.getQualityScore());
+            field(gen, DEFECT_TYPE, value.getDefectType());
+            field(gen, DEFECT_CODE, value.getDefectCode());
+            field(gen, DEFECT_LOCATION, value.getDefectLocation());
+            gen.writeFieldName(INSPECTOR);
+            OperatorSerializer.INSTANCE.write(value.getInspector(), gen, provider);
+            field(gen, NOTES, value.getNotes());
+            gen.writeFieldName(REVIEWER);
+            OperatorSerializer.INSTANCE.write(value.getReviewer(), gen, provider);
+            field(gen, REVIEWED_AT, value.getReviewedAt());
+            field(gen, DISPOSITION, value.getDisposition());
+            field(gen, VERSION, value.getVersion());
+            field(gen, CREATED_AT, value.getCreatedAt());
+            field(gen, UPDATED_AT, value.getUpdatedAt());
+            gen.writeEndObject();
+        }
+    }
+
+    /** Base for serializers that are also written nested, where the value may be null. */
+    abstract static class NestedSerializer<T> extends StdSerializer<T> {
+
+        NestedSerializer(Class<T> type) {
+            super(type);
+        }
+
+        final void write(T value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            if (value == null) {
+                gen.writeNull();
+            } else {
+                serialize(value, gen, provider);
+            }
+        }
+    }
+
+    static final class LotSerializer extends NestedSerializer<Lot> {
+
+        static final LotSerializer INSTANCE = new LotSerializer();
+
+        private static final SerializableString LOT_ID = name("lotId");
+        private static final SerializableString LOT_NUMBER = name("lotNumber");
+        private static final SerializableString PRODUCT_TYPE = name("productType");
+        private static final SerializableString EQUIPMENT = name("equipment");
+        private static final SerializableString OPERATOR = name("operator");
+        private static final SerializableString SHIFT = name("shift");
+        private static final SerializableString PRODUCTION_START = name("productionStart");
+        private static final SerializableString PRODUCTION_END = name("productionEnd");
+        private static final SerializableString WAFER_COUNT = name("waferCount");
+        private static final SerializableString STATUS = name("status");
+        private static final SerializableString CREATED_AT = name("createdAt");
+        private static final SerializableString UPDATED_AT = name("updatedAt");
+
+        private LotSerializer() {
+            super(Lot.class);
+        }
+
+        @Override
+        public void serialize(Lot value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            field(gen, LOT_ID, value.getLotId());
+            field(gen, LOT_NUMBER, value.getLotNumber());
+            gen.writeFieldName(PRODUCT_TYPE);
+            ProductTypeSerializer.INSTANCE.write(value.getProductType(), gen, provider);
+            gen.writeFieldName(EQUIPMENT);
+            EquipmentSerializer.INSTANCE.write(value.getEquipment(), gen, provider);
+            gen.writeFieldName(OPERATOR);
+            OperatorSerializer.INSTANCE.write(value.getOperator(), gen, provider);
+            gen.writeFieldName(SHIFT);
+            ShiftSerializer.INSTANCE.write(value.getShift(), gen, provider);
+            field(gen, PRODUCTION_START, value.getProductionStart());
+            field(gen, PRODUCTION_END, value.getProductionEnd());
+            field(gen, WAFER_COUNT, value.getWaferCount());
+            field(gen, STATUS, value.getStatus());
+            field(gen, CREATED_AT, value.getCreatedAt());
+            field(gen, UPDATED_AT, value.getUpdatedAt());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class FeatureMetaSerializer extends NestedSerializer<FeatureMeta> {
+
+        static final FeatureMetaSerializer INSTANCE = new FeatureMetaSerializer();
+
+        private static final SerializableString FEATURE_ID = name("featureId");
+        private static final SerializableString FEATURE_CODE = name("featureCode");
+        private static final SerializableString FEATURE_NAME = name("featureName");
+        private static final SerializableString FEATURE_CATEGORY = name("featureCategory");
+        private static final SerializableString PROCESS_STAGE = name("processStage");
+        private static final SerializableString MEASUREMENT_TYPE = name("measurementType");
+        private static final SerializableString UNIT = name("unit");
+        private static final SerializableString NORMAL_RANGE_MIN = name("normalRangeMin");
+        private static final SerializableString NORMAL_RANGE_MAX = name("normalRangeMax");
+        private static final SerializableString DESCRIPTION = name("description");
+        private static final SerializableString IS_CRITICAL = name("isCritical");
+        private static final SerializableString CREATED_AT = name("createdAt");
+
+        private FeatureMetaSerializer() {
+            super(FeatureMeta.class);
+        }
+
+        @Override
+        public void serialize(FeatureMeta value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            field(gen, FEATURE_ID, value.getFeatureId());
+            field(gen, FEATURE_CODE, value.getFeatureCode());
+            field(gen, FEATURE_NAME, value.getFeatureName());
+            field(gen, FEATURE_CATEGORY, value.getFeatureCategory());
+            field(gen, PROCESS_STAGE, value.getProcessStage());
+            field(gen, MEASUREMENT_TYPE, value.getMeasurementType());
+            field(gen, UNIT, value.getUnit());
+            field(gen, NORMAL_RANGE_MIN, value.getNormalRangeMin());
+            field(gen, NORMAL_RANGE_MAX, value.getNormalRangeMax());
+            field(gen, DESCRIPTION, value.getDescription());
+            field(gen, IS_CRITICAL, value.getIsCritical());
+            field(gen, CREATED_AT, value.getCreatedAt());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class ProductTypeSerializer extends NestedSerializer<ProductType> {
+
+        static final ProductTypeSerializer INSTANCE = new ProductTypeSerializer();
+
+        private static final SerializableString PRODUCT_TYPE_ID = name("productTypeId");
+        private static final SerializableString PRODUCT_CODE = name("productCode");
+        private static final SerializableString PRODUCT_NAME = name("productName");
+        private static final SerializableString PRODUCT_FAMILY = name("productFamily");
+        private static final SerializableString TARGET_YIELD = name("targetYield");
+        private static final SerializableString SPECIFICATION_VERSION = name("specificationVersion");
+        private static final SerializableString CREATED_AT = name("createdAt");
+
+        private ProductTypeSerializer() {
+            super(ProductType.class);
+        }
+
+        @Override
+        public void serialize(ProductType value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            field(gen, PRODUCT_TYPE_ID, value.getProductTypeId());
+            field(gen, PRODUCT_CODE, value.getProductCode());
+            field(gen, PRODUCT_NAME, value.getProductName());
+            field(gen, PRODUCT_FAMILY, value.getProductFamily());
+            field(gen, TARGET_YIELD, value.getTargetYield());
+            field(gen, SPECIFICATION_VERSION, value.getSpecificationVersion());
+            field(gen, CREATED_AT, value.getCreatedAt());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class EquipmentSerializer extends NestedSerializer<Equipment> {
+
+        static final EquipmentSerializer INSTANCE = new EquipmentSerializer();
+
+        private static final SerializableString EQUIPMENT_ID = name("equipmentId");
+        private static final SerializableString EQUIPMENT_CODE = name("equipmentCode");
+        private static final SerializableString EQUIPMENT_NAME = name("equipmentName");
+        private static final SerializableString EQUIPMENT_TYPE = name("equipmentType");
+        private static final SerializableString LOCATION = name("location");
+        private static final SerializableString MANUFACTURER = name("manufacturer");
+        private static final SerializableString INSTALL_DATE = name("installDate");
+        private static final SerializableString STATUS = name("status");
+        private static final SerializableString CREATED_AT = name("createdAt");
+        private static final SerializableString UPDATED_AT = name("updatedAt");
+
+        private EquipmentSerializer() {
+            super(Equipment.class);
+        }
+
+        @Override
+        public void serialize(Equipment value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            field(gen, EQUIPMENT_ID, value.getEquipmentId());
+            field(gen, EQUIPMENT_CODE, value.getEquipmentCode());
+            field(gen, EQUIPMENT_NAME, value.getEquipmentName());
+            field(gen, EQUIPMENT_TYPE, value.getEquipmentType());
+            field(gen, LOCATION, value.getLocation());
+            field(gen, MANUFACTURER, value.getManufacturer());
+            field(gen, INSTALL_DATE, value.getInstallDate());
+            field(gen, STATUS, value.getStatus());
+            field(gen, CREATED_AT, value.getCreatedAt());
+            field(gen, UPDATED_AT, value.getUpdatedAt());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class OperatorSerializer extends NestedSerializer<Operator> {
+
+        static final OperatorSerializer INSTANCE = new OperatorSerializer();
+
+        private static final SerializableString OPERATOR_ID = name("operatorId");
+        private static final SerializableString OPERATOR_CODE = name("operatorCode");
+        private static final SerializableString OPERATOR_NAME = name("operatorName");
+        private static final SerializableString EMPLOYEE_NUMBER = name("employeeNumber");
+        private static final SerializableString DEPARTMENT = name("department");
+        private static final SerializableString HIRE_DATE = name("hireDate");
+        private static final SerializableString EMAIL = name("email");
+        private static final SerializableString STATUS = name("status");
+        private static final SerializableString CREATED_AT = name("createdAt");
+        private static final SerializableString UPDATED_AT = name("updatedAt");
+
+        private OperatorSerializer() {
+            super(Operator.class);
+        }
+
+        @Override
+        public void serialize(Operator value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            field(gen, OPERATOR_ID, value.getOperatorId());
+            field(gen, OPERATOR_CODE, value.getOperatorCode());
+            field(gen, OPERATOR_NAME, value.getOperatorName());
+            field(gen, EMPLOYEE_NUMBER, value.getEmployeeNumber());
+            field(gen, DEPARTMENT, value.getDepartment());
+            field(gen, HIRE_DATE, value.getHireDate());
+            field(gen, EMAIL, value.getEmail());
+            field(gen, STATUS, value.getStatus());
+            field(gen, CREATED_AT, value.getCreatedAt());
+            field(gen, UPDATED_AT, value.getUpdatedAt());
+            gen.writeEndObject();
+        }
+    }
+
+    static final class ShiftSerializer extends NestedSerializer<Shift> {
+
+        static final ShiftSerializer INSTANCE = new ShiftSerializer();
+
+        private static final SerializableString SHIFT_ID = name("shiftId");
+        private static final SerializableString SHIFT_CODE = name("shiftCode");
+        private static final SerializableString SHIFT_NAME = name("shiftName");
+        private static final SerializableString START_TIME = name("startTime");
+        private static final SerializableString END_TIME = name("endTime");
+        private static final SerializableString DESCRIPTION = name("description");
+        private static final SerializableString CREATED_AT = name("createdAt");
+
+        private ShiftSerializer() {
+            super(Shift.class);
+        }
+
+        @Override
+        public void serialize(Shift value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            field(gen, SHIFT_ID, value.getShiftId());
+            field(gen, SHIFT_CODE, value.getShiftCode());
+            field(gen, SHIFT_NAME, value.getShiftName());
+            field(gen, START_TIME, value.getStartTime());
+            field(gen, END_TIME, value.getEndTime());
+            field(gen, DESCRIPTION, value.getDescription());
+            field(gen, CREATED_AT, value.getCreatedAt());
+            gen.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.secom.mes.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Field writers shared by the hand-written serializers: null-aware, unboxed, and with dates
+ * formatted into a reused per-thread buffer instead of a new String per value. Dates come out
+ * exactly as the default ISO formatters of jackson-datatype-jsr310 write them.
+ */
+final class JsonWriters {
+
+    private static final ThreadLocal<char[]> DATE_BUFFER = ThreadLocal.withInitial(() -> new char[32]);
+
+    private JsonWriters() {
+    }
+
+    /** Pre-encoded field name; quoting and UTF-8 encoding happen once instead of per row. */
+    static SerializableString name(String name) {
+        return new SerializedString(name);
+    }
+
+    static void field(JsonGenerator gen, SerializableString name, Integer value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(value.intValue());
+        }
+    }
+
+    static void field(JsonGenerator gen, SerializableString name, Long value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(value.longValue());
+        }
+    }
+
+    static void field(JsonGenerator gen, SerializableString name, Double value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(value.doubleValue());
+        }
+    }
+
+    static void field(JsonGenerator gen, SerializableString name, Boolean value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeBoolean(value);
+        }
+    }
+
+    /** BigDecimal caches its string form, so repeated writes of a cached entity do not allocate. */
+    static void field(JsonGenerator gen, SerializableString name, BigDecimal value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(value);
+        }
+    }
+
+    static void field(JsonGenerator gen, SerializableString name, String value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeString(value);
+        }
+    }
+
+    static void field(JsonGenerator gen, SerializableString name, LocalDateTime value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+            return;
+        }
+        char[] buffer = DATE_BUFFER.get();
+        int length = formatDate(buffer, 0, value.getYear(), value.getMonthValue(), value.getDayOfMonth());
+        if (length < 0) {
+            gen.writeString(value.toString());
+            return;
+        }
+        buffer[length++] = 'T';
+        length = formatTime(buffer, length, value.getHour(), value.getMinute(), value.getSecond(), value.getNano());
+        gen.writeString(buffer, 0, length);
+    }
+
+    static void field(JsonGenerator gen, SerializableString name, LocalDate value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+            return;
+        }
+        char[] buffer = DATE_BUFFER.get();
+        int length = formatDate(buffer, 0, value.getYear(), value.getMonthValue(), value.getDayOfMonth());
+        if (length < 0) {
+            gen.writeString(value.toString());
+        } else {
+            gen.writeString(buffer, 0, length);
+        }
+    }
+
+    static void field(JsonGenerator gen, SerializableString name, LocalTime value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+            return;
+        }
+        char[] buffer = DATE_BUFFER.get();
+        int length = formatTime(buffer, 0, value.getHour(), value.getMinute(), value.getSecond(), value.getNano());
+        gen.writeString(buffer, 0, length);
+    }
+
+    /** yyyy-MM-dd; returns -1 for years outside 0000-9999, which the caller formats the slow way. */
+    private static int formatDate(char[] buffer, int at, int year, int month, int day) {
+        if (year < 0 || year > 9999) {
+            return -1;
+        }
+        at = digits(buffer, at, year, 4);
+        buffer[at++] = '-';
+        at = digits(buffer, at, month, 2);
+        buffer[at++] = '-';
+        return digits(buffer, at, day, 2);
+    }
+
+    /** HH:mm:ss followed by the fraction without trailing zeros, as DateTimeFormatter.ISO_LOCAL_TIME. */
+    private static int formatTime(char[] buffer, int at, int hour, int minute, int second, int nano) {
+        at = digits(buffer, at, hour, 2);
+        buffer[at++] = ':';
+        at = digits(buffer, at, minute, 2);
+        buffer[at++] = ':';
+        at = digits(buffer, at, second, 2);
+        if (nano > 0) {
+            buffer[at++] = '.';
+            at = digits(buffer, at, nano, 9);
+            while (buffer[at - 1] == '0') {
+                at--;
+            }
+        }
+        return at;
+    }
+
+    private static int digits(char[] buffer, int at, int value, int width) {
+        for (int i = at + width - 1; i >= at; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return at + width;
+    }
+}
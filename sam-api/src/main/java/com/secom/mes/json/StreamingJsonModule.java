@@ -0,0 +1,47 @@
+package com.secom.mes.json;
+
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.secom.mes.dto.EquipmentHealthDto;
+import com.secom.mes.dto.HighRiskLotDto;
+import com.secom.mes.dto.ProductionSummaryDto;
+import com.secom.mes.dto.QualityAnalyticsDto;
+import com.secom.mes.dto.ShiftPerformanceDto;
+import com.secom.mes.entity.Equipment;
+import com.secom.mes.entity.FeatureMeta;
+import com.secom.mes.entity.Lot;
+import com.secom.mes.entity.LotMeasurement;
+import com.secom.mes.entity.Operator;
+import com.secom.mes.entity.ProductType;
+import com.secom.mes.entity.QualityResult;
+import com.secom.mes.entity.Shift;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hand-written serializers for the largest and most frequent responses: measurements, quality
+ * results (with their lot, feature and master data) and the analytics view DTOs.
+ *
+ * Spring Boot registers every Module bean with the application ObjectMapper. The serializers
+ * write primitives and pre-encoded field names straight to the generator, which streams to the
+ * response; the reflective bean serializer they replace boxed, introspected Hibernate proxies
+ * and built date strings per value. Run the comparison with {@code mvn -Pbenchmark test}.
+ */
+@Component
+public class StreamingJsonModule extends SimpleModule {
+
+    public StreamingJsonModule() {
+        super("secom-streaming-json");
+        addSerializer(LotMeasurement.class, EntitySerializers.LotMeasurementSerializer.INSTANCE);
+        addSerializer(QualityResult.class, EntitySerializers.QualityResultSerializer.INSTANCE);
+        addSerializer(Lot.class, EntitySerializers.LotSerializer.INSTANCE);
+        addSerializer(FeatureMeta.class, EntitySerializers.FeatureMetaSerializer.INSTANCE);
+        addSerializer(ProductType.class, EntitySerializers.ProductTypeSerializer.INSTANCE);
+        addSerializer(Equipment.class, EntitySerializers.EquipmentSerializer.INSTANCE);
+        addSerializer(Operator.class, EntitySerializers.OperatorSerializer.INSTANCE);
+        addSerializer(Shift.class, EntitySerializers.ShiftSerializer.INSTANCE);
+        addSerializer(ProductionSummaryDto.class, new AnalyticsSerializers.ProductionSummarySerializer());
+        addSerializer(EquipmentHealthDto.class, new AnalyticsSerializers.EquipmentHealthSerializer());
+        addSerializer(ShiftPerformanceDto.class, new AnalyticsSerializers.ShiftPerformanceSerializer());
+        addSerializer(QualityAnalyticsDto.class, new AnalyticsSerializers.QualityAnalyticsSerializer());
+        addSerializer(HighRiskLotDto.class, new AnalyticsSerializers.HighRiskLotSerializer());
+    }
+}
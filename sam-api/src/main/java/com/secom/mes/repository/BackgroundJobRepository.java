@@ -0,0 +1,118 @@
+package com.secom.mes.repository;
+
+import com.secom.mes.entity.BackgroundJob;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * State changes are conditional single-row updates: each one names the status (and owner)
+ * it expects, so a job is claimed, finished or cancelled exactly once even with several
+ * replicas and workers racing on it. Callers check the returned row count.
+ */
+@Repository
+public interface BackgroundJobRepository extends JpaRepository<BackgroundJob, Long> {
+
+    @Query("SELECT j FROM BackgroundJob j WHERE " +
+           "(:status IS NULL OR j.status = :status) AND " +
+           "(:jobType IS NULL OR j.jobType = :jobType)")
+    Page<BackgroundJob> findByFilters(
+            @Param("status") String status,
+            @Param("jobType") String jobType,
+            Pageable pageable
+    );
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE background_job SET status = 'running', attempts = attempts + 1, progress = 0, " +
+                   "progress_message = NULL, started_at = NOW(3), heartbeat_at = NOW(3) " +
+                   "WHERE job_id = :jobId AND status = 'queued' AND owner_instance = :owner " +
+                   "AND cancel_requested = FALSE", nativeQuery = true)
+    int claim(@Param("jobId") Long jobId, @Param("owner") String owner);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE background_job SET progress = :progress, progress_message = :message " +
+                   "WHERE job_id = :jobId AND status = 'running' AND owner_instance = :owner", nativeQuery = true)
+    int updateProgress(@Param("jobId") Long jobId, @Param("owner") String owner,
+                       @Param("progress") BigDecimal progress, @Param("message") String message);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE background_job SET status = 'succeeded', progress = 1, progress_message = NULL, " +
+                   "result = :result, finished_at = NOW(3) " +
+                   "WHERE job_id = :jobId AND status = 'running' AND owner_instance = :owner", nativeQuery = true)
+    int markSucceeded(@Param("jobId") Long jobId, @Param("owner") String owner, @Param("result") String result);
+
+    /** Ends a running job as 'failed' or 'cancelled'. */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE background_job SET status = :status, error_message = :error, finished_at = NOW(3) " +
+                   "WHERE job_id = :jobId AND status = 'running' AND owner_instance = :owner", nativeQuery = true)
+    int markEnded(@Param("jobId") Long jobId, @Param("owner") String owner,
+                  @Param("status") String status, @Param("error") String error);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE background_job SET status = 'cancelled', cancel_requested = TRUE, finished_at = NOW(3) " +
+                   "WHERE job_id = :jobId AND status = 'queued'", nativeQuery = true)
+    int cancelQueued(@Param("jobId") Long jobId);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE background_job SET cancel_requested = TRUE " +
+                   "WHERE job_id = :jobId AND status = 'running'", nativeQuery = true)
+    int requestCancel(@Param("jobId") Long jobId);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE background_job SET heartbeat_at = NOW(3) " +
+                   "WHERE owner_instance = :owner AND status IN ('queued', 'running')", nativeQuery = true)
+    int heartbeat(@Param("owner") String owner);
+
+    @Query(value = "SELECT job_id FROM background_job " +
+                   "WHERE owner_instance = :owner AND status = 'running' AND cancel_requested = TRUE", nativeQuery = true)
+    List<Long> findCancelRequested(@Param("owner") String owner);
+
+    /**
+     * Unfinished jobs nobody is looking after: owned by this instance from before a restart,
+     * or by an instance whose heartbeat has stopped.
+     */
+    @Query(value = "SELECT job_id FROM background_job " +
+                   "WHERE status IN ('queued', 'running') " +
+                   "AND (owner_instance = :owner OR heartbeat_at IS NULL " +
+                   "OR heartbeat_at < NOW(3) - INTERVAL :staleSeconds SECOND) " +
+                   "ORDER BY priority DESC, job_id LIMIT :limit", nativeQuery = true)
+    List<Long> findOrphaned(@Param("owner") String owner, @Param("staleSeconds") long staleSeconds,
+                            @Param("limit") int limit);
+
+    /** Takes over an orphaned job and puts it back in the queue, unless it was re-owned meanwhile. */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE background_job SET status = 'queued', owner_instance = :owner, heartbeat_at = NOW(3) " +
+                   "WHERE job_id = :jobId AND status IN ('queued', 'running') " +
+                   "AND (owner_instance = :owner OR heartbeat_at IS NULL " +
+                   "OR heartbeat_at < NOW(3) - INTERVAL :staleSeconds SECOND)", nativeQuery = true)
+    int adopt(@Param("jobId") Long jobId, @Param("owner") String owner, @Param("staleSeconds") long staleSeconds);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE background_job SET status = :status, error_message = :error, finished_at = NOW(3) " +
+                   "WHERE job_id = :jobId AND status = 'queued' AND owner_instance = :owner", nativeQuery = true)
+    int endQueued(@Param("jobId") Long jobId, @Param("owner") String owner,
+                  @Param("status") String status, @Param("error") String error);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM background_job WHERE status IN ('succeeded', 'failed', 'cancelled') " +
+                   "AND finished_at < NOW(3) - INTERVAL :retentionSeconds SECOND", nativeQuery = true)
+    int purgeFinished(@Param("retentionSeconds") long retentionSeconds);
+}
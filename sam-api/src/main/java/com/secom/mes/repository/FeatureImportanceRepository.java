@@ -2,8 +2,12 @@ package com.secom.mes.repository;
 
 import com.secom.mes.entity.FeatureImportance;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -16,4 +20,9 @@ public interface FeatureImportanceRepository extends JpaRepository<FeatureImport
     List<FeatureImportance> findByFeature_FeatureId(Integer featureId);
 
     List<FeatureImportance> findTop10ByDefectTypeOrderByImportanceScoreDesc(String defectType);
+
+    @Modifying
+    @Query("DELETE FROM FeatureImportance fi WHERE fi.defectType IN :defectTypes AND fi.calculationMethod IN :methods")
+    int deleteByDefectTypeInAndCalculationMethodIn(@Param("defectTypes") Collection<String> defectTypes,
+                                                   @Param("methods") Collection<String> methods);
 }
@@ -6,6 +6,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
@@ -15,6 +16,9 @@ public interface LotMeasurementRepository extends JpaRepository<LotMeasurement,
 
     List<LotMeasurement> findByFeature_FeatureId(Integer featureId);
 
+    List<LotMeasurement> findByFeature_FeatureIdAndMeasuredAtBetween(Integer featureId, LocalDateTime from,
+                                                                      LocalDateTime to);
+
     List<LotMeasurement> findByIsOutOfSpec(Boolean isOutOfSpec);
 
     List<LotMeasurement> findByLot_LotIdAndIsOutOfSpec(Integer lotId, Boolean isOutOfSpec);
@@ -0,0 +1,329 @@
+package com.secom.mes.repository;
+
+import com.secom.mes.entity.FeatureMeta;
+import com.secom.mes.entity.Lot;
+import com.secom.mes.entity.LotMeasurement;
+import com.secom.mes.entity.QualityResult;
+import com.secom.mes.shard.ShardRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * lot, lot_measurement and quality_result rows on shards other than home, reached by plain
+ * JDBC on the shard's own pool; rows on home keep going through the JPA repositories. A lot's
+ * shard follows from its product family when it is created and from its ID afterwards, and its
+ * measurements and quality result live with it, so reads, updates and deletes by lot, result
+ * or measurement ID go to the shard the ID belongs to. Reference data of the returned entities
+ * is read from home, which the shards replicate.
+ */
+@Repository
+public class ShardedProductionRepository {
+
+    private static final String LOT_COLUMNS = "lot_id, lot_number, product_type_id, equipment_id, operator_id, "
+            + "shift_id, production_start, production_end, wafer_count, status, created_at, updated_at";
+    private static final String MEASUREMENT_COLUMNS =
+            "measurement_id, lot_id, feature_id, measurement_value, is_out_of_spec, measured_at, created_at";
+    private static final String QUALITY_RESULT_COLUMNS = "result_id, lot_id, classification, test_timestamp_raw, "
+            + "test_datetime, predicted_risk, risk_score, risk_factors, model_version, quality_score, defect_type, "
+            + "defect_code, defect_location, inspector_id, notes, reviewed_by, reviewed_at, disposition, version, "
+            + "created_at, updated_at";
+
+    private final ShardRegistry shardRegistry;
+    private final ProductTypeRepository productTypeRepository;
+    private final EquipmentRepository equipmentRepository;
+    private final OperatorRepository operatorRepository;
+    private final ShiftRepository shiftRepository;
+    private final FeatureMetaRepository featureMetaRepository;
+
+    public ShardedProductionRepository(ShardRegistry shardRegistry,
+                                       ProductTypeRepository productTypeRepository,
+                                       EquipmentRepository equipmentRepository,
+                                       OperatorRepository operatorRepository,
+                                       ShiftRepository shiftRepository,
+                                       FeatureMetaRepository featureMetaRepository) {
+        this.shardRegistry = shardRegistry;
+        this.productTypeRepository = productTypeRepository;
+        this.equipmentRepository = equipmentRepository;
+        this.operatorRepository = operatorRepository;
+        this.shiftRepository = shiftRepository;
+        this.featureMetaRepository = featureMetaRepository;
+    }
+
+    /** True if sharding is enabled and the lot (or quality result) ID belongs to a shard other than home. */
+    public boolean isRemoteLot(Integer lotId) {
+        return shardRegistry.isEnabled() && lotId != null && !shardRegistry.forLotId(lotId).isHome();
+    }
+
+    /** True if sharding is enabled and new lots of the product type go to a shard other than home. */
+    public boolean isRemoteProductType(Integer productTypeId) {
+        return shardRegistry.isEnabled() && !shardRegistry.forProductType(productTypeId).isHome();
+    }
+
+    /** True if sharding is enabled and the measurement ID belongs to a shard other than home. */
+    public boolean isRemoteMeasurement(Long measurementId) {
+        return shardRegistry.isEnabled() && measurementId != null
+                && !shardRegistry.forMeasurementId(measurementId).isHome();
+    }
+
+    /** Fails with 501 while sharding is enabled; for list reads that only query home. */
+    public void requireUnsharded(String operation) {
+        shardRegistry.requireUnsharded(operation);
+    }
+
+    /** The lot with this number on a shard other than home; lot numbers are unique across shards. */
+    public Optional<Lot> findLotByNumber(String lotNumber) {
+        return remoteShards().stream()
+                .flatMap(shard -> shard.jdbcTemplate().query("SELECT " + LOT_COLUMNS + " FROM lot WHERE lot_number = ?",
+                        this::mapLot, lotNumber).stream())
+                .findFirst();
+    }
+
+    /** Lots matching {@code condition} on the shards other than home, shard by shard in lot ID order. */
+    public List<Lot> findRemoteLots(String condition, Object... args) {
+        List<Lot> lots = new ArrayList<>();
+        for (ShardRegistry.Shard shard : remoteShards()) {
+            lots.addAll(shard.jdbcTemplate().query("SELECT " + LOT_COLUMNS + " FROM lot WHERE " + condition
+                    + " ORDER BY lot_id", this::mapLot, args));
+        }
+        return lots;
+    }
+
+    /** Quality results matching {@code condition} on the shards other than home, in result ID order. */
+    public List<QualityResult> findRemoteQualityResults(String condition, Object... args) {
+        List<QualityResult> results = new ArrayList<>();
+        for (ShardRegistry.Shard shard : remoteShards()) {
+            results.addAll(shard.jdbcTemplate().query("SELECT " + QUALITY_RESULT_COLUMNS + " FROM quality_result WHERE "
+                    + condition + " ORDER BY result_id", this::mapQualityResult, args));
+        }
+        return results;
+    }
+
+    public Optional<Lot> findLot(int lotId) {
+        return jdbc(lotId).query("SELECT " + LOT_COLUMNS + " FROM lot WHERE lot_id = ?", this::mapLot, lotId)
+                .stream().findFirst();
+    }
+
+    /** Sets the lot's updatable fields, as PUT /lots/{lotId} does on home; empty if there is no such lot. */
+    public Optional<Lot> updateLot(int lotId, String status, LocalDateTime productionEnd, Integer waferCount) {
+        int updated = jdbc(lotId).update(
+                "UPDATE lot SET status = ?, production_end = ?, wafer_count = ?, updated_at = ? WHERE lot_id = ?",
+                status, productionEnd, waferCount, LocalDateTime.now(), lotId);
+        return updated == 0 ? Optional.empty() : findLot(lotId);
+    }
+
+    /** Deletes the lot; its measurements and quality result go with it (ON DELETE CASCADE). */
+    public boolean deleteLot(int lotId) {
+        return jdbc(lotId).update("DELETE FROM lot WHERE lot_id = ?", lotId) > 0;
+    }
+
+    /** Inserts the lot on the shard of its product type and returns it as stored. */
+    public Lot insertLot(Lot lot) {
+        JdbcTemplate jdbc = shardRegistry.forProductType(lot.getProductType().getProductTypeId()).jdbcTemplate();
+        KeyHolder keys = new GeneratedKeyHolder();
+        jdbc.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement("""
+                    INSERT INTO lot (lot_number, product_type_id, equipment_id, operator_id, shift_id,
+                                     production_start, production_end, wafer_count, status)
+                    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+                    """, Statement.RETURN_GENERATED_KEYS);
+            statement.setString(1, lot.getLotNumber());
+            statement.setObject(2, lot.getProductType().getProductTypeId());
+            statement.setObject(3, lot.getEquipment() != null ? lot.getEquipment().getEquipmentId() : null);
+            statement.setObject(4, lot.getOperator() != null ? lot.getOperator().getOperatorId() : null);
+            statement.setObject(5, lot.getShift() != null ? lot.getShift().getShiftId() : null);
+            statement.setObject(6, lot.getProductionStart());
+            statement.setObject(7, lot.getProductionEnd());
+            statement.setObject(8, lot.getWaferCount() != null ? lot.getWaferCount() : 25);
+            statement.setString(9, lot.getStatus());
+            return statement;
+        }, keys);
+        return findLot(keys.getKey().intValue()).orElseThrow();
+    }
+
+    public List<LotMeasurement> findMeasurementsByLot(int lotId, boolean outOfSpecOnly) {
+        return findMeasurements(lotId, outOfSpecOnly ? " AND is_out_of_spec = TRUE" : "");
+    }
+
+    /** Measurements of the lot matching {@code andCondition} (appended to the WHERE), by ID. */
+    private List<LotMeasurement> findMeasurements(int lotId, String andCondition, Object... args) {
+        Object[] parameters = new Object[args.length + 1];
+        parameters[0] = lotId;
+        System.arraycopy(args, 0, parameters, 1, args.length);
+        List<Object[]> rows = jdbc(lotId).query("SELECT " + MEASUREMENT_COLUMNS + " FROM lot_measurement WHERE lot_id = ?"
+                        + andCondition + " ORDER BY measurement_id",
+                (rs, i) -> new Object[]{rs.getLong(1), rs.getInt(3), rs.getObject(4, Double.class),
+                        rs.getBoolean(5), localDateTime(rs, 6), localDateTime(rs, 7)},
+                parameters);
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        Lot lot = findLot(lotId).orElse(null);
+        Map<Integer, FeatureMeta> features = featureMetaRepository.findAllById(
+                        rows.stream().map(row -> (Integer) row[1]).collect(Collectors.toSet()))
+                .stream().collect(Collectors.toMap(FeatureMeta::getFeatureId, Function.identity()));
+        List<LotMeasurement> measurements = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            measurements.add(new LotMeasurement((Long) row[0], lot, features.get((Integer) row[1]), (Double) row[2],
+                    (Boolean) row[3], (LocalDateTime) row[4], (LocalDateTime) row[5]));
+        }
+        return measurements;
+    }
+
+    public boolean deleteMeasurement(long measurementId) {
+        return shardRegistry.forMeasurementId(measurementId).jdbcTemplate()
+                .update("DELETE FROM lot_measurement WHERE measurement_id = ?", measurementId) > 0;
+    }
+
+    /** Inserts the measurement on its lot's shard and returns it as stored. */
+    public LotMeasurement insertMeasurement(LotMeasurement measurement) {
+        int lotId = measurement.getLot().getLotId();
+        KeyHolder keys = new GeneratedKeyHolder();
+        jdbc(lotId).update(connection -> {
+            PreparedStatement statement = connection.prepareStatement("""
+                    INSERT INTO lot_measurement (lot_id, feature_id, measurement_value, is_out_of_spec, measured_at)
+                    VALUES (?, ?, ?, ?, ?)
+                    """, Statement.RETURN_GENERATED_KEYS);
+            statement.setInt(1, lotId);
+            statement.setObject(2, measurement.getFeature() != null ? measurement.getFeature().getFeatureId() : null);
+            statement.setObject(3, measurement.getMeasurementValue());
+            statement.setBoolean(4, Boolean.TRUE.equals(measurement.getIsOutOfSpec()));
+            statement.setObject(5, measurement.getMeasuredAt());
+            return statement;
+        }, keys);
+        return findMeasurements(lotId, " AND measurement_id = ?", keys.getKey().longValue()).get(0);
+    }
+
+    public Optional<QualityResult> findQualityResult(int resultId) {
+        return jdbc(resultId).query("SELECT " + QUALITY_RESULT_COLUMNS + " FROM quality_result WHERE result_id = ?",
+                this::mapQualityResult, resultId).stream().findFirst();
+    }
+
+    /**
+     * Sets the result's updatable fields, as PUT /quality/results/{id} does on home, if it is
+     * still at {@code expectedVersion}; bumps the version.
+     *
+     * @return false if the result is gone or its version has moved on
+     */
+    public boolean updateQualityResult(int resultId, int expectedVersion, QualityResult details) {
+        return jdbc(resultId).update("""
+                UPDATE quality_result SET quality_score = ?, defect_type = ?, defect_code = ?, defect_location = ?,
+                    notes = ?, updated_at = ?, version = version + 1
+                WHERE result_id = ? AND version = ?
+                """, details.getQualityScore(), details.getDefectType(), details.getDefectCode(),
+                details.getDefectLocation(), details.getNotes(), LocalDateTime.now(),
+                resultId, expectedVersion) > 0;
+    }
+
+    public boolean deleteQualityResult(int resultId) {
+        return jdbc(resultId).update("DELETE FROM quality_result WHERE result_id = ?", resultId) > 0;
+    }
+
+    public Optional<QualityResult> findQualityResultByLot(int lotId) {
+        return jdbc(lotId).query("SELECT " + QUALITY_RESULT_COLUMNS + " FROM quality_result WHERE lot_id = ?",
+                this::mapQualityResult, lotId).stream().findFirst();
+    }
+
+    /** Inserts the result on its lot's shard and returns it as stored. */
+    public QualityResult insertQualityResult(QualityResult result) {
+        int lotId = result.getLot().getLotId();
+        KeyHolder keys = new GeneratedKeyHolder();
+        jdbc(lotId).update(connection -> {
+            PreparedStatement statement = connection.prepareStatement("""
+                    INSERT INTO quality_result (lot_id, classification, test_timestamp_raw, test_datetime,
+                        predicted_risk, risk_score, risk_factors, model_version, quality_score, defect_type,
+                        defect_code, defect_location, inspector_id, notes, reviewed_by, reviewed_at, disposition)
+                    VALUES (?, ?, ?, ?, ?, ?, ?, COALESCE(?, 'v1.0.0'), ?, ?, ?, ?, ?, ?, ?, ?, COALESCE(?, 'pending'))
+                    """, Statement.RETURN_GENERATED_KEYS);
+            statement.setInt(1, lotId);
+            statement.setObject(2, result.getClassification());
+            statement.setString(3, result.getTestTimestampRaw());
+            statement.setObject(4, result.getTestDatetime());
+            statement.setBigDecimal(5, result.getPredictedRisk());
+            statement.setBigDecimal(6, result.getRiskScore());
+            statement.setString(7, result.getRiskFactors());
+            statement.setString(8, result.getModelVersion());
+            statement.setBigDecimal(9, result.getQualityScore());
+            statement.setString(10, result.getDefectType());
+            statement.setString(11, result.getDefectCode());
+            statement.setString(12, result.getDefectLocation());
+            statement.setObject(13, result.getInspector() != null ? result.getInspector().getOperatorId() : null);
+            statement.setString(14, result.getNotes());
+            statement.setObject(15, result.getReviewer() != null ? result.getReviewer().getOperatorId() : null);
+            statement.setObject(16, result.getReviewedAt());
+            statement.setString(17, result.getDisposition());
+            return statement;
+        }, keys);
+        return findQualityResult(keys.getKey().intValue()).orElseThrow();
+    }
+
+    private List<ShardRegistry.Shard> remoteShards() {
+        return shardRegistry.isEnabled() ? shardRegistry.all().subList(1, shardRegistry.all().size()) : List.of();
+    }
+
+    private JdbcTemplate jdbc(long lotId) {
+        return shardRegistry.forLotId(lotId).jdbcTemplate();
+    }
+
+    private Lot mapLot(ResultSet rs, int rowNum) throws SQLException {
+        Lot lot = new Lot();
+        lot.setLotId(rs.getInt("lot_id"));
+        lot.setLotNumber(rs.getString("lot_number"));
+        lot.setProductType(productTypeRepository.findById(rs.getInt("product_type_id")).orElse(null));
+        lot.setEquipment(equipmentRepository.findById(rs.getInt("equipment_id")).orElse(null));
+        lot.setOperator(operatorRepository.findById(rs.getInt("operator_id")).orElse(null));
+        lot.setShift(shiftRepository.findById(rs.getInt("shift_id")).orElse(null));
+        lot.setProductionStart(localDateTime(rs, "production_start"));
+        lot.setProductionEnd(localDateTime(rs, "production_end"));
+        lot.setWaferCount(rs.getObject("wafer_count", Integer.class));
+        lot.setStatus(rs.getString("status"));
+        lot.setCreatedAt(localDateTime(rs, "created_at"));
+        lot.setUpdatedAt(localDateTime(rs, "updated_at"));
+        return lot;
+    }
+
+    private QualityResult mapQualityResult(ResultSet rs, int rowNum) throws SQLException {
+        QualityResult result = new QualityResult();
+        result.setResultId(rs.getInt("result_id"));
+        result.setLot(findLot(rs.getInt("lot_id")).orElse(null));
+        result.setClassification(rs.getInt("classification"));
+        result.setTestTimestampRaw(rs.getString("test_timestamp_raw"));
+        result.setTestDatetime(localDateTime(rs, "test_datetime"));
+        result.setPredictedRisk(rs.getBigDecimal("predicted_risk"));
+        result.setRiskScore(rs.getBigDecimal("risk_score"));
+        result.setRiskFactors(rs.getString("risk_factors"));
+        result.setModelVersion(rs.getString("model_version"));
+        result.setQualityScore(rs.getBigDecimal("quality_score"));
+        result.setDefectType(rs.getString("defect_type"));
+        result.setDefectCode(rs.getString("defect_code"));
+        result.setDefectLocation(rs.getString("defect_location"));
+        Integer inspectorId = rs.getObject("inspector_id", Integer.class);
+        result.setInspector(inspectorId != null ? operatorRepository.findById(inspectorId).orElse(null) : null);
+        result.setNotes(rs.getString("notes"));
+        Integer reviewerId = rs.getObject("reviewed_by", Integer.class);
+        result.setReviewer(reviewerId != null ? operatorRepository.findById(reviewerId).orElse(null) : null);
+        result.setReviewedAt(localDateTime(rs, "reviewed_at"));
+        result.setDisposition(rs.getString("disposition"));
+        result.setVersion(rs.getInt("version"));
+        result.setCreatedAt(localDateTime(rs, "created_at"));
+        result.setUpdatedAt(localDateTime(rs, "updated_at"));
+        return result;
+    }
+
+    private static LocalDateTime localDateTime(ResultSet rs, String column) throws SQLException {
+        Timestamp timestamp = rs.getTimestamp(column);
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+
+    private static LocalDateTime localDateTime(ResultSet rs, int column) throws SQLException {
+        Timestamp timestamp = rs.getTimestamp(column);
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+}
@@ -0,0 +1,200 @@
+package com.secom.mes.service;
+
+import com.secom.mes.config.AnalyticsCacheProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight, stale-while-revalidate cache for analytics query results.
+ *
+ * <ul>
+ *   <li>Fresh (younger than the endpoint TTL): served from memory.</li>
+ *   <li>Stale (within the stale-while-revalidate window after the TTL): served from memory
+ *       while one background refresh runs.</li>
+ *   <li>Missing or expired: loaded by the first caller; concurrent callers with the same key
+ *       wait for that one in-flight load instead of running their own query.</li>
+ * </ul>
+ *
+ * Entries are also evicted when a table an endpoint reads from changes, on this replica
+ * after the writing transaction commits and on other replicas via entity_change_log.
+ */
+@Service
+public class AnalyticsCache {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsCache.class);
+
+    /** Endpoints whose results depend on each entity type. */
+    private static final Map<String, List<String>> DEPENDENT_ENDPOINTS = Map.of(
+            EntityChangeLog.LOT, List.of("summary", "equipment-health", "shift-performance",
+                    "quality-summary", "high-risk-lots"),
+            EntityChangeLog.QUALITY_RESULT, List.of("summary", "equipment-health", "shift-performance",
+                    "quality-summary", "high-risk-lots", "defect-distribution", "risk-distribution"),
+            EntityChangeLog.EQUIPMENT, List.of("equipment-health", "quality-summary", "high-risk-lots"),
+            EntityChangeLog.SHIFT, List.of("shift-performance"),
+            EntityChangeLog.PRODUCT_TYPE, List.of("quality-summary", "high-risk-lots"),
+            EntityChangeLog.FEATURE_META, List.of("feature-importance"),
+            EntityChangeLog.FEATURE_IMPORTANCE, List.of("feature-importance")
+    );
+
+    private final AnalyticsCacheProperties properties;
+    private final ConcurrentHashMap<CacheKey, CachedResult> results = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<CacheKey, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    /** Moved on by every eviction of an endpoint; a load that started before one is not cached. */
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor refreshExecutor;
+
+    public AnalyticsCache(AnalyticsCacheProperties properties) {
+        this.properties = properties;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.refreshExecutor = new ThreadPoolExecutor(
+                properties.getRefreshThreads(), properties.getRefreshThreads(),
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(100),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "analytics-refresh-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+        this.refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String endpoint, String key, Supplier<T> loader) {
+        if (!properties.isEnabled()) {
+            return loader.get();
+        }
+        CacheKey cacheKey = new CacheKey(endpoint, key);
+        CachedResult cached = results.get(cacheKey);
+        long now = System.currentTimeMillis();
+        if (cached != null) {
+            long age = now - cached.loadedAt;
+            long ttl = properties.ttlFor(endpoint).toMillis();
+            if (age < ttl) {
+                return (T) cached.value;
+            }
+            if (age < ttl + properties.getStaleWhileRevalidate().toMillis()) {
+                refreshInBackground(cacheKey, loader);
+                return (T) cached.value;
+            }
+        }
+        try {
+            return (T) loadSingleFlight(cacheKey, loader).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /** Analytics endpoints whose results depend on rows of {@code entityType}. */
+    public static List<String> dependentEndpoints(String entityType) {
+        return DEPENDENT_ENDPOINTS.getOrDefault(entityType, List.of());
+    }
+
+    /**
+     * Drops the endpoint's results and detaches its in-flight loads, so callers from now on start
+     * a fresh load rather than waiting for one that may have read the data before the change.
+     */
+    public void evict(String endpoint) {
+        generation(endpoint).incrementAndGet();
+        results.keySet().removeIf(key -> key.endpoint.equals(endpoint));
+        inFlight.keySet().removeIf(key -> key.endpoint.equals(endpoint));
+    }
+
+    public void evictAll() {
+        generations.values().forEach(AtomicLong::incrementAndGet);
+        results.clear();
+        inFlight.clear();
+    }
+
+    /** Runs before ResourceVersions moves the ETag on, so a new ETag never goes out with a pre-change result. */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onEntityChanged(EntityChangedEvent event) {
+        dependentEndpoints(event.getEntityType()).forEach(this::evict);
+    }
+
+    private void refreshInBackground(CacheKey cacheKey, Supplier<?> loader) {
+        if (inFlight.containsKey(cacheKey)) {
+            return;
+        }
+        refreshExecutor.execute(() -> {
+            try {
+                loadSingleFlight(cacheKey, loader).join();
+            } catch (CompletionException e) {
+                log.warn("Background refresh of {} failed, keeping stale result: {}", cacheKey, e.getCause().getMessage());
+            }
+        });
+    }
+
+    private CompletableFuture<Object> loadSingleFlight(CacheKey cacheKey, Supplier<?> loader) {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(cacheKey, mine);
+        if (existing != null) {
+            return existing;
+        }
+        AtomicLong generation = generation(cacheKey.endpoint);
+        long loadedAt = generation.get();
+        try {
+            Object value = loader.get();
+            if (generation.get() == loadedAt) {
+                results.put(cacheKey, new CachedResult(value, System.currentTimeMillis()));
+                trimToSize();
+            }
+            mine.complete(value);
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+        } finally {
+            inFlight.remove(cacheKey, mine);
+        }
+        return mine;
+    }
+
+    private AtomicLong generation(String endpoint) {
+        return generations.computeIfAbsent(endpoint, key -> new AtomicLong());
+    }
+
+    private void trimToSize() {
+        int excess = results.size() - properties.getMaxEntries();
+        if (excess <= 0) {
+            return;
+        }
+        results.entrySet().stream()
+                .sorted(Comparator.comparingLong(e -> e.getValue().loadedAt))
+                .limit(excess)
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(results::remove);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private record CacheKey(String endpoint, String key) {
+        CacheKey {
+            Objects.requireNonNull(endpoint);
+            Objects.requireNonNull(key);
+        }
+    }
+
+    private record CachedResult(Object value, long loadedAt) {
+    }
+}
@@ -0,0 +1,50 @@
+package com.secom.mes.service;
+
+import com.secom.mes.analytics.CorrelationCalculator;
+import com.secom.mes.analytics.CorrelationMatrix;
+import com.secom.mes.analytics.FeatureMatrix;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Caches the all-lots feature correlation matrix. The cached result is dropped when
+ * measurements are ingested and is only reused while the source matrix version matches.
+ */
+@Service
+public class CorrelationService {
+
+    private static final Logger log = LoggerFactory.getLogger(CorrelationService.class);
+
+    private final MeasurementMatrixService matrixService;
+
+    private volatile CorrelationMatrix cached;
+
+    public CorrelationService(MeasurementMatrixService matrixService) {
+        this.matrixService = matrixService;
+    }
+
+    public CorrelationMatrix getCorrelationMatrix() {
+        FeatureMatrix matrix = matrixService.getMatrix();
+        CorrelationMatrix current = cached;
+        if (current != null && current.sourceVersion() == matrix.version()) {
+            return current;
+        }
+        synchronized (this) {
+            current = cached;
+            if (current == null || current.sourceVersion() != matrix.version()) {
+                current = CorrelationCalculator.compute(matrix);
+                log.info("Computed {}x{} correlation matrix over {} lots in {} ms",
+                        current.size(), current.size(), matrix.lotCount(), current.computeMillis());
+                cached = current;
+            }
+            return current;
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMeasurementsIngested(MeasurementsIngestedEvent event) {
+        cached = null;
+    }
+}
@@ -0,0 +1,240 @@
+package com.secom.mes.service;
+
+import com.secom.mes.analytics.FeatureMatrix;
+import com.secom.mes.analytics.SlidingWindowStats;
+import com.secom.mes.dto.FeatureDriftDto;
+import com.secom.mes.dto.MeasurementRecordDto;
+import com.secom.mes.entity.Equipment;
+import com.secom.mes.entity.FeatureMeta;
+import com.secom.mes.repository.EquipmentRepository;
+import com.secom.mes.repository.FeatureMetaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Sliding-window sensor drift detection per (equipment, feature) pair.
+ *
+ * Each pair keeps a {@link SlidingWindowStats} ring buffer seeded from the feature matrix in
+ * production order and updated as measurements are ingested, each lot's value of a feature
+ * counted once however often it is replayed or republished. Three detectors run over it:
+ * a mean shift of the recent window against the equipment's own reference window, a change
+ * in variance between those windows, and a mean shift against the recent windows of peer
+ * tools with the same equipment_type.
+ */
+@Service
+public class DriftDetectionService {
+
+    private static final Logger log = LoggerFactory.getLogger(DriftDetectionService.class);
+
+    private final MeasurementMatrixService matrixService;
+    private final EquipmentRepository equipmentRepository;
+    private final FeatureMetaRepository featureMetaRepository;
+    private final int windowSize;
+    private final int minSamples;
+
+    private final Map<Integer, SlidingWindowStats[]> windowsByEquipment = new HashMap<>();
+    /** Rows whose value is already in the windows, per matrix column; replays and republished values are skipped. */
+    private BitSet[] counted;
+    private FeatureMatrix seededFrom;
+
+    public DriftDetectionService(MeasurementMatrixService matrixService,
+                                 EquipmentRepository equipmentRepository,
+                                 FeatureMetaRepository featureMetaRepository,
+                                 @Value("${secom.drift.window-size:50}") int windowSize,
+                                 @Value("${secom.drift.min-samples:10}") int minSamples) {
+        this.matrixService = matrixService;
+        this.equipmentRepository = equipmentRepository;
+        this.featureMetaRepository = featureMetaRepository;
+        this.windowSize = windowSize;
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Ranks the features of one equipment by drift score, highest first.
+     */
+    public List<FeatureDriftDto> detectDrift(Equipment equipment, double threshold, int limit) {
+        List<Integer> peerIds = equipmentRepository.findByEquipmentType(equipment.getEquipmentType()).stream()
+                .map(Equipment::getEquipmentId)
+                .filter(id -> !id.equals(equipment.getEquipmentId()))
+                .toList();
+
+        List<FeatureDriftDto> results = new ArrayList<>();
+        synchronized (this) {
+            FeatureMatrix matrix = ensureSeeded();
+            SlidingWindowStats[] windows = windowsByEquipment.get(equipment.getEquipmentId());
+            if (windows == null) {
+                return List.of();
+            }
+            for (int column = 0; column < windows.length; column++) {
+                FeatureDriftDto drift = evaluate(matrix.featureId(column), windows[column], peerWindows(peerIds, column), threshold);
+                if (drift != null) {
+                    results.add(drift);
+                }
+            }
+        }
+
+        results.sort(Comparator.comparingDouble(FeatureDriftDto::getDriftScore).reversed());
+        List<FeatureDriftDto> top = new ArrayList<>(results.subList(0, Math.min(limit, results.size())));
+
+        Map<Integer, FeatureMeta> features = featureMetaRepository
+                .findAllById(top.stream().map(FeatureDriftDto::getFeatureId).toList()).stream()
+                .collect(Collectors.toMap(FeatureMeta::getFeatureId, Function.identity()));
+        for (FeatureDriftDto dto : top) {
+            FeatureMeta feature = features.get(dto.getFeatureId());
+            if (feature != null) {
+                dto.setFeatureCode(feature.getFeatureCode());
+                dto.setFeatureName(feature.getFeatureName());
+            }
+        }
+        return top;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onMeasurementsIngested(MeasurementsIngestedEvent event) {
+        if (seededFrom == null) {
+            return;
+        }
+        for (MeasurementRecordDto record : event.getMeasurements()) {
+            int row = seededFrom.rowOf(record.getLotId());
+            int column = seededFrom.columnOf(record.getFeatureId());
+            if (row < 0 || column < 0 || record.getMeasurementValue() == null || counted[column].get(row)) {
+                continue;
+            }
+            counted[column].set(row);
+            windowsFor(seededFrom.equipmentId(row), seededFrom.featureCount())[column].add(record.getMeasurementValue());
+        }
+    }
+
+    private FeatureMatrix ensureSeeded() {
+        FeatureMatrix matrix = matrixService.getMatrix();
+        if (seededFrom == matrix) {
+            return matrix;
+        }
+        long started = System.currentTimeMillis();
+        windowsByEquipment.clear();
+
+        int lots = matrix.lotCount();
+        Integer[] order = new Integer[lots];
+        for (int r = 0; r < lots; r++) {
+            order[r] = r;
+        }
+        Arrays.sort(order, Comparator.comparingLong(matrix::measuredAt).thenComparingInt(matrix::lotId));
+
+        int features = matrix.featureCount();
+        counted = new BitSet[features];
+        for (int column = 0; column < features; column++) {
+            counted[column] = new BitSet(lots);
+        }
+        for (Integer row : order) {
+            SlidingWindowStats[] windows = windowsFor(matrix.equipmentId(row), features);
+            for (int column = 0; column < features; column++) {
+                double value = matrix.value(row, column);
+                if (!Double.isNaN(value)) {
+                    windows[column].add(value);
+                    counted[column].set(row);
+                }
+            }
+        }
+        seededFrom = matrix;
+        log.info("Seeded drift windows for {} equipment x {} features from {} lots in {} ms",
+                windowsByEquipment.size(), features, lots, System.currentTimeMillis() - started);
+        return matrix;
+    }
+
+    private SlidingWindowStats[] windowsFor(int equipmentId, int features) {
+        return windowsByEquipment.computeIfAbsent(equipmentId, id -> {
+            SlidingWindowStats[] windows = new SlidingWindowStats[features];
+            for (int c = 0; c < features; c++) {
+                windows[c] = new SlidingWindowStats(windowSize);
+            }
+            return windows;
+        });
+    }
+
+    private List<SlidingWindowStats> peerWindows(List<Integer> peerIds, int column) {
+        List<SlidingWindowStats> peers = new ArrayList<>(peerIds.size());
+        for (Integer peerId : peerIds) {
+            SlidingWindowStats[] windows = windowsByEquipment.get(peerId);
+            if (windows != null) {
+                peers.add(windows[column]);
+            }
+        }
+        return peers;
+    }
+
+    private FeatureDriftDto evaluate(int featureId, SlidingWindowStats window, List<SlidingWindowStats> peers, double threshold) {
+        int recentN = window.recentCount();
+        int referenceN = window.referenceCount();
+        if (recentN < minSamples) {
+            return null;
+        }
+        double recentMean = window.recentMean();
+        double recentVar = window.recentVariance();
+
+        double meanShift = Double.NaN;
+        double varianceChange = Double.NaN;
+        if (referenceN >= minSamples) {
+            double referenceVar = window.referenceVariance();
+            meanShift = welchT(recentMean, recentVar, recentN, window.referenceMean(), referenceVar, referenceN);
+            if (recentVar > 0 && referenceVar > 0) {
+                varianceChange = Math.abs(Math.log(recentVar / referenceVar))
+                        / Math.sqrt(2.0 / (recentN - 1) + 2.0 / (referenceN - 1));
+            }
+        }
+
+        double peerMean = Double.NaN;
+        double peerShift = Double.NaN;
+        long peerN = 0;
+        double peerSum = 0;
+        double peerSumSq = 0;
+        for (SlidingWindowStats peer : peers) {
+            peerN += peer.recentCount();
+            peerSum += peer.recentSum();
+            peerSumSq += peer.recentSumSq();
+        }
+        if (peerN >= minSamples) {
+            peerMean = peerSum / peerN;
+            double peerVar = Math.max(0.0, (peerSumSq - peerSum * peerSum / peerN) / (peerN - 1));
+            peerShift = welchT(recentMean, recentVar, recentN, peerMean, peerVar, peerN);
+        }
+
+        double score = maxIgnoringNaN(Math.abs(meanShift), varianceChange, Math.abs(peerShift));
+        if (Double.isNaN(score)) {
+            return null;
+        }
+        return new FeatureDriftDto(featureId, null, null, recentN, referenceN,
+                recentMean, nullIfNaN(window.referenceMean()),
+                nullIfNaN(Math.sqrt(recentVar)), nullIfNaN(Math.sqrt(window.referenceVariance())),
+                nullIfNaN(peerMean), nullIfNaN(meanShift), nullIfNaN(varianceChange), nullIfNaN(peerShift),
+                score, score >= threshold);
+    }
+
+    private static double welchT(double meanA, double varA, long nA, double meanB, double varB, long nB) {
+        double standardError = Math.sqrt(varA / nA + varB / nB);
+        if (!(standardError > 0)) {
+            return Double.NaN;
+        }
+        return (meanA - meanB) / standardError;
+    }
+
+    private static double maxIgnoringNaN(double... values) {
+        double max = Double.NaN;
+        for (double v : values) {
+            if (!Double.isNaN(v) && (Double.isNaN(max) || v > max)) {
+                max = v;
+            }
+        }
+        return max;
+    }
+
+    private static Double nullIfNaN(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+}
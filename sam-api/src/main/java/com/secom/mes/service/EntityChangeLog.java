@@ -0,0 +1,123 @@
+package com.secom.mes.service;
+
+import com.secom.mes.config.ChangeLogProperties;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Records API writes in entity_change_log so other replicas can invalidate their caches.
+ *
+ * Must be called inside the writing transaction: the change row commits or rolls back
+ * together with the data it describes, so a replica never evicts for a write that did not
+ * happen and never misses one that did. The local {@link EntityChangedEvent} is published
+ * at the same point; listeners that must only act after commit use
+ * {@code @TransactionalEventListener}.
+ */
+@Service
+public class EntityChangeLog {
+
+    public static final String LOT = "lot";
+    public static final String QUALITY_RESULT = "quality_result";
+    public static final String LOT_MEASUREMENT = "lot_measurement";
+    public static final String FEATURE_META = "feature_meta";
+    public static final String EQUIPMENT = "equipment";
+    public static final String SHIFT = "shift";
+    public static final String OPERATOR = "operator";
+    public static final String PRODUCT_TYPE = "product_type";
+    public static final String FEATURE_IMPORTANCE = "feature_importance";
+    /** Measurements added in bulk; the entity ID is the lot they belong to. */
+    public static final String MEASURED_LOT = "measured_lot";
+    /** Rows of measurement_archive; a partition moved to the archive tier. */
+    public static final String MEASUREMENT_ARCHIVE = "measurement_archive";
+
+    private static final int INSERT_CHUNK_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final ApplicationEventPublisher eventPublisher;
+    private final int maxIdsPerChange;
+    private final String instanceId;
+
+    public EntityChangeLog(ApplicationEventPublisher eventPublisher, ChangeLogProperties properties) {
+        this.eventPublisher = eventPublisher;
+        this.maxIdsPerChange = properties.getMaxIdsPerChange();
+        this.instanceId = properties.getInstanceId() != null && !properties.getInstanceId().isBlank()
+                ? properties.getInstanceId()
+                : UUID.randomUUID().toString();
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(String entityType, Number entityId) {
+        recordAll(entityType, entityId != null ? List.of(entityId) : null);
+    }
+
+    /**
+     * Records a change to many rows of one type. Above the configured limit a single
+     * type-wide change is written instead of one row per ID.
+     *
+     * @param entityIds changed primary keys; null records a type-wide change
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordAll(String entityType, Collection<? extends Number> entityIds) {
+        if (entityIds != null && entityIds.isEmpty()) {
+            return;
+        }
+        if (entityIds == null || entityIds.size() > maxIdsPerChange) {
+            long changeId = insert(entityType, List.of());
+            eventPublisher.publishEvent(new EntityChangedEvent(entityType, null, false, changeId));
+            return;
+        }
+        Set<Long> ids = new LinkedHashSet<>();
+        entityIds.forEach(id -> ids.add(id.longValue()));
+        List<Long> idList = List.copyOf(ids);
+        long[] changeIds = new long[idList.size()];
+        for (int start = 0; start < idList.size(); start += INSERT_CHUNK_SIZE) {
+            int end = Math.min(start + INSERT_CHUNK_SIZE, idList.size());
+            long firstChangeId = insert(entityType, idList.subList(start, end));
+            for (int n = start; n < end; n++) {
+                changeIds[n] = firstChangeId + n - start;
+            }
+        }
+        for (int n = 0; n < idList.size(); n++) {
+            eventPublisher.publishEvent(new EntityChangedEvent(entityType, idList.get(n), false, changeIds[n]));
+        }
+    }
+
+    /**
+     * An empty ID list inserts one row with a NULL entity_id. Returns the change_id of the first
+     * row; the rows of one multi-row INSERT get consecutive IDs (innodb_autoinc_lock_mode 0 or 1,
+     * the MariaDB default).
+     */
+    private long insert(String entityType, List<Long> entityIds) {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO entity_change_log (entity_type, entity_id, source_instance) VALUES ");
+        int rows = Math.max(1, entityIds.size());
+        for (int n = 0; n < rows; n++) {
+            sql.append(n == 0 ? "" : ", ").append("(:type, :id").append(n).append(", :source)");
+        }
+        Query insert = entityManager.createNativeQuery(sql.toString());
+        insert.setParameter("type", entityType);
+        insert.setParameter("source", instanceId);
+        for (int n = 0; n < rows; n++) {
+            insert.setParameter("id" + n, entityIds.isEmpty() ? null : entityIds.get(n));
+        }
+        insert.executeUpdate();
+        return ((Number) entityManager.createNativeQuery("SELECT LAST_INSERT_ID()").getSingleResult()).longValue();
+    }
+}
@@ -0,0 +1,152 @@
+package com.secom.mes.service;
+
+import com.secom.mes.config.ChangeLogProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads entity_change_log written by other replicas and republishes each change as a remote
+ * {@link EntityChangedEvent}, so every replica's caches are at most one poll interval
+ * (plus the commit grace for late-committing transactions) behind a write made elsewhere.
+ *
+ * Each poll re-reads the last {@code commitGrace} of rows by changed_at rather than only IDs
+ * above the last one seen: auto-increment IDs are assigned at insert time, so a transaction
+ * that commits late can surface an ID lower than one already processed. Change IDs applied
+ * within the window are remembered so nothing is delivered twice.
+ */
+@Service
+public class EntityChangePoller {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityChangePoller.class);
+
+    private static final long PURGE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ChangeLogProperties properties;
+    private final String instanceId;
+
+    private ScheduledExecutorService scheduler;
+    private Timestamp lastPolledAt;
+    private final Map<Long, Timestamp> appliedChanges = new HashMap<>();
+    private long lastPurge;
+
+    public EntityChangePoller(JdbcTemplate jdbcTemplate,
+                              ApplicationEventPublisher eventPublisher,
+                              ChangeLogProperties properties,
+                              EntityChangeLog entityChangeLog) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
+        this.properties = properties;
+        this.instanceId = entityChangeLog.getInstanceId();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isPollingEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "entity-change-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getPollInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::pollSafely, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Polling entity_change_log every {} ms as instance {}", interval, instanceId);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void pollSafely() {
+        try {
+            poll();
+            purgeIfDue();
+        } catch (RuntimeException e) {
+            log.warn("Polling entity_change_log failed: {}", e.getMessage());
+        }
+    }
+
+    synchronized void poll() {
+        Timestamp now = jdbcTemplate.queryForObject("SELECT NOW(3)", Timestamp.class);
+        if (lastPolledAt == null) {
+            // First successful poll: start from the present, caches were loaded after older changes.
+            lastPolledAt = now;
+            return;
+        }
+        Timestamp since = new Timestamp(lastPolledAt.getTime() - properties.getCommitGrace().toMillis());
+
+        List<ChangeRow> changes = jdbcTemplate.query("""
+                SELECT change_id, entity_type, entity_id, source_instance, changed_at
+                FROM entity_change_log
+                WHERE changed_at >= ?
+                ORDER BY change_id
+                """, (rs, i) -> new ChangeRow(
+                rs.getLong(1),
+                rs.getString(2),
+                rs.getObject(3) != null ? rs.getLong(3) : null,
+                rs.getString(4),
+                rs.getTimestamp(5)), since);
+
+        int delivered = 0;
+        for (ChangeRow change : changes) {
+            if (appliedChanges.putIfAbsent(change.changeId(), change.changedAt()) != null
+                    || instanceId.equals(change.sourceInstance())) {
+                continue;
+            }
+            try {
+                eventPublisher.publishEvent(new EntityChangedEvent(change.entityType(), change.entityId(), true,
+                        change.changeId()));
+                delivered++;
+            } catch (RuntimeException e) {
+                log.warn("Applying remote change {} {}#{} failed: {}",
+                        change.changeId(), change.entityType(), change.entityId(), e.getMessage());
+            }
+        }
+        appliedChanges.values().removeIf(changedAt -> changedAt.before(since));
+        lastPolledAt = now;
+        if (delivered > 0) {
+            log.debug("Applied {} remote entity changes", delivered);
+        }
+    }
+
+    private void purgeIfDue() {
+        long current = System.currentTimeMillis();
+        if (current - lastPurge < PURGE_INTERVAL_MS) {
+            return;
+        }
+        lastPurge = current;
+        // The newest row of each type stays: ResourceVersions starts its ETags from it
+        int purged = jdbcTemplate.update("""
+                DELETE FROM entity_change_log
+                WHERE changed_at < NOW(3) - INTERVAL ? SECOND
+                  AND change_id NOT IN (SELECT newest FROM (
+                      SELECT MAX(change_id) AS newest FROM entity_change_log GROUP BY entity_type) AS kept)
+                """, properties.getRetention().toSeconds());
+        if (purged > 0) {
+            log.debug("Purged {} expired entity_change_log rows", purged);
+        }
+    }
+
+    private record ChangeRow(long changeId, String entityType, Long entityId, String sourceInstance, Timestamp changedAt) {
+    }
+}
@@ -0,0 +1,30 @@
+package com.secom.mes.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Published when a row written through the API changes, either by this instance
+ * (inside the writing transaction) or by another replica (picked up from entity_change_log).
+ * In-memory caches listen for it to evict or refresh the affected entries.
+ */
+@Getter
+@AllArgsConstructor
+public class EntityChangedEvent {
+
+    /** Table name of the changed entity, e.g. lot or feature_meta. */
+    private final String entityType;
+
+    /** Primary key of the changed row, or null when any row of the type may have changed. */
+    private final Long entityId;
+
+    /** True when the change was made by another replica. */
+    private final boolean remote;
+
+    /** The entity_change_log row recording the change. */
+    private final long changeId;
+
+    public boolean affectsAll() {
+        return entityId == null;
+    }
+}
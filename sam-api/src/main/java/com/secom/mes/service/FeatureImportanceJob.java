@@ -0,0 +1,209 @@
+package com.secom.mes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secom.mes.analytics.FeatureMatrix;
+import com.secom.mes.entity.FeatureImportance;
+import com.secom.mes.repository.FeatureImportanceRepository;
+import com.secom.mes.repository.FeatureMetaRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Job type "feature-importance": recomputes feature_importance from the in-memory feature
+ * matrix instead of the calculate_feature_importance() procedure.
+ *
+ * For "overall" the target is fail vs pass; for a defect type it is "failed with that defect"
+ * vs every other tested lot. The score is the absolute point-biserial correlation between
+ * the feature and the target, over lots where the feature was measured. All targets are
+ * accumulated in one pass over each feature column.
+ *
+ * Parameters (all optional):
+ * <ul>
+ *   <li>{@code defectTypes}: targets to recompute; default "overall" plus every defect type seen</li>
+ *   <li>{@code minSamples}: minimum measured lots per feature, default 10</li>
+ * </ul>
+ * This method's rows for the recomputed targets are replaced in one transaction; rows written
+ * by other methods are kept.
+ */
+@Service
+public class FeatureImportanceJob implements JobHandler {
+
+    public static final String TYPE = "feature-importance";
+
+    private static final String OVERALL = "overall";
+    private static final String METHOD = "point_biserial";
+
+    private final MeasurementMatrixService matrixService;
+    private final FeatureImportanceRepository featureImportanceRepository;
+    private final FeatureMetaRepository featureMetaRepository;
+    private final EntityChangeLog entityChangeLog;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    public FeatureImportanceJob(MeasurementMatrixService matrixService,
+                                FeatureImportanceRepository featureImportanceRepository,
+                                FeatureMetaRepository featureMetaRepository,
+                                EntityChangeLog entityChangeLog,
+                                TransactionTemplate transactionTemplate,
+                                ObjectMapper objectMapper) {
+        this.matrixService = matrixService;
+        this.featureImportanceRepository = featureImportanceRepository;
+        this.featureMetaRepository = featureMetaRepository;
+        this.entityChangeLog = entityChangeLog;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public int getDefaultPriority() {
+        return 3;
+    }
+
+    @Override
+    public void validate(JsonNode parameters) {
+        JsonNode defectTypes = parameters.path("defectTypes");
+        if (!defectTypes.isMissingNode() && !defectTypes.isArray()) {
+            throw new IllegalArgumentException("defectTypes must be an array of strings");
+        }
+        JsonNode minSamples = parameters.path("minSamples");
+        if (!minSamples.isMissingNode() && (!minSamples.canConvertToInt() || minSamples.asInt() < 2)) {
+            throw new IllegalArgumentException("minSamples must be an integer of at least 2");
+        }
+    }
+
+    @Override
+    public Object run(JobContext context) {
+        context.progress(0, "Loading feature matrix");
+        FeatureMatrix matrix = matrixService.getMatrix();
+        int rows = matrix.lotCount();
+        int minSamples = context.getParameters().path("minSamples").asInt(10);
+
+        // Target index per tested row: 0 = overall, 1.. = defect types
+        List<String> targets = new ArrayList<>();
+        targets.add(OVERALL);
+        Map<String, Integer> targetIndex = new HashMap<>();
+        for (int row = 0; row < rows; row++) {
+            String defectType = matrix.defectType(row);
+            if (matrix.classification(row) == 1 && defectType != null && !targetIndex.containsKey(defectType)) {
+                targetIndex.put(defectType, targets.size());
+                targets.add(defectType);
+            }
+        }
+        Set<String> requested = requestedTargets(context.getParameters(), targets);
+
+        int[] rowTarget = new int[rows];
+        boolean[] tested = new boolean[rows];
+        for (int row = 0; row < rows; row++) {
+            int classification = matrix.classification(row);
+            tested[row] = classification != 0;
+            String defectType = matrix.defectType(row);
+            rowTarget[row] = classification == 1 && defectType != null ? targetIndex.get(defectType) : -1;
+        }
+
+        List<FeatureImportance> computed = new ArrayList<>();
+        LocalDateTime calculatedAt = LocalDateTime.now();
+        int features = matrix.featureCount();
+        int targetCount = targets.size();
+        for (int column = 0; column < features; column++) {
+            context.checkCancelled();
+            context.progress(0.9 * column / features, "Scoring feature " + (column + 1) + " of " + features);
+
+            double[] values = matrix.column(column);
+            long n = 0;
+            double sumX = 0;
+            double sumXX = 0;
+            long[] positives = new long[targetCount];
+            double[] sumXPositive = new double[targetCount];
+            for (int row = 0; row < rows; row++) {
+                double x = values[row];
+                if (!tested[row] || Double.isNaN(x)) {
+                    continue;
+                }
+                n++;
+                sumX += x;
+                sumXX += x * x;
+                if (matrix.classification(row) == 1) {
+                    positives[0]++;
+                    sumXPositive[0] += x;
+                }
+                int target = rowTarget[row];
+                if (target > 0) {
+                    positives[target]++;
+                    sumXPositive[target] += x;
+                }
+            }
+            if (n < minSamples) {
+                continue;
+            }
+            double varianceX = n * sumXX - sumX * sumX;
+            for (int target = 0; target < targetCount; target++) {
+                if (!requested.contains(targets.get(target))) {
+                    continue;
+                }
+                long p = positives[target];
+                double varianceY = (double) n * p - (double) p * p;
+                if (p == 0 || p == n || varianceX <= 0) {
+                    continue;
+                }
+                double r = (n * sumXPositive[target] - sumX * p) / Math.sqrt(varianceX * varianceY);
+                r = Math.max(-1, Math.min(1, r));
+
+                FeatureImportance importance = new FeatureImportance();
+                importance.setFeature(featureMetaRepository.getReferenceById(matrix.featureId(column)));
+                importance.setDefectType(targets.get(target));
+                importance.setImportanceScore(BigDecimal.valueOf(Math.abs(r)).setScale(4, RoundingMode.HALF_UP));
+                importance.setCorrelationCoefficient(BigDecimal.valueOf(r).setScale(4, RoundingMode.HALF_UP));
+                importance.setSampleCount((int) n);
+                importance.setCalculatedAt(calculatedAt);
+                importance.setCalculationMethod(METHOD);
+                importance.setMetadata(objectMapper.createObjectNode()
+                        .put("jobId", context.getJobId())
+                        .put("positiveCount", p)
+                        .toString());
+                computed.add(importance);
+            }
+        }
+
+        context.checkCancelled();
+        context.progress(0.9, "Writing " + computed.size() + " rows");
+        transactionTemplate.executeWithoutResult(status -> {
+            featureImportanceRepository.deleteByDefectTypeInAndCalculationMethodIn(requested, List.of(METHOD));
+            featureImportanceRepository.saveAll(computed);
+            entityChangeLog.record(EntityChangeLog.FEATURE_IMPORTANCE, null);
+        });
+
+        Map<String, Long> rowsPerTarget = new TreeMap<>();
+        for (String target : requested) {
+            rowsPerTarget.put(target, 0L);
+        }
+        computed.forEach(importance -> rowsPerTarget.merge(importance.getDefectType(), 1L, Long::sum));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("calculationMethod", METHOD);
+        result.put("lots", rows);
+        result.put("features", features);
+        result.put("rowsWritten", computed.size());
+        result.put("rowsPerDefectType", rowsPerTarget);
+        return result;
+    }
+
+    private static Set<String> requestedTargets(JsonNode parameters, List<String> available) {
+        JsonNode defectTypes = parameters.path("defectTypes");
+        if (!defectTypes.isArray() || defectTypes.isEmpty()) {
+            return new TreeSet<>(available);
+        }
+        Set<String> requested = new TreeSet<>();
+        defectTypes.forEach(node -> requested.add(node.asText().trim().toLowerCase(Locale.ROOT)));
+        return requested;
+    }
+}
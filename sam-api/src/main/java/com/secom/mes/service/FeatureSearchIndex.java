@@ -0,0 +1,332 @@
+package com.secom.mes.service;
+
+import com.secom.mes.entity.FeatureMeta;
+import com.secom.mes.repository.FeatureMetaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory typeahead index over feature metadata.
+ *
+ * Every searchable field is tokenized into lower-case terms. Terms are kept in a sorted set
+ * for prefix lookups and in a trigram index for typo-tolerant lookups. Each term carries a
+ * posting list of feature IDs with the weight of the best field the term appeared in, so a
+ * code or name hit ranks above a description hit. A query matches a feature only if every
+ * query token matches one of its terms (exactly, by prefix or within a small edit distance).
+ *
+ * The index is built lazily from the repository and updated incrementally on writes, including
+ * writes made by other replicas.
+ */
+@Service
+public class FeatureSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(FeatureSearchIndex.class);
+
+    private static final float WEIGHT_CODE = 3.0f;
+    private static final float WEIGHT_NAME = 2.0f;
+    private static final float WEIGHT_CATEGORY = 1.5f;
+    private static final float WEIGHT_STAGE = 1.0f;
+    private static final float WEIGHT_MEASUREMENT_TYPE = 1.0f;
+    private static final float WEIGHT_UNIT = 0.5f;
+    private static final float WEIGHT_DESCRIPTION = 0.5f;
+
+    private static final float SCORE_EXACT = 1.0f;
+    private static final float SCORE_PREFIX = 0.8f;
+    private static final float SCORE_FUZZY = 0.5f;
+
+    private final FeatureMetaRepository featureMetaRepository;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Integer, FeatureMeta> features = new HashMap<>();
+    private final Map<Integer, Set<String>> featureTerms = new HashMap<>();
+    private final Map<String, Map<Integer, Float>> postings = new HashMap<>();
+    private final NavigableSet<String> terms = new TreeSet<>();
+    private final Map<String, Set<String>> trigrams = new HashMap<>();
+
+    private volatile boolean built;
+
+    public FeatureSearchIndex(FeatureMetaRepository featureMetaRepository) {
+        this.featureMetaRepository = featureMetaRepository;
+    }
+
+    /**
+     * Returns features matching every token of the query, best match first.
+     *
+     * @param critical when non-null, only features with this isCritical flag are returned
+     */
+    public List<FeatureMeta> search(String query, Boolean critical, int limit) {
+        ensureBuilt();
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            Map<Integer, Float> scores = null;
+            for (String token : tokens) {
+                Map<Integer, Float> tokenScores = scoreToken(token);
+                if (scores == null) {
+                    scores = tokenScores;
+                } else {
+                    scores.keySet().retainAll(tokenScores.keySet());
+                    for (Map.Entry<Integer, Float> entry : scores.entrySet()) {
+                        entry.setValue(entry.getValue() + tokenScores.get(entry.getKey()));
+                    }
+                }
+                if (scores.isEmpty()) {
+                    return List.of();
+                }
+            }
+
+            List<FeatureMeta> results = new ArrayList<>();
+            Map<Integer, Float> finalScores = scores;
+            finalScores.entrySet().stream()
+                    .filter(e -> critical == null || critical.equals(features.get(e.getKey()).getIsCritical()))
+                    .sorted(Map.Entry.<Integer, Float>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(limit)
+                    .forEach(e -> results.add(features.get(e.getKey())));
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void upsert(FeatureMeta feature) {
+        if (!built || feature.getFeatureId() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeInternal(feature.getFeatureId());
+            addInternal(feature);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Integer featureId) {
+        if (!built) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeInternal(featureId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Discards the index; it is rebuilt from the database on the next search. */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            built = false;
+            clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies feature writes of this replica once they commit, so a rolled-back write never shows
+     * up in search, and those of other replicas as they are polled. Runs before ResourceVersions
+     * moves the ETag of /features/search on.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onFeatureChanged(EntityChangedEvent event) {
+        if (!EntityChangeLog.FEATURE_META.equals(event.getEntityType()) || !built) {
+            return;
+        }
+        if (event.affectsAll()) {
+            invalidate();
+            return;
+        }
+        Integer featureId = event.getEntityId().intValue();
+        featureMetaRepository.findById(featureId).ifPresentOrElse(this::upsert, () -> remove(featureId));
+    }
+
+    private void ensureBuilt() {
+        if (built) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!built) {
+                long started = System.nanoTime();
+                clear();
+                featureMetaRepository.findAll().forEach(this::addInternal);
+                built = true;
+                log.info("Built feature search index: {} features, {} terms in {} ms",
+                        features.size(), terms.size(), (System.nanoTime() - started) / 1_000_000);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void clear() {
+        features.clear();
+        featureTerms.clear();
+        postings.clear();
+        terms.clear();
+        trigrams.clear();
+    }
+
+    private Map<Integer, Float> scoreToken(String token) {
+        Map<Integer, Float> scores = new HashMap<>();
+
+        for (String term : terms.subSet(token, true, token + Character.MAX_VALUE, false)) {
+            float matchScore = term.equals(token) ? SCORE_EXACT : SCORE_PREFIX * token.length() / term.length() + 0.1f;
+            accumulate(scores, term, matchScore);
+        }
+
+        int maxDistance = token.length() >= 7 ? 2 : token.length() >= 4 ? 1 : 0;
+        if (maxDistance > 0) {
+            Set<String> candidates = new HashSet<>();
+            for (String gram : trigramsOf(token)) {
+                Set<String> matching = trigrams.get(gram);
+                if (matching != null) {
+                    candidates.addAll(matching);
+                }
+            }
+            for (String term : candidates) {
+                if (term.startsWith(token)) {
+                    continue;
+                }
+                int distance = prefixEditDistance(token, term, maxDistance);
+                if (distance <= maxDistance) {
+                    accumulate(scores, term, SCORE_FUZZY - 0.1f * distance);
+                }
+            }
+        }
+        return scores;
+    }
+
+    private void accumulate(Map<Integer, Float> scores, String term, float matchScore) {
+        for (Map.Entry<Integer, Float> posting : postings.get(term).entrySet()) {
+            float score = matchScore * posting.getValue();
+            scores.merge(posting.getKey(), score, Math::max);
+        }
+    }
+
+    private void addInternal(FeatureMeta feature) {
+        Map<String, Float> weights = new HashMap<>();
+        index(weights, feature.getFeatureCode(), WEIGHT_CODE);
+        index(weights, feature.getFeatureName(), WEIGHT_NAME);
+        index(weights, feature.getFeatureCategory(), WEIGHT_CATEGORY);
+        index(weights, feature.getProcessStage(), WEIGHT_STAGE);
+        index(weights, feature.getMeasurementType(), WEIGHT_MEASUREMENT_TYPE);
+        index(weights, feature.getUnit(), WEIGHT_UNIT);
+        index(weights, feature.getDescription(), WEIGHT_DESCRIPTION);
+
+        Integer featureId = feature.getFeatureId();
+        features.put(featureId, feature);
+        featureTerms.put(featureId, weights.keySet());
+        for (Map.Entry<String, Float> entry : weights.entrySet()) {
+            String term = entry.getKey();
+            postings.computeIfAbsent(term, t -> new HashMap<>()).put(featureId, entry.getValue());
+            if (terms.add(term)) {
+                for (String gram : trigramsOf(term)) {
+                    trigrams.computeIfAbsent(gram, g -> new HashSet<>()).add(term);
+                }
+            }
+        }
+    }
+
+    private void removeInternal(Integer featureId) {
+        features.remove(featureId);
+        Set<String> previous = featureTerms.remove(featureId);
+        if (previous == null) {
+            return;
+        }
+        for (String term : previous) {
+            Map<Integer, Float> posting = postings.get(term);
+            posting.remove(featureId);
+            if (posting.isEmpty()) {
+                postings.remove(term);
+                terms.remove(term);
+                for (String gram : trigramsOf(term)) {
+                    Set<String> matching = trigrams.get(gram);
+                    matching.remove(term);
+                    if (matching.isEmpty()) {
+                        trigrams.remove(gram);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void index(Map<String, Float> weights, String text, float weight) {
+        for (String term : tokenize(text)) {
+            weights.merge(term, weight, Math::max);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String part : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}°%]+")) {
+            if (!part.isEmpty()) {
+                tokens.add(part);
+            }
+        }
+        return tokens;
+    }
+
+    private static List<String> trigramsOf(String term) {
+        String padded = "  " + term;
+        List<String> grams = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    /**
+     * Edit distance between the token and the closest prefix of the term, so a partially
+     * typed word with a typo still matches ("presure" -> "pressure"). Gives up early once
+     * every cell in a row exceeds the limit.
+     */
+    static int prefixEditDistance(String token, String term, int limit) {
+        int n = token.length();
+        int m = Math.min(term.length(), n + limit);
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= m; j++) {
+                int cost = token.charAt(i - 1) == term.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int j = Math.max(0, n - limit); j <= m; j++) {
+            best = Math.min(best, previous[j]);
+        }
+        return best;
+    }
+}
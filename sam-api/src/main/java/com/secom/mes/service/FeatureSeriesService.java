@@ -0,0 +1,170 @@
+package com.secom.mes.service;
+
+import com.secom.mes.analytics.CompressedSeries;
+import com.secom.mes.analytics.Lttb;
+import com.secom.mes.dto.FeatureSeriesDto;
+import com.secom.mes.dto.MeasurementRecordDto;
+import com.secom.mes.dto.SeriesPointDto;
+import com.secom.mes.entity.FeatureMeta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-feature time series over lot_measurement.measured_at, held as {@link CompressedSeries}.
+ *
+ * A feature's series is loaded on its first request with one lookup on idx_feature and sorted
+ * in memory, instead of merging the feature and measured_at indexes on every chart. Ingested
+ * measurements are appended; one older than the series' last point drops the series for a
+ * reload. Changes to single measurements drop every series, since deletes do not say which
+ * feature they hit. Rows removed with their lot and writes on other replicas while the matrix
+ * is not loaded are not seen, so a series is reloaded once it is {@value #MAX_AGE_MINUTES}
+ * minutes old.
+ */
+@Service
+public class FeatureSeriesService {
+
+    private static final Logger log = LoggerFactory.getLogger(FeatureSeriesService.class);
+
+    public static final String NONE = "none";
+    public static final String LTTB = "lttb";
+    public static final String MIN_MAX = "minmax";
+    public static final int MAX_POINTS = 5000;
+
+    private static final long MAX_AGE_MINUTES = 10;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ConcurrentHashMap<Integer, LoadedSeries> series = new ConcurrentHashMap<>();
+
+    private record LoadedSeries(CompressedSeries series, long loadedAt) {
+        boolean expired() {
+            return System.currentTimeMillis() - loadedAt > TimeUnit.MINUTES.toMillis(MAX_AGE_MINUTES);
+        }
+    }
+
+    public FeatureSeriesService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Points of the feature between {@code from} and {@code to} (inclusive, either may be null
+     * for unbounded), downsampled to about {@code points} points unless {@code downsample} is
+     * {@value #NONE}.
+     *
+     * @throws IllegalArgumentException for an unknown downsampling method, a point count out of
+     *                                  range or {@code from} after {@code to}
+     */
+    public FeatureSeriesDto getSeries(FeatureMeta feature, LocalDateTime from, LocalDateTime to,
+                                      String downsample, int points) {
+        String method = downsample.trim().toLowerCase(Locale.ROOT);
+        if (!List.of(NONE, LTTB, MIN_MAX).contains(method)) {
+            throw new IllegalArgumentException("Unknown downsample '" + downsample + "', expected none, lttb or minmax");
+        }
+        if (points < 3 || points > MAX_POINTS) {
+            throw new IllegalArgumentException("points must be between 3 and " + MAX_POINTS);
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+
+        CompressedSeries stored = get(feature.getFeatureId());
+        List<SeriesPointDto> result = new ArrayList<>();
+        CompressedSeries.Range range = null;
+        if (stored.size() > 0) {
+            long start = Math.max(from != null ? toEpochSecond(from) : Long.MIN_VALUE, stored.firstTime());
+            long end = Math.min(to != null ? toEpochSecond(to) : Long.MAX_VALUE, stored.lastTime());
+            if (start <= end) {
+                range = MIN_MAX.equals(method) ? stored.minMax(start, end, points / 2) : stored.read(start, end);
+            }
+        }
+        if (range != null) {
+            int[] kept = LTTB.equals(method) ? Lttb.sample(range.times(), range.values(), range.size(), points) : null;
+            int count = kept != null ? kept.length : range.size();
+            for (int i = 0; i < count; i++) {
+                int index = kept != null ? kept[i] : i;
+                result.add(new SeriesPointDto(
+                        LocalDateTime.ofEpochSecond(range.times()[index], 0, ZoneOffset.UTC), range.values()[index]));
+            }
+        }
+        return new FeatureSeriesDto(feature.getFeatureId(), feature.getFeatureCode(), feature.getUnit(), from, to, method,
+                range != null ? range.pointsInRange() : 0, result.size(),
+                range != null ? range.blocksDecoded() : 0, range != null ? range.blocksTotal() : 0, result);
+    }
+
+    private CompressedSeries get(int featureId) {
+        LoadedSeries loaded = series.get(featureId);
+        if (loaded == null || loaded.expired()) {
+            loaded = series.compute(featureId, (id, current) -> current != null && !current.expired() ? current : load(id));
+        }
+        return loaded.series();
+    }
+
+    private LoadedSeries load(int featureId) {
+        long started = System.currentTimeMillis();
+        long[][] times = {new long[2048]};
+        double[][] values = {new double[2048]};
+        int[] count = {0};
+        jdbcTemplate.query("""
+                SELECT measured_at, measurement_value FROM lot_measurement
+                WHERE feature_id = ? AND measured_at IS NOT NULL AND measurement_value IS NOT NULL
+                """, rs -> {
+            int n = count[0]++;
+            if (n == times[0].length) {
+                times[0] = Arrays.copyOf(times[0], n * 2);
+                values[0] = Arrays.copyOf(values[0], n * 2);
+            }
+            times[0][n] = toEpochSecond(rs.getTimestamp(1).toLocalDateTime());
+            values[0][n] = rs.getDouble(2);
+        }, featureId);
+
+        // Rows come back in index order, which is mostly but not always time order
+        int n = count[0];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> times[0][i]));
+        long[] sortedTimes = new long[n];
+        double[] sortedValues = new double[n];
+        for (int i = 0; i < n; i++) {
+            sortedTimes[i] = times[0][order[i]];
+            sortedValues[i] = values[0][order[i]];
+        }
+        CompressedSeries loaded = CompressedSeries.of(sortedTimes, sortedValues, n);
+        log.debug("Loaded series of feature {}: {} points in {} bytes ({} ms)",
+                featureId, n, loaded.sizeInBytes(), System.currentTimeMillis() - started);
+        return new LoadedSeries(loaded, System.currentTimeMillis());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMeasurementsIngested(MeasurementsIngestedEvent event) {
+        for (MeasurementRecordDto record : event.getMeasurements()) {
+            if (record.getMeasuredAt() == null || record.getMeasurementValue() == null) {
+                continue;
+            }
+            LoadedSeries loaded = series.get(record.getFeatureId());
+            if (loaded != null && !loaded.series().append(toEpochSecond(record.getMeasuredAt()), record.getMeasurementValue())) {
+                series.remove(record.getFeatureId(), loaded);
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMeasurementChanged(EntityChangedEvent event) {
+        if (EntityChangeLog.LOT_MEASUREMENT.equals(event.getEntityType()) && !series.isEmpty()) {
+            series.clear();
+        }
+    }
+
+    private static long toEpochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,75 @@
+package com.secom.mes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.secom.mes.repository.BackgroundJobRepository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Handed to a running {@link JobHandler}: the job's parameters, progress reporting and
+ * cancellation. Progress is written through to background_job at most once per progress
+ * interval, so handlers can report as often as convenient.
+ */
+public class JobContext {
+
+    private final long jobId;
+    private final JsonNode parameters;
+    private final BackgroundJobRepository jobRepository;
+    private final String ownerInstance;
+    private final long progressIntervalMs;
+
+    private volatile boolean cancelled;
+    private long lastProgressWrite;
+
+    JobContext(long jobId, JsonNode parameters, BackgroundJobRepository jobRepository,
+               String ownerInstance, long progressIntervalMs) {
+        this.jobId = jobId;
+        this.parameters = parameters;
+        this.jobRepository = jobRepository;
+        this.ownerInstance = ownerInstance;
+        this.progressIntervalMs = progressIntervalMs;
+    }
+
+    public long getJobId() {
+        return jobId;
+    }
+
+    /** Submitted parameters; an empty object node when none were given. */
+    public JsonNode getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Reports progress. May be called from several threads.
+     *
+     * @param fraction completed share of the work, 0.0 to 1.0
+     * @param message  short description of the current step; may be null
+     */
+    public synchronized void progress(double fraction, String message) {
+        long now = System.currentTimeMillis();
+        if (now - lastProgressWrite < progressIntervalMs) {
+            return;
+        }
+        lastProgressWrite = now;
+        BigDecimal progress = BigDecimal.valueOf(Math.max(0, Math.min(1, fraction))).setScale(4, RoundingMode.DOWN);
+        String trimmed = message != null && message.length() > 255 ? message.substring(0, 255) : message;
+        jobRepository.updateProgress(jobId, ownerInstance, progress, trimmed);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Throws {@link CancellationException} once cancellation of the job has been requested. */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Job " + jobId + " was cancelled");
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+}
@@ -0,0 +1,37 @@
+package com.secom.mes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A kind of background job. Implementations are Spring beans; {@link JobService} picks them
+ * up by {@link #getType()}.
+ *
+ * A job may be restarted from the beginning after a crash, so {@link #run} must be safe to
+ * repeat (replace its output rather than append to it).
+ */
+public interface JobHandler {
+
+    /** Value of job_type, e.g. "feature-importance". */
+    String getType();
+
+    /** Priority used when the submitter does not give one, 0 (lowest) to 9 (highest). */
+    default int getDefaultPriority() {
+        return 5;
+    }
+
+    /**
+     * Checks the parameters at submit time.
+     *
+     * @throws IllegalArgumentException if they are invalid; the message is returned to the caller
+     */
+    default void validate(JsonNode parameters) {
+    }
+
+    /**
+     * Does the work. Long loops should call {@link JobContext#progress} and
+     * {@link JobContext#checkCancelled()} regularly.
+     *
+     * @return the job result, serialized to JSON; may be null
+     */
+    Object run(JobContext context) throws Exception;
+}
@@ -0,0 +1,373 @@
+package com.secom.mes.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secom.mes.config.JobProperties;
+import com.secom.mes.dto.JobDto;
+import com.secom.mes.entity.BackgroundJob;
+import com.secom.mes.repository.BackgroundJobRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link JobHandler}s in the background, off the request threads.
+ *
+ * Jobs are persisted in background_job when submitted and run on a fixed pool of worker
+ * threads fed by a priority queue (highest priority first, then oldest first), so the number
+ * of jobs holding threads and DB connections is bounded regardless of how many are queued.
+ * Submissions beyond the queue capacity are refused.
+ *
+ * Every instance refreshes the heartbeat of the jobs it owns. Jobs left unfinished by an
+ * instance that stopped, including this one before a restart, are taken over and queued
+ * again; a job interrupted {@code maxAttempts} times is failed instead. Cancelling a queued
+ * job removes it immediately; a running job is flagged and stops at its next
+ * {@link JobContext#checkCancelled()}, on other instances after their next heartbeat.
+ */
+@Service
+public class JobService {
+
+    private static final Logger log = LoggerFactory.getLogger(JobService.class);
+
+    private static final long PURGE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    private final BackgroundJobRepository jobRepository;
+    private final ObjectMapper objectMapper;
+    private final JobProperties properties;
+    private final String instanceId;
+    private final Map<String, JobHandler> handlers = new TreeMap<>();
+    private final ThreadPoolExecutor executor;
+
+    /** Jobs queued or running on this instance. */
+    private final ConcurrentHashMap<Long, LocalJob> localJobs = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean stopping;
+    private boolean ownJobsRecovered;
+    private long lastPurge;
+
+    public JobService(BackgroundJobRepository jobRepository,
+                      ObjectMapper objectMapper,
+                      JobProperties properties,
+                      EntityChangeLog entityChangeLog,
+                      List<JobHandler> jobHandlers) {
+        this.jobRepository = jobRepository;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.instanceId = entityChangeLog.getInstanceId();
+        for (JobHandler handler : jobHandlers) {
+            if (handlers.putIfAbsent(handler.getType(), handler) != null) {
+                throw new IllegalStateException("Duplicate job type: " + handler.getType());
+            }
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                properties.getWorkers(), properties.getWorkers(),
+                60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "job-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public Set<String> getJobTypes() {
+        return handlers.keySet();
+    }
+
+    /**
+     * Persists and queues a job. Inside a transaction the job is queued once that commits, so
+     * the worker never looks for a row that is not there yet.
+     *
+     * @param priority 0 (lowest) to 9 (highest); null for the job type's default
+     * @throws IllegalArgumentException   for an unknown job type or invalid parameters
+     * @throws RejectedExecutionException if the queue on this instance is full
+     */
+    public JobDto submit(String jobType, Integer priority, JsonNode parameters) {
+        JobHandler handler = jobType != null ? handlers.get(jobType) : null;
+        if (handler == null) {
+            throw new IllegalArgumentException("Unknown job type '" + jobType + "', expected one of " + handlers.keySet());
+        }
+        JsonNode params = parameters == null || parameters.isNull() ? objectMapper.createObjectNode() : parameters;
+        if (!params.isObject()) {
+            throw new IllegalArgumentException("parameters must be a JSON object");
+        }
+        int effectivePriority = priority != null ? priority : handler.getDefaultPriority();
+        if (effectivePriority < 0 || effectivePriority > 9) {
+            throw new IllegalArgumentException("priority must be between 0 and 9");
+        }
+        handler.validate(params);
+        if (executor.getQueue().size() >= properties.getQueueCapacity()) {
+            throw new RejectedExecutionException("Job queue is full (" + properties.getQueueCapacity() + " waiting)");
+        }
+
+        BackgroundJob job = new BackgroundJob();
+        job.setJobType(jobType);
+        job.setPriority(effectivePriority);
+        job.setParameters(params.toString());
+        job.setOwnerInstance(instanceId);
+        job.setHeartbeatAt(LocalDateTime.now());
+        BackgroundJob saved = jobRepository.save(job);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(saved.getJobId(), effectivePriority, handler, params);
+                }
+            });
+        } else {
+            enqueue(saved.getJobId(), effectivePriority, handler, params);
+        }
+        log.info("Queued job {} ({}) with priority {}", saved.getJobId(), jobType, effectivePriority);
+        return toDto(saved);
+    }
+
+    public Optional<JobDto> getJob(long jobId) {
+        return jobRepository.findById(jobId).map(this::toDto);
+    }
+
+    public Page<JobDto> findJobs(String status, String jobType, Pageable pageable) {
+        return jobRepository.findByFilters(status, jobType, pageable).map(this::toDto);
+    }
+
+    /** The stored result of a job; a JSON null node for a job that succeeded without one. */
+    public Optional<JsonNode> getResult(long jobId) {
+        return jobRepository.findById(jobId).map(job -> readJson(job.getResult()));
+    }
+
+    /**
+     * Cancels a queued job or asks a running one to stop. Finished jobs are left as they are.
+     *
+     * @return the job's state after the request, or empty if there is no such job
+     */
+    public Optional<JobDto> cancel(long jobId) {
+        if (jobRepository.cancelQueued(jobId) == 1) {
+            LocalJob local = localJobs.remove(jobId);
+            if (local != null) {
+                executor.remove(local);
+            }
+            log.info("Cancelled queued job {}", jobId);
+        } else if (jobRepository.requestCancel(jobId) == 1) {
+            LocalJob local = localJobs.get(jobId);
+            if (local != null) {
+                local.context.cancel();
+            }
+            log.info("Requested cancellation of running job {}", jobId);
+        }
+        return getJob(jobId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getHeartbeatInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::maintain, 0, interval, TimeUnit.MILLISECONDS);
+        log.info("Job service started with {} workers as instance {}, job types {}",
+                properties.getWorkers(), instanceId, handlers.keySet());
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Unfinished jobs stay queued/running in the table and are recovered after the restart.
+        stopping = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        executor.shutdownNow();
+    }
+
+    private void enqueue(long jobId, int priority, JobHandler handler, JsonNode parameters) {
+        JobContext context = new JobContext(jobId, parameters, jobRepository, instanceId,
+                properties.getProgressInterval().toMillis());
+        LocalJob local = new LocalJob(jobId, priority, handler, context);
+        localJobs.put(jobId, local);
+        executor.execute(local);
+    }
+
+    private void execute(LocalJob job) {
+        try {
+            if (jobRepository.claim(job.jobId, instanceId) == 0) {
+                // Cancelled while queued, or taken over by another instance
+                return;
+            }
+            long started = System.currentTimeMillis();
+            try {
+                Object result = job.handler.run(job.context);
+                String json = result != null ? objectMapper.writeValueAsString(result) : null;
+                if (jobRepository.markSucceeded(job.jobId, instanceId, json) == 1) {
+                    log.info("Job {} ({}) succeeded in {} ms",
+                            job.jobId, job.handler.getType(), System.currentTimeMillis() - started);
+                } else {
+                    log.warn("Job {} ({}) finished after another instance took it over; result discarded",
+                            job.jobId, job.handler.getType());
+                }
+            } catch (CancellationException e) {
+                jobRepository.markEnded(job.jobId, instanceId, BackgroundJob.CANCELLED, null);
+                log.info("Job {} ({}) cancelled after {} ms",
+                        job.jobId, job.handler.getType(), System.currentTimeMillis() - started);
+            } catch (Exception e) {
+                if (stopping) {
+                    log.info("Job {} ({}) interrupted by shutdown, will be resumed", job.jobId, job.handler.getType());
+                    return;
+                }
+                log.warn("Job {} ({}) failed", job.jobId, job.handler.getType(), e);
+                jobRepository.markEnded(job.jobId, instanceId, BackgroundJob.FAILED, describe(e));
+            }
+        } catch (RuntimeException e) {
+            // The job row could not be updated; it is recovered once its heartbeat goes stale.
+            log.warn("Updating job {} failed: {}", job.jobId, e.getMessage());
+        } finally {
+            localJobs.remove(job.jobId, job);
+        }
+    }
+
+    private void maintain() {
+        try {
+            if (!ownJobsRecovered) {
+                // Before the first heartbeat, so jobs this instance owned before a restart
+                // are not kept alive as if they were still running.
+                recoverOrphanedJobs(instanceId);
+                ownJobsRecovered = true;
+            }
+            jobRepository.heartbeat(instanceId);
+            for (Long jobId : jobRepository.findCancelRequested(instanceId)) {
+                LocalJob local = localJobs.get(jobId);
+                if (local != null) {
+                    local.context.cancel();
+                }
+            }
+            recoverOrphanedJobs(null);
+            purgeIfDue();
+        } catch (RuntimeException e) {
+            log.warn("Job maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Takes over unfinished jobs with a stale heartbeat, and those owned by
+     * {@code ownedBy} regardless of heartbeat.
+     */
+    private void recoverOrphanedJobs(String ownedBy) {
+        int free = properties.getQueueCapacity() - executor.getQueue().size();
+        if (free <= 0) {
+            return;
+        }
+        long staleSeconds = properties.getStaleAfter().toSeconds();
+        for (Long jobId : jobRepository.findOrphaned(ownedBy, staleSeconds, free)) {
+            if (localJobs.containsKey(jobId)) {
+                continue;
+            }
+            BackgroundJob job = jobRepository.findById(jobId).orElse(null);
+            JobHandler handler = job != null ? handlers.get(job.getJobType()) : null;
+            if (handler == null || jobRepository.adopt(jobId, instanceId, staleSeconds) == 0) {
+                // Gone, re-owned meanwhile, or a type this instance cannot run
+                continue;
+            }
+            if (Boolean.TRUE.equals(job.getCancelRequested())) {
+                jobRepository.endQueued(jobId, instanceId, BackgroundJob.CANCELLED, null);
+            } else if (job.getAttempts() >= properties.getMaxAttempts()) {
+                jobRepository.endQueued(jobId, instanceId, BackgroundJob.FAILED,
+                        "Abandoned after " + job.getAttempts() + " interrupted attempts");
+                log.warn("Job {} ({}) failed after {} interrupted attempts", jobId, job.getJobType(), job.getAttempts());
+            } else {
+                enqueue(jobId, job.getPriority(), handler, readJson(job.getParameters()));
+                log.info("Recovered job {} ({}) left {} by {}", jobId, job.getJobType(), job.getStatus(),
+                        job.getOwnerInstance());
+            }
+        }
+    }
+
+    private void purgeIfDue() {
+        long current = System.currentTimeMillis();
+        if (current - lastPurge < PURGE_INTERVAL_MS) {
+            return;
+        }
+        lastPurge = current;
+        int purged = jobRepository.purgeFinished(properties.getRetention().toSeconds());
+        if (purged > 0) {
+            log.debug("Purged {} finished jobs", purged);
+        }
+    }
+
+    private JobDto toDto(BackgroundJob job) {
+        return new JobDto(
+                job.getJobId(),
+                job.getJobType(),
+                job.getStatus(),
+                job.getPriority(),
+                readJson(job.getParameters()),
+                job.getProgress(),
+                job.getProgressMessage(),
+                job.getErrorMessage(),
+                job.getCancelRequested(),
+                job.getAttempts(),
+                job.getOwnerInstance(),
+                job.getCreatedAt(),
+                job.getStartedAt(),
+                job.getFinishedAt()
+        );
+    }
+
+    private JsonNode readJson(String json) {
+        if (json == null) {
+            return objectMapper.nullNode();
+        }
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored job JSON is invalid: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    private static String describe(Exception e) {
+        String message = e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : "");
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    private final class LocalJob implements Runnable, Comparable<LocalJob> {
+        private final long jobId;
+        private final int priority;
+        private final JobHandler handler;
+        private final JobContext context;
+
+        private LocalJob(long jobId, int priority, JobHandler handler, JobContext context) {
+            this.jobId = jobId;
+            this.priority = priority;
+            this.handler = handler;
+            this.context = context;
+        }
+
+        @Override
+        public void run() {
+            execute(this);
+        }
+
+        @Override
+        public int compareTo(LocalJob other) {
+            return priority != other.priority
+                    ? Integer.compare(other.priority, priority)
+                    : Long.compare(jobId, other.jobId);
+        }
+    }
+}
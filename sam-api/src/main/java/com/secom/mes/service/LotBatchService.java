@@ -0,0 +1,344 @@
+package com.secom.mes.service;
+
+import com.secom.mes.dto.LotBatchOutcomeDto;
+import com.secom.mes.dto.LotBatchResultDto;
+import com.secom.mes.dto.LotStatusTransitionRequest;
+import com.secom.mes.entity.Lot;
+import com.secom.mes.shard.ShardRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Multi-row lot operations. Both paths run as a handful of set-based statements
+ * inside one transaction instead of a findById/save round trip per lot.
+ *
+ * With sharding enabled, batch creation only takes lots of home product families, and a status
+ * transition runs one transaction per shard, so it is atomic per shard, not across shards.
+ */
+@Service
+public class LotBatchService {
+
+    private static final Map<String, Set<String>> ALLOWED_TRANSITIONS = Map.of(
+            "in_progress", Set.of("completed", "scrapped"),
+            "completed", Set.of("quality_hold", "released", "scrapped"),
+            "quality_hold", Set.of("released", "scrapped"),
+            "released", Set.of(),
+            "scrapped", Set.of()
+    );
+
+    private static final int INSERT_CHUNK_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final ShardRegistry shardRegistry;
+    private final EntityChangeLog entityChangeLog;
+
+    public LotBatchService(ShardRegistry shardRegistry, EntityChangeLog entityChangeLog) {
+        this.shardRegistry = shardRegistry;
+        this.entityChangeLog = entityChangeLog;
+    }
+
+    public static boolean isKnownStatus(String status) {
+        return status != null && ALLOWED_TRANSITIONS.containsKey(status);
+    }
+
+    public static boolean isAllowedTransition(String fromStatus, String toStatus) {
+        return isKnownStatus(fromStatus) && ALLOWED_TRANSITIONS.get(fromStatus).contains(toStatus);
+    }
+
+    /**
+     * Inserts all valid lots with chunked multi-row INSERTs. Rows with missing or unknown
+     * references or duplicate lot numbers are rejected individually; the rest of the batch
+     * still goes in.
+     */
+    @Transactional
+    public LotBatchResultDto createLots(List<Lot> lots) {
+        LotBatchOutcomeDto[] outcomes = new LotBatchOutcomeDto[lots.size()];
+        Set<String> batchNumbers = new HashSet<>();
+        List<Integer> accepted = new ArrayList<>();
+
+        for (int i = 0; i < lots.size(); i++) {
+            Lot lot = lots.get(i);
+            String reason = validateForInsert(lot);
+            if (reason == null && !batchNumbers.add(lot.getLotNumber())) {
+                reason = "Duplicate lot number within batch";
+            }
+            if (reason != null) {
+                outcomes[i] = new LotBatchOutcomeDto(null, lot != null ? lot.getLotNumber() : null, "rejected", reason);
+            } else {
+                accepted.add(i);
+            }
+        }
+
+        if (!accepted.isEmpty()) {
+            rejectUnknownReferences(lots, accepted, outcomes);
+        }
+
+        if (!accepted.isEmpty()) {
+            Set<String> existing = new HashSet<>(findExistingLotNumbers(batchNumbers));
+            accepted.removeIf(i -> {
+                Lot lot = lots.get(i);
+                if (existing.contains(lot.getLotNumber())) {
+                    outcomes[i] = new LotBatchOutcomeDto(null, lot.getLotNumber(), "rejected", "Lot number already exists");
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        for (int start = 0; start < accepted.size(); start += INSERT_CHUNK_SIZE) {
+            insertChunk(lots, accepted.subList(start, Math.min(start + INSERT_CHUNK_SIZE, accepted.size())));
+        }
+
+        if (!accepted.isEmpty()) {
+            List<String> insertedNumbers = accepted.stream().map(i -> lots.get(i).getLotNumber()).toList();
+            Map<String, Integer> idsByNumber = findLotIdsByNumber(insertedNumbers);
+            for (Integer i : accepted) {
+                String lotNumber = lots.get(i).getLotNumber();
+                outcomes[i] = new LotBatchOutcomeDto(idsByNumber.get(lotNumber), lotNumber, "created", null);
+            }
+            entityChangeLog.recordAll(EntityChangeLog.LOT, idsByNumber.values());
+        }
+
+        return toResult(Arrays.asList(outcomes), "created");
+    }
+
+    /**
+     * Moves every lot matched by the request from {@code fromStatus} to {@code toStatus} with a
+     * single conditional UPDATE. Matching rows are locked first so the per-lot report reflects
+     * exactly what the UPDATE changed. Listed lot IDs are sent only to the shard that owns them.
+     */
+    public LotBatchResultDto transitionStatus(LotStatusTransitionRequest request) {
+        StringBuilder selector = new StringBuilder(" WHERE status = :fromStatus");
+        MapSqlParameterSource params = new MapSqlParameterSource("fromStatus", request.getFromStatus());
+        if (request.getEquipmentId() != null) {
+            selector.append(" AND equipment_id = :equipmentId");
+            params.addValue("equipmentId", request.getEquipmentId());
+        }
+        if (request.getStartDate() != null) {
+            selector.append(" AND production_start >= :startDate");
+            params.addValue("startDate", request.getStartDate());
+        }
+        if (request.getEndDate() != null) {
+            selector.append(" AND production_start <= :endDate");
+            params.addValue("endDate", request.getEndDate());
+        }
+
+        List<LotBatchOutcomeDto> updated = new ArrayList<>();
+        List<LotBatchOutcomeDto> unchanged = new ArrayList<>();
+        if (request.getLotIds() != null && !request.getLotIds().isEmpty()) {
+            String byIds = selector + " AND lot_id IN (:lotIds)";
+            shardRegistry.byLotId(new LinkedHashSet<>(request.getLotIds())).forEach((shard, lotIds) ->
+                    shard.transactionTemplate().executeWithoutResult(status -> {
+                        MapSqlParameterSource shardParams = new MapSqlParameterSource(params.getValues())
+                                .addValue("lotIds", lotIds);
+                        List<LotBatchOutcomeDto> changed = transition(shard, byIds, shardParams, request.getToStatus());
+                        Set<Integer> changedIds = new HashSet<>();
+                        changed.forEach(o -> changedIds.add(o.getLotId()));
+                        updated.addAll(changed);
+                        unchanged.addAll(describeUnchanged(shard,
+                                lotIds.stream().filter(id -> !changedIds.contains(id)).toList(),
+                                request.getFromStatus()));
+                    }));
+        } else {
+            for (ShardRegistry.Shard shard : shardRegistry.all()) {
+                shard.transactionTemplate().executeWithoutResult(status ->
+                        updated.addAll(transition(shard, selector.toString(), params, request.getToStatus())));
+            }
+        }
+
+        updated.addAll(unchanged);
+        return toResult(updated, "updated");
+    }
+
+    /** Locks and updates the lots the selector matches on one shard, inside that shard's transaction. */
+    private List<LotBatchOutcomeDto> transition(ShardRegistry.Shard shard, String selector,
+                                                MapSqlParameterSource params, String toStatus) {
+        NamedParameterJdbcTemplate jdbc = new NamedParameterJdbcTemplate(shard.jdbcTemplate());
+        List<LotBatchOutcomeDto> outcomes = jdbc.query(
+                "SELECT lot_id, lot_number FROM lot" + selector + " ORDER BY lot_id FOR UPDATE", params,
+                (rs, rowNum) -> new LotBatchOutcomeDto(rs.getInt(1), rs.getString(2), "updated", null));
+        if (!outcomes.isEmpty()) {
+            jdbc.update("UPDATE lot SET status = :toStatus, updated_at = :now" + selector,
+                    new MapSqlParameterSource(params.getValues())
+                            .addValue("toStatus", toStatus)
+                            .addValue("now", LocalDateTime.now()));
+            // The change log lives on home; on home this joins the running transaction
+            List<Integer> lotIds = outcomes.stream().map(LotBatchOutcomeDto::getLotId).toList();
+            shardRegistry.home().transactionTemplate().executeWithoutResult(status ->
+                    entityChangeLog.recordAll(EntityChangeLog.LOT, lotIds));
+        }
+        return outcomes;
+    }
+
+    private List<LotBatchOutcomeDto> describeUnchanged(ShardRegistry.Shard shard, List<Integer> lotIds,
+                                                       String fromStatus) {
+        if (lotIds.isEmpty()) {
+            return List.of();
+        }
+        Map<Integer, String[]> found = new HashMap<>();
+        new NamedParameterJdbcTemplate(shard.jdbcTemplate()).query(
+                "SELECT lot_id, lot_number, status FROM lot WHERE lot_id IN (:lotIds)",
+                new MapSqlParameterSource("lotIds", lotIds), rs -> {
+                    found.put(rs.getInt(1), new String[]{rs.getString(2), rs.getString(3)});
+                });
+
+        List<LotBatchOutcomeDto> outcomes = new ArrayList<>();
+        for (Integer lotId : lotIds) {
+            String[] row = found.get(lotId);
+            if (row == null) {
+                outcomes.add(new LotBatchOutcomeDto(lotId, null, "not_found", null));
+            } else {
+                outcomes.add(new LotBatchOutcomeDto(lotId, row[0], "skipped",
+                        "Current status is " + row[1] + ", expected " + fromStatus + " (or outside selection)"));
+            }
+        }
+        return outcomes;
+    }
+
+    private String validateForInsert(Lot lot) {
+        if (lot == null) {
+            return "Lot is null";
+        }
+        if (lot.getLotNumber() == null || lot.getLotNumber().isBlank()) {
+            return "lotNumber is required";
+        }
+        if (lot.getProductType() == null || lot.getProductType().getProductTypeId() == null) {
+            return "productType.productTypeId is required";
+        }
+        if (lot.getEquipment() == null || lot.getEquipment().getEquipmentId() == null) {
+            return "equipment.equipmentId is required";
+        }
+        if (lot.getOperator() == null || lot.getOperator().getOperatorId() == null) {
+            return "operator.operatorId is required";
+        }
+        if (lot.getShift() == null || lot.getShift().getShiftId() == null) {
+            return "shift.shiftId is required";
+        }
+        if (lot.getProductionStart() == null) {
+            return "productionStart is required";
+        }
+        if (lot.getStatus() != null && !isKnownStatus(lot.getStatus())) {
+            return "Unknown status " + lot.getStatus();
+        }
+        return null;
+    }
+
+    /**
+     * Rejects accepted rows whose product type, equipment, operator or shift does not exist,
+     * with one lookup per referenced table, so a bad reference cannot fail the whole INSERT.
+     */
+    private void rejectUnknownReferences(List<Lot> lots, List<Integer> accepted, LotBatchOutcomeDto[] outcomes) {
+        Set<Integer> productTypes = existingIds("product_type", "product_type_id",
+                accepted.stream().map(i -> lots.get(i).getProductType().getProductTypeId()).toList());
+        Set<Integer> equipment = existingIds("equipment", "equipment_id",
+                accepted.stream().map(i -> lots.get(i).getEquipment().getEquipmentId()).toList());
+        Set<Integer> operators = existingIds("operator", "operator_id",
+                accepted.stream().map(i -> lots.get(i).getOperator().getOperatorId()).toList());
+        Set<Integer> shifts = existingIds("shift", "shift_id",
+                accepted.stream().map(i -> lots.get(i).getShift().getShiftId()).toList());
+        accepted.removeIf(i -> {
+            Lot lot = lots.get(i);
+            String reason = null;
+            if (!productTypes.contains(lot.getProductType().getProductTypeId())) {
+                reason = "Unknown productType.productTypeId " + lot.getProductType().getProductTypeId();
+            } else if (!shardOf(lot).isHome()) {
+                reason = "Product type " + lot.getProductType().getProductTypeId() + " is stored on shard "
+                        + shardOf(lot).name() + "; create such lots with POST /lots";
+            } else if (!equipment.contains(lot.getEquipment().getEquipmentId())) {
+                reason = "Unknown equipment.equipmentId " + lot.getEquipment().getEquipmentId();
+            } else if (!operators.contains(lot.getOperator().getOperatorId())) {
+                reason = "Unknown operator.operatorId " + lot.getOperator().getOperatorId();
+            } else if (!shifts.contains(lot.getShift().getShiftId())) {
+                reason = "Unknown shift.shiftId " + lot.getShift().getShiftId();
+            }
+            if (reason != null) {
+                outcomes[i] = new LotBatchOutcomeDto(null, lot.getLotNumber(), "rejected", reason);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /** Shard the lot's product family is stored on. */
+    private ShardRegistry.Shard shardOf(Lot lot) {
+        return shardRegistry.isEnabled()
+                ? shardRegistry.forProductType(lot.getProductType().getProductTypeId())
+                : shardRegistry.home();
+    }
+
+    private Set<Integer> existingIds(String table, String idColumn, Collection<Integer> ids) {
+        Query query = entityManager.createNativeQuery(
+                "SELECT " + idColumn + " FROM " + table + " WHERE " + idColumn + " IN (:ids)");
+        query.setParameter("ids", new HashSet<>(ids));
+        Set<Integer> found = new HashSet<>();
+        for (Object id : query.getResultList()) {
+            found.add(((Number) id).intValue());
+        }
+        return found;
+    }
+
+    private void insertChunk(List<Lot> lots, List<Integer> indices) {
+        StringBuilder sql = new StringBuilder("INSERT INTO lot (lot_number, product_type_id, equipment_id, " +
+                "operator_id, shift_id, production_start, production_end, wafer_count, status) VALUES ");
+        int param = 1;
+        for (int n = 0; n < indices.size(); n++) {
+            sql.append(n == 0 ? "" : ", ").append('(');
+            for (int c = 0; c < 9; c++) {
+                sql.append(c == 0 ? "" : ", ").append('?').append(param++);
+            }
+            sql.append(')');
+        }
+
+        Query insert = entityManager.createNativeQuery(sql.toString());
+        param = 1;
+        for (Integer i : indices) {
+            Lot lot = lots.get(i);
+            insert.setParameter(param++, lot.getLotNumber());
+            insert.setParameter(param++, lot.getProductType().getProductTypeId());
+            insert.setParameter(param++, lot.getEquipment().getEquipmentId());
+            insert.setParameter(param++, lot.getOperator().getOperatorId());
+            insert.setParameter(param++, lot.getShift().getShiftId());
+            insert.setParameter(param++, lot.getProductionStart());
+            insert.setParameter(param++, lot.getProductionEnd());
+            insert.setParameter(param++, lot.getWaferCount() != null ? lot.getWaferCount() : 25);
+            insert.setParameter(param++, lot.getStatus() != null ? lot.getStatus() : "completed");
+        }
+        insert.executeUpdate();
+    }
+
+    private List<String> findExistingLotNumbers(Collection<String> lotNumbers) {
+        Query query = entityManager.createNativeQuery("SELECT lot_number FROM lot WHERE lot_number IN (:lotNumbers)");
+        query.setParameter("lotNumbers", lotNumbers);
+        List<String> existing = new ArrayList<>();
+        for (Object lotNumber : query.getResultList()) {
+            existing.add((String) lotNumber);
+        }
+        return existing;
+    }
+
+    private Map<String, Integer> findLotIdsByNumber(List<String> lotNumbers) {
+        Query query = entityManager.createNativeQuery("SELECT lot_id, lot_number FROM lot WHERE lot_number IN (:lotNumbers)");
+        query.setParameter("lotNumbers", lotNumbers);
+        Map<String, Integer> ids = new HashMap<>();
+        for (Object row : query.getResultList()) {
+            Object[] columns = (Object[]) row;
+            ids.put((String) columns[1], ((Number) columns[0]).intValue());
+        }
+        return ids;
+    }
+
+    private LotBatchResultDto toResult(List<LotBatchOutcomeDto> outcomes, String successOutcome) {
+        int succeeded = (int) outcomes.stream().filter(o -> successOutcome.equals(o.getOutcome())).count();
+        return new LotBatchResultDto(outcomes.size(), succeeded, outcomes.size() - succeeded, outcomes);
+    }
+}
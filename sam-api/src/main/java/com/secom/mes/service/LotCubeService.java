@@ -0,0 +1,137 @@
+package com.secom.mes.service;
+
+import com.secom.mes.analytics.LotCube;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Date;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the {@link LotCube} behind /analytics/cube.
+ *
+ * The cube is built from the database on first use. Afterwards, committed changes to lots,
+ * quality results or the master data they are labelled with trigger one background rebuild;
+ * queries keep using the previous cube until it is swapped in, and bursts of writes coalesce
+ * into a single rebuild.
+ */
+@Service
+public class LotCubeService {
+
+    private static final Logger log = LoggerFactory.getLogger(LotCubeService.class);
+
+    private static final Set<String> SOURCE_TYPES = Set.of(
+            EntityChangeLog.LOT, EntityChangeLog.QUALITY_RESULT, EntityChangeLog.EQUIPMENT,
+            EntityChangeLog.SHIFT, EntityChangeLog.OPERATOR, EntityChangeLog.PRODUCT_TYPE);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Object buildLock = new Object();
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lot-cube-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Snapshot snapshot;
+
+    /** A built cube and when its source rows were read. */
+    public record Snapshot(LotCube cube, LocalDateTime builtAt) {
+    }
+
+    public LotCubeService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PreDestroy
+    public void stop() {
+        rebuilder.shutdownNow();
+    }
+
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (buildLock) {
+            if (snapshot == null) {
+                snapshot = build();
+            }
+            return snapshot;
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onEntityChanged(EntityChangedEvent event) {
+        if (snapshot == null || !SOURCE_TYPES.contains(event.getEntityType())
+                || !rebuildPending.compareAndSet(false, true)) {
+            return;
+        }
+        rebuilder.execute(() -> {
+            rebuildPending.set(false); // Changes committed from here on schedule another rebuild
+            try {
+                Snapshot rebuilt = build();
+                synchronized (buildLock) {
+                    snapshot = rebuilt;
+                }
+            } catch (RuntimeException e) {
+                log.warn("Rebuilding the lot cube failed, keeping the previous one: {}", e.getMessage());
+            }
+        });
+    }
+
+    private Snapshot build() {
+        long started = System.currentTimeMillis();
+        LocalDateTime builtAt = LocalDateTime.now();
+        Integer lotCount = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM lot", Integer.class);
+        LotCube.Builder builder = LotCube.builder(lotCount != null ? lotCount : 0);
+        String[] labels = new String[LotCube.Dimension.values().length];
+        jdbcTemplate.query("""
+                SELECT e.equipment_code, e.equipment_type, s.shift_code, o.operator_code,
+                       pt.product_code, pt.product_family, qr.defect_type, qr.disposition, l.status,
+                       qr.classification, DATE(l.production_start), qr.predicted_risk, qr.quality_score, l.wafer_count
+                FROM lot l
+                JOIN equipment e ON e.equipment_id = l.equipment_id
+                JOIN shift s ON s.shift_id = l.shift_id
+                JOIN operator o ON o.operator_id = l.operator_id
+                JOIN product_type pt ON pt.product_type_id = l.product_type_id
+                LEFT JOIN quality_result qr ON qr.lot_id = l.lot_id
+                """, rs -> {
+            int classification = rs.getInt(10);
+            Date day = rs.getDate(11);
+            labels[LotCube.Dimension.EQUIPMENT.ordinal()] = rs.getString(1);
+            labels[LotCube.Dimension.EQUIPMENT_TYPE.ordinal()] = rs.getString(2);
+            labels[LotCube.Dimension.SHIFT.ordinal()] = rs.getString(3);
+            labels[LotCube.Dimension.OPERATOR.ordinal()] = rs.getString(4);
+            labels[LotCube.Dimension.PRODUCT_TYPE.ordinal()] = rs.getString(5);
+            labels[LotCube.Dimension.PRODUCT_FAMILY.ordinal()] = rs.getString(6);
+            labels[LotCube.Dimension.DEFECT_TYPE.ordinal()] = rs.getString(7);
+            labels[LotCube.Dimension.DISPOSITION.ordinal()] = rs.getString(8);
+            labels[LotCube.Dimension.STATUS.ordinal()] = rs.getString(9);
+            labels[LotCube.Dimension.OUTCOME.ordinal()] =
+                    classification > 0 ? "fail" : classification < 0 ? "pass" : "untested";
+            labels[LotCube.Dimension.DAY.ordinal()] = day != null ? day.toLocalDate().toString() : null;
+            labels[LotCube.Dimension.MONTH.ordinal()] = day != null ? day.toLocalDate().toString().substring(0, 7) : null;
+            double risk = rs.getDouble(12);
+            if (rs.wasNull()) {
+                risk = Double.NaN;
+            }
+            double score = rs.getDouble(13);
+            if (rs.wasNull()) {
+                score = Double.NaN;
+            }
+            builder.add(labels, classification, risk, score, rs.getInt(14));
+        });
+        LotCube cube = builder.build();
+        log.info("Built lot cube: {} lots in {} ms", cube.rowCount(), System.currentTimeMillis() - started);
+        return new Snapshot(cube, builtAt);
+    }
+}
@@ -0,0 +1,266 @@
+package com.secom.mes.service;
+
+import com.secom.mes.dto.LotSearchResultDto;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Maintains lot_quality_fact, the one-row-per-lot join of lot and quality_result, and runs
+ * {@code /lots/search} against it.
+ *
+ * Lot and quality writes already publish an {@link EntityChangedEvent} inside their transaction;
+ * the affected lot IDs are collected per transaction and their fact rows re-derived with one
+ * set-based upsert just before commit, so the fact table commits or rolls back with the write.
+ * Rows for deleted lots go with the lot through the foreign key cascade. Writes that bypass the
+ * API are not seen; a restart backfills lots missing from the table.
+ */
+@Service
+public class LotQualityFactService {
+
+    private static final Logger log = LoggerFactory.getLogger(LotQualityFactService.class);
+
+    private static final int ID_CHUNK_SIZE = 1000;
+
+    private static final String UPSERT = """
+            INSERT INTO lot_quality_fact
+                (lot_id, lot_number, product_type_id, equipment_id, operator_id, shift_id, status, production_start,
+                 result_id, classification, defect_type, predicted_risk)
+            SELECT
+                l.lot_id, l.lot_number, l.product_type_id, l.equipment_id, l.operator_id, l.shift_id, l.status,
+                l.production_start, qr.result_id, COALESCE(qr.classification, 0), qr.defect_type, qr.predicted_risk
+            FROM lot l
+            LEFT JOIN quality_result qr ON qr.lot_id = l.lot_id
+            %s
+            ON DUPLICATE KEY UPDATE
+                lot_number = VALUES(lot_number), product_type_id = VALUES(product_type_id),
+                equipment_id = VALUES(equipment_id), operator_id = VALUES(operator_id), shift_id = VALUES(shift_id),
+                status = VALUES(status), production_start = VALUES(production_start), result_id = VALUES(result_id),
+                classification = VALUES(classification), defect_type = VALUES(defect_type),
+                predicted_risk = VALUES(predicted_risk)
+            """;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public LotQualityFactService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /** Filters for {@link #search}; null fields are not applied. */
+    public record SearchCriteria(Integer equipmentId, Integer operatorId, Integer productTypeId, Integer shiftId,
+                                 String status, Integer classification, String defectType,
+                                 BigDecimal minRisk, BigDecimal maxRisk,
+                                 LocalDateTime startDate, LocalDateTime endDate) {
+    }
+
+    /**
+     * Lots matching every given filter, newest production start first.
+     *
+     * The lot IDs of the page are picked and counted from a covering index; only those rows are
+     * then read by primary key, so deep pages do not drag full rows through the offset.
+     */
+    public Page<LotSearchResultDto> search(SearchCriteria criteria, Pageable pageable) {
+        StringBuilder where = new StringBuilder(" WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+        appendFilter(where, args, "equipment_id = ?", criteria.equipmentId());
+        appendFilter(where, args, "operator_id = ?", criteria.operatorId());
+        appendFilter(where, args, "product_type_id = ?", criteria.productTypeId());
+        appendFilter(where, args, "shift_id = ?", criteria.shiftId());
+        appendFilter(where, args, "status = ?", criteria.status());
+        appendFilter(where, args, "classification = ?", criteria.classification());
+        appendFilter(where, args, "defect_type = ?", criteria.defectType());
+        appendFilter(where, args, "predicted_risk >= ?", criteria.minRisk());
+        appendFilter(where, args, "predicted_risk <= ?", criteria.maxRisk());
+        appendFilter(where, args, "production_start >= ?",
+                criteria.startDate() != null ? Timestamp.valueOf(criteria.startDate()) : null);
+        appendFilter(where, args, "production_start <= ?",
+                criteria.endDate() != null ? Timestamp.valueOf(criteria.endDate()) : null);
+
+        Long total = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM lot_quality_fact" + where, Long.class, args.toArray());
+        if (total == null || total == 0 || pageable.getOffset() >= total) {
+            return new PageImpl<>(List.of(), pageable, total != null ? total : 0);
+        }
+
+        List<Object> pageArgs = new ArrayList<>(args);
+        pageArgs.add(pageable.getPageSize());
+        pageArgs.add(pageable.getOffset());
+        List<LotSearchResultDto> content = jdbcTemplate.query("""
+                SELECT f.lot_id, f.lot_number, f.product_type_id, f.equipment_id, f.operator_id, f.shift_id,
+                       f.status, f.production_start, f.result_id, f.classification, f.defect_type, f.predicted_risk
+                FROM (
+                    SELECT lot_id FROM lot_quality_fact""" + where + """
+
+                    ORDER BY production_start DESC, lot_id DESC
+                    LIMIT ? OFFSET ?
+                ) page
+                JOIN lot_quality_fact f ON f.lot_id = page.lot_id
+                ORDER BY f.production_start DESC, f.lot_id DESC
+                """, (rs, rowNum) -> {
+            Timestamp start = rs.getTimestamp("production_start");
+            return new LotSearchResultDto(
+                    rs.getInt("lot_id"),
+                    rs.getString("lot_number"),
+                    rs.getInt("product_type_id"),
+                    rs.getInt("equipment_id"),
+                    rs.getInt("operator_id"),
+                    rs.getInt("shift_id"),
+                    rs.getString("status"),
+                    start != null ? start.toLocalDateTime() : null,
+                    rs.getObject("result_id", Integer.class),
+                    rs.getInt("classification"),
+                    rs.getString("defect_type"),
+                    rs.getBigDecimal("predicted_risk"));
+        }, pageArgs.toArray());
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    private static void appendFilter(StringBuilder where, List<Object> args, String predicate, Object value) {
+        if (value != null) {
+            where.append(" AND ").append(predicate);
+            args.add(value);
+        }
+    }
+
+    /** Backfills lots written while the table did not exist or outside the API, e.g. by the data loader. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillMissing() {
+        try {
+            long started = System.currentTimeMillis();
+            int inserted = jdbcTemplate.update(String.format(UPSERT,
+                    "WHERE NOT EXISTS (SELECT 1 FROM lot_quality_fact f WHERE f.lot_id = l.lot_id)"));
+            if (inserted > 0) {
+                log.info("Backfilled {} lots into lot_quality_fact in {} ms",
+                        inserted, System.currentTimeMillis() - started);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Skipping lot_quality_fact backfill: {}", e.getMessage());
+        }
+    }
+
+    @EventListener
+    public void onEntityChanged(EntityChangedEvent event) {
+        if (event.isRemote()) {
+            return; // The writing replica already updated the shared table
+        }
+        boolean lot = EntityChangeLog.LOT.equals(event.getEntityType());
+        if (!lot && !EntityChangeLog.QUALITY_RESULT.equals(event.getEntityType())) {
+            return;
+        }
+        PendingRefresh pending = pendingRefresh();
+        if (event.affectsAll()) {
+            pending.all = true;
+        } else if (lot) {
+            pending.lotIds.add(event.getEntityId());
+        } else {
+            pending.resultIds.add(event.getEntityId());
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            refresh(pending);
+        }
+    }
+
+    /** The refresh collected for the current transaction, registering it to run before commit. */
+    private PendingRefresh pendingRefresh() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return new PendingRefresh();
+        }
+        PendingRefresh pending = (PendingRefresh) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            PendingRefresh created = new PendingRefresh();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    refresh(created);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(LotQualityFactService.this);
+                }
+            });
+            pending = created;
+        }
+        return pending;
+    }
+
+    private void refresh(PendingRefresh pending) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            entityManager.flush(); // The upsert reads lot and quality_result through JDBC
+        }
+        if (pending.all) {
+            jdbcTemplate.update(String.format(UPSERT, ""));
+        } else {
+            Set<Long> lotIds = new LinkedHashSet<>(pending.lotIds);
+            for (List<Long> chunk : chunks(pending.resultIds)) {
+                // Current lot of the result, plus the lot it was on before a delete or move
+                String in = placeholders(chunk.size());
+                List<Object> args = new ArrayList<>(chunk);
+                args.addAll(chunk);
+                lotIds.addAll(jdbcTemplate.queryForList(
+                        "SELECT lot_id FROM quality_result WHERE result_id IN (" + in + ") " +
+                        "UNION SELECT lot_id FROM lot_quality_fact WHERE result_id IN (" + in + ")",
+                        Long.class, args.toArray()));
+            }
+            for (List<Long> chunk : chunks(lotIds)) {
+                jdbcTemplate.update(String.format(UPSERT,
+                        "WHERE l.lot_id IN (" + placeholders(chunk.size()) + ")"), chunk.toArray());
+            }
+        }
+        pending.clear();
+    }
+
+    private static List<List<Long>> chunks(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        List<Long> list = List.copyOf(ids);
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int start = 0; start < list.size(); start += ID_CHUNK_SIZE) {
+            chunks.add(list.subList(start, Math.min(start + ID_CHUNK_SIZE, list.size())));
+        }
+        return chunks;
+    }
+
+    private static String placeholders(int count) {
+        return Collections.nCopies(count, "?").stream().collect(Collectors.joining(", "));
+    }
+
+    private static final class PendingRefresh {
+        private boolean all;
+        private final Set<Long> lotIds = new LinkedHashSet<>();
+        private final Set<Long> resultIds = new LinkedHashSet<>();
+
+        private void clear() {
+            all = false;
+            lotIds.clear();
+            resultIds.clear();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.secom.mes.service;
+
+import com.secom.mes.analytics.FeatureMatrix;
+import com.secom.mes.analytics.LotSimilarityIndex;
+import com.secom.mes.dto.MeasurementRecordDto;
+import com.secom.mes.dto.SimilarLotDto;
+import com.secom.mes.entity.Lot;
+import com.secom.mes.repository.LotRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Owns the {@link LotSimilarityIndex} built over the feature matrix.
+ *
+ * The index is built on first use (or by the startup warm-up) and kept current from
+ * {@link MeasurementsIngestedEvent}s. Once the number of lots has doubled since the last
+ * build, the index is rebuilt in the background so normalization and clustering follow
+ * the data; queries keep using the previous index meanwhile.
+ */
+@Service
+public class LotSimilarityService {
+
+    private static final Logger log = LoggerFactory.getLogger(LotSimilarityService.class);
+
+    private static final long SEED = 20081017L;
+
+    private final MeasurementMatrixService matrixService;
+    private final LotRepository lotRepository;
+    private final int probes;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    /** Index and the matrix it addresses rows of, swapped together. */
+    private volatile Snapshot snapshot;
+
+    public LotSimilarityService(MeasurementMatrixService matrixService,
+                                LotRepository lotRepository,
+                                @Value("${secom.similarity.probes:8}") int probes) {
+        this.matrixService = matrixService;
+        this.lotRepository = lotRepository;
+        this.probes = probes;
+    }
+
+    /**
+     * Returns the k lots most similar to the given lot, or null if the lot has no row in the
+     * feature matrix.
+     */
+    public List<SimilarLotDto> findSimilar(int lotId, int k) {
+        Snapshot current = getSnapshot();
+        FeatureMatrix matrix = current.matrix();
+        int row = matrix.rowOf(lotId);
+        if (row < 0) {
+            return null;
+        }
+        List<LotSimilarityIndex.Neighbor> neighbors = current.index().query(row, k);
+
+        List<Integer> lotIds = neighbors.stream().map(n -> matrix.lotId(n.row())).toList();
+        Map<Integer, Lot> lots = lotRepository.findAllById(lotIds).stream()
+                .collect(Collectors.toMap(Lot::getLotId, Function.identity()));
+
+        List<SimilarLotDto> results = new ArrayList<>(neighbors.size());
+        for (LotSimilarityIndex.Neighbor neighbor : neighbors) {
+            int neighborRow = neighbor.row();
+            Lot lot = lots.get(matrix.lotId(neighborRow));
+            int classification = matrix.classification(neighborRow);
+            results.add(new SimilarLotDto(
+                    matrix.lotId(neighborRow),
+                    lot != null ? lot.getLotNumber() : null,
+                    matrix.equipmentId(neighborRow),
+                    Math.round(neighbor.distance() * 10000) / 10000.0,
+                    neighbor.sharedFeatures(),
+                    classification != 0 ? classification : null,
+                    matrix.defectType(neighborRow)));
+        }
+        return results;
+    }
+
+    public LotSimilarityIndex getIndex() {
+        return getSnapshot().index();
+    }
+
+    private Snapshot getSnapshot() {
+        FeatureMatrix matrix = matrixService.getMatrix();
+        Snapshot current = snapshot;
+        if (current != null && current.matrix() == matrix) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null || snapshot.matrix() != matrix) {
+                build(matrix);
+            }
+            return snapshot;
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMeasurementsIngested(MeasurementsIngestedEvent event) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        FeatureMatrix matrix = current.matrix();
+        LotSimilarityIndex index = current.index();
+        int[] changedRows = event.getMeasurements().stream()
+                .map(MeasurementRecordDto::getLotId)
+                .distinct()
+                .mapToInt(matrix::rowOf)
+                .filter(row -> row >= 0)
+                .toArray();
+        index.update(matrix, changedRows);
+
+        if (index.size() > 2 * Math.max(1, index.trainedRows()) && rebuilding.compareAndSet(false, true)) {
+            Thread rebuild = new Thread(() -> {
+                try {
+                    synchronized (this) {
+                        build(matrixService.getMatrix());
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Background rebuild of lot similarity index failed: {}", e.getMessage());
+                } finally {
+                    rebuilding.set(false);
+                }
+            }, "lot-similarity-rebuild");
+            rebuild.setDaemon(true);
+            rebuild.start();
+        }
+    }
+
+    private void build(FeatureMatrix matrix) {
+        long started = System.currentTimeMillis();
+        LotSimilarityIndex built = LotSimilarityIndex.build(matrix, probes, SEED);
+        snapshot = new Snapshot(built, matrix);
+        log.info("Built lot similarity index: {} lots x {} features in {} lists in {} ms",
+                built.trainedRows(), built.dimensions(), built.lists(), System.currentTimeMillis() - started);
+    }
+
+    private record Snapshot(LotSimilarityIndex index, FeatureMatrix matrix) {
+    }
+}
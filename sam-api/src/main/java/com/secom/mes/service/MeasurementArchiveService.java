@@ -0,0 +1,191 @@
+package com.secom.mes.service;
+
+import com.secom.mes.archive.MeasurementArchiveFile;
+import com.secom.mes.entity.FeatureMeta;
+import com.secom.mes.entity.Lot;
+import com.secom.mes.entity.LotMeasurement;
+import com.secom.mes.repository.FeatureMetaRepository;
+import com.secom.mes.repository.LotRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Reads lot_measurement rows from archived partitions, so measurement endpoints return the
+ * same rows after a partition has left the database.
+ *
+ * The ledger in measurement_archive is cached and reloaded when an archive run is recorded.
+ * Each query opens only the files whose recorded lot or time range can contain matches; rows
+ * of lots deleted since archiving are left out, as the lot cascade would have removed them.
+ */
+@Service
+public class MeasurementArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(MeasurementArchiveService.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LotRepository lotRepository;
+    private final FeatureMetaRepository featureMetaRepository;
+    private final MeasurementPartitionService partitionService;
+
+    private volatile List<ArchivedPartition> archived = List.of();
+
+    /** A measurement_archive ledger row. */
+    public record ArchivedPartition(String partitionName, LocalDateTime rangeStart, LocalDateTime rangeEnd,
+                                    long rowCount, long outOfSpecCount, Integer minLotId, Integer maxLotId,
+                                    String fileName, long fileBytes, LocalDateTime archivedAt) {
+
+        boolean mayContainLot(int lotId) {
+            return minLotId != null && minLotId <= lotId && lotId <= maxLotId;
+        }
+
+        boolean overlaps(LocalDateTime from, LocalDateTime to) {
+            return (from == null || rangeEnd.isAfter(from)) && (to == null || !rangeStart.isAfter(to));
+        }
+    }
+
+    public MeasurementArchiveService(JdbcTemplate jdbcTemplate,
+                                     LotRepository lotRepository,
+                                     FeatureMetaRepository featureMetaRepository,
+                                     MeasurementPartitionService partitionService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.lotRepository = lotRepository;
+        this.featureMetaRepository = featureMetaRepository;
+        this.partitionService = partitionService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadLedger() {
+        try {
+            reload();
+        } catch (DataAccessException e) {
+            log.warn("Could not read the measurement archive ledger: {}", e.getMessage());
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onArchiveChanged(EntityChangedEvent event) {
+        if (EntityChangeLog.MEASUREMENT_ARCHIVE.equals(event.getEntityType())) {
+            reload();
+        }
+    }
+
+    private void reload() {
+        archived = List.copyOf(jdbcTemplate.query("""
+                SELECT partition_name, range_start, range_end, row_count, out_of_spec_count, min_lot_id, max_lot_id,
+                       file_name, file_bytes, archived_at
+                FROM measurement_archive ORDER BY range_start
+                """, (rs, i) -> new ArchivedPartition(
+                rs.getString(1),
+                rs.getTimestamp(2).toLocalDateTime(),
+                rs.getTimestamp(3).toLocalDateTime(),
+                rs.getLong(4),
+                rs.getLong(5),
+                rs.getObject(6, Integer.class),
+                rs.getObject(7, Integer.class),
+                rs.getString(8),
+                rs.getLong(9),
+                rs.getTimestamp(10).toLocalDateTime())));
+    }
+
+    /** Archived partitions, oldest first. */
+    public List<ArchivedPartition> getArchivedPartitions() {
+        return archived;
+    }
+
+    public List<LotMeasurement> findByLot(int lotId, boolean outOfSpecOnly) {
+        List<ArchivedPartition> files = archived.stream().filter(partition -> partition.mayContainLot(lotId)).toList();
+        return read(files, row -> row.lotId() == lotId && (!outOfSpecOnly || row.outOfSpec()), Integer.MAX_VALUE);
+    }
+
+    /** Archived rows of a feature measured between {@code from} and {@code to} (inclusive, either may be null). */
+    public List<LotMeasurement> findByFeature(int featureId, LocalDateTime from, LocalDateTime to) {
+        List<ArchivedPartition> files = archived.stream().filter(partition -> partition.overlaps(from, to)).toList();
+        return read(files, row -> row.featureId() == featureId
+                && (from == null || !row.measuredAt().isBefore(from))
+                && (to == null || !row.measuredAt().isAfter(to)), Integer.MAX_VALUE);
+    }
+
+    public long countOutOfSpec() {
+        return archived.stream().mapToLong(ArchivedPartition::outOfSpecCount).sum();
+    }
+
+    /**
+     * Out-of-spec rows in ledger order, skipping the first {@code offset}. Files before the
+     * offset are skipped by their recorded counts without being read.
+     */
+    public List<LotMeasurement> findOutOfSpec(long offset, int limit) {
+        List<ArchivedPartition> files = new ArrayList<>();
+        long skip = offset;
+        for (ArchivedPartition partition : archived) {
+            if (skip >= partition.outOfSpecCount()) {
+                skip -= partition.outOfSpecCount();
+            } else {
+                files.add(partition);
+            }
+        }
+        long[] toSkip = {skip};
+        return read(files, row -> row.outOfSpec() && toSkip[0]-- <= 0, limit);
+    }
+
+    private List<LotMeasurement> read(List<ArchivedPartition> files, Predicate<MeasurementArchiveFile.Row> filter,
+                                      int limit) {
+        List<MeasurementArchiveFile.Row> rows = new ArrayList<>();
+        for (ArchivedPartition partition : files) {
+            if (rows.size() >= limit) {
+                break;
+            }
+            Path file = partitionService.getArchiveDir().resolve(partition.fileName());
+            if (!Files.exists(file)) {
+                log.warn("Archive file {} of partition {} is missing", file, partition.partitionName());
+                continue;
+            }
+            try {
+                MeasurementArchiveFile.read(file, filter, row -> {
+                    if (rows.size() < limit) {
+                        rows.add(row);
+                    }
+                });
+            } catch (IOException e) {
+                log.warn("Could not read archive file {}: {}", file, e.getMessage());
+            }
+        }
+        return toEntities(rows);
+    }
+
+    private List<LotMeasurement> toEntities(List<MeasurementArchiveFile.Row> rows) {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        Map<Integer, Lot> lots = lotRepository.findAllById(
+                        rows.stream().map(MeasurementArchiveFile.Row::lotId).collect(Collectors.toSet()))
+                .stream().collect(Collectors.toMap(Lot::getLotId, Function.identity()));
+        Map<Integer, FeatureMeta> features = featureMetaRepository.findAllById(
+                        rows.stream().map(MeasurementArchiveFile.Row::featureId).collect(Collectors.toSet()))
+                .stream().collect(Collectors.toMap(FeatureMeta::getFeatureId, Function.identity()));
+        List<LotMeasurement> measurements = new ArrayList<>(rows.size());
+        for (MeasurementArchiveFile.Row row : rows) {
+            Lot lot = lots.get(row.lotId());
+            if (lot == null) {
+                continue;
+            }
+            measurements.add(new LotMeasurement(row.measurementId(), lot, features.get(row.featureId()),
+                    row.measurementValue(), row.outOfSpec(), row.measuredAt(), row.createdAt()));
+        }
+        return measurements;
+    }
+}
@@ -0,0 +1,499 @@
+package com.secom.mes.service;
+
+import com.secom.mes.config.IngestProperties;
+import com.secom.mes.dto.IngestAckDto;
+import com.secom.mes.dto.IngestStatusDto;
+import com.secom.mes.dto.MeasurementRecordDto;
+import com.secom.mes.ingest.MeasurementBatch;
+import com.secom.mes.ingest.MeasurementRingBuffer;
+import com.secom.mes.ingest.MeasurementWal;
+import com.secom.mes.shard.ShardRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind ingestion of lot measurements.
+ *
+ * {@link #ingest} appends the measurements to the local {@link MeasurementWal}, waits for the
+ * fsync (shared with concurrent requests) and puts them in a {@link MeasurementRingBuffer};
+ * the caller is acknowledged without touching the database. Flusher threads drain the ring in
+ * large multi-row inserts, one transaction per batch. When the database falls behind, the ring
+ * fills up and further requests are refused until it drains.
+ *
+ * After a crash, the records above the log checkpoint are replayed. Each flush transaction
+ * also writes its sequence range to measurement_ingest_batch, and ranges already there are
+ * skipped, so records that were committed just before the crash are not inserted twice.
+ * Records for lots that do not exist are dropped at flush time and counted as rejected.
+ *
+ * With sharding enabled, each batch is split by the shard of its lot IDs and flushed there in
+ * one transaction per shard; the ledger row goes to the same shard as the measurements, so a
+ * retry after one shard committed skips exactly the rows that shard already holds.
+ *
+ * A batch the database refuses for good (a constraint or data error) is retried row by row;
+ * the rows that still fail are logged, dropped and counted as rejected as well. Any other
+ * failure, such as a lost connection, is retried as a whole after a backoff.
+ */
+@Service
+public class MeasurementIngestService {
+
+    private static final Logger log = LoggerFactory.getLogger(MeasurementIngestService.class);
+
+    private static final int INSERT_CHUNK_ROWS = 1000;
+    private static final long LEDGER_PURGE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final String INSERT_PREFIX =
+            "INSERT INTO lot_measurement (lot_id, feature_id, measurement_value, is_out_of_spec, measured_at) VALUES ";
+
+    private final ShardRegistry shardRegistry;
+    private final ApplicationEventPublisher eventPublisher;
+    private final EntityChangeLog entityChangeLog;
+    private final IngestProperties properties;
+    private final String fullChunkSql;
+
+    private final Object appendLock = new Object();
+    private MeasurementWal wal;
+    private MeasurementRingBuffer buffer;
+    private volatile boolean accepting;
+    private volatile boolean stopping;
+    private final List<Thread> flushers = new ArrayList<>();
+
+    /** Feature ID -> {normal_range_min, normal_range_max}, NaN where open; null until loaded. */
+    private volatile Map<Integer, double[]> featureSpecs;
+
+    private final AtomicLong acceptedTotal = new AtomicLong();
+    private final AtomicLong flushedTotal = new AtomicLong();
+    private final AtomicLong rejectedTotal = new AtomicLong();
+    private final AtomicLong refusedRequests = new AtomicLong();
+    private volatile String lastFlushError;
+    private volatile long lastLedgerPurge;
+
+    public MeasurementIngestService(ShardRegistry shardRegistry,
+                                    ApplicationEventPublisher eventPublisher,
+                                    EntityChangeLog entityChangeLog,
+                                    IngestProperties properties) {
+        this.shardRegistry = shardRegistry;
+        this.eventPublisher = eventPublisher;
+        this.entityChangeLog = entityChangeLog;
+        this.properties = properties;
+        this.fullChunkSql = insertSql(INSERT_CHUNK_ROWS);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Path directory = Path.of(properties.getWalDirectory()).toAbsolutePath();
+        MeasurementBatch pending = new MeasurementBatch(1024);
+        try {
+            wal = MeasurementWal.open(directory, properties.getSegmentBytes(), pending);
+        } catch (IOException | RuntimeException e) {
+            log.error("Cannot open measurement ingest log in {}, ingestion disabled: {}", directory, e.getMessage());
+            return;
+        }
+        buffer = new MeasurementRingBuffer(Math.max(properties.getBufferCapacity(), pending.size()));
+        if (pending.size() > 0) {
+            buffer.markDurable(buffer.offer(pending));
+            log.info("Replaying {} measurements from the ingest log (sequences {} to {})",
+                    pending.size(), pending.sequence(0), pending.sequence(pending.size() - 1));
+        }
+        try {
+            featureSpecs();
+        } catch (RuntimeException e) {
+            log.warn("Feature specs not loaded yet: {}", e.getMessage());
+        }
+
+        for (int i = 1; i <= properties.getFlushers(); i++) {
+            Thread flusher = new Thread(this::runFlusher, "measurement-flusher-" + i);
+            flusher.setDaemon(true);
+            flusher.start();
+            flushers.add(flusher);
+        }
+        accepting = true;
+        log.info("Measurement ingestion ready: log {} in {}, buffer capacity {}, {} flushers",
+                wal.getLogId(), directory, buffer.capacity(), properties.getFlushers());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (wal == null) {
+            return;
+        }
+        accepting = false;
+        stopping = true;
+        buffer.close();
+        long deadline = System.currentTimeMillis() + properties.getDrainTimeout().toMillis();
+        for (Thread flusher : flushers) {
+            try {
+                flusher.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            flusher.interrupt();
+        }
+        try {
+            checkpoint();
+            wal.close();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Closing measurement ingest log failed: {}", e.getMessage());
+        }
+        if (buffer.size() > 0) {
+            log.info("{} measurements not flushed at shutdown; they are replayed from the log on restart", buffer.size());
+        }
+    }
+
+    /**
+     * Logs and buffers measurements; returns once they are fsynced.
+     *
+     * @throws IllegalArgumentException   for invalid measurements (nothing is accepted)
+     * @throws RejectedExecutionException when the buffer is full or ingestion is unavailable
+     * @throws IOException                if the log write fails; ingestion stops until restart
+     */
+    public IngestAckDto ingest(List<MeasurementRecordDto> records) throws IOException {
+        if (!accepting) {
+            throw new RejectedExecutionException("Measurement ingestion is not available");
+        }
+        if (records == null || records.isEmpty()) {
+            throw new IllegalArgumentException("No measurements given");
+        }
+        if (records.size() > properties.getMaxRecordsPerRequest()) {
+            throw new IllegalArgumentException("At most " + properties.getMaxRecordsPerRequest()
+                    + " measurements per request, got " + records.size());
+        }
+        Map<Integer, double[]> specs = featureSpecs();
+        MeasurementBatch batch = new MeasurementBatch(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            MeasurementRecordDto record = records.get(i);
+            if (record == null || record.getLotId() == null || record.getFeatureId() == null) {
+                throw new IllegalArgumentException("Measurement " + i + ": lotId and featureId are required");
+            }
+            if (!specs.containsKey(record.getFeatureId())) {
+                throw new IllegalArgumentException("Measurement " + i + ": unknown featureId " + record.getFeatureId());
+            }
+            Double value = record.getMeasurementValue();
+            if (value != null && !Double.isFinite(value)) {
+                throw new IllegalArgumentException("Measurement " + i + ": measurementValue must be finite or null");
+            }
+            batch.add(0, record.getLotId(), record.getFeatureId(), value != null ? value : Double.NaN,
+                    MeasurementBatch.encodeTime(record.getMeasuredAt()));
+        }
+
+        long lastSequence;
+        long position;
+        synchronized (appendLock) {
+            if (!accepting) {
+                throw new RejectedExecutionException("Measurement ingestion is not available");
+            }
+            if (!buffer.hasRoom(batch.size())) {
+                refusedRequests.incrementAndGet();
+                throw new RejectedExecutionException("Ingest buffer is full (" + buffer.size() + " of "
+                        + buffer.capacity() + " measurements waiting for the database)");
+            }
+            try {
+                lastSequence = wal.append(batch);
+            } catch (IOException e) {
+                // A partly written frame would hide every later frame from recovery: stop here.
+                accepting = false;
+                log.error("Writing the measurement ingest log failed, ingestion stopped", e);
+                throw e;
+            }
+            position = buffer.offer(batch);
+        }
+        wal.awaitDurable(lastSequence);
+        buffer.markDurable(position);
+        acceptedTotal.addAndGet(batch.size());
+        return new IngestAckDto(batch.size(), batch.sequence(0), lastSequence);
+    }
+
+    public IngestStatusDto getStatus() {
+        boolean open = wal != null;
+        return new IngestStatusDto(
+                accepting,
+                open ? buffer.size() : 0,
+                open ? buffer.inFlight() : 0,
+                open ? buffer.capacity() : properties.getBufferCapacity(),
+                open ? wal.getLastSequence() : null,
+                open ? wal.getDurableSequence() : null,
+                open ? wal.getCheckpoint() : null,
+                acceptedTotal.get(),
+                flushedTotal.get(),
+                rejectedTotal.get(),
+                refusedRequests.get(),
+                lastFlushError
+        );
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFeatureChanged(EntityChangedEvent event) {
+        if (EntityChangeLog.FEATURE_META.equals(event.getEntityType())) {
+            featureSpecs = null;
+        }
+    }
+
+    private void runFlusher() {
+        MeasurementBatch batch = new MeasurementBatch(properties.getBatchSize());
+        while (true) {
+            long start;
+            try {
+                start = buffer.claim(properties.getBatchSize(), properties.getLinger().toMillis(), batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (start < 0) {
+                if (stopping) {
+                    return;
+                }
+                continue;
+            }
+            boolean rowByRow = false;
+            while (true) {
+                try {
+                    flush(batch, rowByRow);
+                    lastFlushError = null;
+                    break;
+                } catch (RuntimeException e) {
+                    lastFlushError = e.getMessage();
+                    if (!rowByRow && isPermanent(e)) {
+                        rowByRow = true;
+                        log.warn("Flushing {} measurements failed, retrying row by row: {}", batch.size(), e.getMessage());
+                        continue;
+                    }
+                    log.warn("Flushing {} measurements failed, retrying in {} ms: {}",
+                            batch.size(), properties.getRetryBackoff().toMillis(), e.getMessage());
+                    try {
+                        Thread.sleep(properties.getRetryBackoff().toMillis());
+                    } catch (InterruptedException interrupted) {
+                        // Shutting down; the batch stays in the log for replay
+                        return;
+                    }
+                }
+            }
+            buffer.complete(start);
+            try {
+                checkpoint();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Checkpointing the measurement ingest log failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Inserts a batch and records its range in the ledger, in one transaction per shard the
+     * batch touches. With {@code rowByRow}, each row is inserted on its own and rows refused with
+     * a data integrity violation are skipped.
+     */
+    private void flush(MeasurementBatch batch, boolean rowByRow) {
+        Map<Integer, double[]> specs = featureSpecs();
+        Map<ShardRegistry.Shard, List<Integer>> rowsByShard = new TreeMap<>(
+                Comparator.comparingInt(ShardRegistry.Shard::index));
+        for (int i = 0; i < batch.size(); i++) {
+            rowsByShard.computeIfAbsent(shardRegistry.forLotId(batch.lotId(i)), shard -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<ShardRegistry.Shard, List<Integer>> entry : rowsByShard.entrySet()) {
+            flush(entry.getKey(), batch, entry.getValue(), rowByRow, specs);
+        }
+    }
+
+    /** Flushes the rows of {@code batch} whose lots live on {@code shard}. */
+    private void flush(ShardRegistry.Shard shard, MeasurementBatch batch, List<Integer> shardRows, boolean rowByRow,
+                       Map<Integer, double[]> specs) {
+        JdbcTemplate jdbcTemplate = shard.jdbcTemplate();
+        long first = batch.sequence(0);
+        long last = batch.sequence(batch.size() - 1);
+
+        FlushOutcome outcome = shard.transactionTemplate().execute(status -> {
+            List<long[]> flushedRanges = jdbcTemplate.query("""
+                    SELECT first_seq, last_seq FROM measurement_ingest_batch
+                    WHERE log_id = ? AND last_seq >= ? AND first_seq <= ?
+                    """, (rs, i) -> new long[]{rs.getLong(1), rs.getLong(2)}, wal.getLogId(), first, last);
+            Set<Integer> existingLots = existingLots(jdbcTemplate, batch, shardRows);
+
+            int[] rows = new int[shardRows.size()];
+            int count = 0;
+            int unknownLots = 0;
+            int alreadyFlushed = 0;
+            for (int i : shardRows) {
+                if (inRanges(batch.sequence(i), flushedRanges)) {
+                    alreadyFlushed++;
+                } else if (!existingLots.contains(batch.lotId(i))) {
+                    unknownLots++;
+                } else {
+                    rows[count++] = i;
+                }
+            }
+            int invalid = 0;
+            if (rowByRow) {
+                int kept = 0;
+                for (int n = 0; n < count; n++) {
+                    int i = rows[n];
+                    try {
+                        insertChunk(jdbcTemplate, batch, rows, n, n + 1, specs);
+                        rows[kept++] = i;
+                    } catch (DataIntegrityViolationException e) {
+                        invalid++;
+                        log.warn("Dropped measurement {} (lot {}, feature {}): {}", batch.sequence(i),
+                                batch.lotId(i), batch.featureId(i), e.getMostSpecificCause().getMessage());
+                    }
+                }
+                count = kept;
+            } else {
+                for (int from = 0; from < count; from += INSERT_CHUNK_ROWS) {
+                    insertChunk(jdbcTemplate, batch, rows, from, Math.min(count, from + INSERT_CHUNK_ROWS), specs);
+                }
+            }
+            jdbcTemplate.update(
+                    "INSERT INTO measurement_ingest_batch (log_id, first_seq, last_seq, record_count) VALUES (?, ?, ?, ?)",
+                    wal.getLogId(), first, last, count);
+
+            List<MeasurementRecordDto> records = new ArrayList<>(count);
+            Set<Integer> lots = new LinkedHashSet<>();
+            for (int n = 0; n < count; n++) {
+                int i = rows[n];
+                lots.add(batch.lotId(i));
+                records.add(new MeasurementRecordDto(batch.lotId(i), batch.featureId(i),
+                        Double.isNaN(batch.value(i)) ? null : batch.value(i),
+                        MeasurementBatch.decodeTime(batch.measuredAt(i))));
+            }
+            // The change log lives on home; on home this joins the running transaction
+            shardRegistry.home().transactionTemplate().executeWithoutResult(homeStatus ->
+                    entityChangeLog.recordAll(EntityChangeLog.MEASURED_LOT, lots));
+            return new FlushOutcome(records, unknownLots, invalid, alreadyFlushed);
+        });
+
+        flushedTotal.addAndGet(outcome.inserted().size());
+        if (outcome.unknownLots() > 0) {
+            rejectedTotal.addAndGet(outcome.unknownLots());
+            log.warn("Dropped {} measurements for unknown lots on shard {} (sequences {} to {})",
+                    outcome.unknownLots(), shard.name(), first, last);
+        }
+        if (outcome.invalid() > 0) {
+            rejectedTotal.addAndGet(outcome.invalid());
+            log.warn("Dropped {} measurements the database refused on shard {} (sequences {} to {})",
+                    outcome.invalid(), shard.name(), first, last);
+        }
+        log.debug("Flushed {} measurements to shard {} (sequences {} to {}, {} already flushed before a restart)",
+                outcome.inserted().size(), shard.name(), first, last, outcome.alreadyFlushed());
+        if (!outcome.inserted().isEmpty()) {
+            try {
+                eventPublisher.publishEvent(new MeasurementsIngestedEvent(outcome.inserted()));
+            } catch (RuntimeException e) {
+                log.warn("Updating in-memory views after flush failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static Set<Integer> existingLots(JdbcTemplate jdbcTemplate, MeasurementBatch batch, List<Integer> rows) {
+        Set<Integer> lots = new LinkedHashSet<>();
+        for (int i : rows) {
+            lots.add(batch.lotId(i));
+        }
+        String placeholders = String.join(", ", Collections.nCopies(lots.size(), "?"));
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT lot_id FROM lot WHERE lot_id IN (" + placeholders + ")", Integer.class, lots.toArray()));
+    }
+
+    private void insertChunk(JdbcTemplate jdbcTemplate, MeasurementBatch batch, int[] rows, int from, int to, Map<Integer, double[]> specs) {
+        int count = to - from;
+        String sql = count == INSERT_CHUNK_ROWS ? fullChunkSql : insertSql(count);
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            int parameter = 1;
+            for (int n = from; n < to; n++) {
+                int i = rows[n];
+                double value = batch.value(i);
+                double[] spec = specs.get(batch.featureId(i));
+                statement.setInt(parameter++, batch.lotId(i));
+                statement.setInt(parameter++, batch.featureId(i));
+                if (Double.isNaN(value)) {
+                    statement.setNull(parameter++, Types.DOUBLE);
+                } else {
+                    statement.setDouble(parameter++, value);
+                }
+                statement.setBoolean(parameter++, spec != null && (value < spec[0] || value > spec[1]));
+                long measuredAt = batch.measuredAt(i);
+                if (measuredAt == MeasurementBatch.NO_TIME) {
+                    statement.setNull(parameter++, Types.TIMESTAMP);
+                } else {
+                    statement.setTimestamp(parameter++, Timestamp.valueOf(MeasurementBatch.decodeTime(measuredAt)));
+                }
+            }
+            return statement;
+        });
+    }
+
+    private void checkpoint() throws IOException {
+        long committed = buffer.committedSequence(wal.getCheckpoint());
+        wal.checkpoint(committed);
+        long now = System.currentTimeMillis();
+        if (now - lastLedgerPurge >= LEDGER_PURGE_INTERVAL_MS) {
+            lastLedgerPurge = now;
+            // Ranges at or below the checkpoint are never replayed again
+            for (ShardRegistry.Shard shard : shardRegistry.all()) {
+                shard.jdbcTemplate().update("DELETE FROM measurement_ingest_batch WHERE log_id = ? AND last_seq <= ?",
+                        wal.getLogId(), wal.getCheckpoint());
+            }
+        }
+    }
+
+    private Map<Integer, double[]> featureSpecs() {
+        Map<Integer, double[]> specs = featureSpecs;
+        if (specs == null) {
+            Map<Integer, double[]> loaded = new HashMap<>();
+            shardRegistry.home().jdbcTemplate().query("SELECT feature_id, normal_range_min, normal_range_max FROM feature_meta", rs -> {
+                double min = rs.getDouble(2);
+                double lower = rs.wasNull() ? Double.NaN : min;
+                double max = rs.getDouble(3);
+                double upper = rs.wasNull() ? Double.NaN : max;
+                loaded.put(rs.getInt(1), new double[]{lower, upper});
+            });
+            specs = loaded;
+            featureSpecs = specs;
+        }
+        return specs;
+    }
+
+    /** Errors that retrying the same rows cannot fix; a lost or refused connection is not one. */
+    private static boolean isPermanent(RuntimeException e) {
+        return e instanceof NonTransientDataAccessException && !(e instanceof DataAccessResourceFailureException);
+    }
+
+    private static boolean inRanges(long sequence, List<long[]> ranges) {
+        for (long[] range : ranges) {
+            if (sequence >= range[0] && sequence <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * 18).append(INSERT_PREFIX);
+        for (int n = 0; n < rows; n++) {
+            sql.append(n == 0 ? "" : ", ").append("(?, ?, ?, ?, ?)");
+        }
+        return sql.toString();
+    }
+
+    private record FlushOutcome(List<MeasurementRecordDto> inserted, int unknownLots, int invalid, int alreadyFlushed) {
+    }
+}
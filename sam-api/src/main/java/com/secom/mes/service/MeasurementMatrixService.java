@@ -0,0 +1,242 @@
+package com.secom.mes.service;
+
+import com.secom.mes.analytics.FeatureMatrix;
+import com.secom.mes.dto.MeasurementRecordDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Owns the in-memory lot x feature matrix built from lot_measurement.
+ * The matrix is loaded once (in the background at startup when preloading is enabled), from the
+ * {@link MeasurementSnapshotService on-disk snapshot} plus newer rows when it is usable, and then kept current from {@link MeasurementsIngestedEvent}s. Measurements written by other
+ * replicas are read back from the database and republished as ingest events, so every
+ * in-memory view downstream of the matrix follows them too.
+ */
+@Service
+public class MeasurementMatrixService {
+
+    private static final Logger log = LoggerFactory.getLogger(MeasurementMatrixService.class);
+
+    private static final int FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MeasurementSnapshotService snapshotService;
+    private final boolean preload;
+    private final Object loadLock = new Object();
+
+    private volatile FeatureMatrix matrix;
+
+    public MeasurementMatrixService(JdbcTemplate jdbcTemplate,
+                                    ApplicationEventPublisher eventPublisher,
+                                    MeasurementSnapshotService snapshotService,
+                                    @Value("${secom.matrix.preload:true}") boolean preload) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
+        this.snapshotService = snapshotService;
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.preload = preload;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preloadInBackground() {
+        if (!preload) {
+            return;
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                getMatrix();
+            } catch (RuntimeException e) {
+                log.warn("Feature matrix preload failed, will retry on first use: {}", e.getMessage());
+            }
+        }, "feature-matrix-preload");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    public boolean isLoaded() {
+        return matrix != null;
+    }
+
+    /** Returns the matrix, loading it from the database on first use. */
+    public FeatureMatrix getMatrix() {
+        FeatureMatrix current = matrix;
+        if (current != null) {
+            return current;
+        }
+        synchronized (loadLock) {
+            if (matrix == null) {
+                matrix = load();
+            }
+            return matrix;
+        }
+    }
+
+    /** Drops the current matrix and loads a fresh copy from the database. */
+    public FeatureMatrix reload() {
+        synchronized (loadLock) {
+            matrix = load();
+            return matrix;
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onMeasurementsIngested(MeasurementsIngestedEvent event) {
+        FeatureMatrix current = matrix;
+        if (current == null) {
+            return;
+        }
+        for (MeasurementRecordDto record : event.getMeasurements()) {
+            int column = current.columnOf(record.getFeatureId());
+            if (column < 0) {
+                log.debug("Feature {} not in matrix, ignoring measurement until next reload", record.getFeatureId());
+                continue;
+            }
+            int row = current.rowOf(record.getLotId());
+            if (row < 0) {
+                row = addLotFromDatabase(current, record.getLotId());
+                if (row < 0) {
+                    continue;
+                }
+            }
+            if (record.getMeasuredAt() != null && current.measuredAt(row) == FeatureMatrix.UNKNOWN_TIME) {
+                current.setMeasuredAt(row, toEpochSecond(record.getMeasuredAt()));
+            }
+            current.set(row, column, record.getMeasurementValue() != null ? record.getMeasurementValue() : Double.NaN);
+        }
+    }
+
+    @EventListener
+    public void onRemoteMeasurementChanged(EntityChangedEvent event) {
+        boolean wholeLot = EntityChangeLog.MEASURED_LOT.equals(event.getEntityType());
+        if (!event.isRemote() || matrix == null
+                || !(wholeLot || EntityChangeLog.LOT_MEASUREMENT.equals(event.getEntityType()))) {
+            return;
+        }
+        if (event.affectsAll()) {
+            log.info("Measurements changed on another replica, dropping feature matrix for reload");
+            synchronized (loadLock) {
+                matrix = null;
+            }
+            return;
+        }
+        // Deleted rows are not found here; they drop out on the next reload.
+        List<MeasurementRecordDto> records = jdbcTemplate.query("""
+                SELECT lot_id, feature_id, measurement_value, measured_at
+                FROM lot_measurement
+                WHERE %s = ?
+                """.formatted(wholeLot ? "lot_id" : "measurement_id"), (rs, i) -> {
+            Timestamp measuredAt = rs.getTimestamp(4);
+            double value = rs.getDouble(3);
+            return new MeasurementRecordDto(rs.getInt(1), rs.getInt(2),
+                    rs.wasNull() ? null : value,
+                    measuredAt != null ? measuredAt.toLocalDateTime() : null);
+        }, event.getEntityId());
+        if (!records.isEmpty()) {
+            eventPublisher.publishEvent(new MeasurementsIngestedEvent(records));
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onQualityResultChanged(EntityChangedEvent event) {
+        FeatureMatrix current = matrix;
+        if (current == null || !EntityChangeLog.QUALITY_RESULT.equals(event.getEntityType())) {
+            return;
+        }
+        String sql = "SELECT lot_id, classification, defect_type FROM quality_result"
+                + (event.affectsAll() ? "" : " WHERE result_id = ?");
+        Object[] args = event.affectsAll() ? new Object[0] : new Object[]{event.getEntityId()};
+        jdbcTemplate.query(sql, rs -> {
+            int row = current.rowOf(rs.getInt(1));
+            if (row >= 0) {
+                current.setOutcome(row, rs.getInt(2), rs.getString(3));
+            }
+        }, args);
+    }
+
+    private FeatureMatrix load() {
+        long started = System.currentTimeMillis();
+        List<Integer> featureIdList = jdbcTemplate.queryForList(
+                "SELECT feature_id FROM feature_meta ORDER BY feature_id", Integer.class);
+        Integer lotEstimate = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM lot", Integer.class);
+
+        int[] featureIds = featureIdList.stream().mapToInt(Integer::intValue).toArray();
+        FeatureMatrix loaded = new FeatureMatrix(featureIds, lotEstimate != null ? lotEstimate : 0);
+
+        jdbcTemplate.query("""
+                SELECT l.lot_id, l.equipment_id, l.production_end, qr.classification, qr.defect_type
+                FROM lot l
+                LEFT JOIN quality_result qr ON qr.lot_id = l.lot_id
+                ORDER BY l.lot_id
+                """, rs -> {
+            Timestamp end = rs.getTimestamp(3);
+            loaded.addLot(rs.getInt(1), rs.getInt(2), rs.getInt(4), rs.getString(5),
+                    end != null ? toEpochSecond(end.toLocalDateTime()) : FeatureMatrix.UNKNOWN_TIME);
+        });
+
+        // All rows exist now, so columns will not be reallocated while we fill them.
+        long restoredUpTo = snapshotService.restore(loaded);
+        Long latest = restoredUpTo < 0
+                ? jdbcTemplate.queryForObject("SELECT COALESCE(MAX(measurement_id), 0) FROM lot_measurement", Long.class)
+                : null;
+        long highWater = latest != null ? latest : 0;
+        long[] rowsUpToHighWater = {0};
+        String sql = "SELECT measurement_id, lot_id, feature_id, measurement_value FROM lot_measurement"
+                + (restoredUpTo >= 0 ? " WHERE measurement_id > ?" : "");
+        Object[] args = restoredUpTo >= 0 ? new Object[]{restoredUpTo} : new Object[0];
+        streamingJdbcTemplate.query(sql, rs -> {
+            if (rs.getLong(1) <= highWater) {
+                rowsUpToHighWater[0]++;
+            }
+            int row = loaded.rowOf(rs.getInt(2));
+            int column = loaded.columnOf(rs.getInt(3));
+            double value = rs.getDouble(4);
+            if (row >= 0 && column >= 0 && !rs.wasNull()) {
+                loaded.column(column)[row] = value;
+            }
+        }, args);
+
+        log.info("Loaded feature matrix: {} lots x {} features in {} ms ({})",
+                loaded.lotCount(), loaded.featureCount(), System.currentTimeMillis() - started,
+                restoredUpTo >= 0 ? "snapshot up to measurement " + restoredUpTo : "full scan");
+        if (restoredUpTo < 0) {
+            snapshotService.save(loaded, highWater, rowsUpToHighWater[0]);
+        }
+        return loaded;
+    }
+
+    private int addLotFromDatabase(FeatureMatrix target, int lotId) {
+        List<Integer> rows = jdbcTemplate.query("""
+                SELECT l.lot_id, l.equipment_id, l.production_end, qr.classification, qr.defect_type
+                FROM lot l
+                LEFT JOIN quality_result qr ON qr.lot_id = l.lot_id
+                WHERE l.lot_id = ?
+                """, (rs, i) -> {
+            Timestamp end = rs.getTimestamp(3);
+            return target.addLot(rs.getInt(1), rs.getInt(2), rs.getInt(4), rs.getString(5),
+                    end != null ? toEpochSecond(end.toLocalDateTime()) : FeatureMatrix.UNKNOWN_TIME);
+        }, lotId);
+        return rows.isEmpty() ? -1 : rows.get(0);
+    }
+
+    static long toEpochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,360 @@
+package com.secom.mes.service;
+
+import com.secom.mes.archive.MeasurementArchiveFile;
+import com.secom.mes.config.PartitionProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps lot_measurement in monthly RANGE COLUMNS partitions on measured_at, so time-bounded
+ * queries only touch the months they ask for and old months can be removed without deleting
+ * row by row.
+ *
+ * <ul>
+ *   <li>Conversion: an unpartitioned table gets one partition per month that has data, a
+ *       partition spanning any gap up to the current month, and {@code pmax} for everything
+ *       later. Partitioned InnoDB tables cannot have foreign keys, so the lot cascade and the
+ *       feature and lot checks become triggers; measured_at becomes NOT NULL (a missing one is
+ *       set to the insert time) because it has to be part of the primary key.</li>
+ *   <li>Rolling: partitions for the next {@code monthsAhead} months are split off {@code pmax}
+ *       before data arrives for them.</li>
+ *   <li>Archiving: a cold partition is swapped with an empty staging table (EXCHANGE PARTITION,
+ *       a metadata change), the staging rows are written to a gzipped file, the file is recorded
+ *       in measurement_archive and the empty partition is dropped. Staging rows left by a crash
+ *       are archived on the next run.</li>
+ * </ul>
+ * Maintenance runs under a database lock, so only one API instance changes partitions at a time.
+ */
+@Service
+public class MeasurementPartitionService {
+
+    private static final Logger log = LoggerFactory.getLogger(MeasurementPartitionService.class);
+
+    private static final String TABLE = "lot_measurement";
+    private static final String STAGING = "lot_measurement_archive_staging";
+    private static final String MAX_PARTITION = "pmax";
+    private static final String LOCK_NAME = "secom.lot_measurement.partitions";
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final int FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityChangeLog entityChangeLog;
+    private final PartitionProperties properties;
+    private final Path archiveDir;
+
+    private ScheduledExecutorService scheduler;
+
+    /** A lot_measurement partition; {@code upperBound} is null for {@code pmax}. */
+    public record Partition(String name, LocalDate upperBound, long estimatedRows) {
+    }
+
+    public MeasurementPartitionService(JdbcTemplate jdbcTemplate,
+                                       TransactionTemplate transactionTemplate,
+                                       EntityChangeLog entityChangeLog,
+                                       PartitionProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.entityChangeLog = entityChangeLog;
+        this.properties = properties;
+        this.archiveDir = Path.of(properties.getArchiveDir()).toAbsolutePath();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "measurement-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getMaintenanceInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::maintainSafely, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public Path getArchiveDir() {
+        return archiveDir;
+    }
+
+    /** Partitions of lot_measurement in range order; empty if the table is not partitioned. */
+    public List<Partition> getPartitions() {
+        return listPartitions(jdbcTemplate);
+    }
+
+    private void maintainSafely() {
+        try {
+            maintain();
+        } catch (RuntimeException e) {
+            log.warn("Measurement partition maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    /** Converts, rolls forward and archives as configured; returns without doing anything if another instance is at it. */
+    public synchronized void maintain() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            // Statements on the connection that holds the lock; DDL commits implicitly anyway
+            JdbcTemplate locked = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            Integer acquired = locked.queryForObject("SELECT GET_LOCK(?, 0)", Integer.class, LOCK_NAME);
+            if (acquired == null || acquired != 1) {
+                log.debug("Partition maintenance is running elsewhere, skipping");
+                return null;
+            }
+            try {
+                LocalDate currentMonth = LocalDate.now().withDayOfMonth(1);
+                if (listPartitions(locked).isEmpty()) {
+                    convert(locked, currentMonth);
+                }
+                rollForward(locked, currentMonth);
+                if (properties.getArchiveAfterMonths() > 0) {
+                    archiveCold(locked, currentMonth.minusMonths(properties.getArchiveAfterMonths()));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                locked.queryForObject("SELECT RELEASE_LOCK(?)", Integer.class, LOCK_NAME);
+            }
+            return null;
+        });
+    }
+
+    private void convert(JdbcTemplate jdbc, LocalDate currentMonth) {
+        long started = System.currentTimeMillis();
+        log.info("Converting {} to monthly partitions; the table is rebuilt once", TABLE);
+        List<String> foreignKeys = jdbc.queryForList("""
+                SELECT CONSTRAINT_NAME FROM information_schema.REFERENTIAL_CONSTRAINTS
+                WHERE CONSTRAINT_SCHEMA = DATABASE() AND TABLE_NAME = ?
+                """, String.class, TABLE);
+        if (!foreignKeys.isEmpty()) {
+            jdbc.execute("ALTER TABLE " + TABLE + " "
+                    + String.join(", ", foreignKeys.stream().map(name -> "DROP FOREIGN KEY `" + name + "`").toList()));
+        }
+        jdbc.execute("""
+                CREATE OR REPLACE TRIGGER lot_measurement_before_insert BEFORE INSERT ON lot_measurement
+                FOR EACH ROW BEGIN
+                    IF NEW.measured_at IS NULL THEN  -- an explicit NULL; an omitted column gets the default
+                        SET NEW.measured_at = NOW();
+                    END IF;
+                    IF NOT EXISTS (SELECT 1 FROM lot WHERE lot_id = NEW.lot_id)
+                            OR NOT EXISTS (SELECT 1 FROM feature_meta WHERE feature_id = NEW.feature_id) THEN
+                        SIGNAL SQLSTATE '23000'
+                            SET MESSAGE_TEXT = 'lot_measurement references a missing lot or feature_meta row';
+                    END IF;
+                END""");
+        jdbc.execute("""
+                CREATE OR REPLACE TRIGGER lot_measurement_lot_cascade AFTER DELETE ON lot
+                FOR EACH ROW DELETE FROM lot_measurement WHERE lot_id = OLD.lot_id""");
+        jdbc.execute("""
+                CREATE OR REPLACE TRIGGER lot_measurement_feature_restrict BEFORE DELETE ON feature_meta
+                FOR EACH ROW BEGIN
+                    IF EXISTS (SELECT 1 FROM lot_measurement WHERE feature_id = OLD.feature_id) THEN
+                        SIGNAL SQLSTATE '23000'
+                            SET MESSAGE_TEXT = 'feature_meta row is referenced by lot_measurement';
+                    END IF;
+                END""");
+        jdbc.update("UPDATE " + TABLE + " SET measured_at = COALESCE(created_at, NOW()) WHERE measured_at IS NULL");
+
+        // Months with data get their own partition; gaps up to the current month share one
+        TreeSet<LocalDate> bounds = new TreeSet<>();
+        jdbc.queryForList("SELECT DISTINCT DATE_FORMAT(measured_at, '%Y-%m-01') FROM " + TABLE, String.class)
+                .forEach(month -> {
+                    LocalDate start = LocalDate.parse(month);
+                    bounds.add(start);
+                    bounds.add(start.plusMonths(1));
+                });
+        for (int month = 0; month <= properties.getMonthsAhead() + 1; month++) {
+            bounds.add(currentMonth.plusMonths(month));
+        }
+        List<LocalDate> ordered = new ArrayList<>(bounds);
+        List<String> definitions = new ArrayList<>();
+        for (int i = 0; i + 1 < ordered.size(); i++) {
+            definitions.add(definition(ordered.get(i), ordered.get(i + 1)));
+        }
+        definitions.add("PARTITION " + MAX_PARTITION + " VALUES LESS THAN (MAXVALUE)");
+        jdbc.execute("""
+                ALTER TABLE %s
+                  MODIFY measured_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT 'Measurement timestamp (same as production_end)',
+                  DROP PRIMARY KEY,
+                  ADD PRIMARY KEY (measurement_id, measured_at)
+                PARTITION BY RANGE COLUMNS (measured_at) (%s)
+                """.formatted(TABLE, String.join(", ", definitions)));
+        log.info("Converted {} to {} partitions in {} ms", TABLE, definitions.size(), System.currentTimeMillis() - started);
+    }
+
+    /** Splits partitions for months up to {@code monthsAhead} after the current one off pmax. */
+    private void rollForward(JdbcTemplate jdbc, LocalDate currentMonth) {
+        LocalDate last = null;
+        for (Partition partition : listPartitions(jdbc)) {
+            if (partition.upperBound() != null) {
+                last = partition.upperBound();
+            }
+        }
+        LocalDate target = currentMonth.plusMonths(properties.getMonthsAhead() + 1);
+        if (last == null || !last.isBefore(target)) {
+            return;
+        }
+        List<String> definitions = new ArrayList<>();
+        for (LocalDate month = last; month.isBefore(target); month = month.plusMonths(1)) {
+            definitions.add(definition(month, month.plusMonths(1)));
+        }
+        definitions.add("PARTITION " + MAX_PARTITION + " VALUES LESS THAN (MAXVALUE)");
+        jdbc.execute("ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + MAX_PARTITION
+                + " INTO (" + String.join(", ", definitions) + ")");
+        log.info("Added {} partitions to {} up to {}", definitions.size() - 1, TABLE, target);
+    }
+
+    /** Archives partitions whose upper bound is at or before {@code cutoff}, oldest first. */
+    private void archiveCold(JdbcTemplate jdbc, LocalDate cutoff) throws IOException {
+        boolean changed = finishStaged(jdbc);
+        List<Partition> partitions = listPartitions(jdbc);
+        for (Partition partition : partitions) {
+            // The newest bounded partition stays so that pmax never becomes the only one
+            if (partition.upperBound() == null || partition.upperBound().isAfter(cutoff)
+                    || partition == partitions.get(partitions.size() - 2)) {
+                break;
+            }
+            prepareStaging(jdbc, partition.name());
+            jdbc.execute("ALTER TABLE " + TABLE + " EXCHANGE PARTITION " + partition.name() + " WITH TABLE " + STAGING);
+            finishStaged(jdbc);
+            changed = true;
+        }
+        if (changed) {
+            transactionTemplate.executeWithoutResult(status -> {
+                entityChangeLog.record(EntityChangeLog.LOT_MEASUREMENT, null);
+                entityChangeLog.record(EntityChangeLog.MEASUREMENT_ARCHIVE, null);
+            });
+        }
+    }
+
+    /** Creates the empty, unpartitioned staging table and tags it with the partition it will receive. */
+    private void prepareStaging(JdbcTemplate jdbc, String partitionName) {
+        jdbc.execute("DROP TABLE IF EXISTS " + STAGING);
+        jdbc.execute("CREATE TABLE " + STAGING + " LIKE " + TABLE);
+        jdbc.execute("ALTER TABLE " + STAGING + " REMOVE PARTITIONING");
+        jdbc.execute("ALTER TABLE " + STAGING + " COMMENT = '" + partitionName + "'");
+    }
+
+    /**
+     * Writes the rows swapped into the staging table to the partition's archive file, records
+     * it and drops the emptied partition.
+     *
+     * @return false if there was nothing staged
+     */
+    private boolean finishStaged(JdbcTemplate jdbc) throws IOException {
+        List<String> staged = jdbc.queryForList("""
+                SELECT TABLE_COMMENT FROM information_schema.TABLES
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?
+                """, String.class, STAGING);
+        if (staged.isEmpty() || staged.get(0) == null || staged.get(0).isBlank()) {
+            return false;
+        }
+        String partitionName = staged.get(0);
+        Partition partition = listPartitions(jdbc).stream()
+                .filter(candidate -> candidate.name().equals(partitionName))
+                .findFirst().orElse(null);
+        LocalDate nameStart = LocalDate.parse(partitionName.substring(1) + "01", DateTimeFormatter.BASIC_ISO_DATE);
+        long started = System.currentTimeMillis();
+
+        String fileName = TABLE + "-" + partitionName + ".tsv.gz";
+        Path file = archiveDir.resolve(fileName);
+        LocalDateTime[] earliest = {nameStart.atStartOfDay()};
+        LocalDateTime[] latest = {null};
+        try (MeasurementArchiveFile.Writer writer = new MeasurementArchiveFile.Writer(file)) {
+            JdbcTemplate streaming = new JdbcTemplate(jdbc.getDataSource());
+            streaming.setFetchSize(FETCH_SIZE);
+            streaming.query("""
+                    SELECT measurement_id, lot_id, feature_id, measurement_value, is_out_of_spec, measured_at, created_at
+                    FROM %s ORDER BY measurement_id
+                    """.formatted(STAGING), rs -> {
+                double value = rs.getDouble(4);
+                Double measurementValue = rs.wasNull() ? null : value;
+                LocalDateTime measuredAt = rs.getTimestamp(6).toLocalDateTime();
+                Timestamp createdAt = rs.getTimestamp(7);
+                if (measuredAt.isBefore(earliest[0])) {
+                    earliest[0] = measuredAt;
+                }
+                if (latest[0] == null || measuredAt.isAfter(latest[0])) {
+                    latest[0] = measuredAt;
+                }
+                try {
+                    writer.write(new MeasurementArchiveFile.Row(rs.getLong(1), rs.getInt(2), rs.getInt(3),
+                            measurementValue, rs.getBoolean(5), measuredAt,
+                            createdAt != null ? createdAt.toLocalDateTime() : null));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.commit();
+
+            LocalDateTime rangeEnd = partition != null && partition.upperBound() != null
+                    ? partition.upperBound().atStartOfDay()
+                    : latest[0] != null ? latest[0].plusSeconds(1) : nameStart.plusMonths(1).atStartOfDay();
+            jdbc.update("""
+                    INSERT INTO measurement_archive
+                        (partition_name, range_start, range_end, row_count, out_of_spec_count, min_lot_id, max_lot_id,
+                         file_name, file_bytes)
+                    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+                    ON DUPLICATE KEY UPDATE range_start = VALUES(range_start), range_end = VALUES(range_end),
+                        row_count = VALUES(row_count), out_of_spec_count = VALUES(out_of_spec_count),
+                        min_lot_id = VALUES(min_lot_id), max_lot_id = VALUES(max_lot_id),
+                        file_name = VALUES(file_name), file_bytes = VALUES(file_bytes), archived_at = NOW(3)
+                    """, partitionName, Timestamp.valueOf(earliest[0]), Timestamp.valueOf(rangeEnd),
+                    writer.rows(), writer.outOfSpecRows(), writer.minLotId(), writer.maxLotId(),
+                    fileName, Files.size(file));
+            if (partition != null) {
+                jdbc.execute("ALTER TABLE " + TABLE + " DROP PARTITION " + partitionName);
+            }
+            jdbc.execute("DROP TABLE " + STAGING);
+            log.info("Archived partition {}: {} rows to {} ({} bytes) in {} ms",
+                    partitionName, writer.rows(), file, Files.size(file), System.currentTimeMillis() - started);
+        }
+        return true;
+    }
+
+    private static String definition(LocalDate start, LocalDate end) {
+        return "PARTITION " + PARTITION_NAME.format(start) + " VALUES LESS THAN ('" + end + "')";
+    }
+
+    private static List<Partition> listPartitions(JdbcTemplate jdbc) {
+        return jdbc.query("""
+                SELECT PARTITION_NAME, PARTITION_DESCRIPTION, TABLE_ROWS FROM information_schema.PARTITIONS
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL
+                ORDER BY PARTITION_ORDINAL_POSITION
+                """, (rs, i) -> {
+            String description = rs.getString(2);
+            LocalDate upperBound = "MAXVALUE".equalsIgnoreCase(description)
+                    ? null
+                    : LocalDate.parse(description.replace("'", "").substring(0, 10));
+            return new Partition(rs.getString(1), upperBound, rs.getLong(3));
+        }, TABLE);
+    }
+}
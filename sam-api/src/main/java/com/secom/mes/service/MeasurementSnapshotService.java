@@ -0,0 +1,243 @@
+package com.secom.mes.service;
+
+import com.secom.mes.analytics.FeatureMatrix;
+import com.secom.mes.analytics.MeasurementSnapshot;
+import com.secom.mes.config.SnapshotProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the on-disk {@link MeasurementSnapshot} that lets {@link MeasurementMatrixService}
+ * rebuild the feature matrix without streaming all of lot_measurement.
+ *
+ * A snapshot is trusted only if the database still holds exactly the rows it claims: the row
+ * count at or below its high-water ID must match, which also catches deletes made since it was
+ * written. Rows above the high water are left for the caller to read. New rows are appended in
+ * the background one sync interval after they were first seen, so transactions that commit out
+ * of ID order have landed before the high water moves past them; if one is missed anyway, the
+ * count check fails and the file is rebuilt.
+ */
+@Service
+public class MeasurementSnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(MeasurementSnapshotService.class);
+
+    private static final int FETCH_SIZE = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final SnapshotProperties properties;
+    private final Path file;
+
+    private ScheduledExecutorService scheduler;
+    private MeasurementSnapshot snapshot;
+    /** Highest measurement ID seen at the previous sync; appended at the next one. */
+    private long pendingHighWater = -1;
+
+    public MeasurementSnapshotService(JdbcTemplate jdbcTemplate, SnapshotProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.properties = properties;
+        this.file = Path.of(properties.getPath()).toAbsolutePath();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "measurement-snapshot-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getSyncInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::syncSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        replace(null);
+    }
+
+    /**
+     * Copies the snapshot's values into {@code target}, whose lots and features are already set up.
+     *
+     * @return the measurement ID up to which {@code target} now holds every row, or -1 if there is
+     *         no usable snapshot and nothing was copied
+     */
+    public synchronized long restore(FeatureMatrix target) {
+        if (!properties.isEnabled()) {
+            return -1;
+        }
+        if (snapshot == null) {
+            if (!Files.exists(file)) {
+                return -1;
+            }
+            try {
+                snapshot = MeasurementSnapshot.open(file);
+            } catch (IOException e) {
+                log.warn("Ignoring measurement snapshot {}: {}", file, e.getMessage());
+                return -1;
+            }
+        }
+        if (!Arrays.equals(snapshot.featureIds(), target.featureIds())) {
+            log.info("Measurement snapshot features differ from feature_meta, ignoring it");
+            return -1;
+        }
+        long started = System.currentTimeMillis();
+        long highWater = snapshot.highWater();
+        long rows = countRowsUpTo(highWater);
+        if (rows != snapshot.measurementCount()) {
+            log.info("Measurement snapshot is stale ({} rows up to ID {}, database has {}), ignoring it",
+                    snapshot.measurementCount(), highWater, rows);
+            return -1;
+        }
+        long verified = System.currentTimeMillis();
+        int lots = snapshot.restoreInto(target);
+        log.info("Restored {} lots from measurement snapshot up to measurement {} (verified in {} ms, copied in {} ms)",
+                lots, highWater, verified - started, System.currentTimeMillis() - verified);
+        return highWater;
+    }
+
+    /**
+     * Replaces the snapshot with the contents of a matrix freshly loaded from the database.
+     *
+     * @param highWater measurement ID the matrix is complete up to
+     * @param rows      lot_measurement rows at or below {@code highWater} the matrix was built from
+     */
+    public synchronized void save(FeatureMatrix source, long highWater, long rows) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        try {
+            MeasurementSnapshot created = MeasurementSnapshot.create(file, source, properties.getBlockLots());
+            commitOrClose(created, highWater, rows);
+            replace(created);
+            log.info("Wrote measurement snapshot: {} lots up to measurement {} in {} ms",
+                    created.lotCount(), highWater, System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            log.warn("Writing measurement snapshot {} failed: {}", file, e.getMessage());
+        }
+    }
+
+    private void syncSafely() {
+        try {
+            sync();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Updating measurement snapshot failed: {}", e.getMessage());
+        }
+    }
+
+    /** Appends measurements added since the last sync, or rebuilds the file if rows went missing. */
+    synchronized void sync() throws IOException {
+        if (snapshot == null) {
+            return; // Nothing written yet; the first matrix load creates it
+        }
+        long highWater = snapshot.highWater();
+        long rows = countRowsUpTo(highWater);
+        if (rows != snapshot.measurementCount()) {
+            log.info("Measurement rows up to ID {} changed since the snapshot was written, rebuilding it", highWater);
+            rebuild();
+            return;
+        }
+        long target = pendingHighWater;
+        Long latest = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(MAX(measurement_id), 0) FROM lot_measurement", Long.class);
+        pendingHighWater = latest != null ? latest : 0;
+        if (target <= highWater) {
+            return;
+        }
+        long[] appended = {0};
+        streamingJdbcTemplate.query("""
+                SELECT lot_id, feature_id, measurement_value FROM lot_measurement
+                WHERE measurement_id > ? AND measurement_id <= ?
+                """, rs -> {
+            try {
+                double value = rs.getDouble(3);
+                snapshot.set(rs.getInt(1), rs.getInt(2), rs.wasNull() ? Double.NaN : value);
+                appended[0]++;
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }, highWater, target);
+        snapshot.commit(target, rows + appended[0]);
+        log.debug("Appended {} measurements to the snapshot (up to measurement {})", appended[0], target);
+    }
+
+    /** Writes a new snapshot straight from the database. */
+    private void rebuild() throws IOException {
+        int[] featureIds = jdbcTemplate.queryForList("SELECT feature_id FROM feature_meta ORDER BY feature_id", Integer.class)
+                .stream().mapToInt(Integer::intValue).toArray();
+        Long latest = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(MAX(measurement_id), 0) FROM lot_measurement", Long.class);
+        long highWater = latest != null ? latest : 0;
+        MeasurementSnapshot created = MeasurementSnapshot.create(file, featureIds, properties.getBlockLots());
+        long[] rows = {0};
+        try {
+            streamingJdbcTemplate.query("""
+                    SELECT lot_id, feature_id, measurement_value FROM lot_measurement
+                    WHERE measurement_id <= ?
+                    ORDER BY lot_id
+                    """, rs -> {
+                try {
+                    double value = rs.getDouble(3);
+                    created.set(rs.getInt(1), rs.getInt(2), rs.wasNull() ? Double.NaN : value);
+                    rows[0]++;
+                } catch (IOException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }, highWater);
+        } catch (RuntimeException e) {
+            created.close();
+            throw e;
+        }
+        commitOrClose(created, highWater, rows[0]);
+        replace(created);
+        pendingHighWater = -1;
+    }
+
+    private long countRowsUpTo(long measurementId) {
+        Long rows = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM lot_measurement WHERE measurement_id <= ?", Long.class, measurementId);
+        return rows != null ? rows : 0;
+    }
+
+    private static void commitOrClose(MeasurementSnapshot created, long highWater, long rows) throws IOException {
+        try {
+            created.commit(highWater, rows);
+        } catch (IOException e) {
+            created.close();
+            throw e;
+        }
+    }
+
+    private void replace(MeasurementSnapshot next) {
+        if (snapshot != null && snapshot != next) {
+            try {
+                snapshot.close();
+            } catch (IOException e) {
+                log.debug("Closing measurement snapshot failed: {}", e.getMessage());
+            }
+        }
+        snapshot = next;
+    }
+}
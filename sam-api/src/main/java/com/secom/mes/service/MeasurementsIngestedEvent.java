@@ -0,0 +1,17 @@
+package com.secom.mes.service;
+
+import com.secom.mes.dto.MeasurementRecordDto;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Published after new lot measurements have been written to the database.
+ * In-memory views of the measurement data listen for it to stay current.
+ */
+@Getter
+@AllArgsConstructor
+public class MeasurementsIngestedEvent {
+    private final List<MeasurementRecordDto> measurements;
+}
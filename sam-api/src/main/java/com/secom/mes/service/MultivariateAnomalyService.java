@@ -0,0 +1,366 @@
+package com.secom.mes.service;
+
+import com.secom.mes.analytics.FeatureMatrix;
+import com.secom.mes.analytics.PcaModel;
+import com.secom.mes.config.MultivariateProperties;
+import com.secom.mes.dto.FeatureContributionDto;
+import com.secom.mes.dto.MeasurementRecordDto;
+import com.secom.mes.dto.MultivariateAnomalyDto;
+import com.secom.mes.dto.MultivariateAnomalyResultDto;
+import com.secom.mes.entity.FeatureMeta;
+import com.secom.mes.entity.Lot;
+import com.secom.mes.repository.FeatureMetaRepository;
+import com.secom.mes.repository.LotRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Multivariate lot anomaly scores: Hotelling T^2 and SPE against a {@link PcaModel} of the
+ * lots that passed, with the features contributing most to each.
+ *
+ * The model is fitted on first use (or by the startup warm-up) and refitted in the background
+ * every refit interval; queries keep using the previous model meanwhile. Every lot of the
+ * feature matrix is scored at fit time, and lots are rescored against the current model from
+ * {@link MeasurementsIngestedEvent}s as their measurements arrive. Rankings are precomputed
+ * and only re-sorted on the first query after lots were rescored.
+ */
+@Service
+public class MultivariateAnomalyService {
+
+    private static final Logger log = LoggerFactory.getLogger(MultivariateAnomalyService.class);
+
+    private static final int PASS = -1;
+
+    /** Orders for the ranked anomaly list. */
+    public enum Ranking {
+        /** Larger of T^2 and SPE as a multiple of its control limit. */
+        COMBINED,
+        T2,
+        SPE
+    }
+
+    private final MeasurementMatrixService matrixService;
+    private final LotRepository lotRepository;
+    private final FeatureMetaRepository featureMetaRepository;
+    private final MultivariateProperties properties;
+    private final Object fitLock = new Object();
+
+    private ScheduledExecutorService scheduler;
+    private volatile Scores scores;
+
+    public MultivariateAnomalyService(MeasurementMatrixService matrixService,
+                                      LotRepository lotRepository,
+                                      FeatureMetaRepository featureMetaRepository,
+                                      MultivariateProperties properties) {
+        this.matrixService = matrixService;
+        this.lotRepository = lotRepository;
+        this.featureMetaRepository = featureMetaRepository;
+        this.properties = properties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "multivariate-refit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getRefitInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::refitSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Lots ranked by T^2, SPE or both relative to their control limits, each with its top
+     * contributing features.
+     *
+     * @throws IllegalStateException if there are too few passing lots to fit the model
+     */
+    public MultivariateAnomalyResultDto findAnomalies(Ranking ranking, int limit, boolean outOfControlOnly,
+                                                      int contributors) {
+        Scores current = getScores();
+        int[] order = current.ranking(ranking);
+        List<Integer> rows = new ArrayList<>(Math.min(limit, order.length));
+        int outOfControl = 0;
+        for (int row : order) {
+            boolean out = current.isOutOfControl(row);
+            if (out) {
+                outOfControl++;
+            }
+            if (rows.size() < limit && (out || !outOfControlOnly)) {
+                rows.add(row);
+            }
+        }
+        PcaModel model = current.model();
+        return new MultivariateAnomalyResultDto(
+                current.fittedAt(),
+                model.trainingLots(),
+                model.dimensions(),
+                model.components(),
+                round(model.explainedVariance()),
+                round(model.t2Limit()),
+                round(model.speLimit()),
+                order.length,
+                outOfControl,
+                toDtos(current, rows, contributors));
+    }
+
+    /**
+     * The lot's scores and top contributing features, or null if the lot has no row in the
+     * feature matrix.
+     */
+    public MultivariateAnomalyDto getLotScore(int lotId, int contributors) {
+        Scores current = getScores();
+        int row = current.matrix().rowOf(lotId);
+        if (row < 0) {
+            return null;
+        }
+        current.ensureScored(row);
+        return toDtos(current, List.of(row), contributors).get(0);
+    }
+
+    /** The current model, fitting it first if needed. */
+    public PcaModel getModel() {
+        return getScores().model();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMeasurementsIngested(MeasurementsIngestedEvent event) {
+        Scores current = scores;
+        if (current == null) {
+            return;
+        }
+        FeatureMatrix matrix = current.matrix();
+        int[] changedRows = event.getMeasurements().stream()
+                .map(MeasurementRecordDto::getLotId)
+                .distinct()
+                .mapToInt(matrix::rowOf)
+                .filter(row -> row >= 0)
+                .toArray();
+        current.rescore(changedRows);
+    }
+
+    private Scores getScores() {
+        FeatureMatrix matrix = matrixService.getMatrix();
+        Scores current = scores;
+        if (current != null && current.matrix() == matrix) {
+            return current;
+        }
+        synchronized (fitLock) {
+            if (scores == null || scores.matrix() != matrix) {
+                scores = fit(matrix);
+            }
+            return scores;
+        }
+    }
+
+    private void refitSafely() {
+        if (scores == null) {
+            return; // Not used yet; the first query fits
+        }
+        try {
+            Scores refitted = fit(matrixService.getMatrix());
+            synchronized (fitLock) {
+                scores = refitted;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Refitting the multivariate anomaly model failed, keeping the previous one: {}", e.getMessage());
+        }
+    }
+
+    private Scores fit(FeatureMatrix matrix) {
+        long started = System.currentTimeMillis();
+        LocalDateTime fittedAt = LocalDateTime.now();
+        int lotCount = matrix.lotCount();
+        int[] trainingRows = IntStream.range(0, lotCount)
+                .filter(row -> matrix.classification(row) == PASS)
+                .toArray();
+        if (trainingRows.length < properties.getMinTrainingLots()) {
+            throw new IllegalStateException("The multivariate model needs at least " + properties.getMinTrainingLots()
+                    + " passing lots with measurements, found " + trainingRows.length);
+        }
+        PcaModel model = PcaModel.fit(matrix, trainingRows, new PcaModel.Options(
+                properties.getVarianceExplained(), properties.getMaxComponents(),
+                properties.getConfidence(), properties.getMinFeatureCoverage()));
+        Scores fitted = new Scores(model, matrix, fittedAt, lotCount);
+        log.info("Fitted multivariate anomaly model: {} passing lots x {} features, {} components ({}% of variance), "
+                        + "T2 limit {}, SPE limit {}, {} lots scored in {} ms",
+                model.trainingLots(), model.dimensions(), model.components(),
+                Math.round(model.explainedVariance() * 1000) / 10.0,
+                round(model.t2Limit()), round(model.speLimit()), lotCount, System.currentTimeMillis() - started);
+        return fitted;
+    }
+
+    private List<MultivariateAnomalyDto> toDtos(Scores current, List<Integer> rows, int contributors) {
+        FeatureMatrix matrix = current.matrix();
+        PcaModel model = current.model();
+        List<Integer> lotIds = rows.stream().map(matrix::lotId).toList();
+        Map<Integer, Lot> lots = lotRepository.findAllById(lotIds).stream()
+                .collect(Collectors.toMap(Lot::getLotId, Function.identity()));
+
+        List<List<PcaModel.Contribution>> contributions = rows.stream()
+                .map(row -> contributors > 0 ? model.contributions(matrix, row, contributors) : List.<PcaModel.Contribution>of())
+                .toList();
+        Set<Integer> featureIds = new HashSet<>();
+        contributions.forEach(list -> list.forEach(c -> featureIds.add(c.featureId())));
+        Map<Integer, String> featureCodes = featureMetaRepository.findAllById(featureIds).stream()
+                .collect(Collectors.toMap(FeatureMeta::getFeatureId, FeatureMeta::getFeatureCode));
+
+        List<MultivariateAnomalyDto> results = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            Lot lot = lots.get(matrix.lotId(row));
+            int classification = matrix.classification(row);
+            double t2 = current.t2(row);
+            double spe = current.spe(row);
+            List<FeatureContributionDto> top = contributions.get(i).stream()
+                    .map(c -> new FeatureContributionDto(
+                            c.featureId(),
+                            featureCodes.get(c.featureId()),
+                            Double.isNaN(c.z()) ? null : round(c.z()),
+                            round(c.t2()),
+                            round(c.spe())))
+                    .toList();
+            results.add(new MultivariateAnomalyDto(
+                    matrix.lotId(row),
+                    lot != null ? lot.getLotNumber() : null,
+                    matrix.equipmentId(row),
+                    classification != 0 ? classification : null,
+                    matrix.defectType(row),
+                    round(t2),
+                    round(spe),
+                    round(t2 / model.t2Limit()),
+                    round(spe / model.speLimit()),
+                    current.isOutOfControl(row),
+                    top));
+        }
+        return results;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10000) / 10000.0;
+    }
+
+    /** A fitted model, the matrix it scores and the scores of every matrix row. */
+    private static final class Scores {
+
+        private final PcaModel model;
+        private final FeatureMatrix matrix;
+        private final LocalDateTime fittedAt;
+        private final Map<Ranking, int[]> rankings = new EnumMap<>(Ranking.class);
+        private double[] t2;
+        private double[] spe;
+        private int rows;
+
+        Scores(PcaModel model, FeatureMatrix matrix, LocalDateTime fittedAt, int rows) {
+            this.model = model;
+            this.matrix = matrix;
+            this.fittedAt = fittedAt;
+            this.rows = rows;
+            this.t2 = new double[Math.max(16, rows)];
+            this.spe = new double[t2.length];
+            IntStream.range(0, rows).parallel().forEach(row -> {
+                PcaModel.Score score = model.score(matrix, row);
+                t2[row] = score.t2();
+                spe[row] = score.spe();
+            });
+        }
+
+        PcaModel model() {
+            return model;
+        }
+
+        FeatureMatrix matrix() {
+            return matrix;
+        }
+
+        LocalDateTime fittedAt() {
+            return fittedAt;
+        }
+
+        synchronized double t2(int row) {
+            return t2[row];
+        }
+
+        synchronized double spe(int row) {
+            return spe[row];
+        }
+
+        synchronized boolean isOutOfControl(int row) {
+            return t2[row] > model.t2Limit() || spe[row] > model.speLimit();
+        }
+
+        /** Scores rows added to the matrix since the last call and rescores the given ones. */
+        synchronized void rescore(int[] changedRows) {
+            int lotCount = matrix.lotCount();
+            if (lotCount > t2.length) {
+                int capacity = Math.max(lotCount, t2.length * 2);
+                t2 = Arrays.copyOf(t2, capacity);
+                spe = Arrays.copyOf(spe, capacity);
+            }
+            for (int row = rows; row < lotCount; row++) {
+                score(row);
+            }
+            for (int row : changedRows) {
+                if (row < rows) {
+                    score(row);
+                }
+            }
+            rows = Math.max(rows, lotCount);
+            rankings.clear();
+        }
+
+        /** Scores the row if it was added to the matrix after the last rescore. */
+        synchronized void ensureScored(int row) {
+            if (row >= rows) {
+                rescore(new int[0]);
+            }
+        }
+
+        synchronized int[] ranking(Ranking ranking) {
+            if (rows < matrix.lotCount()) {
+                rescore(new int[0]);
+            }
+            return rankings.computeIfAbsent(ranking, key -> {
+                double[] keys = new double[rows];
+                for (int row = 0; row < rows; row++) {
+                    keys[row] = switch (key) {
+                        case T2 -> t2[row];
+                        case SPE -> spe[row];
+                        case COMBINED -> Math.max(t2[row] / model.t2Limit(), spe[row] / model.speLimit());
+                    };
+                }
+                return IntStream.range(0, rows).boxed()
+                        .sorted((a, b) -> Double.compare(keys[b], keys[a]))
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+            });
+        }
+
+        private void score(int row) {
+            PcaModel.Score score = model.score(matrix, row);
+            t2[row] = score.t2();
+            spe[row] = score.spe();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.secom.mes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.secom.mes.shard.ShardRegistry;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Job type "out-of-spec-recompute": brings lot_measurement.is_out_of_spec in line with the
+ * committed feature_meta limits, by the rule in {@link SpecLimitService#isOutOfSpec}.
+ *
+ * Features are split into chunks that are updated in parallel, one set-based UPDATE per chunk
+ * and shard that only writes rows whose flag changes. The limits are read from home's
+ * feature_meta and passed in, since a shard's replicated copy may still be catching up with the
+ * change that queued the job. Each chunk commits on its own; a rerun after a crash or
+ * cancellation just finishes the rest.
+ *
+ * Parameters (all optional):
+ * <ul>
+ *   <li>{@code featureIds}: features to recompute; default every feature</li>
+ *   <li>{@code parallelism}: chunks updated at once, 1 to {@value #MAX_PARALLELISM}, default
+ *       {@value #DEFAULT_PARALLELISM}</li>
+ * </ul>
+ * Queued automatically for a feature when its limits are changed through the API.
+ */
+@Service
+public class OutOfSpecRecomputeJob implements JobHandler {
+
+    public static final String TYPE = "out-of-spec-recompute";
+
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int MAX_PARALLELISM = 8;
+    /** About 12k measurement rows per UPDATE with the full SECOM lot count. */
+    private static final int FEATURES_PER_CHUNK = 8;
+
+    private static final String OUT_OF_SPEC = """
+            (f.normal_range_min IS NOT NULL AND f.normal_range_max IS NOT NULL
+             AND m.measurement_value IS NOT NULL
+             AND (m.measurement_value < f.normal_range_min OR m.measurement_value > f.normal_range_max))""";
+
+    private final ShardRegistry shardRegistry;
+
+    public OutOfSpecRecomputeJob(ShardRegistry shardRegistry) {
+        this.shardRegistry = shardRegistry;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public int getDefaultPriority() {
+        return 6;
+    }
+
+    @Override
+    public void validate(JsonNode parameters) {
+        JsonNode featureIds = parameters.path("featureIds");
+        if (!featureIds.isMissingNode()) {
+            if (!featureIds.isArray()) {
+                throw new IllegalArgumentException("featureIds must be an array of integers");
+            }
+            featureIds.forEach(id -> {
+                if (!id.canConvertToInt()) {
+                    throw new IllegalArgumentException("featureIds must be an array of integers");
+                }
+            });
+        }
+        JsonNode parallelism = parameters.path("parallelism");
+        if (!parallelism.isMissingNode()
+                && (!parallelism.canConvertToInt() || parallelism.asInt() < 1 || parallelism.asInt() > MAX_PARALLELISM)) {
+            throw new IllegalArgumentException("parallelism must be an integer from 1 to " + MAX_PARALLELISM);
+        }
+    }
+
+    @Override
+    public Object run(JobContext context) throws InterruptedException {
+        long started = System.currentTimeMillis();
+        List<Integer> featureIds = requestedFeatures(context.getParameters());
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int from = 0; from < featureIds.size(); from += FEATURES_PER_CHUNK) {
+            chunks.add(featureIds.subList(from, Math.min(from + FEATURES_PER_CHUNK, featureIds.size())));
+        }
+        int parallelism = Math.min(context.getParameters().path("parallelism").asInt(DEFAULT_PARALLELISM),
+                Math.max(1, chunks.size()));
+
+        AtomicLong rowsChanged = new AtomicLong();
+        AtomicInteger chunksDone = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>(chunks.size());
+        for (List<Integer> chunk : chunks) {
+            tasks.add(() -> {
+                if (context.isCancelled()) {
+                    return null;
+                }
+                rowsChanged.addAndGet(update(chunk));
+                int done = chunksDone.incrementAndGet();
+                context.progress((double) done / chunks.size(),
+                        "Recomputed " + done + " of " + chunks.size() + " feature chunks");
+                return null;
+            });
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "out-of-spec-recompute-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (Future<Void> task : pool.invokeAll(tasks)) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Recomputing out-of-spec flags failed: " + e.getCause().getMessage(),
+                            e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        context.checkCancelled();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("features", featureIds.size());
+        result.put("chunks", chunks.size());
+        result.put("parallelism", parallelism);
+        result.put("rowsChanged", rowsChanged.get());
+        result.put("elapsedMs", System.currentTimeMillis() - started);
+        return result;
+    }
+
+    /** Features to recompute that exist in feature_meta, in ID order. */
+    private List<Integer> requestedFeatures(JsonNode parameters) {
+        List<Integer> all = shardRegistry.home().jdbcTemplate().queryForList("SELECT feature_id FROM feature_meta ORDER BY feature_id", Integer.class);
+        JsonNode featureIds = parameters.path("featureIds");
+        if (!featureIds.isArray() || featureIds.isEmpty()) {
+            return all;
+        }
+        Set<Integer> requested = new HashSet<>();
+        featureIds.forEach(id -> requested.add(id.asInt()));
+        return all.stream().filter(requested::contains).toList();
+    }
+
+    private int update(List<Integer> featureIds) {
+        String placeholders = String.join(",", Collections.nCopies(featureIds.size(), "?"));
+        List<Object> args = new ArrayList<>();
+        shardRegistry.home().jdbcTemplate().query(
+                "SELECT feature_id, normal_range_min, normal_range_max FROM feature_meta WHERE feature_id IN ("
+                        + placeholders + ")", rs -> {
+                    args.add(rs.getInt(1));
+                    args.add(rs.getObject(2, Double.class));
+                    args.add(rs.getObject(3, Double.class));
+                }, featureIds.toArray());
+        if (args.isEmpty()) {
+            return 0;
+        }
+        String limits = "SELECT ? AS feature_id, ? AS normal_range_min, ? AS normal_range_max"
+                + " UNION ALL SELECT ?, ?, ?".repeat(args.size() / 3 - 1);
+        args.addAll(featureIds);
+        String sql = """
+                UPDATE lot_measurement m
+                JOIN (%3$s) f ON f.feature_id = m.feature_id
+                SET m.is_out_of_spec = %1$s
+                WHERE m.feature_id IN (%2$s)
+                  AND NOT (m.is_out_of_spec <=> %1$s)
+                """.formatted(OUT_OF_SPEC, placeholders, limits);
+        int changed = 0;
+        for (ShardRegistry.Shard shard : shardRegistry.all()) {
+            changed += shard.jdbcTemplate().update(sql, args.toArray());
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,230 @@
+package com.secom.mes.service;
+
+import com.secom.mes.dto.QualityReviewItemDto;
+import com.secom.mes.dto.QualityReviewOutcomeDto;
+import com.secom.mes.dto.QualityReviewResultDto;
+import com.secom.mes.shard.ShardRegistry;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Disposition workflow of quality results. A transition is a conditional UPDATE on the current
+ * disposition (and version, when the caller sends the one it has seen), so concurrent reviewers
+ * cannot overwrite each other: the second one gets a conflict instead. Every transition records
+ * the reviewer and review time and bumps the version.
+ *
+ * Results are updated on the shard their ID belongs to. A batch review runs one transaction
+ * per shard involved, so it is atomic per shard, not across shards.
+ */
+@Service
+public class QualityReviewService {
+
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private static final Map<String, Set<String>> ALLOWED_TRANSITIONS = Map.of(
+            "pending", Set.of("reviewed"),
+            "reviewed", Set.of("released", "rework", "scrap"),
+            "rework", Set.of("reviewed"),
+            "released", Set.of(),
+            "scrap", Set.of()
+    );
+
+    private final ShardRegistry shardRegistry;
+    private final EntityChangeLog entityChangeLog;
+
+    public QualityReviewService(ShardRegistry shardRegistry, EntityChangeLog entityChangeLog) {
+        this.shardRegistry = shardRegistry;
+        this.entityChangeLog = entityChangeLog;
+    }
+
+    /** Dispositions a result may be in to move to {@code toDisposition}. */
+    static List<String> sourcesOf(String toDisposition) {
+        return ALLOWED_TRANSITIONS.entrySet().stream()
+                .filter(entry -> entry.getValue().contains(toDisposition))
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+    }
+
+    /**
+     * Moves one result to {@code toDisposition} with a single conditional UPDATE.
+     *
+     * @return outcome 'updated', 'conflict' (disposition or version did not match) or 'not_found'
+     * @throws IllegalArgumentException for a disposition no transition leads to or an unknown reviewer
+     */
+    public QualityReviewOutcomeDto transition(int resultId, String toDisposition, Integer reviewerId,
+                                              Integer expectedVersion, String notes) {
+        List<String> sources = validate(toDisposition, reviewerId);
+        ShardRegistry.Shard shard = shardRegistry.forLotId(resultId);
+        return shard.transactionTemplate().execute(status ->
+                transition(jdbc(shard), resultId, sources, toDisposition, reviewerId, expectedVersion, notes));
+    }
+
+    private QualityReviewOutcomeDto transition(NamedParameterJdbcTemplate jdbc, int resultId, List<String> sources,
+                                               String toDisposition, Integer reviewerId, Integer expectedVersion,
+                                               String notes) {
+        MapSqlParameterSource parameters = updateParameters(toDisposition, reviewerId, notes)
+                .addValue("resultId", resultId)
+                .addValue("sources", sources)
+                .addValue("expectedVersion", expectedVersion);
+        boolean updated = jdbc.update(updateStatement(notes)
+                + " WHERE result_id = :resultId AND disposition IN (:sources)"
+                + (expectedVersion != null ? " AND version = :expectedVersion" : ""), parameters) == 1;
+        if (updated) {
+            recordChanges(List.of(resultId));
+        }
+
+        Object[] current = findStates(jdbc, List.of(resultId)).get(resultId);
+        if (current == null) {
+            return new QualityReviewOutcomeDto(resultId, "not_found", null, null, null);
+        }
+        String disposition = (String) current[1];
+        int version = ((Number) current[2]).intValue();
+        if (updated) {
+            return new QualityReviewOutcomeDto(resultId, "updated", disposition, version, null);
+        }
+        return new QualityReviewOutcomeDto(resultId, "conflict", disposition, version,
+                conflictMessage(disposition, version, toDisposition, expectedVersion));
+    }
+
+    /**
+     * Moves all listed results that are in a source disposition of {@code toDisposition} (and at
+     * the expected version, where one is given) with one UPDATE; the others are reported
+     * individually. Listed rows are locked first so the report matches what the UPDATE changed.
+     */
+    public QualityReviewResultDto review(String toDisposition, Integer reviewerId, String notes,
+                                         List<QualityReviewItemDto> items) {
+        List<String> sources = validate(toDisposition, reviewerId);
+        QualityReviewOutcomeDto[] outcomes = new QualityReviewOutcomeDto[items.size()];
+        Set<Integer> listed = new HashSet<>();
+        for (int i = 0; i < items.size(); i++) {
+            Integer resultId = items.get(i).getResultId();
+            if (resultId == null) {
+                outcomes[i] = new QualityReviewOutcomeDto(null, "rejected", null, null, "resultId is required");
+            } else if (!listed.add(resultId)) {
+                outcomes[i] = new QualityReviewOutcomeDto(resultId, "rejected", null, null,
+                        "Duplicate result within batch");
+            }
+        }
+
+        int succeeded = 0;
+        for (Map.Entry<ShardRegistry.Shard, List<Integer>> entry : shardRegistry.byLotId(listed).entrySet()) {
+            ShardRegistry.Shard shard = entry.getKey();
+            Set<Integer> onShard = new HashSet<>(entry.getValue());
+            succeeded += shard.transactionTemplate().execute(status -> review(jdbc(shard), onShard, sources,
+                    toDisposition, reviewerId, notes, items, outcomes));
+        }
+
+        List<QualityReviewOutcomeDto> all = Arrays.asList(outcomes);
+        return new QualityReviewResultDto(all.size(), succeeded, all.size() - succeeded, all);
+    }
+
+    /** Reviews the items whose result is in {@code resultIds}, all on one shard; returns how many were updated. */
+    private int review(NamedParameterJdbcTemplate jdbc, Set<Integer> resultIds, List<String> sources,
+                       String toDisposition, Integer reviewerId, String notes,
+                       List<QualityReviewItemDto> items, QualityReviewOutcomeDto[] outcomes) {
+        Map<Integer, Object[]> states = findStatesForUpdate(jdbc, resultIds);
+        List<Integer> eligible = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            QualityReviewItemDto item = items.get(i);
+            if (outcomes[i] != null || !resultIds.contains(item.getResultId())) {
+                continue;
+            }
+            Object[] state = states.get(item.getResultId());
+            if (state == null) {
+                outcomes[i] = new QualityReviewOutcomeDto(item.getResultId(), "not_found", null, null, null);
+                continue;
+            }
+            String disposition = (String) state[1];
+            int version = ((Number) state[2]).intValue();
+            boolean versionMatches = item.getExpectedVersion() == null || item.getExpectedVersion() == version;
+            if (!sources.contains(disposition) || !versionMatches) {
+                outcomes[i] = new QualityReviewOutcomeDto(item.getResultId(), "conflict", disposition, version,
+                        conflictMessage(disposition, version, toDisposition, item.getExpectedVersion()));
+            } else {
+                outcomes[i] = new QualityReviewOutcomeDto(item.getResultId(), "updated", toDisposition, version + 1, null);
+                eligible.add(item.getResultId());
+            }
+        }
+
+        if (!eligible.isEmpty()) {
+            jdbc.update(updateStatement(notes) + " WHERE result_id IN (:resultIds)",
+                    updateParameters(toDisposition, reviewerId, notes).addValue("resultIds", eligible));
+            recordChanges(eligible);
+        }
+        return eligible.size();
+    }
+
+    private List<String> validate(String toDisposition, Integer reviewerId) {
+        List<String> sources = sourcesOf(toDisposition);
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("No transition leads to disposition " + toDisposition
+                    + "; expected one of reviewed, released, rework, scrap");
+        }
+        if (reviewerId == null) {
+            throw new IllegalArgumentException("reviewerId is required");
+        }
+        // Reference data is replicated from home, so home knows every reviewer
+        Integer reviewers = shardRegistry.home().jdbcTemplate().queryForObject(
+                "SELECT COUNT(*) FROM operator WHERE operator_id = ?", Integer.class, reviewerId);
+        if (reviewers == null || reviewers == 0) {
+            throw new IllegalArgumentException("Unknown reviewer " + reviewerId);
+        }
+        return sources;
+    }
+
+    private static String updateStatement(String notes) {
+        return "UPDATE quality_result SET disposition = :toDisposition, reviewed_by = :reviewerId, "
+                + "reviewed_at = :now, updated_at = :now, version = version + 1"
+                + (notes != null ? ", notes = :notes" : "");
+    }
+
+    private static MapSqlParameterSource updateParameters(String toDisposition, Integer reviewerId, String notes) {
+        return new MapSqlParameterSource()
+                .addValue("toDisposition", toDisposition)
+                .addValue("reviewerId", reviewerId)
+                .addValue("now", LocalDateTime.now())
+                .addValue("notes", notes);
+    }
+
+    /** The change log lives on home; on home this joins the running transaction. */
+    private void recordChanges(List<Integer> resultIds) {
+        shardRegistry.home().transactionTemplate().executeWithoutResult(status ->
+                entityChangeLog.recordAll(EntityChangeLog.QUALITY_RESULT, resultIds));
+    }
+
+    private static NamedParameterJdbcTemplate jdbc(ShardRegistry.Shard shard) {
+        return new NamedParameterJdbcTemplate(shard.jdbcTemplate());
+    }
+
+    private static String conflictMessage(String disposition, int version, String toDisposition, Integer expectedVersion) {
+        if (expectedVersion != null && expectedVersion != version) {
+            return "Version is " + version + ", expected " + expectedVersion;
+        }
+        return "Current disposition is " + disposition + ", cannot move to " + toDisposition;
+    }
+
+    private static Map<Integer, Object[]> findStates(NamedParameterJdbcTemplate jdbc, Collection<Integer> resultIds) {
+        return states(jdbc, "SELECT result_id, disposition, version FROM quality_result WHERE result_id IN (:resultIds)",
+                resultIds);
+    }
+
+    private static Map<Integer, Object[]> findStatesForUpdate(NamedParameterJdbcTemplate jdbc,
+                                                              Collection<Integer> resultIds) {
+        return states(jdbc, "SELECT result_id, disposition, version FROM quality_result WHERE result_id IN (:resultIds) "
+                + "ORDER BY result_id FOR UPDATE", resultIds);
+    }
+
+    private static Map<Integer, Object[]> states(NamedParameterJdbcTemplate jdbc, String sql,
+                                                 Collection<Integer> resultIds) {
+        Map<Integer, Object[]> states = new HashMap<>();
+        jdbc.query(sql, new MapSqlParameterSource("resultIds", resultIds), rs -> {
+            states.put(rs.getInt(1), new Object[]{rs.getInt(1), rs.getString(2), rs.getInt(3)});
+        });
+        return states;
+    }
+}
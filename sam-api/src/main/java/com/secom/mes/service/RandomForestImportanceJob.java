@@ -0,0 +1,281 @@
+package com.secom.mes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.secom.mes.analytics.FeatureBins;
+import com.secom.mes.analytics.FeatureMatrix;
+import com.secom.mes.analytics.RandomForest;
+import com.secom.mes.entity.FeatureImportance;
+import com.secom.mes.repository.FeatureImportanceRepository;
+import com.secom.mes.repository.FeatureMetaRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Job type "random-forest-importance": trains one {@link RandomForest} per defect type on the
+ * in-memory feature matrix and stores its impurity and permutation importances in
+ * feature_importance, as methods {@value #IMPURITY_METHOD} and {@value #PERMUTATION_METHOD}.
+ *
+ * Targets are defined as in {@link FeatureImportanceJob}: "overall" is fail vs pass, a defect
+ * type is "failed with that defect" vs every other tested lot. Each method's scores are scaled
+ * so the most important feature of a target scores 1; the unscaled value, the model settings
+ * and the forest's out-of-bag error are kept in metadata.
+ *
+ * Parameters (all optional):
+ * <ul>
+ *   <li>{@code defectTypes}: targets to recompute; default "overall" plus every defect type seen</li>
+ *   <li>{@code trees}: trees per forest, default 100</li>
+ *   <li>{@code maxDepth}: default 12</li>
+ *   <li>{@code minLeafSize}: fewest training lots in a leaf, default 5</li>
+ *   <li>{@code featuresPerSplit}: features tried per split, default the square root of the feature count</li>
+ *   <li>{@code bins}: histogram bins per feature, default 64</li>
+ *   <li>{@code minSamples}: minimum failing lots for a target and measured lots for a feature, default 10</li>
+ *   <li>{@code seed}: random seed, default 42</li>
+ *   <li>{@code parallelism}: fork/join threads, default the number of processors</li>
+ * </ul>
+ * This job's rows for the recomputed targets are replaced in one transaction; rows written by
+ * other methods are kept.
+ */
+@Service
+public class RandomForestImportanceJob implements JobHandler {
+
+    public static final String TYPE = "random-forest-importance";
+    public static final String IMPURITY_METHOD = "random_forest_impurity";
+    public static final String PERMUTATION_METHOD = "random_forest_permutation";
+
+    private static final String OVERALL = "overall";
+
+    private final MeasurementMatrixService matrixService;
+    private final FeatureImportanceRepository featureImportanceRepository;
+    private final FeatureMetaRepository featureMetaRepository;
+    private final EntityChangeLog entityChangeLog;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    public RandomForestImportanceJob(MeasurementMatrixService matrixService,
+                                     FeatureImportanceRepository featureImportanceRepository,
+                                     FeatureMetaRepository featureMetaRepository,
+                                     EntityChangeLog entityChangeLog,
+                                     TransactionTemplate transactionTemplate,
+                                     ObjectMapper objectMapper) {
+        this.matrixService = matrixService;
+        this.featureImportanceRepository = featureImportanceRepository;
+        this.featureMetaRepository = featureMetaRepository;
+        this.entityChangeLog = entityChangeLog;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public int getDefaultPriority() {
+        return 2;
+    }
+
+    @Override
+    public void validate(JsonNode parameters) {
+        JsonNode defectTypes = parameters.path("defectTypes");
+        if (!defectTypes.isMissingNode() && !defectTypes.isArray()) {
+            throw new IllegalArgumentException("defectTypes must be an array of strings");
+        }
+        requireInt(parameters, "trees", 1, 5_000);
+        requireInt(parameters, "maxDepth", 1, 64);
+        requireInt(parameters, "minLeafSize", 1, 100_000);
+        requireInt(parameters, "featuresPerSplit", 1, 100_000);
+        requireInt(parameters, "bins", 2, FeatureBins.MAX_BINS);
+        requireInt(parameters, "minSamples", 2, Integer.MAX_VALUE);
+        requireInt(parameters, "parallelism", 1, 256);
+        JsonNode seed = parameters.path("seed");
+        if (!seed.isMissingNode() && !seed.canConvertToLong()) {
+            throw new IllegalArgumentException("seed must be an integer");
+        }
+    }
+
+    private static void requireInt(JsonNode parameters, String name, int min, int max) {
+        JsonNode value = parameters.path(name);
+        if (!value.isMissingNode() && (!value.canConvertToInt() || value.asInt() < min || value.asInt() > max)) {
+            throw new IllegalArgumentException(name + " must be an integer between " + min + " and " + max);
+        }
+    }
+
+    @Override
+    public Object run(JobContext context) {
+        JsonNode parameters = context.getParameters();
+        RandomForest.Options options = new RandomForest.Options(
+                parameters.path("trees").asInt(100),
+                parameters.path("maxDepth").asInt(12),
+                parameters.path("minLeafSize").asInt(5),
+                parameters.path("featuresPerSplit").asInt(0),
+                parameters.path("seed").asLong(42));
+        int binCount = parameters.path("bins").asInt(64);
+        int minSamples = parameters.path("minSamples").asInt(10);
+        int parallelism = parameters.path("parallelism").asInt(Runtime.getRuntime().availableProcessors());
+        long started = System.currentTimeMillis();
+
+        context.progress(0, "Loading feature matrix");
+        FeatureMatrix matrix = matrixService.getMatrix();
+        int lots = matrix.lotCount();
+
+        List<Integer> testedRows = new ArrayList<>();
+        Map<String, Integer> failuresByTarget = new TreeMap<>();
+        for (int row = 0; row < lots; row++) {
+            int classification = matrix.classification(row);
+            if (classification == 0) {
+                continue;
+            }
+            testedRows.add(row);
+            if (classification == 1) {
+                failuresByTarget.merge(OVERALL, 1, Integer::sum);
+                if (matrix.defectType(row) != null) {
+                    failuresByTarget.merge(matrix.defectType(row), 1, Integer::sum);
+                }
+            }
+        }
+        int[] rows = testedRows.stream().mapToInt(Integer::intValue).toArray();
+        Set<String> requested = requestedTargets(parameters, failuresByTarget.keySet());
+        List<String> trainable = requested.stream()
+                .filter(target -> failuresByTarget.getOrDefault(target, 0) >= minSamples
+                        && failuresByTarget.get(target) < rows.length)
+                .toList();
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<FeatureImportance> computed = new ArrayList<>();
+        Map<String, Object> forests = new TreeMap<>();
+        try {
+            context.progress(0.02, "Binning " + matrix.featureCount() + " features over " + rows.length + " lots");
+            FeatureBins bins = FeatureBins.build(matrix, rows, binCount, pool);
+            LocalDateTime calculatedAt = LocalDateTime.now();
+            AtomicInteger treesDone = new AtomicInteger();
+            int treesTotal = Math.max(1, trainable.size() * options.trees());
+
+            for (String target : trainable) {
+                context.checkCancelled();
+                boolean[] positive = new boolean[lots];
+                for (int row : rows) {
+                    positive[row] = matrix.classification(row) == 1
+                            && (OVERALL.equals(target) || target.equals(matrix.defectType(row)));
+                }
+                RandomForest forest = RandomForest.train(bins, rows, positive, options, pool, () -> {
+                    int done = treesDone.incrementAndGet();
+                    context.checkCancelled();
+                    context.progress(0.05 + 0.85 * done / treesTotal,
+                            "Growing tree " + done + " of " + treesTotal + " (" + target + ")");
+                });
+                int failures = failuresByTarget.get(target);
+                computed.addAll(toRows(forest, bins, target, failures, minSamples, options, binCount,
+                        context.getJobId(), calculatedAt));
+                Map<String, Object> summary = new LinkedHashMap<>();
+                summary.put("failingLots", failures);
+                summary.put("oobBalancedError", round(forest.oobError()));
+                forests.put(target, summary);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        context.checkCancelled();
+        context.progress(0.9, "Writing " + computed.size() + " rows");
+        transactionTemplate.executeWithoutResult(status -> {
+            featureImportanceRepository.deleteByDefectTypeInAndCalculationMethodIn(
+                    requested, List.of(IMPURITY_METHOD, PERMUTATION_METHOD));
+            featureImportanceRepository.saveAll(computed);
+            entityChangeLog.record(EntityChangeLog.FEATURE_IMPORTANCE, null);
+        });
+
+        List<String> skipped = requested.stream().filter(target -> !trainable.contains(target)).toList();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("calculationMethods", List.of(IMPURITY_METHOD, PERMUTATION_METHOD));
+        result.put("lots", rows.length);
+        result.put("features", matrix.featureCount());
+        result.put("trees", options.trees());
+        result.put("rowsWritten", computed.size());
+        result.put("forests", forests);
+        result.put("skippedDefectTypes", skipped);
+        result.put("elapsedMs", System.currentTimeMillis() - started);
+        return result;
+    }
+
+    private List<FeatureImportance> toRows(RandomForest forest, FeatureBins bins, String target, int failures,
+                                           int minSamples, RandomForest.Options options, int binCount,
+                                           long jobId, LocalDateTime calculatedAt) {
+        int features = bins.featureCount();
+        double maxImpurity = 0;
+        double maxPermutation = 0;
+        for (int f = 0; f < features; f++) {
+            maxImpurity = Math.max(maxImpurity, forest.impurityImportance(f));
+            maxPermutation = Math.max(maxPermutation, forest.permutationImportance(f));
+        }
+        List<FeatureImportance> rows = new ArrayList<>();
+        for (int f = 0; f < features; f++) {
+            if (bins.measuredCount(f) < minSamples) {
+                continue;
+            }
+            double impurity = forest.impurityImportance(f);
+            double permutation = forest.permutationImportance(f);
+            rows.add(row(bins, f, target, IMPURITY_METHOD, maxImpurity > 0 ? impurity / maxImpurity : 0,
+                    metadata(jobId, options, binCount, failures, forest, "impurityShare", impurity), calculatedAt));
+            rows.add(row(bins, f, target, PERMUTATION_METHOD,
+                    maxPermutation > 0 ? Math.max(0, permutation) / maxPermutation : 0,
+                    metadata(jobId, options, binCount, failures, forest, "oobErrorIncrease", permutation), calculatedAt));
+        }
+        return rows;
+    }
+
+    private FeatureImportance row(FeatureBins bins, int feature, String target, String method, double score,
+                                  String metadata, LocalDateTime calculatedAt) {
+        FeatureImportance importance = new FeatureImportance();
+        importance.setFeature(featureMetaRepository.getReferenceById(bins.featureId(feature)));
+        importance.setDefectType(target);
+        importance.setImportanceScore(BigDecimal.valueOf(score).setScale(4, RoundingMode.HALF_UP));
+        importance.setSampleCount(bins.measuredCount(feature));
+        importance.setCalculatedAt(calculatedAt);
+        importance.setCalculationMethod(method);
+        importance.setMetadata(metadata);
+        return importance;
+    }
+
+    private String metadata(long jobId, RandomForest.Options options, int binCount, int failures,
+                            RandomForest forest, String rawName, double rawValue) {
+        ObjectNode metadata = objectMapper.createObjectNode()
+                .put("jobId", jobId)
+                .put("trees", options.trees())
+                .put("maxDepth", options.maxDepth())
+                .put("minLeafSize", options.minLeafSize())
+                .put("bins", binCount)
+                .put("seed", options.seed())
+                .put("positiveCount", failures)
+                .put("oobBalancedError", round(forest.oobError()))
+                .put(rawName, rawValue);
+        if (options.featuresPerSplit() > 0) {
+            metadata.put("featuresPerSplit", options.featuresPerSplit());
+        }
+        return metadata.toString();
+    }
+
+    /** Four decimals; null when undefined, which JSON cannot hold as a number. */
+    private static Double round(double value) {
+        return Double.isNaN(value) ? null : Math.round(value * 10_000) / 10_000.0;
+    }
+
+    private static Set<String> requestedTargets(JsonNode parameters, Set<String> available) {
+        JsonNode defectTypes = parameters.path("defectTypes");
+        if (!defectTypes.isArray() || defectTypes.isEmpty()) {
+            return new TreeSet<>(available);
+        }
+        Set<String> requested = new TreeSet<>();
+        defectTypes.forEach(node -> requested.add(node.asText().trim().toLowerCase(Locale.ROOT)));
+        return requested;
+    }
+}
@@ -0,0 +1,287 @@
+package com.secom.mes.service;
+
+import com.secom.mes.dto.EquipmentHealthDto;
+import com.secom.mes.dto.HighRiskLotDto;
+import com.secom.mes.dto.ProductionSummaryDto;
+import com.secom.mes.dto.QualityAnalyticsDto;
+import com.secom.mes.dto.ShiftPerformanceDto;
+import com.secom.mes.shard.ShardRegistry;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * The analytics views computed over all shards. Each shard returns partial aggregates that
+ * merge exactly: counts and sums, never rates or averages, plus the distinct values behind
+ * COUNT(DISTINCT ...). Rates and averages are derived after merging, rounded the way the views
+ * round them. Reference columns come from home.
+ */
+@Service
+public class ShardedAnalyticsService {
+
+    private final ShardRegistry shardRegistry;
+
+    /** Counts and sums of one group; merged by adding. */
+    private static final class Partial {
+        long lots;
+        long passed;
+        long failed;
+        BigDecimal scoreSum = BigDecimal.ZERO;
+        long scored;
+        final Set<Object> operators = new HashSet<>();
+        final Set<Object> equipment = new HashSet<>();
+        final Set<Object> days = new HashSet<>();
+        final Set<String> families = new TreeSet<>();
+        final Set<String> equipmentTypes = new TreeSet<>();
+        LocalDateTime first;
+        LocalDateTime last;
+
+        void add(Map<String, Object> row) {
+            lots += number(row.get("lots"));
+            passed += number(row.get("passed"));
+            failed += number(row.get("failed"));
+            scored += number(row.get("scored"));
+            if (row.get("score_sum") != null) {
+                scoreSum = scoreSum.add(new BigDecimal(row.get("score_sum").toString()));
+            }
+        }
+
+        /** Null without lots, like the views' division by NULLIF(COUNT(l.lot_id), 0). */
+        BigDecimal failRatePct() {
+            return lots == 0 ? null : percent(failed, lots);
+        }
+
+        BigDecimal avgScore() {
+            // AVG over DECIMAL(5,2) carries 4 extra digits before ROUND(..., 2); AVG of no scores is NULL
+            return scored == 0 ? null
+                    : scoreSum.divide(BigDecimal.valueOf(scored), 6, RoundingMode.HALF_UP).setScale(2, RoundingMode.HALF_UP);
+        }
+    }
+
+    public ShardedAnalyticsService(ShardRegistry shardRegistry) {
+        this.shardRegistry = shardRegistry;
+    }
+
+    /** production_summary over all shards. */
+    public ProductionSummaryDto getProductionSummary() {
+        Partial total = new Partial();
+        for (Partial shard : shardRegistry.fanOut(jdbc -> {
+            Partial partial = new Partial();
+            partial.add(jdbc.queryForMap("""
+                    SELECT COUNT(*) AS lots,
+                           SUM(CASE WHEN qr.classification = -1 THEN 1 ELSE 0 END) AS passed,
+                           SUM(CASE WHEN qr.classification = 1 THEN 1 ELSE 0 END) AS failed,
+                           SUM(qr.quality_score) AS score_sum, COUNT(qr.quality_score) AS scored
+                    FROM lot l LEFT JOIN quality_result qr ON l.lot_id = qr.lot_id
+                    """));
+            partial.first = jdbc.queryForObject("SELECT MIN(production_start) FROM lot", LocalDateTime.class);
+            partial.last = jdbc.queryForObject("SELECT MAX(production_end) FROM lot", LocalDateTime.class);
+            partial.equipment.addAll(jdbc.queryForList("SELECT DISTINCT equipment_id FROM lot", Integer.class));
+            partial.operators.addAll(jdbc.queryForList("SELECT DISTINCT operator_id FROM lot", Integer.class));
+            return partial;
+        })) {
+            total.lots += shard.lots;
+            total.passed += shard.passed;
+            total.failed += shard.failed;
+            total.scoreSum = total.scoreSum.add(shard.scoreSum);
+            total.scored += shard.scored;
+            total.equipment.addAll(shard.equipment);
+            total.operators.addAll(shard.operators);
+            total.first = min(total.first, shard.first);
+            total.last = max(total.last, shard.last);
+        }
+        return new ProductionSummaryDto(total.lots, (long) total.equipment.size(), (long) total.operators.size(),
+                total.passed, total.failed, total.failRatePct(), total.avgScore(), total.first, total.last);
+    }
+
+    /** equipment_health_stats over all shards, in equipment ID order. */
+    public List<EquipmentHealthDto> getEquipmentHealth() {
+        Map<Integer, Partial> merged = mergeGroups("equipment_id", "l.equipment_id", "days");
+        List<EquipmentHealthDto> result = new ArrayList<>();
+        shardRegistry.home().jdbcTemplate().query("""
+                SELECT equipment_id, equipment_code, equipment_name, equipment_type, status
+                FROM equipment ORDER BY equipment_id
+                """, rs -> {
+            Partial partial = merged.getOrDefault(rs.getInt(1), new Partial());
+            BigDecimal lotsBetweenFailures = partial.failed == 0 ? null
+                    : BigDecimal.valueOf(partial.lots).divide(BigDecimal.valueOf(partial.failed), 4, RoundingMode.HALF_UP)
+                    .setScale(2, RoundingMode.HALF_UP);
+            BigDecimal healthScore = partial.lots == 0 ? null
+                    : BigDecimal.valueOf(100).subtract(rawPercent(partial.failed, partial.lots)
+                    .multiply(new BigDecimal("1.5"))).setScale(2, RoundingMode.HALF_UP);
+            result.add(new EquipmentHealthDto(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                    rs.getString(5), partial.lots, partial.failed, partial.failRatePct(),
+                    partial.avgScore(), (long) partial.days.size(), lotsBetweenFailures, healthScore));
+        });
+        return result;
+    }
+
+    /** shift_performance_comparison over all shards, in shift ID order. */
+    public List<ShiftPerformanceDto> getShiftPerformance() {
+        Map<Integer, Partial> merged = mergeGroups("shift_id", "l.shift_id", "people");
+        List<ShiftPerformanceDto> result = new ArrayList<>();
+        shardRegistry.home().jdbcTemplate().query("SELECT shift_id, shift_code, shift_name FROM shift ORDER BY shift_id",
+                rs -> {
+                    Partial partial = merged.getOrDefault(rs.getInt(1), new Partial());
+                    result.add(new ShiftPerformanceDto(rs.getInt(1), rs.getString(2), rs.getString(3), partial.lots,
+                            partial.passed, partial.failed, partial.failRatePct(), partial.avgScore(),
+                            (long) partial.operators.size(), (long) partial.equipment.size()));
+                });
+        return result;
+    }
+
+    /** quality_analytics_summary over all shards, most frequent defect first. */
+    public List<QualityAnalyticsDto> getQualitySummary() {
+        Map<String, Partial> merged = new HashMap<>();
+        long failures = 0;
+        for (Map.Entry<Long, List<Map<String, Object>>> shard : shardRegistry.fanOut(jdbc -> Map.entry(
+                jdbc.queryForObject("SELECT COUNT(*) FROM quality_result WHERE classification = 1", Long.class),
+                jdbc.queryForList("""
+                        SELECT qr.defect_type, COUNT(*) AS lots, SUM(qr.quality_score) AS score_sum,
+                               COUNT(qr.quality_score) AS scored,
+                               GROUP_CONCAT(DISTINCT pt.product_family SEPARATOR '\\t') AS families,
+                               GROUP_CONCAT(DISTINCT e.equipment_type SEPARATOR '\\t') AS equipment_types
+                        FROM quality_result qr
+                        INNER JOIN lot l ON qr.lot_id = l.lot_id
+                        LEFT JOIN product_type pt ON l.product_type_id = pt.product_type_id
+                        LEFT JOIN equipment e ON l.equipment_id = e.equipment_id
+                        WHERE qr.classification = 1 AND qr.defect_type IS NOT NULL
+                        GROUP BY qr.defect_type
+                        """)))) {
+            failures += shard.getKey();
+            for (Map<String, Object> row : shard.getValue()) {
+                Partial partial = merged.computeIfAbsent((String) row.get("defect_type"), type -> new Partial());
+                partial.add(row);
+                split(row.get("families"), partial.families);
+                split(row.get("equipment_types"), partial.equipmentTypes);
+            }
+        }
+        long totalFailures = failures;
+        return merged.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Partial> entry) -> entry.getValue().lots).reversed())
+                .map(entry -> new QualityAnalyticsDto(entry.getKey(), entry.getValue().lots,
+                        totalFailures == 0 ? BigDecimal.ZERO : percent(entry.getValue().lots, totalFailures),
+                        entry.getValue().avgScore(),
+                        String.join(", ", entry.getValue().families),
+                        String.join(", ", entry.getValue().equipmentTypes)))
+                .toList();
+    }
+
+    /** The {@code limit} riskiest lots over all shards: each shard's top {@code limit}, merged. */
+    public List<HighRiskLotDto> getHighRiskLots(BigDecimal threshold, int limit) {
+        List<HighRiskLotDto> merged = new ArrayList<>();
+        shardRegistry.fanOut(jdbc -> jdbc.query("""
+                SELECT l.lot_number, pt.product_name, e.equipment_code, qr.predicted_risk, qr.risk_score,
+                       qr.test_datetime, qr.classification
+                FROM quality_result qr
+                JOIN lot l ON qr.lot_id = l.lot_id
+                JOIN product_type pt ON l.product_type_id = pt.product_type_id
+                JOIN equipment e ON l.equipment_id = e.equipment_id
+                WHERE qr.predicted_risk >= ?
+                ORDER BY qr.predicted_risk DESC
+                LIMIT ?
+                """, (rs, i) -> {
+            Timestamp tested = rs.getTimestamp(6);
+            return new HighRiskLotDto(rs.getString(1), rs.getString(2), rs.getString(3), rs.getBigDecimal(4),
+                    rs.getBigDecimal(5), tested != null ? tested.toLocalDateTime() : null, rs.getInt(7));
+        }, threshold, limit)).forEach(merged::addAll);
+        merged.sort(Comparator.comparing(HighRiskLotDto::getPredictedRisk).reversed());
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    /** Rows of [defect_type, count, percentage] like the single-database query. */
+    public List<Object> getDefectDistribution() {
+        List<QualityAnalyticsDto> summary = getQualitySummary();
+        List<Object> rows = new ArrayList<>(summary.size());
+        for (QualityAnalyticsDto defect : summary) {
+            rows.add(new Object[]{defect.getDefectType(), defect.getOccurrenceCount(), defect.getPctOfFailures()});
+        }
+        return rows;
+    }
+
+    /** Rows of [risk_bucket, lot_count, actual_failures] like the single-database query. */
+    public List<Object> getRiskDistribution() {
+        TreeMap<BigDecimal, long[]> buckets = new TreeMap<>();
+        shardRegistry.fanOut(jdbc -> jdbc.queryForList("""
+                SELECT FLOOR(predicted_risk * 10) / 10 AS risk_bucket, COUNT(*) AS lots,
+                       SUM(CASE WHEN classification = 1 THEN 1 ELSE 0 END) AS failed
+                FROM quality_result
+                WHERE predicted_risk IS NOT NULL
+                GROUP BY risk_bucket
+                """)).forEach(rows -> rows.forEach(row -> {
+            long[] counts = buckets.computeIfAbsent((BigDecimal) row.get("risk_bucket"), bucket -> new long[2]);
+            counts[0] += number(row.get("lots"));
+            counts[1] += number(row.get("failed"));
+        }));
+        List<Object> rows = new ArrayList<>(buckets.size());
+        buckets.forEach((bucket, counts) -> rows.add(new Object[]{bucket, counts[0], BigDecimal.valueOf(counts[1])}));
+        return rows;
+    }
+
+    /**
+     * Per-group lot counts over all shards, grouped by {@code groupColumn} of lot; {@code
+     * distinct} is "days" for the production days of each group, or "people" for its operators
+     * and equipment.
+     */
+    private Map<Integer, Partial> mergeGroups(String key, String groupColumn, String distinct) {
+        Map<Integer, Partial> merged = new HashMap<>();
+        String distinctSql = "days".equals(distinct)
+                ? "SELECT DISTINCT " + key + ", DATE(production_start), NULL FROM lot"
+                : "SELECT DISTINCT " + key + ", operator_id, equipment_id FROM lot";
+        for (Map.Entry<List<Map<String, Object>>, List<Object[]>> shard : shardRegistry.fanOut(jdbc -> Map.entry(
+                jdbc.queryForList("""
+                        SELECT %s AS group_key, COUNT(l.lot_id) AS lots,
+                               SUM(CASE WHEN qr.classification = -1 THEN 1 ELSE 0 END) AS passed,
+                               SUM(CASE WHEN qr.classification = 1 THEN 1 ELSE 0 END) AS failed,
+                               SUM(qr.quality_score) AS score_sum, COUNT(qr.quality_score) AS scored
+                        FROM lot l LEFT JOIN quality_result qr ON l.lot_id = qr.lot_id
+                        GROUP BY %s
+                        """.formatted(groupColumn, groupColumn)),
+                jdbc.query(distinctSql, (rs, i) -> new Object[]{rs.getInt(1), rs.getObject(2), rs.getObject(3)})))) {
+            for (Map<String, Object> row : shard.getKey()) {
+                merged.computeIfAbsent(((Number) row.get("group_key")).intValue(), group -> new Partial()).add(row);
+            }
+            for (Object[] row : shard.getValue()) {
+                Partial partial = merged.computeIfAbsent((Integer) row[0], group -> new Partial());
+                if ("days".equals(distinct)) {
+                    partial.days.add(row[1]);
+                } else {
+                    partial.operators.add(row[1]);
+                    partial.equipment.add(row[2]);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /** {@code part * 100.0 / whole} with the 5 decimals MariaDB keeps, then ROUND(..., 2). */
+    private static BigDecimal percent(long part, long whole) {
+        return rawPercent(part, whole).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    private static BigDecimal rawPercent(long part, long whole) {
+        return new BigDecimal(part * 100).setScale(1).divide(BigDecimal.valueOf(whole), 5, RoundingMode.HALF_UP);
+    }
+
+    private static long number(Object value) {
+        return value != null ? ((Number) value).longValue() : 0;
+    }
+
+    private static void split(Object concatenated, Set<String> into) {
+        if (concatenated != null) {
+            into.addAll(Arrays.asList(concatenated.toString().split("\t")));
+        }
+    }
+
+    private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+        return a == null ? b : b == null || a.isBefore(b) ? a : b;
+    }
+
+    private static LocalDateTime max(LocalDateTime a, LocalDateTime b) {
+        return a == null ? b : b == null || a.isAfter(b) ? a : b;
+    }
+}
@@ -0,0 +1,318 @@
+package com.secom.mes.service;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * List endpoints with {@code ?fields=}: only the requested columns are selected, and a
+ * reference table is joined only when one of its columns other than the ID is requested (the ID
+ * is read from the foreign key). Field names are the JSON property paths of the full entity, e.g.
+ * {@code lotNumber} or {@code productType.productCode}; naming an association, e.g.
+ * {@code productType}, selects all of its columns. Rows come back as maps nested like the entity
+ * JSON, in the order the fields were requested, ordered by ID.
+ */
+@Service
+public class SparseFieldsetService {
+
+    /** A selectable field: its JSON path, the SQL expression and Java type it reads, and the join it needs (or null). */
+    private record Column(String path, String sql, Class<?> type, String join) {
+    }
+
+    /** A list endpoint's table and the fields it can select; joins are LEFT JOINs keyed by alias. */
+    private record Resource(String name, String from, String idColumn,
+                            Map<String, String> joins, Map<String, Column> columns) {
+    }
+
+    /** Selectable columns of each table: property, column, type. */
+    private static final Object[][] PRODUCT_TYPE = {
+            {"productTypeId", "product_type_id", Integer.class},
+            {"productCode", "product_code", String.class},
+            {"productName", "product_name", String.class},
+            {"productFamily", "product_family", String.class},
+            {"targetYield", "target_yield", BigDecimal.class},
+            {"specificationVersion", "specification_version", String.class},
+            {"createdAt", "created_at", LocalDateTime.class}};
+    private static final Object[][] EQUIPMENT = {
+            {"equipmentId", "equipment_id", Integer.class},
+            {"equipmentCode", "equipment_code", String.class},
+            {"equipmentName", "equipment_name", String.class},
+            {"equipmentType", "equipment_type", String.class},
+            {"location", "location", String.class},
+            {"manufacturer", "manufacturer", String.class},
+            {"installDate", "install_date", LocalDate.class},
+            {"status", "status", String.class},
+            {"createdAt", "created_at", LocalDateTime.class},
+            {"updatedAt", "updated_at", LocalDateTime.class}};
+    private static final Object[][] OPERATOR = {
+            {"operatorId", "operator_id", Integer.class},
+            {"operatorCode", "operator_code", String.class},
+            {"operatorName", "operator_name", String.class},
+            {"employeeNumber", "employee_number", String.class},
+            {"department", "department", String.class},
+            {"hireDate", "hire_date", LocalDate.class},
+            {"email", "email", String.class},
+            {"status", "status", String.class},
+            {"createdAt", "created_at", LocalDateTime.class},
+            {"updatedAt", "updated_at", LocalDateTime.class}};
+    private static final Object[][] SHIFT = {
+            {"shiftId", "shift_id", Integer.class},
+            {"shiftCode", "shift_code", String.class},
+            {"shiftName", "shift_name", String.class},
+            {"startTime", "start_time", LocalTime.class},
+            {"endTime", "end_time", LocalTime.class},
+            {"description", "description", String.class},
+            {"createdAt", "created_at", LocalDateTime.class}};
+    private static final Object[][] LOT = {
+            {"lotId", "lot_id", Integer.class},
+            {"lotNumber", "lot_number", String.class},
+            {"productionStart", "production_start", LocalDateTime.class},
+            {"productionEnd", "production_end", LocalDateTime.class},
+            {"waferCount", "wafer_count", Integer.class},
+            {"status", "status", String.class},
+            {"createdAt", "created_at", LocalDateTime.class},
+            {"updatedAt", "updated_at", LocalDateTime.class}};
+    private static final Object[][] QUALITY_RESULT = {
+            {"resultId", "result_id", Integer.class},
+            {"classification", "classification", Integer.class},
+            {"testTimestampRaw", "test_timestamp_raw", String.class},
+            {"testDatetime", "test_datetime", LocalDateTime.class},
+            {"predictedRisk", "predicted_risk", BigDecimal.class},
+            {"riskScore", "risk_score", BigDecimal.class},
+            {"riskFactors", "risk_factors", String.class},
+            {"modelVersion", "model_version", String.class},
+            {"qualityScore", "quality_score", BigDecimal.class},
+            {"defectType", "defect_type", String.class},
+            {"defectCode", "defect_code", String.class},
+            {"defectLocation", "defect_location", String.class},
+            {"notes", "notes", String.class},
+            {"reviewedAt", "reviewed_at", LocalDateTime.class},
+            {"disposition", "disposition", String.class},
+            {"version", "version", Integer.class},
+            {"createdAt", "created_at", LocalDateTime.class},
+            {"updatedAt", "updated_at", LocalDateTime.class}};
+    private static final Object[][] FEATURE_META = {
+            {"featureId", "feature_id", Integer.class},
+            {"featureCode", "feature_code", String.class},
+            {"featureName", "feature_name", String.class},
+            {"featureCategory", "feature_category", String.class},
+            {"processStage", "process_stage", String.class},
+            {"measurementType", "measurement_type", String.class},
+            {"unit", "unit", String.class},
+            {"normalRangeMin", "normal_range_min", Double.class},
+            {"normalRangeMax", "normal_range_max", Double.class},
+            {"description", "description", String.class},
+            {"isCritical", "is_critical", Boolean.class},
+            {"createdAt", "created_at", LocalDateTime.class}};
+
+    private static final Resource LOTS = new ResourceBuilder("lots", "lot l", "l.lot_id")
+            .columns("", "l", LOT)
+            .reference("productType", "l.product_type_id", "product_type", "pt", PRODUCT_TYPE)
+            .reference("equipment", "l.equipment_id", "equipment", "e", EQUIPMENT)
+            .reference("operator", "l.operator_id", "operator", "o", OPERATOR)
+            .reference("shift", "l.shift_id", "shift", "s", SHIFT)
+            .build();
+
+    private static final Resource QUALITY_RESULTS = new ResourceBuilder("quality results", "quality_result r", "r.result_id")
+            .columns("", "r", QUALITY_RESULT)
+            .reference("lot", "r.lot_id", "lot", "l", LOT)
+            .reference("inspector", "r.inspector_id", "operator", "i", OPERATOR)
+            .reference("reviewer", "r.reviewed_by", "operator", "rv", OPERATOR)
+            .build();
+
+    private static final Resource FEATURES = new ResourceBuilder("features", "feature_meta f", "f.feature_id")
+            .columns("", "f", FEATURE_META)
+            .build();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public SparseFieldsetService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /** Whether {@code fields} asks for a sparse fieldset rather than full entities. */
+    public static boolean isRequested(String fields) {
+        return fields != null && !fields.isBlank();
+    }
+
+    /**
+     * The requested fields of lots matching the /lots filters.
+     *
+     * @throws IllegalArgumentException if a field is unknown
+     */
+    public Page<Map<String, Object>> findLots(String fields, Integer equipmentId, Integer operatorId, String status,
+                                              LocalDateTime startDate, LocalDateTime endDate, Pageable pageable) {
+        StringBuilder where = new StringBuilder(" WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+        appendFilter(where, args, "l.equipment_id = ?", equipmentId);
+        appendFilter(where, args, "l.operator_id = ?", operatorId);
+        appendFilter(where, args, "l.status = ?", status);
+        appendFilter(where, args, "l.production_start >= ?", startDate != null ? Timestamp.valueOf(startDate) : null);
+        appendFilter(where, args, "l.production_start <= ?", endDate != null ? Timestamp.valueOf(endDate) : null);
+        return page(LOTS, fields, where, args, pageable);
+    }
+
+    /**
+     * The requested fields of quality results, optionally only those with {@code classification}.
+     *
+     * @throws IllegalArgumentException if a field is unknown
+     */
+    public Page<Map<String, Object>> findQualityResults(String fields, Integer classification, Pageable pageable) {
+        StringBuilder where = new StringBuilder(" WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+        appendFilter(where, args, "r.classification = ?", classification);
+        return page(QUALITY_RESULTS, fields, where, args, pageable);
+    }
+
+    /**
+     * The requested fields of all features.
+     *
+     * @throws IllegalArgumentException if a field is unknown
+     */
+    public Page<Map<String, Object>> findFeatures(String fields, Pageable pageable) {
+        return page(FEATURES, fields, new StringBuilder(), new ArrayList<>(), pageable);
+    }
+
+    private Page<Map<String, Object>> page(Resource resource, String fields, StringBuilder where, List<Object> args,
+                                           Pageable pageable) {
+        List<Column> columns = select(resource, fields);
+        Long total = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + resource.from() + where, Long.class, args.toArray());
+        if (total == null || total == 0 || pageable.getOffset() >= total) {
+            return new PageImpl<>(List.of(), pageable, total != null ? total : 0);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int c = 0; c < columns.size(); c++) {
+            sql.append(c == 0 ? "" : ", ").append(columns.get(c).sql());
+        }
+        sql.append(" FROM ").append(resource.from());
+        Set<String> aliases = new HashSet<>();
+        columns.forEach(column -> aliases.add(column.join()));
+        resource.joins().forEach((alias, join) -> {
+            if (aliases.contains(alias)) {
+                sql.append(' ').append(join);
+            }
+        });
+        sql.append(where).append(" ORDER BY ").append(resource.idColumn()).append(" LIMIT ? OFFSET ?");
+        List<Object> pageArgs = new ArrayList<>(args);
+        pageArgs.add(pageable.getPageSize());
+        pageArgs.add(pageable.getOffset());
+
+        List<Map<String, Object>> content = jdbcTemplate.query(sql.toString(),
+                (rs, rowNum) -> mapRow(rs, columns), pageArgs.toArray());
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    /** Resolves the comma-separated field list to columns, in request order and without duplicates. */
+    private static List<Column> select(Resource resource, String fields) {
+        Map<String, Column> selected = new LinkedHashMap<>();
+        for (String field : fields.split(",")) {
+            String path = field.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            Column column = resource.columns().get(path);
+            if (column != null) {
+                selected.putIfAbsent(path, column);
+                continue;
+            }
+            boolean association = false;
+            for (Column candidate : resource.columns().values()) {
+                if (candidate.path().startsWith(path + ".")) {
+                    selected.putIfAbsent(candidate.path(), candidate);
+                    association = true;
+                }
+            }
+            if (!association) {
+                throw new IllegalArgumentException("Unknown field for " + resource.name() + ": " + path);
+            }
+        }
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("fields must name at least one field");
+        }
+        return new ArrayList<>(selected.values());
+    }
+
+    private static Map<String, Object> mapRow(ResultSet rs, List<Column> columns) throws SQLException {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int c = 0; c < columns.size(); c++) {
+            Column column = columns.get(c);
+            Object value = rs.getObject(c + 1, column.type());
+            Map<String, Object> target = row;
+            String[] segments = column.path().split("\\.");
+            for (int s = 0; s < segments.length - 1; s++) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> nested = (Map<String, Object>) target.computeIfAbsent(segments[s],
+                        key -> new LinkedHashMap<String, Object>());
+                target = nested;
+            }
+            target.put(segments[segments.length - 1], value);
+        }
+        // A missing association (null foreign key) is written as null, like the entity
+        row.replaceAll((key, value) -> value instanceof Map<?, ?> nested
+                && nested.values().stream().allMatch(Objects::isNull) ? null : value);
+        return row;
+    }
+
+    private static void appendFilter(StringBuilder where, List<Object> args, String predicate, Object value) {
+        if (value != null) {
+            where.append(" AND ").append(predicate);
+            args.add(value);
+        }
+    }
+
+    private static final class ResourceBuilder {
+
+        private final String name;
+        private final String from;
+        private final String idColumn;
+        private final Map<String, String> joins = new LinkedHashMap<>();
+        private final Map<String, Column> columns = new LinkedHashMap<>();
+
+        ResourceBuilder(String name, String from, String idColumn) {
+            this.name = name;
+            this.from = from;
+            this.idColumn = idColumn;
+        }
+
+        /** Columns of the resource's own table. */
+        ResourceBuilder columns(String prefix, String alias, Object[][] definitions) {
+            for (Object[] definition : definitions) {
+                String path = prefix + definition[0];
+                columns.put(path, new Column(path, alias + "." + definition[1], (Class<?>) definition[2], null));
+            }
+            return this;
+        }
+
+        /**
+         * An association through {@code foreignKey}; its first column is the referenced ID, read
+         * from the foreign key so that selecting only the ID needs no join.
+         */
+        ResourceBuilder reference(String property, String foreignKey, String table, String alias, Object[][] definitions) {
+            joins.put(alias, "LEFT JOIN " + table + " " + alias + " ON " + alias + "." + definitions[0][1] + " = " + foreignKey);
+            for (int d = 0; d < definitions.length; d++) {
+                String path = property + "." + definitions[d][0];
+                columns.put(path, d == 0
+                        ? new Column(path, foreignKey, (Class<?>) definitions[d][2], null)
+                        : new Column(path, alias + "." + definitions[d][1], (Class<?>) definitions[d][2], alias));
+            }
+            return this;
+        }
+
+        Resource build() {
+            return new Resource(name, from, idColumn, Collections.unmodifiableMap(joins), Collections.unmodifiableMap(columns));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.secom.mes.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secom.mes.analytics.FeatureMatrix;
+import com.secom.mes.dto.SpecLimitSimulationDto;
+import com.secom.mes.entity.FeatureMeta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Spec limits (feature_meta.normal_range_min/max) and the lot_measurement.is_out_of_spec flags
+ * derived from them.
+ *
+ * A value is out of spec when the feature has both limits and the value lies outside them,
+ * the rule the data loader used. Proposed limits are evaluated against the in-memory feature
+ * matrix; committed limit changes queue an {@link OutOfSpecRecomputeJob} for the feature.
+ */
+@Service
+public class SpecLimitService {
+
+    private static final Logger log = LoggerFactory.getLogger(SpecLimitService.class);
+
+    private final MeasurementMatrixService matrixService;
+    private final JobService jobService;
+    private final ObjectMapper objectMapper;
+    /** The committed transaction is still bound in afterCommit; the job row needs its own. */
+    private final TransactionTemplate newTransaction;
+
+    public SpecLimitService(MeasurementMatrixService matrixService,
+                            JobService jobService,
+                            ObjectMapper objectMapper,
+                            PlatformTransactionManager transactionManager) {
+        this.matrixService = matrixService;
+        this.jobService = jobService;
+        this.objectMapper = objectMapper;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public static boolean isOutOfSpec(double value, Double min, Double max) {
+        return min != null && max != null && !Double.isNaN(value) && (value < min || value > max);
+    }
+
+    public static boolean limitsChanged(FeatureMeta feature, Double min, Double max) {
+        return !Objects.equals(feature.getNormalRangeMin(), min) || !Objects.equals(feature.getNormalRangeMax(), max);
+    }
+
+    /**
+     * Compares the feature's current limits with proposed ones over every lot in the matrix.
+     *
+     * @param min proposed lower limit; null keeps the current one
+     * @param max proposed upper limit; null keeps the current one
+     * @throws IllegalArgumentException if the resulting lower limit is above the upper one
+     */
+    public SpecLimitSimulationDto simulate(FeatureMeta feature, Double min, Double max) {
+        Double currentMin = feature.getNormalRangeMin();
+        Double currentMax = feature.getNormalRangeMax();
+        Double proposedMin = min != null ? min : currentMin;
+        Double proposedMax = max != null ? max : currentMax;
+        if (proposedMin != null && proposedMax != null && proposedMin > proposedMax) {
+            throw new IllegalArgumentException("min must not be greater than max");
+        }
+
+        FeatureMatrix matrix = matrixService.getMatrix();
+        int column = matrix.columnOf(feature.getFeatureId());
+        int lots = matrix.lotCount();
+        double[] values = column >= 0 ? matrix.column(column) : new double[0];
+        int measured = 0;
+        int tested = 0;
+        int currentFlagged = 0;
+        int proposedFlagged = 0;
+        int newlyFlagged = 0;
+        int noLongerFlagged = 0;
+        // [current, proposed] x [flagged and failed, flagged and passed, failed]
+        int[][] confusion = new int[2][3];
+        int failed = 0;
+        for (int row = 0; row < lots && column >= 0; row++) {
+            double value = values[row];
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            measured++;
+            boolean current = isOutOfSpec(value, currentMin, currentMax);
+            boolean proposed = isOutOfSpec(value, proposedMin, proposedMax);
+            currentFlagged += current ? 1 : 0;
+            proposedFlagged += proposed ? 1 : 0;
+            newlyFlagged += proposed && !current ? 1 : 0;
+            noLongerFlagged += current && !proposed ? 1 : 0;
+            int classification = matrix.classification(row);
+            if (classification == 0) {
+                continue;
+            }
+            tested++;
+            boolean fail = classification == 1;
+            failed += fail ? 1 : 0;
+            if (current) {
+                confusion[0][fail ? 0 : 1]++;
+            }
+            if (proposed) {
+                confusion[1][fail ? 0 : 1]++;
+            }
+        }
+
+        int truePositives = confusion[1][0];
+        int falsePositives = confusion[1][1];
+        int falseNegatives = failed - truePositives;
+        int trueNegatives = tested - failed - falsePositives;
+        return new SpecLimitSimulationDto(
+                feature.getFeatureId(), feature.getFeatureCode(),
+                currentMin, currentMax, proposedMin, proposedMax,
+                measured, tested, currentFlagged, proposedFlagged, newlyFlagged, noLongerFlagged,
+                truePositives, falsePositives, falseNegatives, trueNegatives,
+                ratio(truePositives, truePositives + falsePositives),
+                ratio(truePositives, failed),
+                ratio(falsePositives, tested - failed),
+                ratio(confusion[0][0], confusion[0][0] + confusion[0][1]),
+                ratio(confusion[0][0], failed));
+    }
+
+    /**
+     * Queues an out-of-spec recompute for the feature once the current transaction commits, so
+     * the job reads the new limits. Without a transaction it is queued immediately.
+     */
+    public void recomputeAfterCommit(int featureId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submitRecompute(featureId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submitRecompute(featureId);
+            }
+        });
+    }
+
+    private void submitRecompute(int featureId) {
+        try {
+            newTransaction.executeWithoutResult(status -> jobService.submit(OutOfSpecRecomputeJob.TYPE, null,
+                    objectMapper.createObjectNode().set("featureIds", objectMapper.createArrayNode().add(featureId))));
+        } catch (RejectedExecutionException e) {
+            log.warn("Could not queue out-of-spec recompute for feature {}: {}; submit an {} job to repair the flags",
+                    featureId, e.getMessage(), OutOfSpecRecomputeJob.TYPE);
+        }
+    }
+
+    /** Four decimals; null when there is nothing to divide. */
+    private static Double ratio(int numerator, int denominator) {
+        return denominator == 0 ? null : Math.round(10_000.0 * numerator / denominator) / 10_000.0;
+    }
+}
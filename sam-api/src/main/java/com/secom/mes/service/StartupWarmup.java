@@ -0,0 +1,144 @@
+package com.secom.mes.service;
+
+import com.secom.mes.config.WarmupProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms the instance up before it reports ready.
+ *
+ * Application runners complete before Spring Boot publishes ReadinessState.ACCEPTING_TRAFFIC,
+ * so while this runs the readiness probe (/actuator/health/readiness) answers 503 and the load
+ * balancer keeps traffic on the other replicas. The web server is already listening, which
+ * lets the warm-up call the hot endpoints over loopback HTTP: that drives the whole request
+ * path (dispatcher, Jackson serializers, Hibernate query plans, JIT) and fills the analytics
+ * cache. Reference data (feature matrix, lot similarity index, multivariate anomaly model,
+ * feature search index) is loaded in parallel.
+ */
+@Service
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmup.class);
+
+    private final ApplicationContext applicationContext;
+    private final WarmupProperties properties;
+    private final FeatureSearchIndex featureSearchIndex;
+    private final LotSimilarityService lotSimilarityService;
+    private final MultivariateAnomalyService multivariateAnomalyService;
+    private final String contextPath;
+
+    public StartupWarmup(ApplicationContext applicationContext,
+                         WarmupProperties properties,
+                         FeatureSearchIndex featureSearchIndex,
+                         LotSimilarityService lotSimilarityService,
+                         MultivariateAnomalyService multivariateAnomalyService,
+                         @Value("${server.servlet.context-path:}") String contextPath) {
+        this.applicationContext = applicationContext;
+        this.properties = properties;
+        this.featureSearchIndex = featureSearchIndex;
+        this.lotSimilarityService = lotSimilarityService;
+        this.multivariateAnomalyService = multivariateAnomalyService;
+        this.contextPath = contextPath;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!properties.isEnabled()
+                || !(applicationContext instanceof WebServerApplicationContext webContext)
+                || webContext.getWebServer() == null) {
+            return;
+        }
+        long started = System.currentTimeMillis();
+        String baseUrl = "http://localhost:" + webContext.getWebServer().getPort() + contextPath;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "startup-warmup-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        AtomicInteger requests = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> tasks = new ArrayList<>();
+        if (properties.isPreloadReferenceData()) {
+            // The similarity index and the multivariate model load the feature matrix first, then build on top of it
+            tasks.add(executor.submit(lotSimilarityService::getIndex));
+            tasks.add(executor.submit(multivariateAnomalyService::getModel));
+            tasks.add(executor.submit(() -> featureSearchIndex.search("warmup", null, 1)));
+        }
+        for (String endpoint : properties.getEndpoints()) {
+            tasks.add(executor.submit(() -> exercise(client, baseUrl + endpoint, requests, failures)));
+        }
+
+        long deadline = started + properties.getTimeout().toMillis();
+        boolean timedOut = false;
+        for (Future<?> task : tasks) {
+            try {
+                task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                timedOut = true;
+                break;
+            } catch (ExecutionException e) {
+                failures.incrementAndGet();
+                log.warn("Warm-up task failed: {}", e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        executor.shutdownNow();
+
+        log.info("Warm-up {} in {} ms: {} requests to {} endpoints, {} failures{}",
+                timedOut ? "timed out" : "finished", System.currentTimeMillis() - started,
+                requests.get(), properties.getEndpoints().size(), failures.get(),
+                properties.isPreloadReferenceData() ? ", reference data preloaded" : "");
+    }
+
+    private void exercise(HttpClient client, String url, AtomicInteger requests, AtomicInteger failures) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+        for (int i = 0; i < properties.getIterations() && !Thread.currentThread().isInterrupted(); i++) {
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                requests.incrementAndGet();
+                if (response.statusCode() >= 400) {
+                    failures.incrementAndGet();
+                    log.debug("Warm-up request {} returned {}", url, response.statusCode());
+                    return;
+                }
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                log.debug("Warm-up request {} failed: {}", url, e.getMessage());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
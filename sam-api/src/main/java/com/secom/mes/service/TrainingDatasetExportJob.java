@@ -0,0 +1,128 @@
+package com.secom.mes.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.secom.mes.config.DatasetExportProperties;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Job type "training-dataset-export": writes the {@link TrainingDatasetService} dataset to an
+ * Arrow IPC stream file in the export directory, for download from
+ * {@code /datasets/training/exports/{jobId}}. The file is written under a temporary name and
+ * moved into place once complete, so a file that exists is whole; a rerun replaces it.
+ *
+ * Parameters (all optional):
+ * <ul>
+ *   <li>{@code from}, {@code to}: production start range, ISO local date-times</li>
+ *   <li>{@code productTypeId}, {@code equipmentId}: only lots of this product type or equipment</li>
+ *   <li>{@code rowGroupLots}: lots per record batch, default and maximum configured under
+ *       secom.dataset-export</li>
+ * </ul>
+ */
+@Service
+public class TrainingDatasetExportJob implements JobHandler {
+
+    public static final String TYPE = "training-dataset-export";
+
+    private final TrainingDatasetService datasetService;
+    private final Path exportDir;
+
+    public TrainingDatasetExportJob(TrainingDatasetService datasetService, DatasetExportProperties properties) {
+        this.datasetService = datasetService;
+        this.exportDir = Paths.get(properties.getExportDir());
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public int getDefaultPriority() {
+        return 4;
+    }
+
+    @Override
+    public void validate(JsonNode parameters) {
+        criteria(parameters);
+    }
+
+    @Override
+    public Object run(JobContext context) throws IOException {
+        long started = System.currentTimeMillis();
+        TrainingDatasetService.Criteria criteria = criteria(context.getParameters());
+        Path file = exportFile(context.getJobId());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(exportDir);
+
+        TrainingDatasetService.Summary summary;
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16)) {
+            summary = datasetService.write(criteria, output, (lotsWritten, totalLots) -> {
+                context.checkCancelled();
+                context.progress(totalLots > 0 ? (double) lotsWritten / totalLots : 1,
+                        "Exported " + lotsWritten + " of " + totalLots + " lots");
+            });
+        } catch (RuntimeException | IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("file", file.getFileName().toString());
+        result.put("lots", summary.lots());
+        result.put("features", summary.features());
+        result.put("rowGroups", summary.rowGroups());
+        result.put("bytes", summary.bytes());
+        result.put("elapsedMs", System.currentTimeMillis() - started);
+        return result;
+    }
+
+    /** The job's export file; it exists once the job has succeeded. */
+    public Path exportFile(long jobId) {
+        return exportDir.resolve("training-dataset-" + jobId + ".arrows");
+    }
+
+    private TrainingDatasetService.Criteria criteria(JsonNode parameters) {
+        return datasetService.criteria(
+                dateTime(parameters, "from"),
+                dateTime(parameters, "to"),
+                integer(parameters, "productTypeId"),
+                integer(parameters, "equipmentId"),
+                integer(parameters, "rowGroupLots"));
+    }
+
+    private static LocalDateTime dateTime(JsonNode parameters, String name) {
+        JsonNode value = parameters.path(name);
+        if (value.isMissingNode() || value.isNull()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value.asText());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be an ISO local date-time, e.g. 2008-07-19T11:55:00");
+        }
+    }
+
+    private static Integer integer(JsonNode parameters, String name) {
+        JsonNode value = parameters.path(name);
+        if (value.isMissingNode() || value.isNull()) {
+            return null;
+        }
+        if (!value.canConvertToInt()) {
+            throw new IllegalArgumentException(name + " must be an integer");
+        }
+        return value.asInt();
+    }
+}
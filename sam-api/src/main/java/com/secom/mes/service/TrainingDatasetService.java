@@ -0,0 +1,251 @@
+package com.secom.mes.service;
+
+import com.secom.mes.config.DatasetExportProperties;
+import com.secom.mes.dataset.ArrowStreamWriter;
+import com.secom.mes.dataset.ArrowStreamWriter.Column;
+import com.secom.mes.dataset.ArrowStreamWriter.ColumnType;
+import com.secom.mes.shard.ShardRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wide-format training dataset: one row per lot with its label and one float64 column per
+ * feature, written as an Arrow IPC stream ({@link ArrowStreamWriter}).
+ *
+ * Columns, in order: lot_id, lot_number, product_type_id, equipment_id, production_start,
+ * test_datetime, classification, defect_type, then one column per feature_meta row named by
+ * its feature code, in feature ID order. A feature without a reading is null; of several
+ * readings the latest non-null one wins. Lots without a quality result have null label columns.
+ *
+ * Lots are read in ID order, one row group at a time: a keyset page of lots, then their
+ * measurements streamed in (lot_id, feature_id) order over idx_lot_feature straight into the
+ * batch. Memory is bounded by the row group size, whatever the number of lots exported.
+ * With sharding enabled the shards are exported one after the other, in shard order, which is
+ * also lot ID order; a row group never spans two shards. Archived partitions are not part of
+ * the dataset.
+ */
+@Service
+public class TrainingDatasetService {
+
+    public static final String CONTENT_TYPE = "application/vnd.apache.arrow.stream";
+
+    private static final int FETCH_SIZE = 10_000;
+
+    private static final List<Column> LOT_COLUMNS = List.of(
+            new Column("lot_id", ColumnType.INT32),
+            new Column("lot_number", ColumnType.UTF8),
+            new Column("product_type_id", ColumnType.INT32),
+            new Column("equipment_id", ColumnType.INT32),
+            new Column("production_start", ColumnType.TIMESTAMP_MILLIS),
+            new Column("test_datetime", ColumnType.TIMESTAMP_MILLIS),
+            new Column("classification", ColumnType.INT32),
+            new Column("defect_type", ColumnType.UTF8)
+    );
+
+    /** Lots to export; null bounds and IDs do not filter. */
+    public record Criteria(LocalDateTime from, LocalDateTime to, Integer productTypeId, Integer equipmentId,
+                           int rowGroupLots) {
+    }
+
+    public record Summary(long lots, int features, int rowGroups, long bytes) {
+    }
+
+    /** Called after each row group; may throw to abort the export. */
+    public interface Progress {
+        void rowGroupWritten(long lotsWritten, long totalLots);
+    }
+
+    private record LotRow(int lotId, String lotNumber, int productTypeId, int equipmentId,
+                          LocalDateTime productionStart, LocalDateTime testDatetime,
+                          Integer classification, String defectType) {
+    }
+
+    private final ShardRegistry shardRegistry;
+    private final DatasetExportProperties properties;
+    /** Per shard, a template that streams rows instead of buffering the whole result. */
+    private final Map<ShardRegistry.Shard, JdbcTemplate> streamingJdbcTemplates = new ConcurrentHashMap<>();
+
+    public TrainingDatasetService(ShardRegistry shardRegistry, DatasetExportProperties properties) {
+        this.shardRegistry = shardRegistry;
+        this.properties = properties;
+    }
+
+    /** Validated criteria; the row group size defaults to the configured one. */
+    public Criteria criteria(LocalDateTime from, LocalDateTime to, Integer productTypeId, Integer equipmentId,
+                             Integer rowGroupLots) {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+        int lots = rowGroupLots != null ? rowGroupLots : properties.getRowGroupLots();
+        if (lots < 1 || lots > properties.getMaxRowGroupLots()) {
+            throw new IllegalArgumentException("rowGroupLots must be from 1 to " + properties.getMaxRowGroupLots());
+        }
+        return new Criteria(from, to, productTypeId, equipmentId, lots);
+    }
+
+    /** Writes the dataset to {@code output}, which is flushed but left open. */
+    public Summary write(Criteria criteria, OutputStream output, Progress progress) throws IOException {
+        List<Integer> featureIds = new ArrayList<>();
+        List<Column> columns = new ArrayList<>(LOT_COLUMNS);
+        shardRegistry.home().jdbcTemplate().query("SELECT feature_id, feature_code FROM feature_meta ORDER BY feature_id", rs -> {
+            featureIds.add(rs.getInt(1));
+            columns.add(new Column(rs.getString(2), ColumnType.FLOAT64));
+        });
+        Map<Integer, Integer> featureColumns = new HashMap<>(featureIds.size() * 2);
+        for (int i = 0; i < featureIds.size(); i++) {
+            featureColumns.put(featureIds.get(i), LOT_COLUMNS.size() + i);
+        }
+
+        List<Object> filterArgs = new ArrayList<>();
+        String filter = filter(criteria, filterArgs);
+        long totalLots = 0;
+        for (Long count : shardRegistry.fanOut(jdbc -> jdbc.queryForObject(
+                "SELECT COUNT(*) FROM lot l WHERE 1 = 1" + filter, Long.class, filterArgs.toArray()))) {
+            totalLots += count != null ? count : 0;
+        }
+
+        ArrowStreamWriter writer = new ArrowStreamWriter(output, columns);
+        ArrowStreamWriter.Batch batch = writer.newBatch(criteria.rowGroupLots());
+        long lotsWritten = 0;
+        int rowGroups = 0;
+        List<ShardRegistry.Shard> shards = shardRegistry.all();
+        int shardIndex = 0;
+        int lastLotId = 0;
+        while (shardIndex < shards.size()) {
+            ShardRegistry.Shard shard = shards.get(shardIndex);
+            List<LotRow> lots = nextLots(shard, lastLotId, criteria.rowGroupLots(), filter, filterArgs);
+            if (lots.isEmpty()) {
+                shardIndex++;
+                lastLotId = 0;
+                continue;
+            }
+            batch.clear();
+            int[] lotIds = new int[lots.size()];
+            for (int row = 0; row < lots.size(); row++) {
+                LotRow lot = lots.get(row);
+                lotIds[row] = lot.lotId();
+                batch.setInt(0, row, lot.lotId());
+                batch.setString(1, row, lot.lotNumber());
+                batch.setInt(2, row, lot.productTypeId());
+                batch.setInt(3, row, lot.equipmentId());
+                batch.setTimestamp(4, row, lot.productionStart());
+                batch.setTimestamp(5, row, lot.testDatetime());
+                batch.setInt(6, row, lot.classification());
+                batch.setString(7, row, lot.defectType());
+            }
+            fillMeasurements(shard, batch, lotIds, featureColumns);
+            batch.setRowCount(lots.size());
+            writer.write(batch);
+
+            lotsWritten += lots.size();
+            rowGroups++;
+            lastLotId = lotIds[lotIds.length - 1];
+            if (progress != null) {
+                progress.rowGroupWritten(lotsWritten, totalLots);
+            }
+            if (lots.size() < criteria.rowGroupLots()) {
+                // Last page of this shard
+                shardIndex++;
+                lastLotId = 0;
+            }
+        }
+        writer.finish();
+        return new Summary(lotsWritten, featureIds.size(), rowGroups, writer.getBytesWritten());
+    }
+
+    private JdbcTemplate streamingJdbcTemplate(ShardRegistry.Shard shard) {
+        return streamingJdbcTemplates.computeIfAbsent(shard, key -> {
+            JdbcTemplate template = new JdbcTemplate(key.jdbcTemplate().getDataSource());
+            template.setFetchSize(FETCH_SIZE);
+            return template;
+        });
+    }
+
+    private static String filter(Criteria criteria, List<Object> args) {
+        StringBuilder filter = new StringBuilder();
+        if (criteria.from() != null) {
+            filter.append(" AND l.production_start >= ?");
+            args.add(criteria.from());
+        }
+        if (criteria.to() != null) {
+            filter.append(" AND l.production_start <= ?");
+            args.add(criteria.to());
+        }
+        if (criteria.productTypeId() != null) {
+            filter.append(" AND l.product_type_id = ?");
+            args.add(criteria.productTypeId());
+        }
+        if (criteria.equipmentId() != null) {
+            filter.append(" AND l.equipment_id = ?");
+            args.add(criteria.equipmentId());
+        }
+        return filter.toString();
+    }
+
+    private List<LotRow> nextLots(ShardRegistry.Shard shard, int afterLotId, int limit, String filter,
+                                  List<Object> filterArgs) {
+        List<Object> args = new ArrayList<>(filterArgs.size() + 2);
+        args.add(afterLotId);
+        args.addAll(filterArgs);
+        args.add(limit);
+        return shard.jdbcTemplate().query("""
+                SELECT l.lot_id, l.lot_number, l.product_type_id, l.equipment_id, l.production_start,
+                       qr.test_datetime, qr.classification, qr.defect_type
+                FROM lot l
+                LEFT JOIN quality_result qr ON qr.lot_id = l.lot_id
+                WHERE l.lot_id > ?%s
+                ORDER BY l.lot_id
+                LIMIT ?
+                """.formatted(filter),
+                (rs, rowNum) -> new LotRow(
+                        rs.getInt(1),
+                        rs.getString(2),
+                        rs.getInt(3),
+                        rs.getInt(4),
+                        rs.getObject(5, LocalDateTime.class),
+                        rs.getObject(6, LocalDateTime.class),
+                        (Integer) rs.getObject(7, Integer.class),
+                        rs.getString(8)),
+                args.toArray());
+    }
+
+    /**
+     * Streams the lots' measurements into their feature columns. Rows arrive in lot ID order,
+     * the order of {@code lotIds}, so a single cursor finds each row's batch row.
+     */
+    private void fillMeasurements(ShardRegistry.Shard shard, ArrowStreamWriter.Batch batch, int[] lotIds,
+                                  Map<Integer, Integer> featureColumns) {
+        String placeholders = String.join(",", Collections.nCopies(lotIds.length, "?"));
+        Object[] args = new Object[lotIds.length];
+        for (int i = 0; i < lotIds.length; i++) {
+            args[i] = lotIds[i];
+        }
+        int[] cursor = {0};
+        streamingJdbcTemplate(shard).query("""
+                SELECT lot_id, feature_id, measurement_value
+                FROM lot_measurement
+                WHERE lot_id IN (%s)
+                ORDER BY lot_id, feature_id, measurement_id
+                """.formatted(placeholders), rs -> {
+            int lotId = rs.getInt(1);
+            while (lotIds[cursor[0]] < lotId) {
+                cursor[0]++;
+            }
+            Integer column = featureColumns.get(rs.getInt(2));
+            double value = rs.getDouble(3);
+            if (column != null && !rs.wasNull()) {
+                batch.setDouble(column, cursor[0], value);
+            }
+        }, args);
+    }
+}
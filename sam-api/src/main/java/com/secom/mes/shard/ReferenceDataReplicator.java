@@ -0,0 +1,139 @@
+package com.secom.mes.shard;
+
+import com.secom.mes.service.EntityChangeLog;
+import com.secom.mes.service.EntityChangedEvent;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.ResultSetMetaData;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Copies the reference tables from home to every other shard, so that shard-local joins and
+ * foreign keys work. The tables are small and change rarely, so each change copies the whole
+ * table: rows are upserted and rows gone from home are deleted where nothing references them.
+ * Copies run on one background thread in table order, parents first.
+ */
+@Component
+public class ReferenceDataReplicator {
+
+    private static final Logger log = LoggerFactory.getLogger(ReferenceDataReplicator.class);
+
+    /** Replicated tables with their primary keys, parents before children. */
+    private static final Map<String, String> TABLES = new LinkedHashMap<>();
+
+    static {
+        TABLES.put(EntityChangeLog.PRODUCT_TYPE, "product_type_id");
+        TABLES.put(EntityChangeLog.EQUIPMENT, "equipment_id");
+        TABLES.put(EntityChangeLog.SHIFT, "shift_id");
+        TABLES.put(EntityChangeLog.OPERATOR, "operator_id");
+        TABLES.put(EntityChangeLog.FEATURE_META, "feature_id");
+    }
+
+    private static final int UPSERT_CHUNK_ROWS = 500;
+
+    private final ShardRegistry shardRegistry;
+    private final ExecutorService executor;
+
+    public ReferenceDataReplicator(ShardRegistry shardRegistry) {
+        this.shardRegistry = shardRegistry;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reference-replication");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replicateAll() {
+        if (shardRegistry.isEnabled() && shardRegistry.all().size() > 1) {
+            TABLES.keySet().forEach(this::schedule);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReferenceChanged(EntityChangedEvent event) {
+        if (shardRegistry.isEnabled() && shardRegistry.all().size() > 1 && TABLES.containsKey(event.getEntityType())) {
+            schedule(event.getEntityType());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void schedule(String table) {
+        executor.execute(() -> {
+            try {
+                replicate(table);
+            } catch (DataAccessException e) {
+                log.warn("Replicating {} to the shards failed: {}", table, e.getMessage());
+            }
+        });
+    }
+
+    private void replicate(String table) {
+        String key = TABLES.get(table);
+        List<String> columns = new ArrayList<>();
+        List<Object[]> rows = new ArrayList<>();
+        shardRegistry.home().jdbcTemplate().query("SELECT * FROM " + table, rs -> {
+            if (columns.isEmpty()) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                for (int c = 1; c <= metaData.getColumnCount(); c++) {
+                    columns.add(metaData.getColumnLabel(c));
+                }
+            }
+            Object[] row = new Object[columns.size()];
+            for (int c = 0; c < row.length; c++) {
+                row[c] = rs.getObject(c + 1);
+            }
+            rows.add(row);
+        });
+        int keyIndex = columns.indexOf(key);
+
+        for (ShardRegistry.Shard shard : shardRegistry.all()) {
+            if (shard.isHome()) {
+                continue;
+            }
+            JdbcTemplate target = shard.jdbcTemplate();
+            for (int from = 0; from < rows.size(); from += UPSERT_CHUNK_ROWS) {
+                List<Object[]> chunk = rows.subList(from, Math.min(rows.size(), from + UPSERT_CHUNK_ROWS));
+                target.update(upsertSql(table, columns, chunk.size()),
+                        chunk.stream().flatMap(Arrays::stream).toArray());
+            }
+            int deleted = 0;
+            if (!rows.isEmpty()) {
+                String placeholders = String.join(", ", Collections.nCopies(rows.size(), "?"));
+                try {
+                    deleted = target.update("DELETE FROM " + table + " WHERE " + key + " NOT IN (" + placeholders + ")",
+                            rows.stream().map(row -> row[keyIndex]).toArray());
+                } catch (DataAccessException e) {
+                    log.warn("Rows deleted from {} at home are still referenced on shard {}", table, shard.name());
+                }
+            }
+            log.debug("Replicated {} rows of {} to shard {} ({} deleted)", rows.size(), table, shard.name(), deleted);
+        }
+    }
+
+    private static String upsertSql(String table, List<String> columns, int rowCount) {
+        String row = "(" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append(" (").append(String.join(", ", columns)).append(") VALUES ")
+                .append(String.join(", ", Collections.nCopies(rowCount, row)))
+                .append(" ON DUPLICATE KEY UPDATE ");
+        for (int c = 0; c < columns.size(); c++) {
+            sql.append(c == 0 ? "" : ", ").append(columns.get(c)).append(" = VALUES(").append(columns.get(c)).append(')');
+        }
+        return sql.toString();
+    }
+}
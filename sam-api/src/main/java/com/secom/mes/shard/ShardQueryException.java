@@ -0,0 +1,9 @@
+package com.secom.mes.shard;
+
+/** A fan-out read could not get an answer from every shard. */
+public class ShardQueryException extends RuntimeException {
+
+    public ShardQueryException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,233 @@
+package com.secom.mes.shard;
+
+import com.secom.mes.bulkhead.StatementTimeoutInspector;
+import com.secom.mes.config.ShardingProperties;
+import com.secom.mes.service.EntityChangeLog;
+import com.secom.mes.service.EntityChangedEvent;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * The databases production data is sharded over, and the parallel fan-out used to query all
+ * of them. Shard 0 is home, the spring.datasource database; the others come from
+ * secom.sharding.shards. A lot lives on the shard of its product family, and its ID falls in
+ * that shard's ID range, so reads and writes by lot ID go straight to one shard. A transaction
+ * spans one shard only.
+ */
+@Component
+public class ShardRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRegistry.class);
+
+    /** measurement_id ranges are this many times larger than lot_id ranges. */
+    private static final long MEASUREMENT_BLOCK_FACTOR = 1000;
+
+    /**
+     * A shard, the template to query it with and the one to run a transaction on it with;
+     * {@code productFamilies} is empty for home.
+     */
+    public record Shard(String name, int index, JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                        Set<String> productFamilies) {
+
+        public boolean isHome() {
+            return index == 0;
+        }
+    }
+
+    private final ShardingProperties properties;
+    private final List<Shard> shards = new ArrayList<>();
+    private final List<HikariDataSource> pools = new ArrayList<>();
+    private final Map<String, Shard> shardsByFamily = new HashMap<>();
+    private final ExecutorService fanOutExecutor;
+    private volatile Map<Integer, String> familiesByProductType;
+
+    public ShardRegistry(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                         ShardingProperties properties) {
+        this.properties = properties;
+        shards.add(new Shard("home", 0, jdbcTemplate, transactionTemplate, Set.of()));
+        if (!properties.isEnabled()) {
+            fanOutExecutor = null;
+            return;
+        }
+        for (ShardingProperties.Shard configured : properties.getShards()) {
+            HikariDataSource pool = new HikariDataSource();
+            pool.setPoolName("shard-" + configured.getName());
+            pool.setJdbcUrl(configured.getUrl());
+            pool.setUsername(configured.getUsername());
+            pool.setPassword(configured.getPassword());
+            pool.setMaximumPoolSize(configured.getMaxPoolSize());
+            pools.add(pool);
+            DataSource dataSource = StatementTimeoutInspector.wrap(pool);
+            Shard shard = new Shard(configured.getName(), shards.size(), new JdbcTemplate(dataSource),
+                    new TransactionTemplate(new DataSourceTransactionManager(dataSource)),
+                    Set.copyOf(configured.getProductFamilies()));
+            for (String family : shard.productFamilies()) {
+                if (shardsByFamily.put(family, shard) != null) {
+                    throw new IllegalStateException("Product family " + family + " is assigned to several shards");
+                }
+            }
+            shards.add(shard);
+        }
+        fanOutExecutor = Executors.newFixedThreadPool(Math.max(1, properties.getFanOutThreads()), runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Moves each shard's AUTO_INCREMENT counters into its ID range. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepareIdRanges() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (Shard shard : shards) {
+            long start = shard.index() * properties.getIdBlock();
+            raiseAutoIncrement(shard, "lot", start);
+            raiseAutoIncrement(shard, "quality_result", start);
+            raiseAutoIncrement(shard, "lot_measurement", start * MEASUREMENT_BLOCK_FACTOR);
+            Long maxLotId = shard.jdbcTemplate().queryForObject("SELECT MAX(lot_id) FROM lot", Long.class);
+            if (maxLotId != null && maxLotId >= start + properties.getIdBlock()) {
+                log.warn("Shard {} holds lot IDs up to {}, beyond its range; reads by ID may miss them",
+                        shard.name(), maxLotId);
+            }
+        }
+        log.info("Sharding enabled over {} databases: {}", shards.size(), shards.stream().map(Shard::name).toList());
+    }
+
+    private static void raiseAutoIncrement(Shard shard, String table, long start) {
+        Long current = shard.jdbcTemplate().queryForObject("""
+                SELECT AUTO_INCREMENT FROM information_schema.TABLES
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?
+                """, Long.class, table);
+        if (start > 0 && (current == null || current < start)) {
+            shard.jdbcTemplate().execute("ALTER TABLE " + table + " AUTO_INCREMENT = " + start);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdownNow();
+        }
+        pools.forEach(HikariDataSource::close);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Fails if sharding is enabled: for reads that only query home and have no fan-out yet.
+     *
+     * @throws ShardingUnsupportedException when sharding is enabled
+     */
+    public void requireUnsharded(String operation) {
+        if (properties.isEnabled()) {
+            throw new ShardingUnsupportedException(operation + " is not available with sharding enabled; "
+                    + "it would only cover the home database");
+        }
+    }
+
+    /** All shards, home first. */
+    public List<Shard> all() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    public Shard home() {
+        return shards.get(0);
+    }
+
+    /** Shard whose ID range holds the lot or quality result ID; IDs past the last range belong to home. */
+    public Shard forLotId(long lotId) {
+        long index = lotId / properties.getIdBlock();
+        return index > 0 && index < shards.size() ? shards.get((int) index) : home();
+    }
+
+    /** Shards holding the given lot or quality result IDs, in shard order, each with its IDs. */
+    public Map<Shard, List<Integer>> byLotId(Collection<Integer> lotIds) {
+        Map<Shard, List<Integer>> grouped = new TreeMap<>(Comparator.comparingInt(Shard::index));
+        for (Integer lotId : lotIds) {
+            grouped.computeIfAbsent(forLotId(lotId), shard -> new ArrayList<>()).add(lotId);
+        }
+        return grouped;
+    }
+
+    public Shard forMeasurementId(long measurementId) {
+        return forLotId(measurementId / MEASUREMENT_BLOCK_FACTOR);
+    }
+
+    /** Shard new lots of the product type go to; home for unassigned families. */
+    public Shard forProductType(Integer productTypeId) {
+        Map<Integer, String> families = familiesByProductType;
+        if (families == null) {
+            families = new HashMap<>();
+            Map<Integer, String> loaded = families;
+            home().jdbcTemplate().query("SELECT product_type_id, product_family FROM product_type",
+                    rs -> {
+                        loaded.put(rs.getInt(1), rs.getString(2));
+                    });
+            familiesByProductType = families;
+        }
+        String family = productTypeId != null ? families.get(productTypeId) : null;
+        return family != null ? shardsByFamily.getOrDefault(family, home()) : home();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductTypeChanged(EntityChangedEvent event) {
+        if (EntityChangeLog.PRODUCT_TYPE.equals(event.getEntityType())) {
+            familiesByProductType = null;
+        }
+    }
+
+    /**
+     * Runs {@code query} against every shard in parallel.
+     *
+     * @return results in shard order, home first
+     * @throws ShardQueryException if a shard fails or does not answer within the fan-out timeout
+     */
+    public <T> List<T> fanOut(Function<JdbcTemplate, T> query) {
+        if (shards.size() == 1) {
+            return List.of(query.apply(home().jdbcTemplate()));
+        }
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            futures.add(fanOutExecutor.submit(StatementTimeoutInspector.propagate(() -> query.apply(shard.jdbcTemplate()))));
+        }
+        long deadline = System.nanoTime() + properties.getFanOutTimeout().toNanos();
+        List<T> results = new ArrayList<>(shards.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                } catch (ExecutionException e) {
+                    throw new ShardQueryException("Shard " + shards.get(i).name() + " failed: "
+                            + e.getCause().getMessage(), e.getCause());
+                } catch (TimeoutException e) {
+                    throw new ShardQueryException("Shard " + shards.get(i).name() + " did not answer within "
+                            + properties.getFanOutTimeout(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ShardQueryException("Interrupted while waiting for shards", e);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,16 @@
+package com.secom.mes.shard;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * A read that only covers the home database was requested while sharding is enabled; answering
+ * it would silently leave out the lots of every other shard.
+ */
+@ResponseStatus(HttpStatus.NOT_IMPLEMENTED)
+public class ShardingUnsupportedException extends RuntimeException {
+
+    public ShardingUnsupportedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,116 @@
+package com.secom.mes.analytics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompressedSeriesTest {
+
+    @Test
+    void roundTripsXorsWithMoreLeadingZerosThanTheFiveBitField() {
+        double one = 1.0;
+        double[] values = {
+                one,
+                Double.longBitsToDouble(Double.doubleToRawLongBits(one) ^ 1L),       // 63 leading zeros, capped at 31
+                Double.longBitsToDouble(Double.doubleToRawLongBits(one) ^ 0b110L),   // fits the previous window
+                Double.longBitsToDouble(Double.doubleToRawLongBits(one) ^ (1L << 32)), // exactly 31 leading zeros
+                Double.longBitsToDouble(Double.doubleToRawLongBits(one) ^ (1L << 40)), // fewer: new window
+                one
+        };
+        assertRoundTrip(regularTimes(values.length), values);
+    }
+
+    @Test
+    void roundTripsXorsWithAllSixtyFourBitsSignificant() {
+        double[] values = {
+                1.0,
+                -Math.nextUp(1.0),                      // differs in the sign bit and the lowest bit
+                Double.longBitsToDouble(0x0000000000000001L),
+                Double.longBitsToDouble(0xFFF0000000000001L), // a NaN payload
+                Double.longBitsToDouble(0x8000000000000000L), // -0.0
+                Double.MAX_VALUE
+        };
+        assertRoundTrip(regularTimes(values.length), values);
+    }
+
+    @Test
+    void roundTripsEqualValuesWithinAndAcrossBlocks() {
+        int count = CompressedSeries.BLOCK_POINTS * 2 + 5;
+        double[] values = new double[count];
+        Arrays.fill(values, 42.125);
+        values[CompressedSeries.BLOCK_POINTS + 3] = 42.25;
+        CompressedSeries series = assertRoundTrip(regularTimes(count), values);
+
+        CompressedSeries.Range extremes = series.minMax(0, 10L * count, 1);
+        assertThat(extremes.values()).startsWith(42.125, 42.25);
+    }
+
+    @Test
+    void roundTripsTimestampJumpsOfEveryDeltaOfDeltaWidth() {
+        // Deltas of deltas around each code boundary: 7, 9, 12, 32 and 64 bits
+        long[] deltaOfDeltas = {0, 63, -64, 64, -65, 255, -256, 256, -257, 2047, -2048, 2048, -2049,
+                Integer.MAX_VALUE, Integer.MIN_VALUE, 1L << 40, -(1L << 40), 0, 0};
+        long[] times = new long[deltaOfDeltas.length + 2];
+        long delta = 5000;
+        times[1] = 1_200_000_000L;
+        times[0] = times[1] - delta;
+        for (int i = 0; i < deltaOfDeltas.length; i++) {
+            delta += deltaOfDeltas[i];
+            times[i + 2] = times[i + 1] + delta;
+        }
+        double[] values = new double[times.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 0.1;
+        }
+        assertRoundTrip(times, values);
+    }
+
+    @Test
+    void roundTripsRandomSeriesThroughBothBuildPaths() {
+        Random random = new Random(20081019);
+        int count = CompressedSeries.BLOCK_POINTS * 7 + 31;
+        long[] times = new long[count];
+        double[] values = new double[count];
+        long time = 1_215_000_000L;
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(4) == 0 ? random.nextInt(100_000) : 60;
+            times[i] = time;
+            values[i] = switch (random.nextInt(4)) {
+                case 0 -> i > 0 ? values[i - 1] : 0;
+                case 1 -> Math.round(random.nextGaussian() * 1000) / 100.0;
+                case 2 -> Double.longBitsToDouble(random.nextLong());
+                default -> random.nextDouble();
+            };
+        }
+        assertRoundTrip(times, values);
+    }
+
+    /** Checks that the series built both ways returns every point bit for bit. */
+    private static CompressedSeries assertRoundTrip(long[] times, double[] values) {
+        CompressedSeries built = CompressedSeries.of(times, values, times.length);
+        CompressedSeries appended = new CompressedSeries();
+        for (int i = 0; i < times.length; i++) {
+            assertThat(appended.append(times[i], values[i])).isTrue();
+        }
+        for (CompressedSeries series : new CompressedSeries[]{built, appended}) {
+            CompressedSeries.Range range = series.read(Long.MIN_VALUE, Long.MAX_VALUE);
+            assertThat(range.size()).isEqualTo(times.length);
+            assertThat(Arrays.copyOf(range.times(), range.size())).containsExactly(times);
+            long[] expectedBits = Arrays.stream(values).mapToLong(Double::doubleToRawLongBits).toArray();
+            long[] actualBits = Arrays.stream(range.values(), 0, range.size()).mapToLong(Double::doubleToRawLongBits).toArray();
+            assertThat(actualBits).containsExactly(expectedBits);
+        }
+        return built;
+    }
+
+    private static long[] regularTimes(int count) {
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = 10L * i;
+        }
+        return times;
+    }
+}
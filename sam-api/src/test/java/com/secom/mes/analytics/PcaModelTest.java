@@ -0,0 +1,77 @@
+package com.secom.mes.analytics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class PcaModelTest {
+
+    private static final int LOTS = 400;
+    private static final int FEATURES = 4;
+    private static final PcaModel.Options OPTIONS = new PcaModel.Options(0.95, 2, 0.99, 0.5);
+
+    /** Features 0 and 1 follow one latent factor, 2 and 3 another; small sensor noise on each. */
+    private static FeatureMatrix trainingMatrix(int extraLots) {
+        Random random = new Random(3);
+        FeatureMatrix matrix = new FeatureMatrix(IntStream.rangeClosed(201, 200 + FEATURES).toArray(),
+                LOTS + extraLots);
+        for (int lot = 0; lot < LOTS; lot++) {
+            int row = matrix.addLot(lot + 1, 1, -1, null, FeatureMatrix.UNKNOWN_TIME);
+            double first = random.nextGaussian();
+            double second = random.nextGaussian();
+            matrix.set(row, 0, 10 + first + 0.05 * random.nextGaussian());
+            matrix.set(row, 1, 5 + 2 * first + 0.1 * random.nextGaussian());
+            matrix.set(row, 2, -3 + second + 0.05 * random.nextGaussian());
+            matrix.set(row, 3, 1 - second + 0.05 * random.nextGaussian());
+        }
+        return matrix;
+    }
+
+    @Test
+    void t2ContributionsSumToT2() {
+        FeatureMatrix matrix = trainingMatrix(1);
+        PcaModel model = PcaModel.fit(matrix, IntStream.range(0, LOTS).toArray(), OPTIONS);
+        int row = matrix.addLot(LOTS + 1, 1, -1, null, FeatureMatrix.UNKNOWN_TIME);
+        matrix.set(row, 0, 12.5);
+        matrix.set(row, 1, 3.0);
+        matrix.set(row, 3, 0.2);
+
+        double t2 = model.score(matrix, row).t2();
+        List<PcaModel.Contribution> contributions = model.contributions(matrix, row, FEATURES);
+
+        assertThat(model.components()).isEqualTo(2);
+        assertThat(contributions).hasSize(FEATURES);
+        assertThat(contributions.stream().mapToDouble(PcaModel.Contribution::t2).sum())
+                .isCloseTo(t2, within(1e-9 * Math.max(1, t2)));
+        PcaModel.Contribution missing = contributions.stream()
+                .filter(c -> c.featureId() == 203).findFirst().orElseThrow();
+        assertThat(missing.z()).isNaN();
+        assertThat(missing.t2()).isZero();
+        assertThat(missing.spe()).isZero();
+    }
+
+    @Test
+    void lotOffTheModelPlaneExceedsTheSpeLimit() {
+        FeatureMatrix matrix = trainingMatrix(1);
+        PcaModel model = PcaModel.fit(matrix, IntStream.range(0, LOTS).toArray(), OPTIONS);
+        // Features 0 and 1 normally move together; here they disagree, within their usual ranges
+        int row = matrix.addLot(LOTS + 1, 1, -1, null, FeatureMatrix.UNKNOWN_TIME);
+        matrix.set(row, 0, 11.0);
+        matrix.set(row, 1, 3.0);
+        matrix.set(row, 2, -3.0);
+        matrix.set(row, 3, 1.0);
+
+        PcaModel.Score score = model.score(matrix, row);
+
+        assertThat(score.spe()).isGreaterThan(model.speLimit());
+        assertThat(score.t2()).isLessThan(model.t2Limit());
+        assertThat(model.contributions(matrix, row, 2))
+                .extracting(PcaModel.Contribution::featureId)
+                .containsExactlyInAnyOrder(201, 202);
+    }
+}
@@ -0,0 +1,93 @@
+package com.secom.mes.analytics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RandomForestTest {
+
+    private static final int LOTS = 600;
+    private static final int FEATURES = 6;
+    private static final int INFORMATIVE = 3;
+
+    @Test
+    void informativeFeatureRanksFirstOnSeparableTarget() {
+        Random random = new Random(7);
+        FeatureMatrix matrix = new FeatureMatrix(IntStream.rangeClosed(101, 100 + FEATURES).toArray(), LOTS);
+        boolean[] positive = new boolean[LOTS];
+        for (int lot = 0; lot < LOTS; lot++) {
+            int row = matrix.addLot(lot + 1, 1, -1, null, FeatureMatrix.UNKNOWN_TIME);
+            for (int f = 0; f < FEATURES; f++) {
+                // A few missing values everywhere, as in real lots
+                if (random.nextInt(20) > 0) {
+                    matrix.set(row, f, random.nextGaussian());
+                }
+            }
+            double value = matrix.value(row, INFORMATIVE);
+            positive[row] = !Double.isNaN(value) && value > 0.8;
+        }
+        int[] rows = IntStream.range(0, LOTS).toArray();
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            FeatureBins bins = FeatureBins.build(matrix, rows, 32, pool);
+            RandomForest forest = RandomForest.train(bins, rows, positive,
+                    new RandomForest.Options(40, 6, 5, 0, 42), pool, () -> { });
+
+            assertThat(bins.featureId(INFORMATIVE)).isEqualTo(101 + INFORMATIVE);
+            assertThat(bins.measuredCount(INFORMATIVE)).isLessThan(LOTS);
+            assertThat(highest(forest::impurityImportance)).isEqualTo(INFORMATIVE);
+            assertThat(highest(forest::permutationImportance)).isEqualTo(INFORMATIVE);
+            assertThat(forest.impurityImportance(INFORMATIVE)).isGreaterThan(0.5);
+            assertThat(forest.oobError()).isLessThan(0.1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void binsSplitMeasuredValuesIntoQuantilesAndKeepMissingApart() {
+        FeatureMatrix matrix = new FeatureMatrix(new int[] {1}, 100);
+        for (int lot = 0; lot < 100; lot++) {
+            int row = matrix.addLot(lot + 1, 1, -1, null, FeatureMatrix.UNKNOWN_TIME);
+            if (lot % 10 != 0) {
+                matrix.set(row, 0, lot);
+            }
+        }
+        int[] rows = IntStream.range(0, 100).toArray();
+
+        FeatureBins bins = FeatureBins.build(matrix, rows, 4, ForkJoinPool.commonPool());
+
+        assertThat(bins.measuredCount(0)).isEqualTo(90);
+        assertThat(bins.code(0, 0)).isEqualTo(FeatureBins.MISSING);
+        assertThat(bins.code(0, 1)).isEqualTo(1);
+        assertThat(bins.code(0, 99)).isEqualTo(4);
+        int[] perBin = new int[bins.binCount(0)];
+        for (int row : rows) {
+            perBin[bins.code(0, row)]++;
+        }
+        assertThat(perBin[FeatureBins.MISSING]).isEqualTo(10);
+        for (int bin = 1; bin < perBin.length - 1; bin++) {
+            assertThat(perBin[bin]).isBetween(20, 25);
+        }
+        assertThat(bins.upperBound(0, bins.binCount(0) - 1)).isEqualTo(Double.POSITIVE_INFINITY);
+    }
+
+    private interface Importance {
+        double of(int feature);
+    }
+
+    private static int highest(Importance importance) {
+        int best = 0;
+        for (int f = 1; f < FEATURES; f++) {
+            if (importance.of(f) > importance.of(best)) {
+                best = f;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,125 @@
+package com.secom.mes.analytics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class SymmetricEigenTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    void decompositionReconstructsARandomSymmetricMatrix() {
+        Random random = new Random(11);
+        int n = 40;
+        double[][] matrix = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                matrix[i][j] = random.nextGaussian();
+                matrix[j][i] = matrix[i][j];
+            }
+        }
+
+        SymmetricEigen.Result result = SymmetricEigen.decompose(matrix);
+
+        assertDecomposes(matrix, result);
+        for (int k = 1; k < n; k++) {
+            assertThat(result.values()[k]).isLessThanOrEqualTo(result.values()[k - 1]);
+        }
+    }
+
+    @Test
+    void repeatedEigenvaluesKeepOrthonormalVectors() {
+        double[] spectrum = {3, 3, 3, 1, 1, -2};
+        int n = spectrum.length;
+        double[][] q = randomOrthonormal(n, new Random(5));
+        double[][] matrix = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                for (int k = 0; k < n; k++) {
+                    matrix[i][j] += q[i][k] * spectrum[k] * q[j][k];
+                }
+            }
+        }
+
+        SymmetricEigen.Result result = SymmetricEigen.decompose(matrix);
+
+        assertDecomposes(matrix, result);
+        for (int k = 0; k < n; k++) {
+            assertThat(result.values()[k]).isCloseTo(spectrum[k], within(TOLERANCE));
+        }
+    }
+
+    @Test
+    void singleElementIsItsOwnEigenvalue() {
+        SymmetricEigen.Result result = SymmetricEigen.decompose(new double[][] {{-4.5}});
+
+        assertThat(result.values()).containsExactly(-4.5);
+        assertThat(Math.abs(result.vectors()[0][0])).isCloseTo(1.0, within(TOLERANCE));
+    }
+
+    @Test
+    void inputIsLeftUnchanged() {
+        double[][] matrix = {{2, 1}, {1, 2}};
+
+        SymmetricEigen.decompose(matrix);
+
+        assertThat(matrix).isDeepEqualTo(new double[][] {{2, 1}, {1, 2}});
+    }
+
+    /** V is orthonormal and V diag(values) V' equals the matrix. */
+    private static void assertDecomposes(double[][] matrix, SymmetricEigen.Result result) {
+        int n = matrix.length;
+        double[][] v = result.vectors();
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                double dot = 0;
+                for (int i = 0; i < n; i++) {
+                    dot += v[i][a] * v[i][b];
+                }
+                assertThat(dot).as("column %d . column %d", a, b).isCloseTo(a == b ? 1 : 0, within(TOLERANCE));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0;
+                for (int k = 0; k < n; k++) {
+                    sum += v[i][k] * result.values()[k] * v[j][k];
+                }
+                assertThat(sum).as("element (%d, %d)", i, j).isCloseTo(matrix[i][j], within(TOLERANCE));
+            }
+        }
+    }
+
+    /** Gram-Schmidt on Gaussian columns. */
+    private static double[][] randomOrthonormal(int n, Random random) {
+        double[][] q = new double[n][n];
+        for (int k = 0; k < n; k++) {
+            double[] column = new double[n];
+            for (int i = 0; i < n; i++) {
+                column[i] = random.nextGaussian();
+            }
+            for (int prev = 0; prev < k; prev++) {
+                double dot = 0;
+                for (int i = 0; i < n; i++) {
+                    dot += column[i] * q[i][prev];
+                }
+                for (int i = 0; i < n; i++) {
+                    column[i] -= dot * q[i][prev];
+                }
+            }
+            double norm = 0;
+            for (double value : column) {
+                norm += value * value;
+            }
+            norm = Math.sqrt(norm);
+            for (int i = 0; i < n; i++) {
+                q[i][k] = column[i] / norm;
+            }
+        }
+        return q;
+    }
+}
@@ -0,0 +1,83 @@
+package com.secom.mes.bulkhead;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StatementTimeoutInspectorTest {
+
+    private static final String PREFIX = "SET STATEMENT max_statement_time=1.500 FOR ";
+
+    private final Connection connection = mock(Connection.class);
+    private final Statement statement = mock(Statement.class);
+    private final DataSource dataSource;
+
+    StatementTimeoutInspectorTest() throws Exception {
+        DataSource target = mock(DataSource.class);
+        when(target.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        dataSource = StatementTimeoutInspector.wrap(target);
+    }
+
+    @AfterEach
+    void clear() {
+        StatementTimeoutInspector.clear();
+    }
+
+    @Test
+    void selectsOfEveryJdbcPathCarryTheThreadsTimeout() throws Exception {
+        StatementTimeoutInspector.set(Duration.ofMillis(1500));
+        Connection wrapped = dataSource.getConnection();
+
+        wrapped.prepareStatement("SELECT * FROM lot WHERE lot_id = ?");
+        wrapped.prepareStatement(" /* cube */ WITH t AS (SELECT 1) SELECT * FROM t", Statement.RETURN_GENERATED_KEYS);
+        wrapped.createStatement().executeQuery("select count(*) from lot");
+        wrapped.prepareStatement("UPDATE lot SET status = ? WHERE lot_id = ?");
+
+        verify(connection).prepareStatement(PREFIX + "SELECT * FROM lot WHERE lot_id = ?");
+        verify(connection).prepareStatement(PREFIX + " /* cube */ WITH t AS (SELECT 1) SELECT * FROM t",
+                Statement.RETURN_GENERATED_KEYS);
+        verify(statement).executeQuery(PREFIX + "select count(*) from lot");
+        verify(connection).prepareStatement("UPDATE lot SET status = ? WHERE lot_id = ?");
+    }
+
+    @Test
+    void threadsWithoutATimeoutAreLeftAlone() throws Exception {
+        dataSource.getConnection().prepareStatement("SELECT 1");
+
+        verify(connection).prepareStatement("SELECT 1");
+    }
+
+    @Test
+    void timeoutFollowsQueriesHandedToAnotherThread() throws Exception {
+        StatementTimeoutInspector.set(Duration.ofMillis(1500));
+        var task = StatementTimeoutInspector.propagate(() -> StatementTimeoutInspector.inspect("SELECT 1"));
+        StatementTimeoutInspector.clear();
+
+        String sql = CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        assertThat(sql).isEqualTo(PREFIX + "SELECT 1");
+    }
+
+    @Test
+    void wrappingTwiceAddsTheTimeoutOnce() {
+        assertThat(StatementTimeoutInspector.wrap(dataSource)).isSameAs(dataSource);
+    }
+}
@@ -0,0 +1,76 @@
+package com.secom.mes.conditional;
+
+import com.secom.mes.service.EntityChangeLog;
+import com.secom.mes.service.EntityChangedEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ResourceVersionsTest {
+
+    @Test
+    void replicasThatAppliedTheSameChangesHandOutTheSameTag() throws Exception {
+        ResourceVersions first = versionsWithNewestShiftChange(40);
+        ResourceVersions second = versionsWithNewestShiftChange(40);
+        assertThat(etag(first)).isEqualTo("\"shifts-40\"").isEqualTo(etag(second));
+
+        first.onEntityChanged(shiftChange(41, false));
+        second.onEntityChanged(shiftChange(41, true));
+
+        assertThat(etag(first)).isEqualTo("\"shifts-41\"").isEqualTo(etag(second));
+    }
+
+    @Test
+    void changeCommittingAfterAHigherNumberedOneStillMovesTheTag() throws Exception {
+        ResourceVersions versions = versionsWithNewestShiftChange(40);
+        versions.onEntityChanged(shiftChange(42, false));
+        String afterNewer = etag(versions);
+
+        versions.onEntityChanged(shiftChange(41, true));
+
+        assertThat(etag(versions)).isNotEqualTo(afterNewer).startsWith("\"shifts-42-");
+        versions.onEntityChanged(shiftChange(43, true));
+        assertThat(etag(versions)).isEqualTo("\"shifts-43\"");
+    }
+
+    @Test
+    void changeAlreadyReadFromTheLogIsNotCountedTwice() throws Exception {
+        ResourceVersions versions = versionsWithNewestShiftChange(40);
+        etag(versions);
+
+        versions.onEntityChanged(shiftChange(40, true));
+
+        assertThat(etag(versions)).isEqualTo("\"shifts-40\"");
+    }
+
+    private static ResourceVersions versionsWithNewestShiftChange(long changeId) throws Exception {
+        ResultSet row = mock(ResultSet.class);
+        when(row.getString(1)).thenReturn(EntityChangeLog.SHIFT);
+        when(row.getLong(2)).thenReturn(changeId);
+        when(row.getTimestamp(3)).thenReturn(new Timestamp(1_700_000_000_000L));
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        doAnswer(invocation -> {
+            invocation.<RowCallbackHandler>getArgument(1).processRow(row);
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+        return new ResourceVersions(jdbcTemplate);
+    }
+
+    private static EntityChangedEvent shiftChange(long changeId, boolean remote) {
+        return new EntityChangedEvent(EntityChangeLog.SHIFT, 1L, remote, changeId);
+    }
+
+    private static String etag(ResourceVersions versions) {
+        return versions.etag(ResourceVersions.SHIFTS, versions.current(ResourceVersions.SHIFTS));
+    }
+}
@@ -0,0 +1,190 @@
+package com.secom.mes.dataset;
+
+import com.secom.mes.dataset.ArrowStreamWriter.Column;
+import com.secom.mes.dataset.ArrowStreamWriter.ColumnType;
+import org.apache.arrow.flatbuf.Buffer;
+import org.apache.arrow.flatbuf.Field;
+import org.apache.arrow.flatbuf.FloatingPoint;
+import org.apache.arrow.flatbuf.Int;
+import org.apache.arrow.flatbuf.Message;
+import org.apache.arrow.flatbuf.MessageHeader;
+import org.apache.arrow.flatbuf.MetadataVersion;
+import org.apache.arrow.flatbuf.Precision;
+import org.apache.arrow.flatbuf.RecordBatch;
+import org.apache.arrow.flatbuf.Schema;
+import org.apache.arrow.flatbuf.TimeUnit;
+import org.apache.arrow.flatbuf.Timestamp;
+import org.apache.arrow.flatbuf.Type;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Decodes the written stream with the Arrow flatbuffer classes, independently of the writer.
+ */
+class ArrowStreamWriterTest {
+
+    private static final List<Column> COLUMNS = List.of(
+            new Column("lot_id", ColumnType.INT32),
+            new Column("lot_number", ColumnType.UTF8),
+            new Column("production_start", ColumnType.TIMESTAMP_MILLIS),
+            new Column("f_1", ColumnType.FLOAT64));
+    private static final LocalDateTime START = LocalDateTime.of(2008, 7, 19, 11, 55);
+
+    @Test
+    void writesSchemaBatchesAndEndOfStream() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ArrowStreamWriter writer = new ArrowStreamWriter(output, COLUMNS);
+        ArrowStreamWriter.Batch batch = writer.newBatch(16);
+        for (int row = 0; row < 11; row++) {
+            batch.setInt(0, row, row == 3 ? null : 1000 + row);
+            batch.setString(1, row, row % 5 == 2 ? null : "LOT-" + row + (row == 8 ? "-été" : ""));
+            batch.setTimestamp(2, row, row == 10 ? null : START.plusMinutes(row));
+            batch.setDouble(3, row, row % 4 == 1 ? Double.NaN : row * 0.25);
+        }
+        batch.setRowCount(11);
+        writer.write(batch);
+        // The reused batch must not leak the first batch's cells
+        batch.clear();
+        batch.setInt(0, 0, 2000);
+        batch.setDouble(3, 1, -1.5);
+        batch.setRowCount(2);
+        writer.write(batch);
+        writer.finish();
+
+        byte[] bytes = output.toByteArray();
+        assertThat(writer.getBytesWritten()).isEqualTo(bytes.length);
+        List<Decoded> messages = decode(bytes);
+        assertThat(messages).hasSize(3);
+
+        Message schemaMessage = messages.get(0).message();
+        assertThat(schemaMessage.version()).isEqualTo(MetadataVersion.V5);
+        assertThat(schemaMessage.headerType()).isEqualTo(MessageHeader.Schema);
+        Schema schema = (Schema) schemaMessage.header(new Schema());
+        assertThat(schema.fieldsLength()).isEqualTo(4);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < schema.fieldsLength(); i++) {
+            names.add(schema.fields(i).name());
+            assertThat(schema.fields(i).nullable()).isTrue();
+        }
+        assertThat(names).containsExactly("lot_id", "lot_number", "production_start", "f_1");
+        Field lotId = schema.fields(0);
+        assertThat(lotId.typeType()).isEqualTo(Type.Int);
+        Int intType = (Int) lotId.type(new Int());
+        assertThat(intType.bitWidth()).isEqualTo(32);
+        assertThat(intType.isSigned()).isTrue();
+        assertThat(schema.fields(1).typeType()).isEqualTo(Type.Utf8);
+        assertThat(schema.fields(2).typeType()).isEqualTo(Type.Timestamp);
+        Timestamp timestampType = (Timestamp) schema.fields(2).type(new Timestamp());
+        assertThat(timestampType.unit()).isEqualTo(TimeUnit.MILLISECOND);
+        assertThat(timestampType.timezone()).isNull();
+        assertThat(schema.fields(3).typeType()).isEqualTo(Type.FloatingPoint);
+        assertThat(((FloatingPoint) schema.fields(3).type(new FloatingPoint())).precision()).isEqualTo(Precision.DOUBLE);
+
+        Decoded first = messages.get(1);
+        assertThat(first.message().headerType()).isEqualTo(MessageHeader.RecordBatch);
+        RecordBatch records = first.recordBatch();
+        assertThat(records.length()).isEqualTo(11);
+        assertThat(records.nodesLength()).isEqualTo(4);
+        assertThat(records.nodes(0).nullCount()).isEqualTo(1);
+        assertThat(records.nodes(1).nullCount()).isEqualTo(2);
+        assertThat(records.nodes(2).nullCount()).isEqualTo(1);
+        assertThat(records.nodes(3).nullCount()).isEqualTo(3);
+        assertThat(records.buffersLength()).isEqualTo(9);
+        for (int i = 0; i < records.buffersLength(); i++) {
+            assertThat(records.buffers(i).offset() % 8).isZero();
+        }
+
+        assertThat(first.isValid(0, 3)).isFalse();
+        assertThat(first.isValid(0, 4)).isTrue();
+        assertThat(first.int32(1, 4)).isEqualTo(1004);
+        assertThat(first.isValid(2, 2)).isFalse();
+        assertThat(first.string(3, 4, 0)).isEqualTo("LOT-0");
+        assertThat(first.string(3, 4, 8)).isEqualTo("LOT-8-été");
+        assertThat(first.string(3, 4, 7)).isEmpty();
+        assertThat(first.isValid(2, 7)).isFalse();
+        assertThat(first.isValid(5, 10)).isFalse();
+        assertThat(first.int64(6, 9)).isEqualTo(START.plusMinutes(9).toInstant(ZoneOffset.UTC).toEpochMilli());
+        assertThat(first.isValid(7, 5)).isFalse();
+        assertThat(first.isValid(7, 6)).isTrue();
+        assertThat(Double.longBitsToDouble(first.int64(8, 6))).isEqualTo(1.5);
+
+        Decoded second = messages.get(2);
+        RecordBatch reused = second.recordBatch();
+        assertThat(reused.length()).isEqualTo(2);
+        assertThat(reused.nodes(0).nullCount()).isEqualTo(1);
+        assertThat(reused.nodes(1).nullCount()).isEqualTo(2);
+        assertThat(reused.nodes(3).nullCount()).isEqualTo(1);
+        assertThat(second.int32(1, 0)).isEqualTo(2000);
+        assertThat(second.isValid(0, 1)).isFalse();
+        assertThat(second.isValid(2, 0)).isFalse();
+        assertThat(second.isValid(7, 0)).isFalse();
+        assertThat(Double.longBitsToDouble(second.int64(8, 1))).isEqualTo(-1.5);
+    }
+
+    /** One message of the stream with its body. */
+    private record Decoded(Message message, ByteBuffer body) {
+
+        RecordBatch recordBatch() {
+            return (RecordBatch) message.header(new RecordBatch());
+        }
+
+        ByteBuffer buffer(int index) {
+            Buffer buffer = recordBatch().buffers(index);
+            return body.slice((int) buffer.offset(), (int) buffer.length()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        boolean isValid(int validityBuffer, int row) {
+            return (buffer(validityBuffer).get(row >> 3) & (1 << (row & 7))) != 0;
+        }
+
+        int int32(int dataBuffer, int row) {
+            return buffer(dataBuffer).getInt(row * 4);
+        }
+
+        long int64(int dataBuffer, int row) {
+            return buffer(dataBuffer).getLong(row * 8);
+        }
+
+        String string(int offsetsBuffer, int dataBuffer, int row) {
+            ByteBuffer offsets = buffer(offsetsBuffer);
+            int start = offsets.getInt(row * 4);
+            int end = offsets.getInt(row * 4 + 4);
+            byte[] bytes = new byte[end - start];
+            buffer(dataBuffer).get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Splits an IPC stream into messages up to the end-of-stream marker. */
+    private static List<Decoded> decode(byte[] bytes) {
+        ByteBuffer stream = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        List<Decoded> messages = new ArrayList<>();
+        while (true) {
+            assertThat(stream.getInt()).isEqualTo(0xFFFFFFFF);
+            int metadataLength = stream.getInt();
+            if (metadataLength == 0) {
+                assertThat(stream.hasRemaining()).isFalse();
+                return messages;
+            }
+            assertThat((8 + metadataLength) % 8).isZero();
+            Message message = Message.getRootAsMessage(stream.slice(stream.position(), metadataLength)
+                    .order(ByteOrder.LITTLE_ENDIAN));
+            stream.position(stream.position() + metadataLength);
+            int bodyLength = (int) message.bodyLength();
+            assertThat(bodyLength % 8).isZero();
+            messages.add(new Decoded(message, stream.slice(stream.position(), bodyLength)));
+            stream.position(stream.position() + bodyLength);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.secom.mes.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MeasurementRingBufferTest {
+
+    @Test
+    void ringRefusesBatchesBeyondItsCapacityUntilSlotsAreCommitted() throws InterruptedException {
+        MeasurementRingBuffer ring = new MeasurementRingBuffer(4);
+        ring.markDurable(ring.offer(batch(101, 1, 3)));
+        assertThat(ring.hasRoom(2)).isFalse();
+        assertThat(ring.offer(batch(102, 4, 2))).isEqualTo(-1);
+
+        MeasurementBatch claimed = new MeasurementBatch(4);
+        long start = ring.claim(4, 0, claimed);
+        assertThat(claimed.size()).isEqualTo(3);
+        // Claimed but not committed: the slots are still taken
+        assertThat(ring.hasRoom(2)).isFalse();
+
+        ring.complete(start);
+        assertThat(ring.committedSequence(0)).isEqualTo(3);
+        assertThat(ring.offer(batch(102, 4, 2))).isEqualTo(5);
+    }
+
+    private static MeasurementBatch batch(int lotId, long firstSequence, int count) {
+        MeasurementBatch batch = new MeasurementBatch(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(firstSequence + i, lotId, i + 1, i * 0.5, MeasurementBatch.NO_TIME);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,105 @@
+package com.secom.mes.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MeasurementWalTest {
+
+    private static final long SEGMENT_BYTES = 1 << 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoveryCutsOffTornTailAndKeepsWholeFrames() throws IOException {
+        try (MeasurementWal wal = MeasurementWal.open(directory, SEGMENT_BYTES, new MeasurementBatch(1))) {
+            wal.append(batch(101, 3));
+            long last = wal.append(batch(102, 2));
+            wal.awaitDurable(last);
+        }
+        Path segment = onlySegment();
+        long wholeFrames = Files.size(segment);
+        // A crash in the middle of writing the third frame
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(20).putInt(4).putLong(6).putInt(103).putInt(1).flip());
+        }
+
+        MeasurementBatch pending = new MeasurementBatch(1);
+        try (MeasurementWal wal = MeasurementWal.open(directory, SEGMENT_BYTES, pending)) {
+            assertThat(pending.size()).isEqualTo(5);
+            assertThat(pending.sequence(0)).isEqualTo(1);
+            assertThat(pending.sequence(4)).isEqualTo(5);
+            assertThat(pending.lotId(3)).isEqualTo(102);
+            assertThat(Files.size(segment)).isEqualTo(wholeFrames);
+            assertThat(wal.getLastSequence()).isEqualTo(5);
+
+            // Appending continues after the last whole frame
+            assertThat(wal.append(batch(104, 1))).isEqualTo(6);
+        }
+    }
+
+    @Test
+    void recoveryReplaysOnlyRecordsAboveTheCheckpoint() throws IOException {
+        try (MeasurementWal wal = MeasurementWal.open(directory, SEGMENT_BYTES, new MeasurementBatch(1))) {
+            wal.append(batch(101, 2));
+            wal.append(batch(102, 2));
+            long last = wal.append(batch(103, 2));
+            wal.awaitDurable(last);
+            wal.checkpoint(4);
+        }
+
+        MeasurementBatch pending = new MeasurementBatch(1);
+        try (MeasurementWal wal = MeasurementWal.open(directory, SEGMENT_BYTES, pending)) {
+            assertThat(wal.getCheckpoint()).isEqualTo(4);
+            assertThat(pending.size()).isEqualTo(2);
+            assertThat(pending.sequence(0)).isEqualTo(5);
+            assertThat(pending.lotId(0)).isEqualTo(103);
+        }
+    }
+
+    @Test
+    void checkpointDeletesSegmentsBelowIt() throws IOException {
+        long frameBytes = 4 + 8 + 2 * MeasurementWal.RECORD_BYTES + 4;
+        try (MeasurementWal wal = MeasurementWal.open(directory, frameBytes, new MeasurementBatch(1))) {
+            wal.append(batch(101, 2));
+            wal.append(batch(102, 2));
+            long last = wal.append(batch(103, 2));
+            wal.awaitDurable(last);
+            assertThat(segments()).hasSize(3);
+
+            wal.checkpoint(4);
+            assertThat(segments()).hasSize(1);
+        }
+    }
+
+    private static MeasurementBatch batch(int lotId, int count) {
+        MeasurementBatch batch = new MeasurementBatch(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(0, lotId, i + 1, i * 0.5, MeasurementBatch.NO_TIME);
+        }
+        return batch;
+    }
+
+    private Path onlySegment() throws IOException {
+        List<Path> segments = segments();
+        assertThat(segments).hasSize(1);
+        return segments.get(0);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".wal")).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.secom.mes.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.secom.mes.dto.EquipmentHealthDto;
+import com.secom.mes.entity.Equipment;
+import com.secom.mes.entity.FeatureMeta;
+import com.secom.mes.entity.Lot;
+import com.secom.mes.entity.LotMeasurement;
+import com.secom.mes.entity.Operator;
+import com.secom.mes.entity.ProductType;
+import com.secom.mes.entity.QualityResult;
+import com.secom.mes.entity.Shift;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the reflective bean serializers with {@link StreamingJsonModule} on responses shaped
+ * like the real ones: allocated bytes per response (thread allocation counter) and responses per
+ * second, serializing to a discarding stream.
+ *
+ * Run with {@code mvn -Pbenchmark test}. Entities are plain objects here; behind Hibernate the
+ * bean serializer additionally introspects each proxy class, which this does not measure. That
+ * both writers produce the same JSON is checked by {@link SerializationEquivalenceTest}, which
+ * shares these fixtures.
+ */
+public class SerializationBenchmark {
+
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        ObjectMapper reflective = mapper(false);
+        ObjectMapper streaming = mapper(true);
+
+        List<Lot> lots = lots(1567);
+        List<FeatureMeta> features = features(590);
+        List<Object[]> cases = List.of(
+                new Object[]{"measurements of one feature (1567)", measurementsOfFeature(lots, features.get(4))},
+                new Object[]{"measurements of one lot (590)", measurementsOfLot(lots.get(0), features)},
+                new Object[]{"quality results (100)", qualityResults(lots.subList(0, 100))},
+                new Object[]{"equipment health (10)", equipmentHealth(10)});
+
+        System.out.printf("%-36s %-10s %12s %16s %14s%n", "response", "writer", "bytes", "allocated/resp", "responses/s");
+        for (Object[] c : cases) {
+            for (int round = 0; round < 2; round++) {
+                boolean report = round == 1; // First round warms up the JIT for both writers
+                run((String) c[0], "reflective", reflective, c[1], report);
+                run((String) c[0], "streaming", streaming, c[1], report);
+            }
+        }
+    }
+
+    static ObjectMapper mapper(boolean streaming) {
+        JsonMapper.Builder builder = JsonMapper.builder()
+                .addModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        if (streaming) {
+            builder.addModule(new StreamingJsonModule())
+                    .enable(JsonGenerator.Feature.USE_FAST_DOUBLE_WRITER);
+        }
+        return builder.build();
+    }
+
+    private static void run(String name, String writer, ObjectMapper mapper, Object value, boolean report)
+            throws IOException {
+        DiscardingStream out = new DiscardingStream();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long started = System.nanoTime();
+        long responses = 0;
+        while (System.nanoTime() - started < MEASURE_NANOS) {
+            mapper.writeValue(out, value);
+            responses++;
+        }
+        long elapsed = System.nanoTime() - started;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        if (report) {
+            System.out.printf("%-36s %-10s %12d %14.1f KB %14.0f%n", name, writer, out.written / responses,
+                    allocated / 1024.0 / responses, responses * 1e9 / elapsed);
+        }
+    }
+
+    static List<Lot> lots(int count) {
+        ProductType productType = new ProductType(1, "LOGIC-A100", "Logic Chip A100 Series", "Logic",
+                new BigDecimal("95.00"), "v2.3", LocalDateTime.of(2024, 1, 1, 6, 45, 53), null);
+        Equipment equipment = new Equipment(1, "CVD-01", "CVD Machine Line 1", "CVD", "Clean Room A - Bay 1",
+                "Applied Materials", LocalDate.of(2023, 3, 15), "active",
+                LocalDateTime.of(2024, 1, 1, 6, 45, 53), LocalDateTime.of(2024, 1, 1, 6, 45, 53), null);
+        Operator operator = new Operator(1, "OPR-001", "James Wilson", "EMP001", "Fabrication",
+                LocalDate.of(2023, 3, 15), "james.wilson@secom.com", "active",
+                LocalDateTime.of(2024, 1, 1, 6, 45, 53), LocalDateTime.of(2024, 1, 1, 6, 45, 53), null, null);
+        Shift shift = new Shift(1, "DAY", "Day Shift", LocalTime.of(8, 0), LocalTime.of(16, 0),
+                "Primary day shift - 8:00 AM to 4:00 PM", LocalDateTime.of(2024, 1, 1, 6, 45, 53), null);
+        List<Lot> lots = new ArrayList<>(count);
+        LocalDateTime start = LocalDateTime.of(2008, 7, 19, 5, 55);
+        for (int i = 1; i <= count; i++) {
+            LocalDateTime lotStart = start.plusMinutes(97L * i);
+            lots.add(new Lot(i, String.format("LOT-200807-%04d", i), productType, equipment, operator, shift,
+                    lotStart, lotStart.plusHours(6), 25, "completed", lotStart.plusHours(7), lotStart.plusHours(7),
+                    null, null));
+        }
+        return lots;
+    }
+
+    static List<FeatureMeta> features(int count) {
+        List<FeatureMeta> features = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            features.add(new FeatureMeta(i, "F" + (i - 1), "CVD_Process_temperature_" + i, "CVD_Process",
+                    "Deposition", "temperature", "°C", 200.0, 800.0, "Deposition temperature measurement from Zone_A",
+                    i % 7 == 0, LocalDateTime.of(2024, 1, 1, 6, 45, 53), null, null));
+        }
+        return features;
+    }
+
+    static List<LotMeasurement> measurementsOfFeature(List<Lot> lots, FeatureMeta feature) {
+        Random random = new Random(42);
+        List<LotMeasurement> measurements = new ArrayList<>(lots.size());
+        for (Lot lot : lots) {
+            measurements.add(measurement(measurements.size() + 1L, lot, feature, random));
+        }
+        return measurements;
+    }
+
+    static List<LotMeasurement> measurementsOfLot(Lot lot, List<FeatureMeta> features) {
+        Random random = new Random(7);
+        List<LotMeasurement> measurements = new ArrayList<>(features.size());
+        for (FeatureMeta feature : features) {
+            measurements.add(measurement(measurements.size() + 1L, lot, feature, random));
+        }
+        return measurements;
+    }
+
+    private static LotMeasurement measurement(long id, Lot lot, FeatureMeta feature, Random random) {
+        double value = random.nextGaussian() * 100 + 450;
+        return new LotMeasurement(id, lot, feature, value, value < 200 || value > 800,
+                lot.getProductionEnd(), lot.getCreatedAt().plusSeconds(1));
+    }
+
+    static List<QualityResult> qualityResults(List<Lot> lots) {
+        List<QualityResult> results = new ArrayList<>(lots.size());
+        for (Lot lot : lots) {
+            QualityResult result = new QualityResult();
+            result.setResultId(lot.getLotId());
+            result.setLot(lot);
+            result.setClassification(lot.getLotId() % 15 == 0 ? 1 : -1);
+            result.setTestTimestampRaw("19/07/2008 11:55:00");
+            result.setTestDatetime(lot.getProductionEnd());
+            result.setPredictedRisk(new BigDecimal("0.1243"));
+            result.setRiskScore(new BigDecimal("12.43"));
+            result.setModelVersion("v1.0.0");
+            result.setQualityScore(new BigDecimal("41.94"));
+            result.setInspector(lot.getOperator());
+            result.setDisposition("released");
+            result.setCreatedAt(lot.getCreatedAt());
+            result.setUpdatedAt(lot.getUpdatedAt());
+            results.add(result);
+        }
+        return results;
+    }
+
+    static List<EquipmentHealthDto> equipmentHealth(int count) {
+        List<EquipmentHealthDto> rows = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            rows.add(new EquipmentHealthDto(i, "CVD-0" + i, "CVD Machine Line " + i, "CVD", "active",
+                    150L + i, 10L + i, new BigDecimal("6.67"), new BigDecimal("41.20"), 92L,
+                    new BigDecimal("15.00"), new BigDecimal("87.50")));
+        }
+        return rows;
+    }
+
+    /** Counts and drops the output; ignores close() so one instance serves every iteration. */
+    private static final class DiscardingStream extends OutputStream {
+        private long written;
+
+        @Override
+        public void write(int b) {
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written += len;
+        }
+    }
+}
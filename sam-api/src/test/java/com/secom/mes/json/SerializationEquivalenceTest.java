@@ -0,0 +1,165 @@
+package com.secom.mes.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.secom.mes.dto.EquipmentHealthDto;
+import com.secom.mes.dto.HighRiskLotDto;
+import com.secom.mes.dto.ProductionSummaryDto;
+import com.secom.mes.dto.QualityAnalyticsDto;
+import com.secom.mes.dto.ShiftPerformanceDto;
+import com.secom.mes.entity.Equipment;
+import com.secom.mes.entity.Lot;
+import com.secom.mes.entity.Operator;
+import com.secom.mes.entity.ProductType;
+import com.secom.mes.entity.QualityResult;
+import com.secom.mes.entity.Shift;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The streaming serializers must write exactly what the reflective bean serializer wrote, so that
+ * clients see no difference. Fixtures are shared with {@link SerializationBenchmark}.
+ */
+class SerializationEquivalenceTest {
+
+    private final ObjectMapper reflective = SerializationBenchmark.mapper(false);
+    private final ObjectMapper streaming = SerializationBenchmark.mapper(true);
+
+    private final List<Lot> lots = SerializationBenchmark.lots(20);
+
+    @Test
+    void lotMeasurements() throws Exception {
+        assertSameJson(SerializationBenchmark.measurementsOfLot(lots.get(0), SerializationBenchmark.features(30)));
+        assertSameJson(SerializationBenchmark.measurementsOfFeature(lots,
+                SerializationBenchmark.features(5).get(4)));
+    }
+
+    @Test
+    void qualityResults() throws Exception {
+        List<QualityResult> results = SerializationBenchmark.qualityResults(lots);
+        results.get(1).setReviewer(lots.get(1).getOperator());
+        results.get(1).setReviewedAt(LocalDateTime.of(2008, 7, 20, 9, 30));
+        results.get(2).setDefectType("particle");
+        results.get(2).setRiskFactors("{\"F59\": 2.4}");
+        results.get(3).setNotes("Line 2 \"hold\"\nre-inspect");
+
+        assertSameJson(results);
+    }
+
+    @Test
+    void qualityResultWithoutLotOrInspector() throws Exception {
+        QualityResult result = SerializationBenchmark.qualityResults(lots.subList(0, 1)).get(0);
+        result.setLot(null);
+        result.setInspector(null);
+
+        assertSameJson(result);
+    }
+
+    @Test
+    void proxiedLotIsWrittenLikeTheEntity() throws Exception {
+        // Hibernate proxies subclass the entity and answer the getters from the loaded target;
+        // their own fields stay unset
+        QualityResult plain = SerializationBenchmark.qualityResults(lots.subList(0, 1)).get(0);
+        QualityResult proxied = SerializationBenchmark.qualityResults(lots.subList(0, 1)).get(0);
+        proxied.setLot(new LotProxy(lots.get(0)));
+
+        assertThat(streaming.writeValueAsString(proxied)).isEqualTo(reflective.writeValueAsString(plain));
+    }
+
+    @Test
+    void analyticsDtos() throws Exception {
+        LocalDateTime first = LocalDateTime.of(2008, 7, 19, 11, 55);
+        assertSameJson(new ProductionSummaryDto(1567L, 10L, 20L, 1463L, 104L, new BigDecimal("6.64"),
+                new BigDecimal("41.94"), first, first.plusMonths(3)));
+        assertSameJson(new ProductionSummaryDto(0L, 0L, 0L, 0L, 0L, null, null, null, null));
+        assertSameJson(SerializationBenchmark.equipmentHealth(3));
+        assertSameJson(new EquipmentHealthDto(11, "CMP-01", "CMP Line 1", "CMP", "maintenance",
+                0L, 0L, null, null, 0L, null, null));
+        assertSameJson(new ShiftPerformanceDto(1, "DAY", "Day Shift", 530L, 495L, 35L, new BigDecimal("6.60"),
+                new BigDecimal("42.10"), 7L, 10L));
+        assertSameJson(new QualityAnalyticsDto("particle", 12L, new BigDecimal("11.54"), new BigDecimal("38.20"),
+                "Logic,Memory", "CVD,Etch"));
+        assertSameJson(new QualityAnalyticsDto(null, 3L, null, null, null, null));
+        assertSameJson(new HighRiskLotDto("LOT-200807-0001", "Logic Chip A100 Series", "CVD-01",
+                new BigDecimal("0.8812"), new BigDecimal("88.12"), first, 1));
+        assertSameJson(new HighRiskLotDto("LOT-200807-0002", null, null, null, null, null, null));
+    }
+
+    private void assertSameJson(Object value) throws Exception {
+        assertThat(streaming.writeValueAsString(value)).isEqualTo(reflective.writeValueAsString(value));
+    }
+
+    /** Stand-in for a Hibernate proxy of a lot. */
+    private static final class LotProxy extends Lot {
+
+        private final Lot target;
+
+        LotProxy(Lot target) {
+            this.target = target;
+        }
+
+        @Override
+        public Integer getLotId() {
+            return target.getLotId();
+        }
+
+        @Override
+        public String getLotNumber() {
+            return target.getLotNumber();
+        }
+
+        @Override
+        public ProductType getProductType() {
+            return target.getProductType();
+        }
+
+        @Override
+        public Equipment getEquipment() {
+            return target.getEquipment();
+        }
+
+        @Override
+        public Operator getOperator() {
+            return target.getOperator();
+        }
+
+        @Override
+        public Shift getShift() {
+            return target.getShift();
+        }
+
+        @Override
+        public LocalDateTime getProductionStart() {
+            return target.getProductionStart();
+        }
+
+        @Override
+        public LocalDateTime getProductionEnd() {
+            return target.getProductionEnd();
+        }
+
+        @Override
+        public Integer getWaferCount() {
+            return target.getWaferCount();
+        }
+
+        @Override
+        public String getStatus() {
+            return target.getStatus();
+        }
+
+        @Override
+        public LocalDateTime getCreatedAt() {
+            return target.getCreatedAt();
+        }
+
+        @Override
+        public LocalDateTime getUpdatedAt() {
+            return target.getUpdatedAt();
+        }
+    }
+}
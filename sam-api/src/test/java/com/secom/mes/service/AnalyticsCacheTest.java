@@ -0,0 +1,71 @@
+package com.secom.mes.service;
+
+import com.secom.mes.config.AnalyticsCacheProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnalyticsCacheTest {
+
+    private final AnalyticsCache cache = new AnalyticsCache(new AnalyticsCacheProperties());
+
+    @AfterEach
+    void shutdown() {
+        cache.shutdown();
+    }
+
+    @Test
+    void resultOfLoadOverlappingAnEvictionIsNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+
+        String first = cache.get("summary", "", () -> {
+            loads.incrementAndGet();
+            // A write commits while the query is still running
+            cache.evict("summary");
+            return "before";
+        });
+        String second = cache.get("summary", "", () -> {
+            loads.incrementAndGet();
+            return "after";
+        });
+
+        assertThat(first).isEqualTo("before");
+        assertThat(second).isEqualTo("after");
+        assertThat(loads).hasValue(2);
+        assertThat(cache.get("summary", "", () -> "unexpected")).isEqualTo("after");
+    }
+
+    @Test
+    void callersAfterAnEvictionDoNotJoinTheEarlierInFlightLoad() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> cache.get("summary", "", () -> {
+            started.countDown();
+            await(release);
+            return "before";
+        }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        cache.evict("summary");
+        String fresh = cache.get("summary", "", () -> "after");
+        release.countDown();
+
+        assertThat(fresh).isEqualTo("after");
+        assertThat(slow.get(5, TimeUnit.SECONDS)).isEqualTo("before");
+        assertThat(cache.get("summary", "", () -> "unexpected")).isEqualTo("after");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.secom.mes.service;
+
+import com.secom.mes.analytics.FeatureMatrix;
+import com.secom.mes.dto.FeatureDriftDto;
+import com.secom.mes.dto.MeasurementRecordDto;
+import com.secom.mes.entity.Equipment;
+import com.secom.mes.repository.EquipmentRepository;
+import com.secom.mes.repository.FeatureMetaRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DriftDetectionServiceTest {
+
+    private static final int FEATURE_ID = 7;
+
+    @Test
+    void replayedMeasurementsAreCountedOnce() {
+        FeatureMatrix matrix = new FeatureMatrix(new int[] {FEATURE_ID}, 32);
+        for (int lot = 1; lot <= 20; lot++) {
+            int row = matrix.addLot(lot, 1, -1, null, lot);
+            if (lot != 20) {
+                matrix.set(row, 0, lot % 3);
+            }
+        }
+        MeasurementMatrixService matrixService = mock(MeasurementMatrixService.class);
+        when(matrixService.getMatrix()).thenReturn(matrix);
+        Equipment equipment = new Equipment();
+        equipment.setEquipmentId(1);
+        equipment.setEquipmentType("etcher");
+        EquipmentRepository equipmentRepository = mock(EquipmentRepository.class);
+        when(equipmentRepository.findByEquipmentType("etcher")).thenReturn(List.of(equipment));
+        DriftDetectionService drift = new DriftDetectionService(matrixService, equipmentRepository,
+                mock(FeatureMetaRepository.class), 15, 3);
+        assertThat(samples(drift, equipment)).isEqualTo(19);
+
+        // Lot 19 again (replay) and lot 20, measured for the first time
+        MeasurementsIngestedEvent event = new MeasurementsIngestedEvent(List.of(
+                new MeasurementRecordDto(19, FEATURE_ID, 1.0, null),
+                new MeasurementRecordDto(20, FEATURE_ID, 2.0, null)));
+        matrix.set(matrix.rowOf(20), 0, 2.0);
+        drift.onMeasurementsIngested(event);
+        drift.onMeasurementsIngested(event);
+
+        assertThat(samples(drift, equipment)).isEqualTo(20);
+    }
+
+    private static int samples(DriftDetectionService drift, Equipment equipment) {
+        FeatureDriftDto result = drift.detectDrift(equipment, 0.0, 10).get(0);
+        return result.getRecentSamples() + result.getReferenceSamples();
+    }
+}
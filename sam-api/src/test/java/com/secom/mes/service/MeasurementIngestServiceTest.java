@@ -0,0 +1,198 @@
+package com.secom.mes.service;
+
+import com.secom.mes.config.IngestProperties;
+import com.secom.mes.config.ShardingProperties;
+import com.secom.mes.controller.MeasurementController;
+import com.secom.mes.dto.IngestAckDto;
+import com.secom.mes.dto.MeasurementRecordDto;
+import com.secom.mes.ingest.MeasurementBatch;
+import com.secom.mes.ingest.MeasurementWal;
+import com.secom.mes.shard.ShardRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class MeasurementIngestServiceTest {
+
+    private static final int FEATURE_ID = 7;
+
+    @TempDir
+    Path walDirectory;
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+    private final IngestProperties properties = new IngestProperties();
+    private MeasurementIngestService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        properties.setWalDirectory(walDirectory.toString());
+        properties.setFlushers(1);
+        properties.setLinger(Duration.ofMillis(10));
+        properties.setRetryBackoff(Duration.ofMillis(10));
+
+        runCallbacks(transactionTemplate);
+        ResultSet spec = mock(ResultSet.class);
+        when(spec.getInt(1)).thenReturn(FEATURE_ID);
+        when(spec.wasNull()).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.<RowCallbackHandler>getArgument(1).processRow(spec);
+            return null;
+        }).when(jdbcTemplate).query(contains("FROM feature_meta"), any(RowCallbackHandler.class));
+        when(jdbcTemplate.queryForList(contains("FROM lot"), eq(Integer.class), any(Object[].class)))
+                .thenAnswer(invocation -> List.of(1, 2, 3));
+
+        service = new MeasurementIngestService(new ShardRegistry(jdbcTemplate, transactionTemplate,
+                new ShardingProperties()), eventPublisher, mock(EntityChangeLog.class), properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    void replaySkipsRangesAlreadyInTheLedger() throws IOException {
+        // Sequences 1-2 were committed just before a crash that left the checkpoint at 0
+        try (MeasurementWal wal = MeasurementWal.open(walDirectory, properties.getSegmentBytes(), new MeasurementBatch(1))) {
+            wal.append(batch(1, 2));
+            long last = wal.append(batch(2, 3));
+            wal.awaitDurable(last);
+        }
+        when(jdbcTemplate.query(contains("FROM measurement_ingest_batch"), any(RowMapper.class), any(), any(), any()))
+                .thenReturn(List.of(new long[]{1, 2}));
+
+        service.start();
+
+        List<MeasurementRecordDto> inserted = awaitFlushedMeasurements();
+        assertThat(inserted).hasSize(3).allSatisfy(record -> assertThat(record.getLotId()).isEqualTo(2));
+        verify(jdbcTemplate, timeout(5000)).update(contains("INSERT INTO measurement_ingest_batch"),
+                any(), eq(1L), eq(5L), eq(3));
+        assertThat(service.getStatus().getFlushedTotal()).isEqualTo(3);
+    }
+
+    @Test
+    void rowsRefusedByTheDatabaseAreDroppedAndCounted() throws IOException {
+        AtomicInteger inserts = new AtomicInteger();
+        when(jdbcTemplate.update(any(PreparedStatementCreator.class))).thenAnswer(invocation -> {
+            // The four-row insert fails, then the third single-row insert
+            int call = inserts.incrementAndGet();
+            if (call == 1 || call == 4) {
+                throw new DataIntegrityViolationException("Out of range value for column 'measurement_value'");
+            }
+            return 1;
+        });
+        service.start();
+
+        service.ingest(List.of(record(1, 1.0), record(1, 2.0), record(2, 3.0), record(3, 4.0)));
+
+        List<MeasurementRecordDto> inserted = awaitFlushedMeasurements();
+        assertThat(inserted).extracting(MeasurementRecordDto::getMeasurementValue).containsExactly(1.0, 2.0, 4.0);
+        assertThat(inserts.get()).isEqualTo(5);
+        assertThat(service.getStatus().getRejectedTotal()).isEqualTo(1);
+        assertThat(service.getStatus().getFlushedTotal()).isEqualTo(3);
+    }
+
+    @Test
+    void measurementsOfRemoteLotsAreFlushedWithTheirLedgerOnTheirShard() throws IOException {
+        JdbcTemplate remoteJdbc = mock(JdbcTemplate.class);
+        TransactionTemplate remoteTransactions = mock(TransactionTemplate.class);
+        runCallbacks(remoteTransactions);
+        when(remoteJdbc.queryForList(contains("FROM lot"), eq(Integer.class), any(Object[].class)))
+                .thenAnswer(invocation -> List.of(100_000_001));
+        ShardRegistry.Shard home = new ShardRegistry.Shard("home", 0, jdbcTemplate, transactionTemplate, Set.of());
+        ShardRegistry.Shard remote = new ShardRegistry.Shard("s1", 1, remoteJdbc, remoteTransactions, Set.of("Memory"));
+        ShardRegistry shardRegistry = mock(ShardRegistry.class);
+        when(shardRegistry.home()).thenReturn(home);
+        when(shardRegistry.all()).thenReturn(List.of(home, remote));
+        when(shardRegistry.forLotId(anyLong())).thenAnswer(invocation ->
+                invocation.<Long>getArgument(0) >= 100_000_000 ? remote : home);
+        service.stop();
+        service = new MeasurementIngestService(shardRegistry, eventPublisher, mock(EntityChangeLog.class), properties);
+        service.start();
+
+        service.ingest(List.of(record(1, 1.0), record(100_000_001, 2.0), record(2, 3.0)));
+
+        verify(eventPublisher, timeout(5000).times(2)).publishEvent(any(MeasurementsIngestedEvent.class));
+        verify(jdbcTemplate).update(contains("INSERT INTO measurement_ingest_batch"), any(), eq(1L), eq(3L), eq(2));
+        verify(remoteJdbc).update(contains("INSERT INTO measurement_ingest_batch"), any(), eq(1L), eq(3L), eq(1));
+        verify(remoteJdbc).update(any(PreparedStatementCreator.class));
+        assertThat(service.getStatus().getFlushedTotal()).isEqualTo(3);
+        assertThat(service.getStatus().getRejectedTotal()).isZero();
+    }
+
+    @Test
+    void fullBufferIsRefusedWith503AndRetryAfter() throws IOException {
+        properties.setBufferCapacity(3);
+        properties.setFlushers(0);
+        service.start();
+        MeasurementController controller = new MeasurementController(null, eventPublisher, null, service,
+                properties, null, null, null);
+
+        ResponseEntity<IngestAckDto> accepted = controller.ingestMeasurements(List.of(record(1, 1.0), record(1, 2.0)));
+        assertThat(accepted.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThatThrownBy(() -> service.ingest(List.of(record(2, 3.0), record(2, 4.0))))
+                .isInstanceOf(RejectedExecutionException.class);
+
+        ResponseEntity<IngestAckDto> refused = controller.ingestMeasurements(List.of(record(2, 3.0), record(2, 4.0)));
+        assertThat(refused.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(refused.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        assertThat(service.getStatus().getRefusedRequests()).isEqualTo(2);
+        assertThat(service.getStatus().getBuffered()).isEqualTo(2);
+    }
+
+    private List<MeasurementRecordDto> awaitFlushedMeasurements() {
+        ArgumentCaptor<MeasurementsIngestedEvent> event = ArgumentCaptor.forClass(MeasurementsIngestedEvent.class);
+        verify(eventPublisher, timeout(5000)).publishEvent(event.capture());
+        return event.getValue().getMeasurements();
+    }
+
+    private static void runCallbacks(TransactionTemplate transactions) {
+        when(transactions.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+    }
+
+    private static MeasurementBatch batch(int lotId, int count) {
+        MeasurementBatch batch = new MeasurementBatch(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(0, lotId, FEATURE_ID, i, MeasurementBatch.NO_TIME);
+        }
+        return batch;
+    }
+
+    private static MeasurementRecordDto record(int lotId, double value) {
+        return new MeasurementRecordDto(lotId, FEATURE_ID, value, null);
+    }
+}
@@ -0,0 +1,85 @@
+package com.secom.mes.service;
+
+import com.secom.mes.config.ShardingProperties;
+import com.secom.mes.dto.QualityReviewOutcomeDto;
+import com.secom.mes.shard.ShardRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class QualityReviewServiceTest {
+
+    private static final int RESULT_ID = 17;
+    private static final int REVIEWER_ID = 3;
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final EntityChangeLog entityChangeLog = mock(EntityChangeLog.class);
+    private final QualityReviewService service;
+
+    QualityReviewServiceTest() {
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(jdbcTemplate.queryForObject(anyString(), eq(Integer.class), eq(REVIEWER_ID))).thenReturn(1);
+        service = new QualityReviewService(
+                new ShardRegistry(jdbcTemplate, transactionTemplate, new ShardingProperties()), entityChangeLog);
+    }
+
+    @Test
+    void transitionTableFollowsTheDispositionWorkflow() {
+        assertThat(QualityReviewService.sourcesOf("reviewed")).containsExactly("pending", "rework");
+        assertThat(QualityReviewService.sourcesOf("released")).containsExactly("reviewed");
+        assertThat(QualityReviewService.sourcesOf("rework")).containsExactly("reviewed");
+        assertThat(QualityReviewService.sourcesOf("scrap")).containsExactly("reviewed");
+        assertThat(QualityReviewService.sourcesOf("pending")).isEmpty();
+        assertThat(QualityReviewService.sourcesOf("shipped")).isEmpty();
+    }
+
+    @Test
+    void dispositionNoTransitionLeadsToIsRejected() {
+        assertThatThrownBy(() -> service.transition(RESULT_ID, "pending", REVIEWER_ID, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("pending");
+    }
+
+    @Test
+    void staleExpectedVersionIsAConflict() throws Exception {
+        ArgumentCaptor<PreparedStatementCreator> update = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        when(jdbcTemplate.update(update.capture())).thenReturn(0);
+        ResultSet row = mock(ResultSet.class);
+        when(row.getInt(1)).thenReturn(RESULT_ID);
+        when(row.getString(2)).thenReturn("reviewed");
+        when(row.getInt(3)).thenReturn(5);
+        doAnswer(invocation -> {
+            invocation.<RowCallbackHandler>getArgument(1).processRow(row);
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        QualityReviewOutcomeDto outcome = service.transition(RESULT_ID, "released", REVIEWER_ID, 4, null);
+
+        assertThat(((SqlProvider) update.getValue()).getSql())
+                .contains("disposition IN (", "version = ?");
+        assertThat(outcome.getOutcome()).isEqualTo("conflict");
+        assertThat(outcome.getVersion()).isEqualTo(5);
+        assertThat(outcome.getMessage()).isEqualTo("Version is 5, expected 4");
+        verify(entityChangeLog, never()).recordAll(any(), any());
+    }
+}
@@ -0,0 +1,163 @@
+#!/bin/bash
+
+# SECOM MES API Startup Benchmark
+# Starts the API locally (no Docker) and reports:
+#   - time to first request:  launch -> first successful GET
+#   - time to ready:          launch -> /actuator/health/readiness answers 200 (after warm-up)
+#   - time to steady state:   launch -> start of the first run of rounds whose median latency is
+#                             within STEADY_TOLERANCE of the steady-state median (last rounds)
+#
+# Usage:
+#   ./startup-benchmark.sh standard     # target/secom-mes-api-1.0.0.jar   (mvn package)
+#   ./startup-benchmark.sh fast-start   # target/fast-start/app/ with CDS + AOT (mvn -Pfast-start package)
+#
+# Needs a reachable database (SPRING_DATASOURCE_* as for the API). Tunables via environment:
+#   PORT (8090), ROUNDS (200), STEADY_WINDOW (10), STEADY_TOLERANCE (1.2), EXTRA_JAVA_OPTS, EXTRA_APP_ARGS
+
+set -e
+
+cd "$(dirname "$0")"
+
+MODE=${1:-standard}
+PORT=${PORT:-8090}
+ROUNDS=${ROUNDS:-200}
+STEADY_WINDOW=${STEADY_WINDOW:-10}
+STEADY_TOLERANCE=${STEADY_TOLERANCE:-1.2}
+BASE="http://localhost:${PORT}/api/v1"
+
+# Hot endpoints timed in every round
+ENDPOINTS=(
+    "/equipment"
+    "/lots?size=20"
+    "/quality/results?size=20"
+    "/features/search?q=pressure"
+    "/analytics/summary"
+    "/analytics/high-risk-lots?limit=20"
+)
+
+# Production-like logging: the default profile logs every request and SQL statement at DEBUG
+APP_ARGS=(
+    "--server.port=${PORT}"
+    "--spring.jpa.show-sql=false"
+    "--logging.level.org.springframework.web=INFO"
+    "--logging.level.org.springframework.web.servlet.DispatcherServlet=INFO"
+    "--logging.level.org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping=INFO"
+    "--logging.level.org.springframework.web.servlet.mvc.method.annotation.RequestResponseBodyMethodProcessor=INFO"
+    "--logging.level.org.springframework.boot.web=INFO"
+    "--logging.level.com.secom.mes=INFO"
+    "--logging.level.org.hibernate.SQL=INFO"
+    "--logging.level.org.hibernate.type.descriptor.sql.BasicBinder=INFO"
+    "--secom.change-log.polling-enabled=false"
+)
+
+case "$MODE" in
+    standard)
+        JAR=$(ls target/secom-mes-api-*.jar 2>/dev/null | head -1)
+        JAVA_CMD=(java ${EXTRA_JAVA_OPTS} -jar "$JAR")
+        ;;
+    fast-start)
+        JAR=target/fast-start/app/secom-mes-api.jar
+        JAVA_CMD=(java -XX:SharedArchiveFile=target/fast-start/app/secom-mes-api.jsa -Xlog:cds=off -Xlog:cds+dynamic=off
+                  -Dspring.aot.enabled=true ${EXTRA_JAVA_OPTS} -jar "$JAR")
+        ;;
+    *)
+        echo "Usage: $0 [standard|fast-start]"
+        exit 1
+        ;;
+esac
+
+if [ ! -f "$JAR" ]; then
+    echo "ERROR: $JAR not found. Build it first (mvn package, or mvn -Pfast-start package)."
+    exit 1
+fi
+
+now_ms() {
+    date +%s%3N
+}
+
+LOG=$(mktemp -t secom-startup-XXXX.log)
+echo "=========================================="
+echo "  SECOM MES API - Startup Benchmark ($MODE)"
+echo "=========================================="
+echo "Log: $LOG"
+echo
+
+START=$(now_ms)
+"${JAVA_CMD[@]}" "${APP_ARGS[@]}" ${EXTRA_APP_ARGS} > "$LOG" 2>&1 &
+PID=$!
+trap 'kill $PID 2>/dev/null || true' EXIT
+
+# Time to first request
+FIRST_REQUEST=""
+for i in $(seq 1 3000); do
+    if ! kill -0 $PID 2>/dev/null; then
+        echo "ERROR: API exited during startup, see $LOG"
+        exit 1
+    fi
+    if [ "$(curl -s -o /dev/null -w '%{http_code}' "$BASE/equipment")" = "200" ]; then
+        FIRST_REQUEST=$(( $(now_ms) - START ))
+        break
+    fi
+    sleep 0.05
+done
+if [ -z "$FIRST_REQUEST" ]; then
+    echo "ERROR: no successful request within timeout, see $LOG"
+    exit 1
+fi
+
+# Latency rounds start right away; readiness is checked between rounds
+URLS=()
+for endpoint in "${ENDPOINTS[@]}"; do
+    URLS+=("$BASE$endpoint")
+done
+
+READY=""
+ROUND_STARTS=()
+ROUND_LATENCIES=()
+for round in $(seq 1 "$ROUNDS"); do
+    ROUND_START=$(( $(now_ms) - START ))
+    # One curl per round reuses the connection; time_total is printed per URL
+    LATENCY=$(curl -s -o /dev/null -w '%{time_total}\n' "${URLS[@]}" | awk '{ total += $1 } END { printf "%.1f", total * 1000 }')
+    ROUND_STARTS+=("$ROUND_START")
+    ROUND_LATENCIES+=("$LATENCY")
+    if [ -z "$READY" ] && [ "$(curl -s -o /dev/null -w '%{http_code}' "$BASE/actuator/health/readiness")" = "200" ]; then
+        READY=$(( $(now_ms) - START ))
+    fi
+done
+
+RSS_KB=$(ps -o rss= -p $PID | tr -d ' ')
+
+# Steady state = median of the last quarter of rounds; time to steady state = first window of
+# STEADY_WINDOW rounds whose median is within the tolerance.
+paste <(printf '%s\n' "${ROUND_STARTS[@]}") <(printf '%s\n' "${ROUND_LATENCIES[@]}") | awk \
+    -v first="$FIRST_REQUEST" -v ready="${READY:-n/a}" -v window="$STEADY_WINDOW" \
+    -v tolerance="$STEADY_TOLERANCE" -v rss="$RSS_KB" -v endpoints="${#ENDPOINTS[@]}" '
+    function median(arr, from, to,    n, i, j, tmp, sorted) {
+        n = 0
+        for (i = from; i <= to; i++) sorted[++n] = arr[i]
+        for (i = 2; i <= n; i++) {
+            tmp = sorted[i]
+            for (j = i - 1; j >= 1 && sorted[j] > tmp; j--) sorted[j + 1] = sorted[j]
+            sorted[j + 1] = tmp
+        }
+        return (n % 2) ? sorted[(n + 1) / 2] : (sorted[n / 2] + sorted[n / 2 + 1]) / 2
+    }
+    { start[NR] = $1; latency[NR] = $2 }
+    END {
+        rounds = NR
+        tail_from = rounds - int(rounds / 4) + 1
+        steady = median(latency, tail_from, rounds)
+        steady_at = "not reached"
+        for (i = 1; i + window - 1 <= rounds; i++) {
+            if (median(latency, i, i + window - 1) <= steady * tolerance) {
+                steady_at = start[i] " ms (round " i ")"
+                break
+            }
+        }
+        printf "Time to first request:     %d ms\n", first
+        printf "Time to ready:             %s ms\n", ready
+        printf "Time to steady state:      %s\n", steady_at
+        printf "First round latency:       %.1f ms (%d endpoints)\n", latency[1], endpoints
+        printf "Steady-state round median: %.1f ms (%d endpoints)\n", steady, endpoints
+        printf "Resident memory:           %d MB\n", rss / 1024
+    }'